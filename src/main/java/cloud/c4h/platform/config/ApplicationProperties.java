@@ -12,4 +12,81 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 @ConfigurationProperties(prefix = "application", ignoreUnknownFields = false)
 public class ApplicationProperties {
 
+    private final Messaging messaging = new Messaging();
+
+    public Messaging getMessaging() {
+        return messaging;
+    }
+
+    public static class Messaging {
+
+        private final Retry retry = new Retry();
+
+        public Retry getRetry() {
+            return retry;
+        }
+    }
+
+    /**
+     * Redelivery of queued operinos and notifications whose processing failed, see
+     * {@link cloud.c4h.platform.service.MessageRetryService}
+     */
+    public static class Retry {
+
+        /**
+         * Deliveries of a message before it is dead-lettered, including the first one
+         */
+        private int maxAttempts = 5;
+
+        private long initialIntervalMillis = 5000;
+
+        private double multiplier = 3.0;
+
+        private long maxIntervalMillis = 600000;
+
+        /**
+         * Share of the interval a retry is randomly delayed by on top, so failed messages do not return all at once
+         */
+        private double jitter = 0.2;
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public long getInitialIntervalMillis() {
+            return initialIntervalMillis;
+        }
+
+        public void setInitialIntervalMillis(long initialIntervalMillis) {
+            this.initialIntervalMillis = initialIntervalMillis;
+        }
+
+        public double getMultiplier() {
+            return multiplier;
+        }
+
+        public void setMultiplier(double multiplier) {
+            this.multiplier = multiplier;
+        }
+
+        public long getMaxIntervalMillis() {
+            return maxIntervalMillis;
+        }
+
+        public void setMaxIntervalMillis(long maxIntervalMillis) {
+            this.maxIntervalMillis = maxIntervalMillis;
+        }
+
+        public double getJitter() {
+            return jitter;
+        }
+
+        public void setJitter(double jitter) {
+            this.jitter = jitter;
+        }
+    }
 }
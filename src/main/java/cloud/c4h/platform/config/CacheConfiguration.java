@@ -3,24 +3,30 @@ package cloud.c4h.platform.config;
 import io.github.jhipster.config.JHipsterConstants;
 import io.github.jhipster.config.JHipsterProperties;
 
+import cloud.c4h.platform.service.DomainAffinityService;
+import cloud.c4h.platform.service.util.TemplateRegistry;
 import com.hazelcast.config.Config;
+import com.hazelcast.config.ExecutorConfig;
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.Hazelcast;
 import com.hazelcast.config.MapConfig;
 import com.hazelcast.config.EvictionPolicy;
 import com.hazelcast.config.MaxSizeConfig;
+import com.hazelcast.spring.context.SpringManagedContext;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
 import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.*;
 import org.springframework.core.env.Environment;
 
 import javax.annotation.PreDestroy;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 @EnableCaching
@@ -49,11 +55,21 @@ public class CacheConfiguration {
         return cacheManager;
     }
 
+    /**
+     * Injects the beans of this node into tasks sent to it by other members, see
+     * {@link com.hazelcast.spring.context.SpringAware}
+     */
+    @Bean
+    public SpringManagedContext hazelcastManagedContext() {
+        return new SpringManagedContext();
+    }
+
     @Bean
     public HazelcastInstance hazelcastInstance(JHipsterProperties jHipsterProperties) {
         log.debug("Configuring Hazelcast");
         Config config = new Config();
         config.setInstanceName("c4hcloudplatform");
+        config.setManagedContext(hazelcastManagedContext());
         config.getNetworkConfig().setPort(5701);
         config.getNetworkConfig().setPortAutoIncrement(true);
 
@@ -67,9 +83,27 @@ public class CacheConfiguration {
         }
         config.getMapConfigs().put("default", initializeDefaultMapConfig());
         config.getMapConfigs().put("cloud.c4h.platform.domain.*", initializeDomainMapConfig(jHipsterProperties));
+        config.getMapConfigs().put(TemplateRegistry.MAP, initializeTemplateMapConfig());
+        config.addExecutorConfig(initializeLaneExecutorConfig(DomainAffinityService.LIGHT_LANE, DomainAffinityService.Lane.light()));
+        config.addExecutorConfig(initializeLaneExecutorConfig(DomainAffinityService.HEAVY_LANE, DomainAffinityService.Lane.heavy()));
         return Hazelcast.newHazelcastInstance(config);
     }
 
+    /**
+     * Bounds the executor running the work of a lane sent to the owners of its domains, so work beyond it is
+     * rejected and retried instead of queueing up on a member.
+     *
+     * @param lane     the name of the lane, whose settings are read from {@code domainAffinity.<lane>.*}
+     * @param defaults the settings of the lane not configured
+     */
+    private ExecutorConfig initializeLaneExecutorConfig(String lane, DomainAffinityService.Lane defaults) {
+        RelaxedPropertyResolver settings = new RelaxedPropertyResolver(env, "domainAffinity." + lane + ".");
+        ExecutorConfig executorConfig = new ExecutorConfig(DomainAffinityService.executorName(lane));
+        executorConfig.setPoolSize(settings.getProperty("poolSize", Integer.class, defaults.getPoolSize()));
+        executorConfig.setQueueCapacity(settings.getProperty("queueCapacity", Integer.class, defaults.getQueueCapacity()));
+        return executorConfig;
+    }
+
     private MapConfig initializeDefaultMapConfig() {
         MapConfig mapConfig = new MapConfig();
 
@@ -100,6 +134,19 @@ public class CacheConfiguration {
         return mapConfig;
     }
 
+    /**
+     * The template ids of the domains, which change behind the cache's back only if a domain is changed outside of
+     * this application; the least recently used domains are evicted beyond a bounded number per member
+     */
+    private MapConfig initializeTemplateMapConfig() {
+        MapConfig mapConfig = new MapConfig(TemplateRegistry.MAP);
+        mapConfig.setBackupCount(0);
+        mapConfig.setTimeToLiveSeconds((int) TimeUnit.DAYS.toSeconds(1));
+        mapConfig.setEvictionPolicy(EvictionPolicy.LRU);
+        mapConfig.setMaxSizeConfig(new MaxSizeConfig(10000, MaxSizeConfig.MaxSizePolicy.PER_NODE));
+        return mapConfig;
+    }
+
     private MapConfig initializeDomainMapConfig(JHipsterProperties jHipsterProperties) {
         MapConfig mapConfig = new MapConfig();
         mapConfig.setTimeToLiveSeconds(jHipsterProperties.getCache().getHazelcast().getTimeToLiveSeconds());
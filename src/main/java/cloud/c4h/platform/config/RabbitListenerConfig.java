@@ -1,17 +1,30 @@
 package cloud.c4h.platform.config;
 
+import cloud.c4h.platform.service.MessageRetryService;
+import cloud.c4h.platform.service.OperinoProvisioner;
+import cloud.c4h.platform.service.OperinoService;
+import cloud.c4h.platform.service.impl.OperinoProvisionerImpl;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.rabbit.annotation.EnableRabbit;
 import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.messaging.converter.MappingJackson2MessageConverter;
 import org.springframework.messaging.handler.annotation.support.DefaultMessageHandlerMethodFactory;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * A custom rabbit listener implementaton
  */
@@ -23,15 +36,67 @@ public class RabbitListenerConfig implements RabbitListenerConfigurer {
     @Autowired
     public ConnectionFactory connectionFactory;
 
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @Bean
     public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory() {
         SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
         factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(rabbitMessageConverter());
         factory.setConcurrentConsumers(3);
         factory.setMaxConcurrentConsumers(10);
         return factory;
     }
 
+    /**
+     * Consumes operinos without patients to provision
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory lightListenerContainerFactory() {
+        return laneContainerFactory("light", OperinoProvisionerImpl.Lane.light());
+    }
+
+    /**
+     * Consumes operinos with patients to provision
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory heavyListenerContainerFactory() {
+        return laneContainerFactory("heavy", OperinoProvisionerImpl.Lane.heavy());
+    }
+
+    /**
+     * @param lane     the name of the lane, whose settings are read from {@code provisioner.<lane>.*}
+     * @param defaults the settings of the lane not configured
+     */
+    private SimpleRabbitListenerContainerFactory laneContainerFactory(String lane, OperinoProvisionerImpl.Lane defaults) {
+        RelaxedPropertyResolver settings = new RelaxedPropertyResolver(environment, "provisioner." + lane + ".");
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(rabbitMessageConverter());
+        factory.setConcurrentConsumers(settings.getProperty("concurrentConsumers", Integer.class, defaults.getConcurrentConsumers()));
+        factory.setMaxConcurrentConsumers(settings.getProperty("maxConcurrentConsumers", Integer.class, defaults.getMaxConcurrentConsumers()));
+        factory.setPrefetchCount(settings.getProperty("prefetch", Integer.class, defaults.getPrefetch()));
+        return factory;
+    }
+
+    /**
+     * Queued messages are JSON envelopes of ids and the few fields their consumers need, see
+     * {@link cloud.c4h.platform.service.dto.OperinoMessageDTO}; the template sending them picks this up as well
+     */
+    @Bean
+    public Jackson2JsonMessageConverter rabbitMessageConverter() {
+        Jackson2JsonMessageConverter converter = new Jackson2JsonMessageConverter();
+        converter.setJsonObjectMapper(objectMapper);
+        return converter;
+    }
+
     @Bean
     public MappingJackson2MessageConverter jackson2Converter() {
         return new MappingJackson2MessageConverter();
@@ -51,11 +116,46 @@ public class RabbitListenerConfig implements RabbitListenerConfigurer {
 
     @Bean
     public Queue operinosQueue() {
-        return new Queue("operinos");
+        return new Queue(OperinoProvisioner.HEAVY_QUEUE);
+    }
+
+    @Bean
+    public Queue lightOperinosQueue() {
+        return new Queue(OperinoProvisioner.LIGHT_QUEUE);
+    }
+
+    @Bean
+    public Queue operinoChangesQueue() {
+        return new Queue(OperinoService.CHANGES_QUEUE);
+    }
+
+    @Bean
+    public Queue operinoTeardownQueue() {
+        return new Queue(OperinoService.TEARDOWN_QUEUE);
     }
 
     @Bean
     public Queue notificationsQueue() {
-        return new Queue("notifications");
+        return new Queue(OperinoService.NOTIFICATIONS_QUEUE);
+    }
+
+    /**
+     * The retry and dead-letter queues of every work queue, see {@link MessageRetryService}. A retry queue has no
+     * consumers, its messages expire back onto the work queue once their delay is over.
+     */
+    @Bean
+    public List<Queue> retryQueues() {
+        int maxAttempts = applicationProperties.getMessaging().getRetry().getMaxAttempts();
+        List<Queue> queues = new ArrayList<>();
+        for (String queue : MessageRetryService.WORK_QUEUES) {
+            for (int attempt = 1; attempt < maxAttempts; attempt++) {
+                Map<String, Object> arguments = new HashMap<>();
+                arguments.put("x-dead-letter-exchange", "");
+                arguments.put("x-dead-letter-routing-key", queue);
+                queues.add(new Queue(MessageRetryService.retryQueue(queue, attempt), true, false, false, arguments));
+            }
+            queues.add(new Queue(MessageRetryService.deadLetterQueue(queue)));
+        }
+        return queues;
     }
 }
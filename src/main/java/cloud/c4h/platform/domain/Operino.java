@@ -1,12 +1,15 @@
 package cloud.c4h.platform.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.springframework.data.elasticsearch.annotations.Document;
 
 import javax.persistence.*;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.io.Serializable;
+import java.time.ZonedDateTime;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
@@ -37,9 +40,23 @@ public class Operino implements Serializable {
     @Column(name = "provision")
     private Boolean provision = false;
 
+    /**
+     * The number of synthetic patients provisioned in addition to the fixture patients, for load testing
+     */
+    @Min(0)
+    @Column(name = "synthetic_patients")
+    private Integer syntheticPatients;
+
     @Column(name = "domain")
     private String domain = UUID.randomUUID().toString();
 
+    /**
+     * When the operino was deleted, its domain is torn down and the operino removed afterwards
+     */
+    @JsonIgnore
+    @Column(name = "deletion_requested")
+    private ZonedDateTime deletionRequested;
+
     @ManyToOne
     private User user;
 
@@ -127,6 +144,14 @@ public class Operino implements Serializable {
         this.domain = domain;
     }
 
+    public ZonedDateTime getDeletionRequested() {
+        return deletionRequested;
+    }
+
+    public void setDeletionRequested(ZonedDateTime deletionRequested) {
+        this.deletionRequested = deletionRequested;
+    }
+
     public Boolean getProvision() {
         return provision;
     }
@@ -135,6 +160,19 @@ public class Operino implements Serializable {
         this.provision = provision;
     }
 
+    public Integer getSyntheticPatients() {
+        return syntheticPatients;
+    }
+
+    public Operino syntheticPatients(Integer syntheticPatients) {
+        this.syntheticPatients = syntheticPatients;
+        return this;
+    }
+
+    public void setSyntheticPatients(Integer syntheticPatients) {
+        this.syntheticPatients = syntheticPatients;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -162,6 +200,7 @@ public class Operino implements Serializable {
             ", name='" + name + "'" +
             ", active='" + active + "'" +
             ", provision='" + provision + "'" +
+            ", syntheticPatients='" + syntheticPatients + "'" +
             '}';
     }
 }
@@ -0,0 +1,112 @@
+package cloud.c4h.platform.domain;
+
+import cloud.c4h.platform.domain.enumeration.PooledDomainStatus;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.io.Serializable;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+
+/**
+ * A CDR domain provisioned ahead of time and not yet assigned to an {@link Operino}.
+ */
+@Entity
+@Table(name = "pooled_domain")
+public class PooledDomain implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * The system id of the domain, which becomes the domain of the operino claiming it
+     */
+    @NotNull
+    @Column(name = "domain", nullable = false, unique = true)
+    private String domain;
+
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    private PooledDomainStatus status = PooledDomainStatus.PROVISIONING;
+
+    @Column(name = "created_date", nullable = false)
+    private ZonedDateTime createdDate = ZonedDateTime.now();
+
+    @Column(name = "ready_date")
+    private ZonedDateTime readyDate;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    public PooledDomainStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(PooledDomainStatus status) {
+        this.status = status;
+    }
+
+    public ZonedDateTime getCreatedDate() {
+        return createdDate;
+    }
+
+    public void setCreatedDate(ZonedDateTime createdDate) {
+        this.createdDate = createdDate;
+    }
+
+    public ZonedDateTime getReadyDate() {
+        return readyDate;
+    }
+
+    public void setReadyDate(ZonedDateTime readyDate) {
+        this.readyDate = readyDate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PooledDomain pooledDomain = (PooledDomain) o;
+        if (pooledDomain.id == null || id == null) {
+            return false;
+        }
+        return Objects.equals(id, pooledDomain.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id);
+    }
+
+    @Override
+    public String toString() {
+        return "PooledDomain{" +
+            "id=" + id +
+            ", domain='" + domain + "'" +
+            ", status='" + status + "'" +
+            ", createdDate='" + createdDate + "'" +
+            ", readyDate='" + readyDate + "'" +
+            '}';
+    }
+}
@@ -0,0 +1,126 @@
+package cloud.c4h.platform.domain;
+
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.io.Serializable;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+
+/**
+ * A completed provisioning step of an {@link Operino}, with the id the CDR returned for it.
+ */
+@Entity
+@Table(name = "provisioning_checkpoint")
+public class ProvisioningCheckpoint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @NotNull
+    @ManyToOne(fetch = FetchType.LAZY)
+    private Operino operino;
+
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    @Column(name = "step", nullable = false)
+    private ProvisioningStep step;
+
+    /**
+     * The patient (nhs number) the step was done for, null for the steps done once per operino
+     */
+    @Column(name = "subject")
+    private String subject;
+
+    /**
+     * The id returned by the CDR - party id, ehr id or the comma separated composition uids
+     */
+    @Lob
+    @Column(name = "reference")
+    private String reference;
+
+    @Column(name = "completed_date", nullable = false)
+    private ZonedDateTime completedDate = ZonedDateTime.now();
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Operino getOperino() {
+        return operino;
+    }
+
+    public void setOperino(Operino operino) {
+        this.operino = operino;
+    }
+
+    public ProvisioningStep getStep() {
+        return step;
+    }
+
+    public void setStep(ProvisioningStep step) {
+        this.step = step;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+
+    public String getReference() {
+        return reference;
+    }
+
+    public void setReference(String reference) {
+        this.reference = reference;
+    }
+
+    public ZonedDateTime getCompletedDate() {
+        return completedDate;
+    }
+
+    public void setCompletedDate(ZonedDateTime completedDate) {
+        this.completedDate = completedDate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ProvisioningCheckpoint checkpoint = (ProvisioningCheckpoint) o;
+        if (checkpoint.id == null || id == null) {
+            return false;
+        }
+        return Objects.equals(id, checkpoint.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id);
+    }
+
+    @Override
+    public String toString() {
+        return "ProvisioningCheckpoint{" +
+            "id=" + id +
+            ", step='" + step + "'" +
+            ", subject='" + subject + "'" +
+            ", completedDate='" + completedDate + "'" +
+            '}';
+    }
+}
@@ -0,0 +1,8 @@
+package cloud.c4h.platform.domain.enumeration;
+
+/**
+ * The states of a {@link cloud.c4h.platform.domain.PooledDomain}. A domain leaves the pool when it is claimed.
+ */
+public enum PooledDomainStatus {
+    PROVISIONING, READY
+}
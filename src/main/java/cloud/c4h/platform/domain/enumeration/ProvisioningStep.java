@@ -0,0 +1,13 @@
+package cloud.c4h.platform.domain.enumeration;
+
+/**
+ * The steps of provisioning an {@link cloud.c4h.platform.domain.Operino}, in the order they are done.
+ * {@link #PARTY}, {@link #EHR} and {@link #COMPOSITIONS} are done once per patient, and {@link #PATIENTS} once all
+ * patients were provisioned without failures. {@link #COMPOSITION} is recorded for every single composition of a
+ * patient as it is committed, so a patient resumed before {@link #COMPOSITIONS} only commits the missing ones.
+ * {@link #OBSERVATIONS} loads the vital signs time series of the patients, recording an {@link #OBSERVATION} for
+ * every committed batch of a subject, so a resumed load only commits the rows not committed before.
+ */
+public enum ProvisioningStep {
+    DOMAIN, USER, TEMPLATES, PARTY, EHR, COMPOSITION, COMPOSITIONS, PATIENTS, OBSERVATION, OBSERVATIONS, NOTIFIED
+}
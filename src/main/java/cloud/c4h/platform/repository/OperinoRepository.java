@@ -7,20 +7,32 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.*;
 import org.springframework.data.repository.query.Param;
 
+import java.time.ZonedDateTime;
 import java.util.List;
 
 /**
  * Spring Data JPA repository for the Operino entity.
+ * <p>
+ * Operinos whose deletion was requested are left out of all but the plain JpaRepository lookups.
  */
 @SuppressWarnings("unused")
 public interface OperinoRepository extends JpaRepository<Operino,Long> {
 
-    @Query("select operino from Operino operino where operino.user.login = ?#{principal.username}")
+    @Query("select operino from Operino operino where operino.user.login = ?#{principal.username} and operino.deletionRequested is null")
     List<Operino> findByUserIsCurrentUser();
 
-    @Query("select operino from Operino operino where operino.user.login = :username")
+    @Query("select operino from Operino operino where operino.user.login = :username and operino.deletionRequested is null")
     Page<Operino> findByUserIsCurrentUser(@Param("username") String username, Pageable pageable);
 
-    @Query("select operino from Operino operino where operino.user.login = :username and operino.id = :id")
+    @Query("select operino from Operino operino where operino.user.login = :username and operino.id = :id and operino.deletionRequested is null")
     Operino findOneByUserAndId(@Param("username") String username, @Param("id") Long operinoId);
+
+    Page<Operino> findByDeletionRequestedIsNull(Pageable pageable);
+
+    Operino findOneByIdAndDeletionRequestedIsNull(Long id);
+
+    List<Operino> findByDeletionRequestedBefore(ZonedDateTime deletionRequested);
+
+    @Query("select operino.domain from Operino operino")
+    List<String> findAllDomains();
 }
@@ -0,0 +1,38 @@
+package cloud.c4h.platform.repository;
+
+import cloud.c4h.platform.domain.PooledDomain;
+import cloud.c4h.platform.domain.enumeration.PooledDomainStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Spring Data JPA repository for the PooledDomain entity.
+ */
+public interface PooledDomainRepository extends JpaRepository<PooledDomain, Long> {
+
+    Optional<PooledDomain> findOneByDomain(String domain);
+
+    long countByStatus(PooledDomainStatus status);
+
+    List<PooledDomain> findFirst5ByStatusOrderByReadyDateAsc(PooledDomainStatus status);
+
+    List<PooledDomain> findByStatusAndCreatedDateBefore(PooledDomainStatus status, ZonedDateTime createdDate);
+
+    @Query("select pooled.domain from PooledDomain pooled")
+    List<String> findAllDomains();
+
+    /**
+     * Takes a ready domain out of the pool. Only one of several concurrent claims of the same domain deletes it.
+     *
+     * @return 1 if the domain was claimed, 0 if another claim got it first
+     */
+    @Modifying
+    @Query("delete from PooledDomain pooled where pooled.id = :id and pooled.status = cloud.c4h.platform.domain.enumeration.PooledDomainStatus.READY")
+    int claim(@Param("id") Long id);
+}
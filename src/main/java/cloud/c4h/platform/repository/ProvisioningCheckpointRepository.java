@@ -0,0 +1,34 @@
+package cloud.c4h.platform.repository;
+
+import cloud.c4h.platform.domain.ProvisioningCheckpoint;
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Spring Data JPA repository for the ProvisioningCheckpoint entity.
+ */
+public interface ProvisioningCheckpointRepository extends JpaRepository<ProvisioningCheckpoint, Long> {
+
+    List<ProvisioningCheckpoint> findByOperinoId(Long operinoId);
+
+    List<ProvisioningCheckpoint> findByOperinoIdAndSubjectIsNull(Long operinoId);
+
+    List<ProvisioningCheckpoint> findByOperinoIdAndSubjectIn(Long operinoId, Collection<String> subjects);
+
+    @Modifying
+    @Query("delete from ProvisioningCheckpoint checkpoint where checkpoint.operino.id = :operinoId and checkpoint.step = :step and checkpoint.subject = :subject")
+    void deleteByOperinoIdAndStepAndSubject(@Param("operinoId") Long operinoId, @Param("step") ProvisioningStep step, @Param("subject") String subject);
+
+    @Query("select checkpoint.operino.domain from ProvisioningCheckpoint checkpoint where checkpoint.step = :step and checkpoint.operino.deletionRequested is null")
+    List<String> findDomainsOfOperinosWithStep(@Param("step") ProvisioningStep step);
+
+    @Modifying
+    @Query("delete from ProvisioningCheckpoint checkpoint where checkpoint.operino.id = :operinoId")
+    void deleteByOperinoId(@Param("operinoId") Long operinoId);
+}
@@ -0,0 +1,208 @@
+package cloud.c4h.platform.service;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Service;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Service class caching the ids the Postman environment and workspace of a domain are filled in with, so the
+ * downloads and provisioning emails of a domain do not query the CDR every time.
+ * <p>
+ * The ids are held in a Hazelcast map shared by the cluster, for {@code ttlSeconds} at most, and evicted when the
+ * domain is provisioned again, torn down or discarded. Concurrent misses of a domain on a node wait for one lookup,
+ * and the lookups of the nodes take turns under the lock of the domain's entry, so a cold domain is looked up once
+ * across the cluster. Lookups that found nothing, e.g. before the patients were provisioned, are not cached.
+ */
+@Service
+@ConfigurationProperties(prefix = "cdrLookup", ignoreUnknownFields = false)
+public class CdrLookupCache {
+
+    static final String MAP = "cdr-lookups";
+
+    private final Logger log = LoggerFactory.getLogger(CdrLookupCache.class);
+
+    private final HazelcastInstance hazelcastInstance;
+    private final ConcurrentMap<String, CompletableFuture<Lookups>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * How long the ids of a domain are cached
+     */
+    private long ttlSeconds = 3600;
+    /**
+     * How long a lookup waits for the lookup of another node before looking up itself
+     */
+    private long lockWaitMillis = 10000;
+
+    public CdrLookupCache(HazelcastInstance hazelcastInstance) {
+        this.hazelcastInstance = hazelcastInstance;
+    }
+
+    /**
+     * @param domain the domain the ids are of
+     * @param lookup queries the CDR for the ids, called at most once at a time per node
+     * @return the cached ids of the domain, or the ones just looked up
+     */
+    public Lookups get(String domain, Supplier<Lookups> lookup) {
+        Lookups cached = map().get(domain);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        CompletableFuture<Lookups> result = new CompletableFuture<>();
+        CompletableFuture<Lookups> inFlight = loading.putIfAbsent(domain, result);
+        if (inFlight != null) {
+            hits.incrementAndGet();
+            return join(inFlight);
+        }
+        try {
+            result.complete(load(domain, lookup));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        } finally {
+            loading.remove(domain, result);
+        }
+        return join(result);
+    }
+
+    private Lookups load(String domain, Supplier<Lookups> lookup) {
+        IMap<String, Lookups> map = map();
+        boolean locked = false;
+        try {
+            locked = map.tryLock(domain, lockWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            // another node may have looked the domain up while this one waited
+            Lookups cached = map.get(domain);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+            misses.incrementAndGet();
+            Lookups lookups = lookup.get();
+            if (lookups.isComplete()) {
+                map.set(domain, lookups, ttlSeconds, TimeUnit.SECONDS);
+            } else {
+                log.debug("Not caching incomplete lookups of domain {}: {}", domain, lookups);
+            }
+            return lookups;
+        } finally {
+            if (locked) {
+                map.unlock(domain);
+            }
+        }
+    }
+
+    /**
+     * Forgets the ids of a domain, e.g. because it is provisioned again or torn down
+     */
+    public void evict(String domain) {
+        map().delete(domain);
+    }
+
+    private IMap<String, Lookups> map() {
+        return hazelcastInstance.getMap(MAP);
+    }
+
+    private static Lookups join(CompletableFuture<Lookups> lookups) {
+        try {
+            return lookups.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public long getLockWaitMillis() {
+        return lockWaitMillis;
+    }
+
+    public void setLockWaitMillis(long lockWaitMillis) {
+        this.lockWaitMillis = lockWaitMillis;
+    }
+
+    /**
+     * The ids of the dummy patient of a domain and its sample composition
+     */
+    public static final class Lookups implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * What the CDR client answers when it finds nothing
+         */
+        static final String NOT_FOUND = "n/a";
+
+        private final String ehrId;
+        private final String partyId;
+        private final String compositionId;
+
+        public Lookups(String ehrId, String partyId, String compositionId) {
+            this.ehrId = ehrId;
+            this.partyId = partyId;
+            this.compositionId = compositionId;
+        }
+
+        public String getEhrId() {
+            return ehrId;
+        }
+
+        public String getPartyId() {
+            return partyId;
+        }
+
+        public String getCompositionId() {
+            return compositionId;
+        }
+
+        boolean isComplete() {
+            return isFound(ehrId) && isFound(partyId) && isFound(compositionId);
+        }
+
+        private static boolean isFound(String id) {
+            return id != null && !NOT_FOUND.equals(id);
+        }
+
+        @Override
+        public String toString() {
+            return "Lookups{" +
+                "ehrId='" + ehrId + "'" +
+                ", partyId='" + partyId + "'" +
+                ", compositionId='" + compositionId + "'" +
+                '}';
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package cloud.c4h.platform.service;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.ILock;
+import com.hazelcast.core.MembershipAdapter;
+import com.hazelcast.core.MembershipEvent;
+import com.hazelcast.core.Member;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Service;
+
+import java.net.URISyntaxException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Service class for sharding the provisioning of domains across the Hazelcast cluster.
+ * <p>
+ * A domain is owned by the member owning its Hazelcast partition, so the domains are spread over the members by
+ * consistent hashing and move with their partitions when members join or leave. Work for a domain is run on its
+ * owner, and under a cluster-wide lock of the domain, so two messages for the same domain never write to the CDR
+ * at the same time, even while partitions migrate. Locks of a member that leaves are released by the cluster.
+ * <p>
+ * Work sent to an owner runs on the bounded executor of its lane, see {@link #executorName}, and is waited for at
+ * most {@code waitMillis} of the lane. Work the owner has no room for, or does not finish in time, fails with an
+ * exception the caller hands back to its retry path.
+ */
+@Service
+@ConfigurationProperties(prefix = "domainAffinity", ignoreUnknownFields = false)
+public class DomainAffinityService implements InitializingBean {
+
+    public static final String LIGHT_LANE = "light";
+    public static final String HEAVY_LANE = "heavy";
+    private static final String EXECUTOR = "provisioning";
+    private static final String LOCK_PREFIX = "provisioning-domain:";
+
+    private final Logger log = LoggerFactory.getLogger(DomainAffinityService.class);
+
+    private final HazelcastInstance hazelcastInstance;
+
+    /**
+     * Whether work is run on the owner of its domain, instead of the node that received it
+     */
+    private boolean routeToOwner = true;
+    /**
+     * How long work waits for the lock of its domain before giving up
+     */
+    private long lockWaitMillis = 5000;
+    private Lane light = Lane.light();
+    private Lane heavy = Lane.heavy();
+
+    public DomainAffinityService(HazelcastInstance hazelcastInstance) {
+        this.hazelcastInstance = hazelcastInstance;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        hazelcastInstance.getCluster().addMembershipListener(new MembershipAdapter() {
+            @Override
+            public void memberAdded(MembershipEvent event) {
+                log.info("Member {} joined, rebalancing domains over {} members", event.getMember(), event.getMembers().size());
+            }
+
+            @Override
+            public void memberRemoved(MembershipEvent event) {
+                log.info("Member {} left, rebalancing domains over {} members", event.getMember(), event.getMembers().size());
+            }
+        });
+    }
+
+    /**
+     * @return whether this node owns the domain, or should work on it anyway
+     */
+    public boolean isLocal(String domain) {
+        if (!routeToOwner) {
+            return true;
+        }
+        Member owner = hazelcastInstance.getPartitionService().getPartition(domain).getOwner();
+        return owner == null || owner.localMember();
+    }
+
+    /**
+     * @return the name of the Hazelcast executor running the work of a lane on the owners of its domains
+     */
+    public static String executorName(String lane) {
+        return EXECUTOR + "-" + lane;
+    }
+
+    /**
+     * Runs work for a domain on its owner, waiting for it to finish.
+     *
+     * @param lane   the lane of the work, {@link #LIGHT_LANE} or {@link #HEAVY_LANE}
+     * @param domain the domain the work is for
+     * @param task   the work, serializable to be sent to another member
+     * @return the result of the work
+     * @throws URISyntaxException         if the work failed with it
+     * @throws RejectedExecutionException if the owner has no room for the work
+     * @throws IllegalStateException      if the work did not finish within {@code waitMillis} of the lane
+     */
+    public <T> T callOnOwner(String lane, String domain, Callable<T> task) throws URISyntaxException {
+        try {
+            if (isLocal(domain)) {
+                return task.call();
+            }
+            log.debug("Sending {} work for domain {} to its owner", lane, domain);
+            long waitMillis = getLane(lane).getWaitMillis();
+            Future<T> result = hazelcastInstance.getExecutorService(executorName(lane)).submitToKeyOwner(task, domain);
+            try {
+                return result.get(waitMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // still running on the owner under the lock of the domain, a retry resumes after it
+                throw new IllegalStateException("Work for domain " + domain + " did not finish on its owner within "
+                    + waitMillis + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for work on domain " + domain, e);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (URISyntaxException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable cause) throws URISyntaxException {
+        if (cause instanceof URISyntaxException) {
+            throw (URISyntaxException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    /**
+     * Takes the cluster-wide lock of a domain for the current thread, waiting at most {@code lockWaitMillis}.
+     *
+     * @return whether the lock was taken, in which case it must be released with {@link #unlock(String)}
+     */
+    public boolean tryLock(String domain) {
+        try {
+            return lock(domain).tryLock(lockWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public void unlock(String domain) {
+        lock(domain).unlock();
+    }
+
+    private ILock lock(String domain) {
+        return hazelcastInstance.getLock(LOCK_PREFIX + domain);
+    }
+
+    public boolean isRouteToOwner() {
+        return routeToOwner;
+    }
+
+    public void setRouteToOwner(boolean routeToOwner) {
+        this.routeToOwner = routeToOwner;
+    }
+
+    public long getLockWaitMillis() {
+        return lockWaitMillis;
+    }
+
+    public void setLockWaitMillis(long lockWaitMillis) {
+        this.lockWaitMillis = lockWaitMillis;
+    }
+
+    public Lane getLight() {
+        return light;
+    }
+
+    public Lane getHeavy() {
+        return heavy;
+    }
+
+    private Lane getLane(String lane) {
+        return HEAVY_LANE.equals(lane) ? heavy : light;
+    }
+
+    /**
+     * Settings of the executor running the work of a lane sent to the owners of its domains, bound from
+     * {@code domainAffinity.<lane>.*}. The pool and queue are read when Hazelcast is configured.
+     */
+    public static class Lane {
+        /**
+         * Threads running the lane's work on each member
+         */
+        private int poolSize;
+        /**
+         * Work waiting for a thread on each member, further work is rejected
+         */
+        private int queueCapacity;
+        /**
+         * How long the sender waits for the work before handing it back to be retried
+         */
+        private long waitMillis;
+
+        private Lane(int poolSize, int queueCapacity, long waitMillis) {
+            this.poolSize = poolSize;
+            this.queueCapacity = queueCapacity;
+            this.waitMillis = waitMillis;
+        }
+
+        /**
+         * @return the default settings of the light lane, whose work takes a few CDR calls
+         */
+        public static Lane light() {
+            return new Lane(4, 16, TimeUnit.MINUTES.toMillis(1));
+        }
+
+        /**
+         * @return the default settings of the heavy lane, whose work provisions patients for minutes
+         */
+        public static Lane heavy() {
+            return new Lane(3, 6, TimeUnit.MINUTES.toMillis(30));
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public long getWaitMillis() {
+            return waitMillis;
+        }
+
+        public void setWaitMillis(long waitMillis) {
+            this.waitMillis = waitMillis;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package cloud.c4h.platform.service;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.ILock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the warm pool of {@link DomainPoolService} at its target size. Domains are provisioned on workers of their
+ * own, so a refill never holds up the scheduler or the operinos being provisioned from the queue for long.
+ * <p>
+ * Only one node at a time counts and tops up the pool, under a cluster-wide lock, as nodes refilling at the same
+ * time would each reserve the domains missing and overshoot the target size.
+ */
+@Service
+public class DomainPoolRefiller implements DisposableBean {
+
+    static final String REFILL_LOCK = "domain-pool-refill";
+
+    private final Logger log = LoggerFactory.getLogger(DomainPoolRefiller.class);
+
+    private final DomainPoolService domainPoolService;
+    private final OperinoProvisioner operinoProvisioner;
+    private final HazelcastInstance hazelcastInstance;
+    private final ExecutorService executor;
+
+    public DomainPoolRefiller(DomainPoolService domainPoolService, OperinoProvisioner operinoProvisioner,
+                              HazelcastInstance hazelcastInstance) {
+        this.domainPoolService = domainPoolService;
+        this.operinoProvisioner = operinoProvisioner;
+        this.hazelcastInstance = hazelcastInstance;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, domainPoolService.getRefillConcurrency()), runnable -> {
+            Thread thread = new Thread(runnable, "domain-pool-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Discards domains stuck provisioning and starts provisioning the domains missing from the pool.
+     */
+    @Scheduled(fixedDelayString = "${domainPool.refillIntervalMillis:60000}")
+    public void refill() {
+        if (domainPoolService.getTargetSize() <= 0) {
+            return;
+        }
+        for (String domain : domainPoolService.findExpired()) {
+            log.warn("Discarding pooled domain {}, provisioning timed out", domain);
+            domainPoolService.discard(domain);
+        }
+        for (String domain : reserve()) {
+            executor.execute(() -> provision(domain));
+        }
+    }
+
+    /**
+     * Reserves the missing domains unless another node is refilling the pool right now, in which case that node
+     * tops it up. The lock is held until the reservations are committed, so the next node counts them.
+     */
+    private List<String> reserve() {
+        ILock lock = hazelcastInstance.getLock(REFILL_LOCK);
+        if (!lock.tryLock()) {
+            log.debug("Domain pool is being refilled by another node");
+            return Collections.emptyList();
+        }
+        try {
+            return domainPoolService.reserve();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void provision(String domain) {
+        try {
+            operinoProvisioner.provisionPooledDomain(domain);
+            domainPoolService.ready(domain);
+        } catch (URISyntaxException | RuntimeException e) {
+            log.warn("Could not provision pooled domain {}", domain, e);
+            domainPoolService.discard(domain);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
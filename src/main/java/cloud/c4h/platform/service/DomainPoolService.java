@@ -0,0 +1,209 @@
+package cloud.c4h.platform.service;
+
+import cloud.c4h.platform.domain.Operino;
+import cloud.c4h.platform.domain.PooledDomain;
+import cloud.c4h.platform.domain.enumeration.PooledDomainStatus;
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+import cloud.c4h.platform.repository.PooledDomainRepository;
+import cloud.c4h.platform.service.util.TemplateRegistry;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.client.RestClientException;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Service class for the warm pool of domains provisioned ahead of time, so a new operino gets a domain with its
+ * templates and patients in place instead of waiting for them.
+ * <p>
+ * A new operino claims the oldest ready domain in the transaction saving it, and the steps done on the domain are
+ * recorded as its checkpoints, so the provisioner only has to notify the owner. The pool is topped up to
+ * {@code domainPool.targetSize} in the background by the {@link DomainPoolRefiller}.
+ */
+@Service
+@Transactional
+@ConfigurationProperties(prefix = "domainPool", ignoreUnknownFields = false)
+public class DomainPoolService {
+
+    /**
+     * The steps done on a pooled domain, in the order they are done
+     */
+    static final List<ProvisioningStep> POOLED_STEPS = Collections.unmodifiableList(Arrays.asList(
+        ProvisioningStep.DOMAIN, ProvisioningStep.USER, ProvisioningStep.TEMPLATES, ProvisioningStep.PATIENTS,
+        ProvisioningStep.OBSERVATIONS));
+
+    private final Logger log = LoggerFactory.getLogger(DomainPoolService.class);
+
+    private final PooledDomainRepository pooledDomainRepository;
+    private final ProvisioningCheckpointService provisioningCheckpointService;
+    private final ThinkEhrRestClient thinkEhrRestClient;
+    private final TemplateRegistry templateRegistry;
+    private final CdrLookupCache cdrLookupCache;
+
+    /**
+     * Number of ready domains to keep, 0 disables the pool
+     */
+    private int targetSize = 0;
+    /**
+     * Number of domains provisioned for the pool at once
+     */
+    private int refillConcurrency = 1;
+    /**
+     * Delay between two checks of the pool size
+     */
+    private long refillIntervalMillis = 60000;
+    /**
+     * Domains provisioning for longer than this are given up, e.g. after the node provisioning them went down
+     */
+    private long provisioningTimeoutMinutes = 120;
+
+    public DomainPoolService(PooledDomainRepository pooledDomainRepository,
+                             ProvisioningCheckpointService provisioningCheckpointService,
+                             ThinkEhrRestClient thinkEhrRestClient,
+                             TemplateRegistry templateRegistry,
+                             CdrLookupCache cdrLookupCache) {
+        this.pooledDomainRepository = pooledDomainRepository;
+        this.provisioningCheckpointService = provisioningCheckpointService;
+        this.thinkEhrRestClient = thinkEhrRestClient;
+        this.templateRegistry = templateRegistry;
+        this.cdrLookupCache = cdrLookupCache;
+    }
+
+    /**
+     * Claims a ready domain for a new operino and makes it the operino's domain. Only new operinos asking for the
+     * standard patients can use a pooled domain.
+     *
+     * @param operino the operino about to be saved
+     * @return whether a domain was claimed, false if the pool is empty or the operino cannot use it
+     */
+    public boolean claim(Operino operino) {
+        if (operino.getId() != null || !Boolean.TRUE.equals(operino.getProvision())
+            || (operino.getSyntheticPatients() != null && operino.getSyntheticPatients() > 0)) {
+            return false;
+        }
+        // a candidate another node claimed concurrently is skipped
+        for (PooledDomain candidate : pooledDomainRepository.findFirst5ByStatusOrderByReadyDateAsc(PooledDomainStatus.READY)) {
+            if (pooledDomainRepository.claim(candidate.getId()) == 1) {
+                log.info("Claimed pooled domain {} for operino {}", candidate.getDomain(), operino.getName());
+                operino.setDomain(candidate.getDomain());
+                return true;
+            }
+        }
+        log.debug("No pooled domain ready for operino {}", operino.getName());
+        return false;
+    }
+
+    /**
+     * Hands a claimed domain over to the saved operino: the steps done on the domain are recorded as done for the
+     * operino. The domain and its user are renamed after the operino and its owner once the operino is committed,
+     * see {@link cloud.c4h.platform.service.dto.OperinoChangeDTO#adopted}.
+     *
+     * @param operino the saved operino whose domain was claimed
+     */
+    public void adopt(Operino operino) {
+        String domain = operino.getDomain();
+        for (ProvisioningStep step : POOLED_STEPS) {
+            String reference = step == ProvisioningStep.DOMAIN ? domain
+                : step == ProvisioningStep.USER ? operino.getUser().getLogin() : null;
+            provisioningCheckpointService.recordDone(operino, step, reference);
+        }
+    }
+
+    /**
+     * Adds domains to the pool as provisioning, as many as are missing to the target size and may be provisioned at
+     * once, counting the ones other nodes are still provisioning. Nodes must not reserve at the same time, see
+     * {@link DomainPoolRefiller}.
+     *
+     * @return the system ids of the domains to provision
+     */
+    public List<String> reserve() {
+        long ready = pooledDomainRepository.countByStatus(PooledDomainStatus.READY);
+        long provisioning = pooledDomainRepository.countByStatus(PooledDomainStatus.PROVISIONING);
+        long missing = Math.min(targetSize - ready - provisioning, refillConcurrency - provisioning);
+        List<String> domains = new ArrayList<>();
+        for (int i = 0; i < missing; i++) {
+            PooledDomain pooled = new PooledDomain();
+            pooled.setDomain(UUID.randomUUID().toString());
+            domains.add(pooledDomainRepository.save(pooled).getDomain());
+        }
+        if (!domains.isEmpty()) {
+            log.info("Refilling domain pool ({} ready, {} provisioning) with {} domains", ready, provisioning, domains.size());
+        }
+        return domains;
+    }
+
+    /**
+     * Makes a provisioned domain available for claiming
+     */
+    public void ready(String domain) {
+        pooledDomainRepository.findOneByDomain(domain).ifPresent(pooled -> {
+            pooled.setStatus(PooledDomainStatus.READY);
+            pooled.setReadyDate(ZonedDateTime.now());
+            log.info("Pooled domain {} is ready", domain);
+        });
+    }
+
+    /**
+     * Removes a domain that could not be provisioned from the pool and truncates what was provisioned of it
+     */
+    public void discard(String domain) {
+        pooledDomainRepository.findOneByDomain(domain).ifPresent(pooledDomainRepository::delete);
+        try {
+            thinkEhrRestClient.truncateDomain(domain);
+        } catch (RestClientException e) {
+            log.warn("Could not truncate discarded pooled domain {}", domain, e);
+        }
+        templateRegistry.evict(domain);
+        cdrLookupCache.evict(domain);
+    }
+
+    /**
+     * @return the domains provisioning for longer than the timeout, to be discarded
+     */
+    @Transactional(readOnly = true)
+    public List<String> findExpired() {
+        List<String> domains = new ArrayList<>();
+        for (PooledDomain pooled : pooledDomainRepository.findByStatusAndCreatedDateBefore(PooledDomainStatus.PROVISIONING,
+            ZonedDateTime.now().minusMinutes(provisioningTimeoutMinutes))) {
+            domains.add(pooled.getDomain());
+        }
+        return domains;
+    }
+
+    public int getTargetSize() {
+        return targetSize;
+    }
+
+    public void setTargetSize(int targetSize) {
+        this.targetSize = targetSize;
+    }
+
+    public int getRefillConcurrency() {
+        return refillConcurrency;
+    }
+
+    public void setRefillConcurrency(int refillConcurrency) {
+        this.refillConcurrency = refillConcurrency;
+    }
+
+    public long getRefillIntervalMillis() {
+        return refillIntervalMillis;
+    }
+
+    public void setRefillIntervalMillis(long refillIntervalMillis) {
+        this.refillIntervalMillis = refillIntervalMillis;
+    }
+
+    public void setProvisioningTimeoutMinutes(long provisioningTimeoutMinutes) {
+        this.provisioningTimeoutMinutes = provisioningTimeoutMinutes;
+    }
+}
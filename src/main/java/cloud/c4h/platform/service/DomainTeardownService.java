@@ -0,0 +1,165 @@
+package cloud.c4h.platform.service;
+
+import cloud.c4h.platform.domain.Operino;
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+import cloud.c4h.platform.repository.OperinoRepository;
+import cloud.c4h.platform.repository.PooledDomainRepository;
+import cloud.c4h.platform.repository.ProvisioningCheckpointRepository;
+import cloud.c4h.platform.service.dto.DomainTeardownDTO;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
+
+import java.net.URISyntaxException;
+import java.time.ZonedDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Service class reconciling the domains of the CDR with the operinos and pooled domains of the database.
+ * <p>
+ * Deleted operinos are torn down from the queue; operinos whose teardown got lost, e.g. because the message was
+ * dead-lettered, are queued again after {@code teardown.pendingTimeoutMinutes}. Domains only one side knows of are
+ * reported: generated domains the CDR has but the database does not are torn down only if
+ * {@code teardown.truncateOrphanDomains} is set, as a CDR shared with other systems may hold domains of its own.
+ */
+@Service
+@ConfigurationProperties(prefix = "teardown", ignoreUnknownFields = false)
+public class DomainTeardownService {
+
+    private final Logger log = LoggerFactory.getLogger(DomainTeardownService.class);
+
+    private final OperinoRepository operinoRepository;
+    private final PooledDomainRepository pooledDomainRepository;
+    private final ProvisioningCheckpointRepository provisioningCheckpointRepository;
+    private final ThinkEhrRestClient thinkEhrRestClient;
+    private final RabbitTemplate rabbitTemplate;
+
+    /**
+     * Delay between two reconciliations
+     */
+    private long reconcileIntervalMillis = 600000;
+    /**
+     * Operinos pending deletion for longer than this are queued for teardown again
+     */
+    private long pendingTimeoutMinutes = 30;
+    /**
+     * Whether generated domains of the CDR no operino or pooled domain knows of are torn down, or only reported
+     */
+    private boolean truncateOrphanDomains = false;
+
+    public DomainTeardownService(OperinoRepository operinoRepository,
+                                 PooledDomainRepository pooledDomainRepository,
+                                 ProvisioningCheckpointRepository provisioningCheckpointRepository,
+                                 ThinkEhrRestClient thinkEhrRestClient,
+                                 RabbitTemplate rabbitTemplate) {
+        this.operinoRepository = operinoRepository;
+        this.pooledDomainRepository = pooledDomainRepository;
+        this.provisioningCheckpointRepository = provisioningCheckpointRepository;
+        this.thinkEhrRestClient = thinkEhrRestClient;
+        this.rabbitTemplate = rabbitTemplate;
+    }
+
+    /**
+     * Queues a domain to be torn down.
+     *
+     * @param operinoId the operino owning the domain, to be purged once it is torn down, or null
+     * @param domain    the domain to tear down
+     */
+    public void queue(Long operinoId, String domain) {
+        log.debug("Queueing teardown of domain {} of Operino {}", domain, operinoId);
+        rabbitTemplate.convertAndSend(OperinoService.TEARDOWN_QUEUE, new DomainTeardownDTO(operinoId, domain));
+    }
+
+    /**
+     * Queues the teardowns of operinos pending deletion for too long, and reports domains only the CDR or only the
+     * database knows of.
+     */
+    @Scheduled(initialDelayString = "${teardown.reconcileIntervalMillis:600000}",
+        fixedDelayString = "${teardown.reconcileIntervalMillis:600000}")
+    public void reconcile() {
+        requeuePending();
+        try {
+            reconcileDomains();
+        } catch (URISyntaxException | RestClientException e) {
+            log.warn("Could not list the domains of the CDR, not reconciling them", e);
+        }
+    }
+
+    void requeuePending() {
+        List<Operino> pending = operinoRepository.findByDeletionRequestedBefore(ZonedDateTime.now().minusMinutes(pendingTimeoutMinutes));
+        for (Operino operino : pending) {
+            log.warn("Operino {} pending deletion since {}, queueing its teardown again", operino.getId(), operino.getDeletionRequested());
+            queue(operino.getId(), operino.getDomain());
+        }
+    }
+
+    void reconcileDomains() throws URISyntaxException {
+        // the CDR is listed first, so domains created while the database is read are not taken for orphans
+        Set<String> cdrDomains = thinkEhrRestClient.listDomains();
+        Set<String> knownDomains = new HashSet<>(operinoRepository.findAllDomains());
+        knownDomains.addAll(pooledDomainRepository.findAllDomains());
+
+        Set<String> orphans = new TreeSet<>();
+        for (String domain : cdrDomains) {
+            if (!knownDomains.contains(domain) && isGenerated(domain)) {
+                orphans.add(domain);
+            }
+        }
+        if (!orphans.isEmpty()) {
+            log.warn("Found {} domains in the CDR no operino or pooled domain owns: {}", orphans.size(), orphans);
+            if (truncateOrphanDomains) {
+                orphans.forEach(domain -> queue(null, domain));
+            }
+        }
+
+        Set<String> missing = new TreeSet<>(provisioningCheckpointRepository.findDomainsOfOperinosWithStep(ProvisioningStep.DOMAIN));
+        missing.removeAll(cdrDomains);
+        if (!missing.isEmpty()) {
+            log.warn("Found {} operinos whose domain is missing from the CDR: {}", missing.size(), missing);
+        }
+    }
+
+    /**
+     * @return whether the domain was named by this application, which names domains by random UUIDs
+     */
+    static boolean isGenerated(String domain) {
+        try {
+            return UUID.fromString(domain).toString().equalsIgnoreCase(domain);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public long getReconcileIntervalMillis() {
+        return reconcileIntervalMillis;
+    }
+
+    public void setReconcileIntervalMillis(long reconcileIntervalMillis) {
+        this.reconcileIntervalMillis = reconcileIntervalMillis;
+    }
+
+    public long getPendingTimeoutMinutes() {
+        return pendingTimeoutMinutes;
+    }
+
+    public void setPendingTimeoutMinutes(long pendingTimeoutMinutes) {
+        this.pendingTimeoutMinutes = pendingTimeoutMinutes;
+    }
+
+    public boolean isTruncateOrphanDomains() {
+        return truncateOrphanDomains;
+    }
+
+    public void setTruncateOrphanDomains(boolean truncateOrphanDomains) {
+        this.truncateOrphanDomains = truncateOrphanDomains;
+    }
+}
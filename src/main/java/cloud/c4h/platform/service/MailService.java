@@ -10,6 +10,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.context.MessageSource;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.InputStreamSource;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailPreparationException;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.scheduling.annotation.Async;
@@ -17,6 +19,7 @@ import org.springframework.stereotype.Service;
 import org.thymeleaf.context.Context;
 import org.thymeleaf.spring4.SpringTemplateEngine;
 
+import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 import java.util.Locale;
 import java.util.Map;
@@ -24,7 +27,8 @@ import java.util.Map;
 /**
  * Service for sending e-mails.
  * <p>
- * We use the @Async annotation to send e-mails asynchronously.
+ * We use the @Async annotation to send e-mails asynchronously. The methods ending in "Now" send on the calling
+ * thread and throw when the e-mail could not be sent.
  * </p>
  */
 @Service
@@ -57,6 +61,19 @@ public class MailService {
 
     @Async
     public void sendEmail(String to, String subject, String content, boolean isMultipart, boolean isHtml) {
+        try {
+            sendEmailNow(to, subject, content, isMultipart, isHtml);
+        } catch (RuntimeException e) {
+            log.warn("E-mail could not be sent to user '{}'", to, e);
+        }
+    }
+
+    /**
+     * Sends an e-mail on the calling thread, for callers that retry it when it cannot be sent.
+     *
+     * @throws MailException if the e-mail could not be prepared or the mail server did not take it
+     */
+    public void sendEmailNow(String to, String subject, String content, boolean isMultipart, boolean isHtml) {
         log.debug("Send e-mail[multipart '{}' and html '{}'] to '{}' with subject '{}' and content={}",
             isMultipart, isHtml, to, subject, content);
 
@@ -68,17 +85,32 @@ public class MailService {
             message.setFrom(jHipsterProperties.getMail().getFrom());
             message.setSubject(subject);
             message.setText(content, isHtml);
-            javaMailSender.send(mimeMessage);
-            log.debug("Sent e-mail to User '{}'", to);
-        } catch (Exception e) {
-            log.warn("E-mail could not be sent to user '{}'", to, e);
+        } catch (MessagingException e) {
+            throw new MailPreparationException("E-mail to '" + to + "' could not be prepared", e);
         }
+        javaMailSender.send(mimeMessage);
+        log.debug("Sent e-mail to User '{}'", to);
     }
 
     @Async
     public void sendEmailWithAttachment(String to, String subject, String content, String fileName,
                                         String reportPath, String contentType,
                                         boolean isMultipart, boolean isHtml) {
+        try {
+            sendEmailWithAttachmentNow(to, subject, content, fileName, reportPath, contentType, isMultipart, isHtml);
+        } catch (RuntimeException e) {
+            log.warn("E-mail could not be sent to user '{}'", to, e);
+        }
+    }
+
+    /**
+     * Sends an e-mail with an attachment on the calling thread, for callers that retry it when it cannot be sent.
+     *
+     * @throws MailException if the e-mail could not be prepared or the mail server did not take it
+     */
+    public void sendEmailWithAttachmentNow(String to, String subject, String content, String fileName,
+                                           String reportPath, String contentType,
+                                           boolean isMultipart, boolean isHtml) {
         log.debug("Send e-mail[multipart '{}' and html '{}'] to '{}' with subject '{}' and content={}",
             isMultipart, isHtml, to, subject, content);
 
@@ -91,12 +123,12 @@ public class MailService {
             message.setSubject(subject);
             message.setText(content, isHtml);
             message.addAttachment(fileName, new FileSystemResource(reportPath), contentType);
-            // now send message
-            javaMailSender.send(mimeMessage);
-            log.debug("Sent e-mail to User '{}'", to);
-        } catch (Exception e) {
-            log.warn("E-mail could not be sent to user '{}'", to, e);
+        } catch (MessagingException e) {
+            throw new MailPreparationException("E-mail to '" + to + "' could not be prepared", e);
         }
+        // now send message
+        javaMailSender.send(mimeMessage);
+        log.debug("Sent e-mail to User '{}'", to);
     }
 
     @Async
@@ -0,0 +1,234 @@
+package cloud.c4h.platform.service;
+
+import cloud.c4h.platform.config.ApplicationProperties;
+import cloud.c4h.platform.service.dto.DeadLetterDTO;
+import com.rabbitmq.client.GetResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.rabbit.connection.RabbitUtils;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Service class for redelivering queued messages whose processing failed.
+ * <p>
+ * Every work queue has a chain of retry queues, one per attempt, that hold a failed message until its per-message
+ * TTL expires and then dead-letter it back onto the work queue. The delay grows exponentially with every attempt and
+ * gets a random share on top, so messages that failed together do not return together. The deliveries so far travel
+ * in the {@value #ATTEMPTS} header; once they reach {@code application.messaging.retry.maxAttempts}, or the failure
+ * is permanent, the message is parked on the work queue's dead-letter queue, from where it can be inspected and
+ * replayed.
+ */
+@Service
+public class MessageRetryService {
+
+    /**
+     * Header with the number of failed deliveries of a message
+     */
+    public static final String ATTEMPTS = "x-attempts";
+    /**
+     * Header with the error of the last failed delivery of a dead-lettered message
+     */
+    public static final String ERROR = "x-error";
+    /**
+     * Header with the time (epoch millis) a message was dead-lettered
+     */
+    public static final String DEAD_LETTERED = "x-dead-lettered";
+
+    /**
+     * The queues whose messages are retried
+     */
+    public static final List<String> WORK_QUEUES = Collections.unmodifiableList(Arrays.asList(
+        OperinoProvisioner.HEAVY_QUEUE, OperinoProvisioner.LIGHT_QUEUE, OperinoService.CHANGES_QUEUE,
+        OperinoService.TEARDOWN_QUEUE, OperinoService.NOTIFICATIONS_QUEUE));
+
+    private static final long REPLAY_CONFIRM_TIMEOUT_MILLIS = 10000;
+
+    private final Logger log = LoggerFactory.getLogger(MessageRetryService.class);
+
+    private final RabbitTemplate rabbitTemplate;
+    private final AmqpAdmin amqpAdmin;
+    private final ApplicationProperties.Retry retry;
+
+    public MessageRetryService(RabbitTemplate rabbitTemplate, AmqpAdmin amqpAdmin, ApplicationProperties applicationProperties) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.amqpAdmin = amqpAdmin;
+        this.retry = applicationProperties.getMessaging().getRetry();
+    }
+
+    /**
+     * @return the queue holding messages of the work queue after their given failed delivery
+     */
+    public static String retryQueue(String queue, int attempt) {
+        return queue + ".retry." + attempt;
+    }
+
+    public static String deadLetterQueue(String queue) {
+        return queue + ".dlq";
+    }
+
+    /**
+     * Schedules a message whose processing failed for redelivery, or dead-letters it if it has been delivered
+     * {@code maxAttempts} times.
+     *
+     * @param queue    the work queue the message was received from
+     * @param payload  the payload of the message
+     * @param attempts the failed deliveries before this one, null for the first delivery
+     * @param cause    why processing failed
+     */
+    public void retry(String queue, Object payload, Integer attempts, Exception cause) {
+        int attempt = attempts == null ? 1 : attempts + 1;
+        if (attempt >= retry.getMaxAttempts()) {
+            deadLetter(queue, payload, attempts, cause);
+            return;
+        }
+        long delay = delayMillis(attempt);
+        log.warn("Delivery {} of message on {} failed, retrying in {} ms: {}", attempt, queue, delay, cause.toString());
+        rabbitTemplate.convertAndSend(retryQueue(queue, attempt), payload, message -> {
+            message.getMessageProperties().setHeader(ATTEMPTS, attempt);
+            message.getMessageProperties().setExpiration(String.valueOf(delay));
+            return message;
+        });
+    }
+
+    /**
+     * Parks a message whose processing failed on the dead-letter queue of its work queue, without retrying it.
+     *
+     * @param queue    the work queue the message was received from
+     * @param payload  the payload of the message
+     * @param attempts the failed deliveries before this one, null for the first delivery
+     * @param cause    why processing failed
+     */
+    public void deadLetter(String queue, Object payload, Integer attempts, Exception cause) {
+        int attempt = attempts == null ? 1 : attempts + 1;
+        log.error("Delivery {} of message on {} failed, dead-lettering it: {}", attempt, queue, cause.toString());
+        rabbitTemplate.convertAndSend(deadLetterQueue(queue), payload, message -> {
+            message.getMessageProperties().setHeader(ATTEMPTS, attempt);
+            message.getMessageProperties().setHeader(ERROR, String.valueOf(cause));
+            message.getMessageProperties().setHeader(DEAD_LETTERED, System.currentTimeMillis());
+            return message;
+        });
+    }
+
+    /**
+     * @param attempt the failed delivery, starting at 1
+     * @return the delay before the next delivery
+     */
+    long delayMillis(int attempt) {
+        double interval = Math.min(retry.getMaxIntervalMillis(),
+            retry.getInitialIntervalMillis() * Math.pow(retry.getMultiplier(), attempt - 1));
+        return (long) (interval * (1 + retry.getJitter() * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * @return the number of dead-lettered messages of every work queue
+     */
+    public Map<String, Integer> countDeadLetters() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (String queue : WORK_QUEUES) {
+            Properties properties = amqpAdmin.getQueueProperties(deadLetterQueue(queue));
+            Object count = properties == null ? null : properties.get(RabbitAdmin.QUEUE_MESSAGE_COUNT);
+            counts.put(queue, count instanceof Number ? ((Number) count).intValue() : 0);
+        }
+        return counts;
+    }
+
+    /**
+     * Lists the oldest dead-lettered messages of a work queue, leaving them on the dead-letter queue.
+     *
+     * @param queue the work queue
+     * @param limit the maximum number of messages listed
+     */
+    public List<DeadLetterDTO> peek(String queue, int limit) {
+        return rabbitTemplate.execute(channel -> {
+            List<DeadLetterDTO> deadLetters = new ArrayList<>();
+            long lastDeliveryTag = -1;
+            try {
+                GetResponse response;
+                while (deadLetters.size() < limit && (response = channel.basicGet(deadLetterQueue(queue), false)) != null) {
+                    lastDeliveryTag = response.getEnvelope().getDeliveryTag();
+                    Map<String, Object> headers = response.getProps().getHeaders();
+                    deadLetters.add(deadLetter(queue, headers == null ? Collections.emptyMap() : headers,
+                        response.getProps().getMessageId(), response.getBody().length));
+                }
+            } finally {
+                // nothing was taken, put them all back in their order
+                if (lastDeliveryTag != -1) {
+                    channel.basicNack(lastDeliveryTag, true, true);
+                }
+            }
+            return deadLetters;
+        });
+    }
+
+    /**
+     * Moves dead-lettered messages of a work queue back onto it, oldest first, with their attempts reset. A message
+     * is only acknowledged on the dead-letter queue once the broker confirmed its copy on the work queue, so a failed
+     * replay leaves it dead-lettered instead of losing it.
+     *
+     * @param queue the work queue
+     * @param limit the maximum number of messages replayed
+     * @return the number of messages replayed
+     */
+    public int replay(String queue, int limit) {
+        int replayed;
+        try {
+            replayed = rabbitTemplate.execute(channel -> {
+                // the channel stays in confirm mode, so it must not go back to the cache
+                RabbitUtils.setPhysicalCloseRequired(true);
+                channel.confirmSelect();
+                int count = 0;
+                GetResponse response;
+                while (count < limit && (response = channel.basicGet(deadLetterQueue(queue), false)) != null) {
+                    Map<String, Object> headers = response.getProps().getHeaders() == null
+                        ? new HashMap<>() : new HashMap<>(response.getProps().getHeaders());
+                    headers.remove(ATTEMPTS);
+                    headers.remove(ERROR);
+                    headers.remove(DEAD_LETTERED);
+                    channel.basicPublish("", queue, response.getProps().builder().headers(headers).build(), response.getBody());
+                    // unacknowledged messages return to the dead-letter queue when the channel closes
+                    channel.waitForConfirmsOrDie(REPLAY_CONFIRM_TIMEOUT_MILLIS);
+                    channel.basicAck(response.getEnvelope().getDeliveryTag(), false);
+                    count++;
+                }
+                return count;
+            });
+        } finally {
+            RabbitUtils.setPhysicalCloseRequired(false);
+        }
+        log.info("Replayed {} dead-lettered messages onto {}", replayed, queue);
+        return replayed;
+    }
+
+    private static DeadLetterDTO deadLetter(String queue, Map<String, Object> headers, String messageId, int size) {
+        DeadLetterDTO deadLetter = new DeadLetterDTO();
+        deadLetter.setQueue(queue);
+        deadLetter.setMessageId(messageId);
+        deadLetter.setSize(size);
+        Object attempts = headers.get(ATTEMPTS);
+        deadLetter.setAttempts(attempts instanceof Number ? ((Number) attempts).intValue() : 0);
+        Object error = headers.get(ERROR);
+        deadLetter.setError(error == null ? null : error.toString());
+        Object deadLettered = headers.get(DEAD_LETTERED);
+        if (deadLettered instanceof Number) {
+            deadLetter.setDeadLettered(Instant.ofEpochMilli(((Number) deadLettered).longValue()));
+        } else if (deadLettered instanceof Date) {
+            deadLetter.setDeadLettered(((Date) deadLettered).toInstant());
+        }
+        return deadLetter;
+    }
+}
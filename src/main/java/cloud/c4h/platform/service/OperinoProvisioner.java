@@ -1,11 +1,77 @@
 package cloud.c4h.platform.service;
 
 import cloud.c4h.platform.domain.Operino;
+import cloud.c4h.platform.service.dto.ObservationLoadDTO;
+import cloud.c4h.platform.service.dto.OperinoMessageDTO;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+
 /**
  * Service that provisions operinos - This is tied into a RabbitMq receive event.
+ * <p>
+ * Operinos are queued on one of two lanes, so a quick domain setup never waits behind the patients of another
+ * operino: {@link #LIGHT_QUEUE} for the ones without patients to provision, {@link #HEAVY_QUEUE} for the rest.
  */
 public interface OperinoProvisioner {
+
+    String LIGHT_QUEUE = "operinos.light";
+
+    /**
+     * Keeps the name of the original single queue, so operinos queued before the split are still provisioned
+     */
+    String HEAVY_QUEUE = "operinos";
+
     void receive(@Payload Operino operino);
+
+    /**
+     * Receives operinos from {@link #LIGHT_QUEUE}, handing the ones that fail to provision to {@link MessageRetryService}
+     *
+     * @param attempts the failed deliveries of the operino so far, null for its first delivery
+     */
+    void receiveLight(@Payload OperinoMessageDTO message, @Header(name = MessageRetryService.ATTEMPTS, required = false) Integer attempts);
+
+    /**
+     * Receives operinos from {@link #HEAVY_QUEUE}, handing the ones that fail to provision to {@link MessageRetryService}
+     *
+     * @param attempts the failed deliveries of the operino so far, null for its first delivery
+     */
+    void receiveHeavy(@Payload OperinoMessageDTO message, @Header(name = MessageRetryService.ATTEMPTS, required = false) Integer attempts);
+
+    /**
+     * Provisions an operino on this node, holding the cluster-wide lock of its domain. Runs on the member owning the
+     * domain, see {@link DomainAffinityService}.
+     *
+     * @param operinoId the id of the operino, which is reloaded
+     * @throws IllegalStateException if the domain stays locked by other work
+     */
+    void provisionOwned(Long operinoId) throws URISyntaxException;
+
+    /**
+     * Loads a CSV of vital signs observations into the EHRs of the operino's domain, see
+     * {@link cloud.c4h.platform.service.impl.ObservationLoader} for the format.
+     *
+     * @param operino the operino whose domain the observations are loaded into
+     * @param csv     the CSV, read incrementally
+     * @return the outcome of the load
+     * @throws IOException if the CSV cannot be read or parsed
+     */
+    ObservationLoadDTO loadObservations(Operino operino, InputStream csv) throws IOException;
+
+    /**
+     * Provisions a domain for the warm pool with everything a provisioned operino gets: the user, all templates, the
+     * fixture patients and their observations. Nothing is journaled or published, as no operino owns the domain yet.
+     *
+     * @param domain the system id of the new domain
+     * @throws IllegalStateException if some patients or observations could not be provisioned
+     */
+    void provisionPooledDomain(String domain) throws URISyntaxException;
+
+    /**
+     * @return the synthetic patients the current user can ask for per operino, admins can ask for more than owners
+     */
+    int getMaxSyntheticPatients();
 }
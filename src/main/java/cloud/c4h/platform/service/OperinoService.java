@@ -23,6 +23,21 @@ public interface OperinoService {
 
     String BASE_URL = "baseUrl";
 
+    /**
+     * The queue notifications are sent to for processing
+     */
+    String NOTIFICATIONS_QUEUE = "notifications";
+
+    /**
+     * The queue changes to existing operinos are sent to, see {@link cloud.c4h.platform.service.dto.OperinoChangeDTO}
+     */
+    String CHANGES_QUEUE = "operinos.changes";
+
+    /**
+     * The queue domains to tear down are sent to, see {@link cloud.c4h.platform.service.dto.DomainTeardownDTO}
+     */
+    String TEARDOWN_QUEUE = "operinos.teardown";
+
     /**
      * Static utility method to create an Operino with the given parameters
      */
@@ -43,6 +58,13 @@ public interface OperinoService {
      */
     Operino save(Operino operino);
 
+    /**
+     * Queue an operino to be provisioned again.
+     *
+     * @param operino the operino to provision
+     */
+    void provision(Operino operino);
+
     /**
      * Get all the operinos.
      *
@@ -76,12 +98,20 @@ public interface OperinoService {
     public Operino findOneNoAuth(Long id);
 
     /**
-     * Delete the "id" operino.
+     * Request the deletion of the "id" operino. The operino is hidden right away, its domain is torn down in the
+     * background and the operino is removed once that is done.
      *
      * @param id the id of the entity
      */
     void delete(Long id);
 
+    /**
+     * Remove the "id" operino and its checkpoints, once its domain was torn down. No authorisation check is done!
+     *
+     * @param id the id of the entity
+     */
+    void purge(Long id);
+
     /**
      * Search for the operino corresponding to the query.
      * <p>
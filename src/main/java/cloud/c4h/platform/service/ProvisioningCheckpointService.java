@@ -0,0 +1,107 @@
+package cloud.c4h.platform.service;
+
+import cloud.c4h.platform.domain.Operino;
+import cloud.c4h.platform.domain.ProvisioningCheckpoint;
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+import cloud.c4h.platform.repository.OperinoRepository;
+import cloud.c4h.platform.repository.ProvisioningCheckpointRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Service class for the checkpoints of provisioning operinos.
+ * <p>
+ * Every checkpoint is committed in its own transaction as soon as the step is done, so the progress
+ * survives a failure of the provisioning run that recorded it.
+ */
+@Service
+@Transactional
+public class ProvisioningCheckpointService {
+
+    private final Logger log = LoggerFactory.getLogger(ProvisioningCheckpointService.class);
+
+    private final ProvisioningCheckpointRepository provisioningCheckpointRepository;
+    private final OperinoRepository operinoRepository;
+    private final TransactionTemplate recordTransaction;
+
+    public ProvisioningCheckpointService(ProvisioningCheckpointRepository provisioningCheckpointRepository,
+                                         OperinoRepository operinoRepository,
+                                         PlatformTransactionManager transactionManager) {
+        this.provisioningCheckpointRepository = provisioningCheckpointRepository;
+        this.operinoRepository = operinoRepository;
+        this.recordTransaction = new TransactionTemplate(transactionManager);
+        this.recordTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Loads the steps already done once for an operino. The steps done for its patients are loaded by the journal
+     * as the patients are provisioned.
+     *
+     * @param operino the operino being provisioned
+     * @return the journal to skip and record steps with
+     */
+    @Transactional(readOnly = true)
+    public ProvisioningJournal open(Operino operino) {
+        Long operinoId = operino.getId();
+        List<ProvisioningCheckpoint> checkpoints = provisioningCheckpointRepository.findByOperinoIdAndSubjectIsNull(operinoId);
+        if (!checkpoints.isEmpty()) {
+            log.info("Resuming provisioning of operino {} after {} completed steps", operinoId, checkpoints.size());
+        }
+        ProvisioningJournal.Recorder recorder = new ProvisioningJournal.Recorder() {
+            @Override
+            public void record(ProvisioningStep step, String subject, String reference) {
+                ProvisioningCheckpointService.this.record(operinoId, step, subject, reference);
+            }
+
+            @Override
+            public void remove(ProvisioningStep step, String subject) {
+                recordTransaction.execute(status -> {
+                    provisioningCheckpointRepository.deleteByOperinoIdAndStepAndSubject(operinoId, step, subject);
+                    return null;
+                });
+            }
+        };
+        return new ProvisioningJournal(checkpoints, recorder,
+            subjects -> provisioningCheckpointRepository.findByOperinoIdAndSubjectIn(operinoId, subjects));
+    }
+
+    private void record(Long operinoId, ProvisioningStep step, String subject, String reference) {
+        recordTransaction.execute(status -> {
+            ProvisioningCheckpoint checkpoint = new ProvisioningCheckpoint();
+            checkpoint.setOperino(operinoRepository.getOne(operinoId));
+            checkpoint.setStep(step);
+            checkpoint.setSubject(subject);
+            checkpoint.setReference(reference);
+            provisioningCheckpointRepository.save(checkpoint);
+            log.debug("Recorded {}", checkpoint);
+            return checkpoint;
+        });
+    }
+
+    /**
+     * Records a step that was done before the operino was saved, i.e. on the pooled domain it claimed. Unlike the
+     * steps recorded through a journal this joins the current transaction, which has not committed the operino yet.
+     */
+    public void recordDone(Operino operino, ProvisioningStep step, String reference) {
+        ProvisioningCheckpoint checkpoint = new ProvisioningCheckpoint();
+        checkpoint.setOperino(operino);
+        checkpoint.setStep(step);
+        checkpoint.setReference(reference);
+        provisioningCheckpointRepository.save(checkpoint);
+        log.debug("Recorded {}", checkpoint);
+    }
+
+    /**
+     * Deletes the checkpoints of an operino, e.g. before it is deleted itself
+     */
+    public void clear(Long operinoId) {
+        provisioningCheckpointRepository.deleteByOperinoId(operinoId);
+    }
+}
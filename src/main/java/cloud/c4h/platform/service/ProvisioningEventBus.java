@@ -0,0 +1,256 @@
+package cloud.c4h.platform.service;
+
+import cloud.c4h.platform.service.dto.ProvisioningEventDTO;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceNotActiveException;
+import com.hazelcast.core.ITopic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * In-memory bus for the progress events of Operinos being provisioned.
+ * <p>
+ * Events are published on a Hazelcast topic, so a client watching an operino receives its events whichever
+ * node provisions it. Every node keeps the latest event of recently provisioned operinos, which is replayed
+ * to new subscribers so they do not have to wait for the next step to know where the run is.
+ * <p>
+ * Subscribers are called on a small bounded pool rather than on the thread that publishes or receives the event,
+ * one event at a time and in order for each subscriber. A subscriber that falls more than
+ * {@value #MAX_PENDING_EVENTS} events behind is dropped, so a slow client cannot hold back the others.
+ */
+@Service
+public class ProvisioningEventBus implements DisposableBean {
+
+    static final String TOPIC = "provisioning-events";
+    private static final int MAX_LATEST_EVENTS = 1024;
+    static final int MAX_PENDING_EVENTS = 64;
+    private static final int DELIVERY_THREADS = 2;
+    private static final int DELIVERY_QUEUE_CAPACITY = 1024;
+
+    private final Logger log = LoggerFactory.getLogger(ProvisioningEventBus.class);
+
+    private final ConcurrentMap<Long, List<Subscription>> subscribers = new ConcurrentHashMap<>();
+    private final Map<Long, ProvisioningEventDTO> latestEvents = new LinkedHashMap<Long, ProvisioningEventDTO>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ProvisioningEventDTO> eldest) {
+            return size() > MAX_LATEST_EVENTS;
+        }
+    };
+    private final ITopic<ProvisioningEventDTO> topic;
+    private final String registrationId;
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+
+    /**
+     * @param hazelcastInstance the cluster the events are fanned out to, or null to only deliver them locally
+     */
+    @Autowired
+    public ProvisioningEventBus(HazelcastInstance hazelcastInstance) {
+        this(hazelcastInstance, null);
+    }
+
+    /**
+     * @param hazelcastInstance the cluster the events are fanned out to, or null to only deliver them locally
+     * @param executor          calls the subscribers, or null to use a pool of the bus
+     */
+    public ProvisioningEventBus(HazelcastInstance hazelcastInstance, Executor executor) {
+        if (executor == null) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("c4hcloudplatform-ProvisioningEvents-");
+            threadFactory.setDaemon(true);
+            ownExecutor = new ThreadPoolExecutor(DELIVERY_THREADS, DELIVERY_THREADS, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(DELIVERY_QUEUE_CAPACITY), threadFactory);
+            this.executor = ownExecutor;
+        } else {
+            ownExecutor = null;
+            this.executor = executor;
+        }
+        if (hazelcastInstance != null) {
+            topic = hazelcastInstance.getTopic(TOPIC);
+            registrationId = topic.addMessageListener(message -> dispatch(message.getMessageObject()));
+        } else {
+            topic = null;
+            registrationId = null;
+        }
+    }
+
+    /**
+     * Publishes an event to the subscribers of its operino on every node.
+     */
+    public void publish(ProvisioningEventDTO event) {
+        if (topic == null) {
+            dispatch(event);
+            return;
+        }
+        try {
+            topic.publish(event);
+        } catch (HazelcastInstanceNotActiveException e) {
+            log.debug("Cluster is shutting down, delivering {} locally", event);
+            dispatch(event);
+        }
+    }
+
+    /**
+     * Subscribes to the events of an operino. The latest event seen for it, if any, is delivered right away.
+     *
+     * @param operinoId the id of the operino to watch
+     * @param listener  called with every event of the operino, on a delivery thread of the bus
+     * @return the action that cancels the subscription
+     */
+    public Runnable subscribe(Long operinoId, Consumer<ProvisioningEventDTO> listener) {
+        return subscribe(operinoId, listener, () -> {
+        });
+    }
+
+    /**
+     * Subscribes to the events of an operino. The latest event seen for it, if any, is delivered right away.
+     *
+     * @param operinoId the id of the operino to watch
+     * @param listener  called with every event of the operino, on a delivery thread of the bus
+     * @param onDropped called once if the subscription is cancelled because the listener fell too far behind
+     * @return the action that cancels the subscription
+     */
+    public Runnable subscribe(Long operinoId, Consumer<ProvisioningEventDTO> listener, Runnable onDropped) {
+        Subscription subscription = new Subscription(operinoId, listener, onDropped);
+        subscribers.computeIfAbsent(operinoId, id -> new CopyOnWriteArrayList<>()).add(subscription);
+        ProvisioningEventDTO latest = getLatestEvent(operinoId);
+        if (latest != null) {
+            offer(latest, subscription);
+        }
+        return () -> unsubscribe(subscription);
+    }
+
+    /**
+     * @return the latest event seen for an operino, or null if none was seen recently
+     */
+    public ProvisioningEventDTO getLatestEvent(Long operinoId) {
+        synchronized (latestEvents) {
+            return latestEvents.get(operinoId);
+        }
+    }
+
+    private void dispatch(ProvisioningEventDTO event) {
+        synchronized (latestEvents) {
+            latestEvents.put(event.getOperinoId(), event);
+        }
+        List<Subscription> listeners = subscribers.get(event.getOperinoId());
+        if (listeners != null) {
+            for (Subscription subscription : listeners) {
+                offer(event, subscription);
+            }
+        }
+    }
+
+    private void offer(ProvisioningEventDTO event, Subscription subscription) {
+        if (!subscription.offer(event)) {
+            log.warn("Dropping subscriber of operino {} that fell {} events behind", subscription.operinoId, MAX_PENDING_EVENTS);
+            unsubscribe(subscription);
+            try {
+                subscription.onDropped.run();
+            } catch (RuntimeException e) {
+                log.debug("Could not close dropped subscriber: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        subscribers.computeIfPresent(subscription.operinoId, (id, listeners) -> {
+            listeners.remove(subscription);
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    @Override
+    public void destroy() {
+        if (topic != null) {
+            try {
+                topic.removeMessageListener(registrationId);
+            } catch (HazelcastInstanceNotActiveException e) {
+                log.debug("Cluster already shut down");
+            }
+        }
+        if (ownExecutor != null) {
+            ownExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * The events pending for one listener, handed to the executor one drain at a time so they arrive in order
+     */
+    private final class Subscription {
+
+        private final Long operinoId;
+        private final Consumer<ProvisioningEventDTO> listener;
+        private final Runnable onDropped;
+        private final Queue<ProvisioningEventDTO> pending = new ArrayDeque<>();
+        private boolean draining;
+
+        private Subscription(Long operinoId, Consumer<ProvisioningEventDTO> listener, Runnable onDropped) {
+            this.operinoId = operinoId;
+            this.listener = listener;
+            this.onDropped = onDropped;
+        }
+
+        /**
+         * @return false if the listener is too far behind to take the event
+         */
+        private boolean offer(ProvisioningEventDTO event) {
+            synchronized (this) {
+                if (pending.size() >= MAX_PENDING_EVENTS) {
+                    return false;
+                }
+                pending.add(event);
+                if (draining) {
+                    return true;
+                }
+                draining = true;
+            }
+            try {
+                executor.execute(this::drain);
+                return true;
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    draining = false;
+                }
+                return false;
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                ProvisioningEventDTO event;
+                synchronized (this) {
+                    event = pending.poll();
+                    if (event == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                try {
+                    listener.accept(event);
+                } catch (RuntimeException e) {
+                    log.warn("Could not deliver {}: {}", event, e.getMessage());
+                }
+            }
+        }
+    }
+}
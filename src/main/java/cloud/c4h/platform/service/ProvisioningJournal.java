@@ -0,0 +1,255 @@
+package cloud.c4h.platform.service;
+
+import cloud.c4h.platform.domain.ProvisioningCheckpoint;
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The completed provisioning steps of one operino. Steps found here are skipped when provisioning is resumed,
+ * and newly completed steps are written through to the {@link Recorder} straight away.
+ * <p>
+ * Only the steps done once per operino are held from the start. The steps of the patients are loaded from the
+ * {@link Loader} when a patient is first asked about, or ahead of time for a batch of patients with
+ * {@link #prefetch}, and dropped again with {@link #release} once the patient is provisioned, so the memory held
+ * does not grow with the population.
+ * <p>
+ * Safe to use from the provisioning workers concurrently.
+ */
+public class ProvisioningJournal {
+
+    private static final String SEPARATOR = ",";
+    private static final String POSITION_SEPARATOR = ":";
+
+    private final ConcurrentMap<ProvisioningStep, String> references = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, String>> subjects = new ConcurrentHashMap<>();
+    private final Recorder recorder;
+    private final Loader loader;
+
+    public ProvisioningJournal(Collection<ProvisioningCheckpoint> checkpoints, Recorder recorder) {
+        this(checkpoints, recorder, null);
+    }
+
+    /**
+     * @param checkpoints the checkpoints of the steps done once per operino
+     * @param recorder    persists newly completed steps
+     * @param loader      loads the checkpoints of patients, null if they cannot be loaded
+     */
+    public ProvisioningJournal(Collection<ProvisioningCheckpoint> checkpoints, Recorder recorder, Loader loader) {
+        this.recorder = recorder;
+        this.loader = loader;
+        for (ProvisioningCheckpoint checkpoint : checkpoints) {
+            put(checkpoint);
+        }
+    }
+
+    /**
+     * @return a journal that is not persisted, so nothing can be resumed from it
+     */
+    public static ProvisioningJournal transientJournal() {
+        return new ProvisioningJournal(Collections.emptyList(), (step, subject, reference) -> {
+        });
+    }
+
+    /**
+     * Loads the steps done for the given patients with a single call to the loader
+     */
+    public void prefetch(Collection<String> subjects) {
+        if (loader == null) {
+            return;
+        }
+        List<String> missing = new ArrayList<>();
+        for (String subject : subjects) {
+            if (!this.subjects.containsKey(subject)) {
+                missing.add(subject);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, ConcurrentMap<String, String>> loaded = new HashMap<>();
+            for (String subject : missing) {
+                loaded.put(subject, new ConcurrentHashMap<>());
+            }
+            for (ProvisioningCheckpoint checkpoint : loader.load(missing)) {
+                put(loaded.get(checkpoint.getSubject()), checkpoint);
+            }
+            loaded.forEach(this.subjects::putIfAbsent);
+        }
+    }
+
+    /**
+     * Forgets the steps of a patient whose provisioning is over. Asking about the patient again loads them from the
+     * loader, so a journal without a loader keeps them.
+     */
+    public void release(String subject) {
+        if (loader != null) {
+            subjects.remove(subject);
+        }
+    }
+
+    public boolean isDone(ProvisioningStep step) {
+        return references.containsKey(step);
+    }
+
+    public boolean isDone(ProvisioningStep step, String subject) {
+        return subject == null ? isDone(step) : stepsOf(subject).containsKey(step.name());
+    }
+
+    /**
+     * @return the id recorded for the step, or null if the step has not been done
+     */
+    public String getReference(ProvisioningStep step, String subject) {
+        String reference = subject == null ? references.get(step) : stepsOf(subject).get(step.name());
+        return reference == null || reference.isEmpty() ? null : reference;
+    }
+
+    /**
+     * @return the composition uids recorded for the patient
+     */
+    public List<String> getCompositionUids(String subject) {
+        String reference = getReference(ProvisioningStep.COMPOSITIONS, subject);
+        return reference == null ? Collections.emptyList() : Arrays.asList(reference.split(SEPARATOR));
+    }
+
+    /**
+     * @return the uid recorded for the composition at the given position of the patient's compositions, or null
+     */
+    public String getCompositionUid(String subject, int index) {
+        return stepsOf(subject).get(compositionKey(index));
+    }
+
+    public void record(ProvisioningStep step, String reference) {
+        record(step, null, reference);
+    }
+
+    public void record(ProvisioningStep step, String subject, String reference) {
+        recorder.record(step, subject, reference);
+        if (subject == null) {
+            references.put(step, nullToEmpty(reference));
+        } else {
+            recordedStepsOf(subject).put(step.name(), nullToEmpty(reference));
+        }
+    }
+
+    /**
+     * Records all compositions of a patient. The compositions recorded one by one before are superseded by it.
+     */
+    public void recordCompositions(String subject, List<String> compositionUids) {
+        record(ProvisioningStep.COMPOSITIONS, subject, String.join(SEPARATOR, compositionUids));
+        Map<String, String> steps = recordedStepsOf(subject);
+        boolean recordedSingly = false;
+        for (int i = 0; i < compositionUids.size(); i++) {
+            recordedSingly |= steps.remove(compositionKey(i)) != null;
+        }
+        if (recordedSingly) {
+            recorder.remove(ProvisioningStep.COMPOSITION, subject);
+        }
+    }
+
+    /**
+     * Records a single committed composition of a patient, for compositions that are not committed together
+     */
+    public void recordComposition(String subject, int index, String compositionUid) {
+        recorder.record(ProvisioningStep.COMPOSITION, subject, index + POSITION_SEPARATOR + compositionUid);
+        recordedStepsOf(subject).put(compositionKey(index), compositionUid);
+    }
+
+    /**
+     * @return whether the observation read from the given CSV row was committed for the subject
+     */
+    public boolean isObservationCommitted(String subject, int row) {
+        return stepsOf(subject).containsKey(observationKey(row));
+    }
+
+    /**
+     * Records a committed batch of observations of a subject by the CSV rows they were read from
+     */
+    public void recordObservations(String subject, List<Integer> rows) {
+        StringJoiner reference = new StringJoiner(SEPARATOR);
+        for (Integer row : rows) {
+            reference.add(row.toString());
+        }
+        recorder.record(ProvisioningStep.OBSERVATION, subject, reference.toString());
+        Map<String, String> steps = recordedStepsOf(subject);
+        for (Integer row : rows) {
+            steps.put(observationKey(row), "");
+        }
+    }
+
+    private Map<String, String> stepsOf(String subject) {
+        if (loader != null && !subjects.containsKey(subject)) {
+            prefetch(Collections.singletonList(subject));
+        }
+        Map<String, String> steps = subjects.get(subject);
+        return steps == null ? Collections.emptyMap() : steps;
+    }
+
+    private Map<String, String> recordedStepsOf(String subject) {
+        stepsOf(subject);
+        return subjects.computeIfAbsent(subject, s -> new ConcurrentHashMap<>());
+    }
+
+    private void put(ProvisioningCheckpoint checkpoint) {
+        if (checkpoint.getSubject() == null) {
+            references.put(checkpoint.getStep(), nullToEmpty(checkpoint.getReference()));
+        } else {
+            put(subjects.computeIfAbsent(checkpoint.getSubject(), s -> new ConcurrentHashMap<>()), checkpoint);
+        }
+    }
+
+    private static void put(Map<String, String> steps, ProvisioningCheckpoint checkpoint) {
+        String reference = nullToEmpty(checkpoint.getReference());
+        if (checkpoint.getStep() == ProvisioningStep.COMPOSITION) {
+            int separator = reference.indexOf(POSITION_SEPARATOR);
+            steps.put(compositionKey(Integer.parseInt(reference.substring(0, separator))), reference.substring(separator + 1));
+        } else if (checkpoint.getStep() == ProvisioningStep.OBSERVATION) {
+            for (String row : reference.split(SEPARATOR)) {
+                steps.put(observationKey(Integer.parseInt(row)), "");
+            }
+        } else {
+            steps.put(checkpoint.getStep().name(), reference);
+        }
+    }
+
+    private static String compositionKey(int index) {
+        return ProvisioningStep.COMPOSITION.name() + "#" + index;
+    }
+
+    private static String observationKey(int row) {
+        return ProvisioningStep.OBSERVATION.name() + "#" + row;
+    }
+
+    private static String nullToEmpty(String reference) {
+        return reference == null ? "" : reference;
+    }
+
+    /**
+     * Persists a completed step
+     */
+    @FunctionalInterface
+    public interface Recorder {
+        void record(ProvisioningStep step, String subject, String reference);
+
+        /**
+         * Removes the checkpoints of a step of a patient that are no longer needed
+         */
+        default void remove(ProvisioningStep step, String subject) {
+        }
+    }
+
+    /**
+     * Loads the checkpoints of patients
+     */
+    @FunctionalInterface
+    public interface Loader {
+        List<ProvisioningCheckpoint> load(Collection<String> subjects);
+    }
+}
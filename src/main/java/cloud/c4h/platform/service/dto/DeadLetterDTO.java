@@ -0,0 +1,95 @@
+package cloud.c4h.platform.service.dto;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * A message parked on the dead-letter queue of a work queue, without its payload.
+ */
+public class DeadLetterDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String queue;
+
+    private String messageId;
+
+    private int size;
+
+    private int attempts;
+
+    private String error;
+
+    private Instant deadLettered;
+
+    /**
+     * @return the work queue the message was received from
+     */
+    public String getQueue() {
+        return queue;
+    }
+
+    public void setQueue(String queue) {
+        this.queue = queue;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    /**
+     * @return the size of the payload in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @return the number of times the message was delivered and failed
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return the error of the last delivery
+     */
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public Instant getDeadLettered() {
+        return deadLettered;
+    }
+
+    public void setDeadLettered(Instant deadLettered) {
+        this.deadLettered = deadLettered;
+    }
+
+    @Override
+    public String toString() {
+        return "DeadLetterDTO{" +
+            "queue='" + queue + "'" +
+            ", messageId='" + messageId + "'" +
+            ", attempts=" + attempts +
+            ", error='" + error + "'" +
+            ", deadLettered=" + deadLettered +
+            '}';
+    }
+}
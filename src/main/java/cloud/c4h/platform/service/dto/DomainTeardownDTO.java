@@ -0,0 +1,70 @@
+package cloud.c4h.platform.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.io.Serializable;
+
+/**
+ * The envelope queued for a domain to tear down: the domain is truncated in the CDR, then the operino owning it, if
+ * any, is removed.
+ * <p>
+ * {@code version} is raised whenever the envelope changes incompatibly; consumers dead-letter versions they do not
+ * know instead of guessing.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DomainTeardownDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int VERSION = 1;
+
+    private int version = VERSION;
+
+    private Long operinoId;
+
+    private String domain;
+
+    public DomainTeardownDTO() {
+    }
+
+    public DomainTeardownDTO(Long operinoId, String domain) {
+        this.operinoId = operinoId;
+        this.domain = domain;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    /**
+     * @return the id of the operino deleted, null for a domain no operino owns
+     */
+    public Long getOperinoId() {
+        return operinoId;
+    }
+
+    public void setOperinoId(Long operinoId) {
+        this.operinoId = operinoId;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    @Override
+    public String toString() {
+        return "DomainTeardownDTO{" +
+            "version=" + version +
+            ", operinoId=" + operinoId +
+            ", domain='" + domain + "'" +
+            '}';
+    }
+}
@@ -0,0 +1,95 @@
+package cloud.c4h.platform.service.dto;
+
+import cloud.c4h.platform.domain.Email;
+import cloud.c4h.platform.domain.FormData;
+import cloud.c4h.platform.domain.Notification;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.io.Serializable;
+
+/**
+ * The envelope queued for a Notification to process. The operino is referred to by id and reloaded by the
+ * processor; the report and its emails travel along, as notifications are not stored.
+ * <p>
+ * {@code version} is raised whenever the envelope changes incompatibly; consumers dead-letter versions they do not
+ * know instead of guessing.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class NotificationMessageDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int VERSION = 1;
+
+    private int version = VERSION;
+
+    private Long operinoId;
+
+    private String recordComponentId;
+
+    private Email email;
+
+    private FormData formData;
+
+    public NotificationMessageDTO() {
+    }
+
+    public NotificationMessageDTO(Notification notification) {
+        this.operinoId = notification.getOperino() == null ? null : notification.getOperino().getId();
+        this.recordComponentId = notification.getRecordComponentId();
+        this.email = notification.getEmail();
+        this.formData = notification.getFormData();
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    /**
+     * @return the id of the operino whose composition is reported, null if the operino is not validated
+     */
+    public Long getOperinoId() {
+        return operinoId;
+    }
+
+    public void setOperinoId(Long operinoId) {
+        this.operinoId = operinoId;
+    }
+
+    public String getRecordComponentId() {
+        return recordComponentId;
+    }
+
+    public void setRecordComponentId(String recordComponentId) {
+        this.recordComponentId = recordComponentId;
+    }
+
+    public Email getEmail() {
+        return email;
+    }
+
+    public void setEmail(Email email) {
+        this.email = email;
+    }
+
+    public FormData getFormData() {
+        return formData;
+    }
+
+    public void setFormData(FormData formData) {
+        this.formData = formData;
+    }
+
+    @Override
+    public String toString() {
+        return "NotificationMessageDTO{" +
+            "version=" + version +
+            ", operinoId=" + operinoId +
+            ", recordComponentId='" + recordComponentId + "'" +
+            '}';
+    }
+}
@@ -0,0 +1,146 @@
+package cloud.c4h.platform.service.dto;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of loading a CSV of observations into a domain.
+ * <p>
+ * Every row becomes one composition; rows committed by an earlier load are counted as resumed, rows of subjects
+ * without an EHR as skipped, rows of batches the CDR rejected as failed. Only the first skips and failures are listed,
+ * apart from each other as only failures may succeed when retried.
+ */
+public class ObservationLoadDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String domain;
+
+    private int rows;
+
+    private int committed;
+
+    private int resumed;
+
+    private int skipped;
+
+    private int failed;
+
+    private int subjects;
+
+    private int batches;
+
+    private long elapsedMillis;
+
+    private List<String> failures = new ArrayList<>();
+
+    private List<String> skips = new ArrayList<>();
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public void setRows(int rows) {
+        this.rows = rows;
+    }
+
+    public int getCommitted() {
+        return committed;
+    }
+
+    public void setCommitted(int committed) {
+        this.committed = committed;
+    }
+
+    public int getResumed() {
+        return resumed;
+    }
+
+    public void setResumed(int resumed) {
+        this.resumed = resumed;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public void setSkipped(int skipped) {
+        this.skipped = skipped;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    public int getSubjects() {
+        return subjects;
+    }
+
+    public void setSubjects(int subjects) {
+        this.subjects = subjects;
+    }
+
+    public int getBatches() {
+        return batches;
+    }
+
+    public void setBatches(int batches) {
+        this.batches = batches;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public double getRowsPerSecond() {
+        return elapsedMillis == 0 ? 0 : committed * 1000.0 / elapsedMillis;
+    }
+
+    public List<String> getFailures() {
+        return failures;
+    }
+
+    public void setFailures(List<String> failures) {
+        this.failures = failures;
+    }
+
+    public List<String> getSkips() {
+        return skips;
+    }
+
+    public void setSkips(List<String> skips) {
+        this.skips = skips;
+    }
+
+    @Override
+    public String toString() {
+        return "ObservationLoadDTO{" +
+            "domain='" + domain + "'" +
+            ", rows=" + rows +
+            ", committed=" + committed +
+            ", resumed=" + resumed +
+            ", skipped=" + skipped +
+            ", failed=" + failed +
+            ", subjects=" + subjects +
+            ", batches=" + batches +
+            ", elapsedMillis=" + elapsedMillis +
+            '}';
+    }
+}
@@ -0,0 +1,207 @@
+package cloud.c4h.platform.service.dto;
+
+import cloud.c4h.platform.domain.Operino;
+import cloud.c4h.platform.domain.OperinoComponent;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * The envelope queued when an existing Operino is saved with changes, instead of provisioning it all over again.
+ * Only the changed properties are set, to their new values; the consumer reloads the operino and applies what the
+ * changes mean for its domain.
+ * <p>
+ * {@code version} is raised whenever the envelope changes incompatibly; consumers dead-letter versions they do not
+ * know instead of guessing.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class OperinoChangeDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int VERSION = 1;
+
+    private int version = VERSION;
+
+    private Long operinoId;
+
+    private String domain;
+
+    private String name;
+
+    private Boolean active;
+
+    private Boolean provision;
+
+    private Integer syntheticPatients;
+
+    private Set<Long> addedComponents;
+
+    private Set<Long> removedComponents;
+
+    private Boolean adopted;
+
+    /**
+     * @param operino the saved operino that claimed a pooled domain
+     * @return the change renaming the pooled domain and its user after the operino and its owner
+     */
+    public static OperinoChangeDTO adopted(Operino operino) {
+        OperinoChangeDTO change = new OperinoChangeDTO();
+        change.operinoId = operino.getId();
+        change.domain = operino.getDomain();
+        change.name = operino.getName();
+        change.adopted = true;
+        return change;
+    }
+
+    /**
+     * @param before the operino as it is stored
+     * @param after  the operino being saved
+     * @return the changes from before to after, none of which are set if the two do not differ
+     */
+    public static OperinoChangeDTO between(Operino before, Operino after) {
+        OperinoChangeDTO change = new OperinoChangeDTO();
+        change.operinoId = before.getId();
+        change.domain = before.getDomain();
+        if (!Objects.equals(before.getName(), after.getName())) {
+            change.name = after.getName();
+        }
+        if (!Objects.equals(before.isActive(), after.isActive())) {
+            change.active = after.isActive();
+        }
+        if (!Objects.equals(before.getProvision(), after.getProvision())) {
+            change.provision = after.getProvision();
+        }
+        if (!Objects.equals(before.getSyntheticPatients(), after.getSyntheticPatients())) {
+            change.syntheticPatients = after.getSyntheticPatients();
+        }
+        Set<Long> beforeComponents = componentIds(before);
+        Set<Long> afterComponents = componentIds(after);
+        Set<Long> added = new TreeSet<>(afterComponents);
+        added.removeAll(beforeComponents);
+        Set<Long> removed = new TreeSet<>(beforeComponents);
+        removed.removeAll(afterComponents);
+        change.addedComponents = added.isEmpty() ? null : added;
+        change.removedComponents = removed.isEmpty() ? null : removed;
+        return change;
+    }
+
+    private static Set<Long> componentIds(Operino operino) {
+        return operino.getComponents().stream()
+            .map(OperinoComponent::getId)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toSet());
+    }
+
+    /**
+     * @return whether nothing changed
+     */
+    @JsonIgnore
+    public boolean isEmpty() {
+        return name == null && active == null && provision == null && syntheticPatients == null
+            && addedComponents == null && removedComponents == null && adopted == null;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public Long getOperinoId() {
+        return operinoId;
+    }
+
+    public void setOperinoId(Long operinoId) {
+        this.operinoId = operinoId;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Boolean getActive() {
+        return active;
+    }
+
+    public void setActive(Boolean active) {
+        this.active = active;
+    }
+
+    public Boolean getProvision() {
+        return provision;
+    }
+
+    public void setProvision(Boolean provision) {
+        this.provision = provision;
+    }
+
+    public Integer getSyntheticPatients() {
+        return syntheticPatients;
+    }
+
+    public void setSyntheticPatients(Integer syntheticPatients) {
+        this.syntheticPatients = syntheticPatients;
+    }
+
+    public Set<Long> getAddedComponents() {
+        return addedComponents;
+    }
+
+    public void setAddedComponents(Set<Long> addedComponents) {
+        this.addedComponents = addedComponents;
+    }
+
+    public Set<Long> getRemovedComponents() {
+        return removedComponents;
+    }
+
+    public void setRemovedComponents(Set<Long> removedComponents) {
+        this.removedComponents = removedComponents;
+    }
+
+    public Boolean getAdopted() {
+        return adopted;
+    }
+
+    public void setAdopted(Boolean adopted) {
+        this.adopted = adopted;
+    }
+
+    @Override
+    public String toString() {
+        return "OperinoChangeDTO{" +
+            "version=" + version +
+            ", operinoId=" + operinoId +
+            ", domain='" + domain + "'" +
+            ", name='" + name + "'" +
+            ", active=" + active +
+            ", provision=" + provision +
+            ", syntheticPatients=" + syntheticPatients +
+            ", addedComponents=" + addedComponents +
+            ", removedComponents=" + removedComponents +
+            ", adopted=" + adopted +
+            '}';
+    }
+}
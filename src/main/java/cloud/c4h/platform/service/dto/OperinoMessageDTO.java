@@ -0,0 +1,68 @@
+package cloud.c4h.platform.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.io.Serializable;
+
+/**
+ * The envelope queued for an Operino to provision. Only the id and the domain, which the work is sharded by, travel;
+ * the provisioner reloads the operino, so it always works on its current state and the user's credentials never pass
+ * through the broker.
+ * <p>
+ * {@code version} is raised whenever the envelope changes incompatibly; consumers dead-letter versions they do not
+ * know instead of guessing.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class OperinoMessageDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int VERSION = 1;
+
+    private int version = VERSION;
+
+    private Long operinoId;
+
+    private String domain;
+
+    public OperinoMessageDTO() {
+    }
+
+    public OperinoMessageDTO(Long operinoId, String domain) {
+        this.operinoId = operinoId;
+        this.domain = domain;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public Long getOperinoId() {
+        return operinoId;
+    }
+
+    public void setOperinoId(Long operinoId) {
+        this.operinoId = operinoId;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    @Override
+    public String toString() {
+        return "OperinoMessageDTO{" +
+            "version=" + version +
+            ", operinoId=" + operinoId +
+            ", domain='" + domain + "'" +
+            '}';
+    }
+}
@@ -0,0 +1,163 @@
+package cloud.c4h.platform.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.io.Serializable;
+
+/**
+ * A progress update of an Operino being provisioned, streamed to the clients watching it.
+ * <p>
+ * {@code step} is the name of a {@link cloud.c4h.platform.domain.enumeration.ProvisioningStep} or
+ * {@link #PATIENTS} for the patient phase as a whole, and is null for events about the run itself.
+ */
+public class ProvisioningEventDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The step reporting progress on the patients of the operino
+     */
+    public static final String PATIENTS = "PATIENTS";
+
+    public enum Status {
+        STARTED, COMPLETED, SKIPPED, PROGRESS, FINISHED, FAILED
+    }
+
+    private Long operinoId;
+
+    private String step;
+
+    private Status status;
+
+    private int progress;
+
+    private long elapsedMillis;
+
+    private int completed;
+
+    private int failed;
+
+    private int total;
+
+    private String message;
+
+    private long timestamp;
+
+    public ProvisioningEventDTO() {
+    }
+
+    public ProvisioningEventDTO(Long operinoId, String step, Status status) {
+        this.operinoId = operinoId;
+        this.step = step;
+        this.status = status;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * @return whether no further events follow for the operino
+     */
+    @JsonIgnore
+    public boolean isTerminal() {
+        return status == Status.FINISHED || status == Status.FAILED;
+    }
+
+    public Long getOperinoId() {
+        return operinoId;
+    }
+
+    public void setOperinoId(Long operinoId) {
+        this.operinoId = operinoId;
+    }
+
+    public String getStep() {
+        return step;
+    }
+
+    public void setStep(String step) {
+        this.step = step;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    /**
+     * @return how far the whole run is, in percent
+     */
+    public int getProgress() {
+        return progress;
+    }
+
+    public void setProgress(int progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * @return the time spent on the step so far, or on the whole run for the final event
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public int getCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(int completed) {
+        this.completed = completed;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "ProvisioningEventDTO{" +
+            "operinoId=" + operinoId +
+            ", step='" + step + "'" +
+            ", status=" + status +
+            ", progress=" + progress +
+            ", elapsedMillis=" + elapsedMillis +
+            ", completed=" + completed +
+            ", failed=" + failed +
+            ", total=" + total +
+            '}';
+    }
+}
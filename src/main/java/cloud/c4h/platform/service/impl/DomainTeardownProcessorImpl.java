@@ -0,0 +1,91 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.service.CdrLookupCache;
+import cloud.c4h.platform.service.DomainAffinityService;
+import cloud.c4h.platform.service.MessageRetryService;
+import cloud.c4h.platform.service.OperinoService;
+import cloud.c4h.platform.service.dto.DomainTeardownDTO;
+import cloud.c4h.platform.service.util.TemplateRegistry;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+
+/**
+ * Service Implementation for tearing down the domains of deleted Operinos.
+ * <p>
+ * The domain is truncated under the lock of the domain, so a teardown never races a provisioning still writing to
+ * it, and the operino is purged only once its domain is gone. A domain the CDR no longer knows counts as torn down,
+ * so teardowns queued again by the reconciler do no harm.
+ */
+@Service
+public class DomainTeardownProcessorImpl {
+
+    private final Logger log = LoggerFactory.getLogger(DomainTeardownProcessorImpl.class);
+
+    private final OperinoService operinoService;
+    private final ThinkEhrRestClient thinkEhrRestClient;
+    private final TemplateRegistry templateRegistry;
+    private final DomainAffinityService domainAffinityService;
+    private final MessageRetryService messageRetryService;
+    private final CdrLookupCache cdrLookupCache;
+
+    public DomainTeardownProcessorImpl(OperinoService operinoService,
+                                       ThinkEhrRestClient thinkEhrRestClient,
+                                       TemplateRegistry templateRegistry,
+                                       DomainAffinityService domainAffinityService,
+                                       MessageRetryService messageRetryService,
+                                       CdrLookupCache cdrLookupCache) {
+        this.operinoService = operinoService;
+        this.thinkEhrRestClient = thinkEhrRestClient;
+        this.templateRegistry = templateRegistry;
+        this.domainAffinityService = domainAffinityService;
+        this.messageRetryService = messageRetryService;
+        this.cdrLookupCache = cdrLookupCache;
+    }
+
+    @RabbitListener(queues = OperinoService.TEARDOWN_QUEUE)
+    public void receive(@Payload DomainTeardownDTO teardown, @Header(name = MessageRetryService.ATTEMPTS, required = false) Integer attempts) {
+        if (teardown.getVersion() > DomainTeardownDTO.VERSION) {
+            messageRetryService.deadLetter(OperinoService.TEARDOWN_QUEUE, teardown, attempts, new IllegalArgumentException("Unknown message version " + teardown.getVersion()));
+            return;
+        }
+        try {
+            tearDown(teardown);
+        } catch (HttpClientErrorException e) {
+            messageRetryService.deadLetter(OperinoService.TEARDOWN_QUEUE, teardown, attempts, e);
+        } catch (RuntimeException e) {
+            messageRetryService.retry(OperinoService.TEARDOWN_QUEUE, teardown, attempts, e);
+        }
+    }
+
+    void tearDown(DomainTeardownDTO teardown) {
+        String domain = teardown.getDomain();
+        log.debug("Tearing down domain {} of Operino {}", domain, teardown.getOperinoId());
+        if (!domainAffinityService.tryLock(domain)) {
+            throw new IllegalStateException("Domain " + domain + " is busy");
+        }
+        try {
+            try {
+                thinkEhrRestClient.truncateDomain(domain);
+            } catch (HttpClientErrorException e) {
+                if (e.getStatusCode() != HttpStatus.NOT_FOUND) {
+                    throw e;
+                }
+                log.info("Domain {} is already gone", domain);
+            }
+            templateRegistry.evict(domain);
+            cdrLookupCache.evict(domain);
+        } finally {
+            domainAffinityService.unlock(domain);
+        }
+        if (teardown.getOperinoId() != null) {
+            operinoService.purge(teardown.getOperinoId());
+        }
+    }
+}
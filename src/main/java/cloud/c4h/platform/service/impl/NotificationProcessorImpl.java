@@ -4,7 +4,9 @@ import cloud.c4h.platform.domain.Notification;
 import cloud.c4h.platform.domain.enumeration.NotificationStatus;
 import cloud.c4h.platform.repository.NotificationRepository;
 import cloud.c4h.platform.service.MailService;
+import cloud.c4h.platform.service.MessageRetryService;
 import cloud.c4h.platform.service.OperinoService;
+import cloud.c4h.platform.service.dto.NotificationMessageDTO;
 import cloud.c4h.platform.service.util.PdfReportGenerator;
 import cloud.c4h.platform.service.util.ThinkEhrRestClient;
 import com.lowagie.text.DocumentException;
@@ -15,6 +17,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.core.io.Resource;
 import org.springframework.http.*;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -31,7 +36,7 @@ import java.util.UUID;
 @Service
 @Transactional
 //@RabbitListener(queues = "notifications")
-@RabbitListener(bindings = @QueueBinding(value = @Queue(value = "notifications", durable = "true"), exchange = @Exchange(value = "exch", autoDelete = "true"), key = "key"))
+@RabbitListener(bindings = @QueueBinding(value = @Queue(value = OperinoService.NOTIFICATIONS_QUEUE, durable = "true"), exchange = @Exchange(value = "exch", autoDelete = "true"), key = "key"))
 @ConfigurationProperties(prefix = "notifier", ignoreUnknownFields = false)
 public class NotificationProcessorImpl {
 
@@ -51,9 +56,44 @@ public class NotificationProcessorImpl {
     @Autowired
     private MailService mailService;
 
+    @Autowired
+    private MessageRetryService messageRetryService;
+
     //    @RabbitListener(queues = "notifications")
     @RabbitHandler
-    public void receive(@Payload Notification notification) {
+    public void receive(@Payload NotificationMessageDTO message, @Header(name = MessageRetryService.ATTEMPTS, required = false) Integer attempts) {
+        if (message.getVersion() > NotificationMessageDTO.VERSION) {
+            messageRetryService.deadLetter(OperinoService.NOTIFICATIONS_QUEUE, message, attempts, new IllegalArgumentException("Unknown message version " + message.getVersion()));
+            return;
+        }
+        try {
+            Notification notification = toNotification(message);
+            if (notification.getOperino() == null && !skipCompositionIdValidation) {
+                log.warn("Operino {} of notification no longer exists, not sending it", message.getOperinoId());
+                return;
+            }
+            process(notification);
+        } catch (DocumentException | MailPreparationException | MailParseException e) {
+            messageRetryService.deadLetter(OperinoService.NOTIFICATIONS_QUEUE, message, attempts, e);
+        } catch (RuntimeException e) {
+            // the CDR, the operino's config or the mail server could not be reached, try again later
+            messageRetryService.retry(OperinoService.NOTIFICATIONS_QUEUE, message, attempts, e);
+        }
+    }
+
+    private Notification toNotification(NotificationMessageDTO message) {
+        Notification notification = new Notification();
+        if (message.getOperinoId() != null) {
+            notification.setOperino(operinoService.findOneNoAuth(message.getOperinoId()));
+        }
+        notification.setRecordComponentId(message.getRecordComponentId());
+        notification.setEmail(message.getEmail());
+        notification.setFormData(message.getFormData());
+        notification.setStatus(NotificationStatus.INPROGRESS);
+        return notification;
+    }
+
+    void process(Notification notification) throws DocumentException {
         log.debug("Received notification {}", notification);
 
         HttpHeaders headers = new HttpHeaders();
@@ -83,7 +123,7 @@ public class NotificationProcessorImpl {
             if ((getResponse != null && getResponse.getStatusCode() == HttpStatus.OK) || skipCompositionIdValidation) {
                 // now loop though recipients and send emails to all
                 notification.getEmail().getRecipients().forEach(recipient -> {
-                    mailService.sendEmailWithAttachment(recipient, notification.getEmail().getReportEmail().getSubject(),
+                    mailService.sendEmailWithAttachmentNow(recipient, notification.getEmail().getReportEmail().getSubject(),
                         notification.getEmail().getReportEmail().getBody(),
                         reportFileName + ".pdf", reportPath, "application/pdf", true, true);
                     log.info("Sent report to recipient = {}", recipient);
@@ -91,7 +131,7 @@ public class NotificationProcessorImpl {
 
                 // now loop through confirmation receivers and notify all
                 notification.getEmail().getConfirmationReceivers().forEach(recipient -> {
-                    mailService.sendEmail(recipient, notification.getEmail().getConfirmationEmail().getSubject(),
+                    mailService.sendEmailNow(recipient, notification.getEmail().getConfirmationEmail().getSubject(),
                         notification.getEmail().getConfirmationEmail().getBody(), true, true);
                     log.info("Sent confirmation to recipient = {}", recipient);
                 });
@@ -113,6 +153,7 @@ public class NotificationProcessorImpl {
             log.error("Error reading response from rest call. Nested exception is : ", e);
         } catch (DocumentException e) {
             log.error("Error generating pdf from rest call. Nested exception is : ", e);
+            throw e;
         }
 
         // save notification
@@ -0,0 +1,404 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.service.ProvisioningJournal;
+import cloud.c4h.platform.service.dto.ObservationLoadDTO;
+import cloud.c4h.platform.service.util.CompositionRequest;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Loads observations from a CSV into the EHRs of a domain, one FLAT composition per row.
+ * <p>
+ * The first column is {@value #SUBJECT_ID}, the other column names are FLAT paths, e.g. those of
+ * {@code data/nursing-obs.csv}. Rows are read one at a time and buffered per subject; a subject's buffer is
+ * committed as one batch when it reaches {@code batchSize} rows, or earlier when too many rows are buffered in
+ * total, so files of any size and ordering are loaded in bounded memory. The EHR of every subject is looked up
+ * once, by the first of its batches, and at most {@code parallelism} batches are in flight, the reader waits
+ * for a free slot otherwise.
+ * <p>
+ * Every committed batch is recorded in the {@link ProvisioningJournal} of the load by the rows it was read from,
+ * and rows found there are not committed again, so loading the same CSV again only commits the rest. Rows of
+ * subjects without an EHR are skipped, which is reported apart from the failures a retry may recover from.
+ * <p>
+ * Quantities without a {@code |unit} column get the unit the vital signs template expects for them.
+ */
+public class ObservationLoader {
+
+    public static final String VITAL_SIGNS_TEMPLATE = "Vital Signs Encounter (Composition)";
+    static final String SUBJECT_ID = "subjectId";
+
+    private static final ObjectReader CSV_READER = new CsvMapper().readerFor(Map.class)
+        .with(CsvSchema.emptySchema().withHeader());
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?");
+    private static final String MAGNITUDE = "|magnitude";
+    private static final String UNIT = "|unit";
+    private static final Map<String, String> DEFAULT_UNITS = new HashMap<>();
+    private static final int MAX_CACHED_SUBJECTS = 10000;
+    private static final int MAX_REPORTED_FAILURES = 100;
+
+    static {
+        DEFAULT_UNITS.put("temperature", "°C");
+        DEFAULT_UNITS.put("rate", "/min");
+        DEFAULT_UNITS.put("heart_rate", "/min");
+        DEFAULT_UNITS.put("systolic", "mm[Hg]");
+        DEFAULT_UNITS.put("diastolic", "mm[Hg]");
+    }
+
+    private final Logger log = LoggerFactory.getLogger(ObservationLoader.class);
+
+    private final ThinkEhrRestClient thinkEhrRestClient;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final int batchSize;
+    private final String agentName;
+
+    private final Meter rowsMeter;
+    private final Timer batchTimer;
+
+    public ObservationLoader(ThinkEhrRestClient thinkEhrRestClient, MetricRegistry metricRegistry, int parallelism,
+                             int batchSize, String agentName) {
+        this.thinkEhrRestClient = thinkEhrRestClient;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.agentName = agentName;
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), new LoaderThreadFactory());
+
+        this.rowsMeter = metricRegistry.meter(MetricRegistry.name(ObservationLoader.class, "rows"));
+        this.batchTimer = metricRegistry.timer(MetricRegistry.name(ObservationLoader.class, "batch"));
+    }
+
+    /**
+     * Loads all rows of the CSV and waits until they have been committed.
+     *
+     * @param domain           the domain the observations are loaded into, used for reporting
+     * @param headers          the headers (authorization) used for every CDR call
+     * @param subjectNamespace the namespace of the subject ids of the CSV
+     * @param templateId       the template the FLAT paths of the CSV belong to
+     * @param csv              the CSV, read incrementally and not closed
+     * @return the outcome of the load
+     * @throws IOException if the CSV cannot be read or parsed
+     */
+    public ObservationLoadDTO load(String domain, HttpHeaders headers, String subjectNamespace, String templateId,
+                                   InputStream csv) throws IOException {
+        return load(domain, headers, subjectNamespace, templateId, csv, ProvisioningJournal.transientJournal());
+    }
+
+    /**
+     * Loads the rows of the CSV not yet committed according to the journal and waits until they have been committed.
+     *
+     * @param domain           the domain the observations are loaded into, used for reporting
+     * @param headers          the headers (authorization) used for every CDR call
+     * @param subjectNamespace the namespace of the subject ids of the CSV
+     * @param templateId       the template the FLAT paths of the CSV belong to
+     * @param csv              the CSV, read incrementally and not closed
+     * @param journal          the rows committed so far, committed batches are recorded in it
+     * @return the outcome of the load
+     * @throws IOException if the CSV cannot be read or parsed
+     */
+    public ObservationLoadDTO load(String domain, HttpHeaders headers, String subjectNamespace, String templateId,
+                                   InputStream csv, ProvisioningJournal journal) throws IOException {
+        HttpHeaders jsonHeaders = new HttpHeaders();
+        jsonHeaders.putAll(headers);
+        jsonHeaders.setContentType(MediaType.APPLICATION_JSON);
+        Run run = new Run(domain, jsonHeaders, subjectNamespace, templateId, journal);
+        try {
+            MappingIterator<Map<String, String>> rows = CSV_READER.readValues(csv);
+            while (rows.hasNextValue()) {
+                run.add(rows.nextValue());
+            }
+        } finally {
+            run.finish();
+        }
+        ObservationLoadDTO report = run.report();
+        log.info("Loaded {} of {} observations ({} resumed, {} skipped, {} failed) for {} subjects into domain {} in {} ms ({} rows/sec)",
+            report.getCommitted(), report.getRows(), report.getResumed(), report.getSkipped(), report.getFailed(), report.getSubjects(), domain,
+            report.getElapsedMillis(), String.format("%.2f", report.getRowsPerSecond()));
+        return report;
+    }
+
+    /**
+     * Stops the worker pool, letting already submitted batches finish.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return the FLAT composition of a row: every column but the subject, numbers unquoted, default units added
+     */
+    static byte[] toFlatComposition(Map<String, String> row) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64 * row.size());
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(body)) {
+            generator.writeStartObject();
+            for (Map.Entry<String, String> column : row.entrySet()) {
+                String path = column.getKey();
+                String value = column.getValue();
+                if (SUBJECT_ID.equals(path) || value == null || value.isEmpty()) {
+                    continue;
+                }
+                generator.writeFieldName(path);
+                if (!path.startsWith("ctx/") && NUMBER.matcher(value).matches()) {
+                    generator.writeNumber(value);
+                } else {
+                    generator.writeString(value);
+                }
+                if (path.endsWith(MAGNITUDE)) {
+                    String quantity = path.substring(0, path.length() - MAGNITUDE.length());
+                    String unit = DEFAULT_UNITS.get(quantity.substring(quantity.lastIndexOf('/') + 1));
+                    if (unit != null && !row.containsKey(quantity + UNIT)) {
+                        generator.writeStringField(quantity + UNIT, unit);
+                    }
+                }
+            }
+            generator.writeEndObject();
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * The state of loading one CSV: the rows buffered per subject, the batches in flight and the counts
+     */
+    private final class Run {
+        private final String domain;
+        private final HttpHeaders headers;
+        private final String subjectNamespace;
+        private final String templateId;
+        private final ProvisioningJournal journal;
+        private final long startNanos = System.nanoTime();
+        private final Map<String, Batch> pending = new LinkedHashMap<>();
+        private final int maxPendingRows = batchSize * parallelism * 4;
+        private final Semaphore inFlight = new Semaphore(parallelism);
+        private final Map<String, CompletableFuture<String>> ehrIds = new LinkedHashMap<String, CompletableFuture<String>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<String>> eldest) {
+                return size() > MAX_CACHED_SUBJECTS;
+            }
+        };
+        private final AtomicInteger committed = new AtomicInteger();
+        private final AtomicInteger resumed = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger subjects = new AtomicInteger();
+        private final AtomicInteger batches = new AtomicInteger();
+        private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> skips = Collections.synchronizedList(new ArrayList<>());
+        private int rows;
+        private int pendingRows;
+
+        Run(String domain, HttpHeaders headers, String subjectNamespace, String templateId, ProvisioningJournal journal) {
+            this.domain = domain;
+            this.headers = headers;
+            this.subjectNamespace = subjectNamespace;
+            this.templateId = templateId;
+            this.journal = journal;
+        }
+
+        void add(Map<String, String> row) throws IOException {
+            rows++;
+            String subject = row.get(SUBJECT_ID);
+            if (subject == null || subject.isEmpty()) {
+                failed.incrementAndGet();
+                fail("Row " + rows + " has no " + SUBJECT_ID);
+                return;
+            }
+            if (journal.isObservationCommitted(subject, rows)) {
+                resumed.incrementAndGet();
+                return;
+            }
+            Batch batch = pending.computeIfAbsent(subject, key -> new Batch());
+            batch.add(rows, new CompositionRequest(templateId, toFlatComposition(row), "row " + rows));
+            pendingRows++;
+            if (batch.size() >= batchSize) {
+                submit(subject, pending.remove(subject));
+            } else if (pendingRows >= maxPendingRows) {
+                // the subject buffered longest is unlikely to fill its batch soon
+                Iterator<Map.Entry<String, Batch>> eldest = pending.entrySet().iterator();
+                Map.Entry<String, Batch> entry = eldest.next();
+                eldest.remove();
+                submit(entry.getKey(), entry.getValue());
+            }
+        }
+
+        void finish() {
+            for (Map.Entry<String, Batch> entry : pending.entrySet()) {
+                submit(entry.getKey(), entry.getValue());
+            }
+            pending.clear();
+            try {
+                // every finished batch hands its permit back, so holding all of them means the load is complete
+                inFlight.acquire(parallelism);
+                inFlight.release(parallelism);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while loading observations into domain {}", domain);
+            }
+        }
+
+        ObservationLoadDTO report() {
+            ObservationLoadDTO report = new ObservationLoadDTO();
+            report.setDomain(domain);
+            report.setRows(rows);
+            report.setCommitted(committed.get());
+            report.setResumed(resumed.get());
+            report.setSkipped(skipped.get());
+            report.setFailed(failed.get());
+            report.setSubjects(subjects.get());
+            report.setBatches(batches.get());
+            report.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            synchronized (failures) {
+                report.setFailures(new ArrayList<>(failures));
+            }
+            synchronized (skips) {
+                report.setSkips(new ArrayList<>(skips));
+            }
+            return report;
+        }
+
+        private void submit(String subject, Batch batch) {
+            pendingRows -= batch.size();
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.addAndGet(batch.size());
+                fail("Interrupted before committing " + batch.size() + " observations of " + subject);
+                return;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        commit(subject, batch);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                failed.addAndGet(batch.size());
+                fail("Could not commit " + batch.size() + " observations of " + subject + ": " + e.getMessage());
+            }
+        }
+
+        private void commit(String subject, Batch batch) {
+            try {
+                String ehrId = ehrId(subject).join();
+                if (ehrId == null) {
+                    skipped.addAndGet(batch.size());
+                    report(skips, "No EHR for subject " + subject + ", skipped " + batch.size() + " observations");
+                    return;
+                }
+                long start = System.nanoTime();
+                thinkEhrRestClient.commitCompositions(headers, ehrId, agentName, batch.compositions);
+                batchTimer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                journal.recordObservations(subject, batch.rows);
+                committed.addAndGet(batch.size());
+                batches.incrementAndGet();
+                rowsMeter.mark(batch.size());
+            } catch (RuntimeException e) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                failed.addAndGet(batch.size());
+                fail("Could not commit " + batch.size() + " observations of " + subject + ": " + cause.getMessage());
+                log.warn("Error loading observations of {} into domain {}: {}", subject, domain, cause.getMessage());
+            }
+        }
+
+        /**
+         * @return the EHR id of the subject, looked up by the first caller while the others wait for it
+         */
+        private CompletableFuture<String> ehrId(String subject) {
+            CompletableFuture<String> ehrId;
+            CompletableFuture<String> lookup = null;
+            synchronized (ehrIds) {
+                ehrId = ehrIds.get(subject);
+                if (ehrId == null) {
+                    lookup = new CompletableFuture<>();
+                    ehrIds.put(subject, lookup);
+                    ehrId = lookup;
+                }
+            }
+            if (lookup != null) {
+                subjects.incrementAndGet();
+                try {
+                    lookup.complete(thinkEhrRestClient.findEhrId(headers, subjectNamespace, subject));
+                } catch (RuntimeException e) {
+                    lookup.completeExceptionally(e);
+                }
+            }
+            return ehrId;
+        }
+
+        private void fail(String failure) {
+            report(failures, failure);
+        }
+
+        private void report(List<String> outcomes, String outcome) {
+            if (outcomes.size() < MAX_REPORTED_FAILURES) {
+                outcomes.add(outcome);
+            }
+        }
+    }
+
+    /**
+     * The buffered rows of one subject, committed together
+     */
+    private static final class Batch {
+        private final List<Integer> rows = new ArrayList<>();
+        private final List<CompositionRequest> compositions = new ArrayList<>();
+
+        void add(int row, CompositionRequest composition) {
+            rows.add(row);
+            compositions.add(composition);
+        }
+
+        int size() {
+            return rows.size();
+        }
+    }
+
+    private static final class LoaderThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "c4hcloudplatform-ObservationLoader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.domain.Operino;
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+import cloud.c4h.platform.service.MessageRetryService;
+import cloud.c4h.platform.service.OperinoService;
+import cloud.c4h.platform.service.ProvisioningCheckpointService;
+import cloud.c4h.platform.service.ProvisioningJournal;
+import cloud.c4h.platform.service.dto.OperinoChangeDTO;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.net.URISyntaxException;
+
+/**
+ * Service Implementation for applying changes of provisioned Operinos to their domains.
+ * <p>
+ * Only what a change means for the CDR is done: a renamed operino renames its domain, an operino that claimed a
+ * pooled domain renames the domain and its user after itself and its owner, and switching provisioning on queues
+ * the operino to get its patients. Parts of the domain not provisioned yet are left to the provisioner,
+ * which works from the operino as it is then.
+ */
+@Service
+public class OperinoChangeProcessorImpl {
+
+    private final Logger log = LoggerFactory.getLogger(OperinoChangeProcessorImpl.class);
+
+    private final OperinoService operinoService;
+    private final ProvisioningCheckpointService provisioningCheckpointService;
+    private final ThinkEhrRestClient thinkEhrRestClient;
+    private final MessageRetryService messageRetryService;
+
+    public OperinoChangeProcessorImpl(OperinoService operinoService,
+                                      ProvisioningCheckpointService provisioningCheckpointService,
+                                      ThinkEhrRestClient thinkEhrRestClient,
+                                      MessageRetryService messageRetryService) {
+        this.operinoService = operinoService;
+        this.provisioningCheckpointService = provisioningCheckpointService;
+        this.thinkEhrRestClient = thinkEhrRestClient;
+        this.messageRetryService = messageRetryService;
+    }
+
+    @RabbitListener(queues = OperinoService.CHANGES_QUEUE)
+    public void receive(@Payload OperinoChangeDTO change, @Header(name = MessageRetryService.ATTEMPTS, required = false) Integer attempts) {
+        if (change.getVersion() > OperinoChangeDTO.VERSION) {
+            messageRetryService.deadLetter(OperinoService.CHANGES_QUEUE, change, attempts, new IllegalArgumentException("Unknown message version " + change.getVersion()));
+            return;
+        }
+        try {
+            apply(change);
+        } catch (URISyntaxException | HttpClientErrorException e) {
+            messageRetryService.deadLetter(OperinoService.CHANGES_QUEUE, change, attempts, e);
+        } catch (RuntimeException e) {
+            messageRetryService.retry(OperinoService.CHANGES_QUEUE, change, attempts, e);
+        }
+    }
+
+    void apply(OperinoChangeDTO change) throws URISyntaxException {
+        log.debug("Applying {}", change);
+        Operino operino = operinoService.findOneNoAuth(change.getOperinoId());
+        if (operino == null) {
+            log.warn("Operino {} no longer exists, not applying its changes", change.getOperinoId());
+            return;
+        }
+        if (operino.getDeletionRequested() != null) {
+            log.info("Operino {} is being deleted, not applying its changes", change.getOperinoId());
+            return;
+        }
+        ProvisioningJournal journal = provisioningCheckpointService.open(operino);
+        if (change.getName() != null && journal.isDone(ProvisioningStep.DOMAIN)) {
+            // the current name, in case it changed again since
+            thinkEhrRestClient.updateDomain(operino.getDomain(), operino.getName());
+        }
+        if (Boolean.TRUE.equals(change.getAdopted()) && journal.isDone(ProvisioningStep.USER)) {
+            thinkEhrRestClient.updateUser(operino.getDomain(), operino.getUser());
+        }
+        if (Boolean.TRUE.equals(change.getProvision()) && Boolean.TRUE.equals(operino.getProvision())) {
+            operinoService.provision(operino);
+        }
+    }
+}
@@ -1,58 +1,108 @@
 package cloud.c4h.platform.service.impl;
 
 import cloud.c4h.platform.domain.Operino;
-import cloud.c4h.platform.domain.Patient;
+import cloud.c4h.platform.domain.User;
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+import cloud.c4h.platform.security.AuthoritiesConstants;
+import cloud.c4h.platform.security.SecurityUtils;
+import cloud.c4h.platform.service.CdrLookupCache;
+import cloud.c4h.platform.service.DomainAffinityService;
 import cloud.c4h.platform.service.MailService;
+import cloud.c4h.platform.service.MessageRetryService;
 import cloud.c4h.platform.service.OperinoProvisioner;
+import cloud.c4h.platform.service.ProvisioningEventBus;
 import cloud.c4h.platform.service.OperinoService;
+import cloud.c4h.platform.service.ProvisioningCheckpointService;
+import cloud.c4h.platform.service.ProvisioningJournal;
+import cloud.c4h.platform.service.dto.ObservationLoadDTO;
+import cloud.c4h.platform.service.dto.OperinoMessageDTO;
+import cloud.c4h.platform.service.dto.ProvisioningEventDTO;
 import cloud.c4h.platform.service.util.ParameterCollector;
+import cloud.c4h.platform.service.util.PatientRequest;
+import cloud.c4h.platform.service.util.SamplePayloadStore;
+import cloud.c4h.platform.service.util.TemplateRegistry;
 import cloud.c4h.platform.service.util.ThinkEhrRestClient;
-import com.fasterxml.jackson.databind.MappingIterator;
-import com.fasterxml.jackson.dataformat.csv.CsvMapper;
-import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.codahale.metrics.MetricRegistry;
+import com.hazelcast.spring.context.SpringAware;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.annotation.RabbitHandler;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.core.io.ByteArrayResource;
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestClientException;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Service Implementation for provisioning Operinos.
  */
 @Service
 @Transactional
-@RabbitListener(queues = "operinos")
 @ConfigurationProperties(prefix = "provisioner", ignoreUnknownFields = false)
-public class OperinoProvisionerImpl implements InitializingBean, OperinoProvisioner {
+public class OperinoProvisionerImpl implements InitializingBean, DisposableBean, OperinoProvisioner {
     /**
      * We use the same password for every domain
      */
     private static final String DOMAIN_PASSWORD = "$2a$10$619ki";
+    /**
+     * The fixture patients provisioned into every domain
+     */
+    static final List<String> PATIENT_FILES = Collections.unmodifiableList(Arrays.asList(
+        "data/patients1.csv", "data/patients2.csv", "data/patients3.csv", "data/patients4.csv", "data/patients5.csv"));
+    /**
+     * The vital signs time series of the fixture patients
+     */
+    static final String OBSERVATIONS_FILE = "data/nursing-obs.csv";
+    /**
+     * The CDR user name of pooled domains until an operino claims them
+     */
+    static final String POOL_USER = "pool";
+    private static final String VITAL_SIGNS_TEMPLATE = "sample_requests/vital-signs/vital-signs-template.xml";
     private final Logger log = LoggerFactory.getLogger(OperinoProvisionerImpl.class);
-    private final List<Patient> patients;
     String subjectNamespace;
     String agentName;
+    /**
+     * Number of provisioning workers shared by all domains
+     */
+    int globalParallelism = 16;
+    /**
+     * Number of patients of a single domain provisioned concurrently
+     */
+    int domainParallelism = 4;
+    /**
+     * Whether patients are provisioned over the non-blocking CDR transport
+     */
+    boolean async = false;
+    private final Lane light = Lane.light();
+    private final Lane heavy = Lane.heavy();
+    private final Synthetic synthetic = new Synthetic();
+    private final Observations observations = new Observations();
+    private PatientProvisioningEngine patientProvisioningEngine;
+    private PatientCatalogue patientCatalogue;
+    private ObservationLoader observationLoader;
 
     @Autowired
     OperinoService operinoService;
@@ -60,25 +110,88 @@ public class OperinoProvisionerImpl implements InitializingBean, OperinoProvisio
     ThinkEhrRestClient thinkEhrRestClient;
     @Autowired
     MailService mailService;
+    @Autowired
+    MetricRegistry metricRegistry;
+    @Autowired
+    TemplateRegistry templateRegistry;
+    @Autowired
+    SamplePayloadStore samplePayloadStore;
+    @Autowired
+    ProvisioningCheckpointService provisioningCheckpointService;
+    @Autowired
+    ProvisioningEventBus provisioningEventBus;
+    @Autowired
+    MessageRetryService messageRetryService;
+    @Autowired
+    DomainAffinityService domainAffinityService;
+    @Autowired
+    CdrLookupCache cdrLookupCache;
 
-    OperinoProvisionerImpl() {
-        patients = new ArrayList<>();
-        // load patients from files
-        for (int i = 0; i < 2; i++) {
-            patients.addAll(loadPatientsList("data/patients" + (i + 1) + ".csv"));
-            log.debug("Loaded {} patients from file {}", patients.size(), "data/patients" + i + ".csv");
+    @Override
+    @RabbitListener(queues = LIGHT_QUEUE, containerFactory = "lightListenerContainerFactory")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void receiveLight(@Payload OperinoMessageDTO message, @Header(name = MessageRetryService.ATTEMPTS, required = false) Integer attempts) {
+        receive(LIGHT_QUEUE, message, attempts);
+    }
+
+    @Override
+    @RabbitListener(queues = HEAVY_QUEUE, containerFactory = "heavyListenerContainerFactory")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void receiveHeavy(@Payload OperinoMessageDTO message, @Header(name = MessageRetryService.ATTEMPTS, required = false) Integer attempts) {
+        receive(HEAVY_QUEUE, message, attempts);
+    }
+
+    /**
+     * Provisions a queued operino on the member owning its domain. Failures the CDR may recover from are retried
+     * later, the journal making the retry resume where this attempt stopped; requests the CDR rejected are
+     * dead-lettered straight away.
+     */
+    private void receive(String queue, OperinoMessageDTO message, Integer attempts) {
+        if (message.getVersion() > OperinoMessageDTO.VERSION) {
+            messageRetryService.deadLetter(queue, message, attempts, new IllegalArgumentException("Unknown message version " + message.getVersion()));
+            return;
+        }
+        try {
+            if (message.getDomain() == null || domainAffinityService.isLocal(message.getDomain())) {
+                provisionOwned(message.getOperinoId());
+            } else {
+                domainAffinityService.callOnOwner(LIGHT_QUEUE.equals(queue) ? DomainAffinityService.LIGHT_LANE : DomainAffinityService.HEAVY_LANE,
+                    message.getDomain(), new OwnedProvisioning(message.getOperinoId()));
+            }
+        } catch (URISyntaxException | HttpClientErrorException e) {
+            messageRetryService.deadLetter(queue, message, attempts, e);
+        } catch (RuntimeException e) {
+            messageRetryService.retry(queue, message, attempts, e);
         }
-        log.debug("Final number of patients = {}", patients.size());
     }
 
     @Override
-    @RabbitHandler
-    public void receive(@Payload Operino project) {
-        log.debug("Receiving Project " + project.toString());
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void provisionOwned(Long operinoId) throws URISyntaxException {
+        // reloaded, so a retry sees what the user changed in the meantime
+        Operino project = operinoService.findOneNoAuth(operinoId);
+        if (project == null) {
+            log.warn("Operino {} no longer exists, not provisioning it", operinoId);
+            return;
+        }
+        if (project.getDeletionRequested() != null) {
+            log.info("Operino {} is being deleted, not provisioning it", operinoId);
+            return;
+        }
+        if (!domainAffinityService.tryLock(project.getDomain())) {
+            throw new IllegalStateException("Domain " + project.getDomain() + " is locked by other work");
+        }
         try {
-            provision(project);
+            run(project);
+        } finally {
+            domainAffinityService.unlock(project.getDomain());
+        }
+    }
 
-            sendConfirmationEmail(project);
+    @Override
+    public void receive(@Payload Operino project) {
+        try {
+            run(project);
         } catch (URISyntaxException e) {
             log.warn("Could not provision", e);
         } catch (RestClientException e) {
@@ -86,11 +199,33 @@ public class OperinoProvisionerImpl implements InitializingBean, OperinoProvisio
         }
     }
 
+    private void run(Operino project) throws URISyntaxException {
+        log.debug("Receiving Project " + project.toString());
+        ProvisioningProgress progress = new ProvisioningProgress(provisioningEventBus, project.getId(), Boolean.TRUE.equals(project.getProvision()));
+        try {
+            ProvisioningJournal journal = provisioningCheckpointService.open(project);
+            provision(project, journal, progress);
+
+            if (!journal.isDone(ProvisioningStep.NOTIFIED)) {
+                progress.started(ProvisioningStep.NOTIFIED.name());
+                sendConfirmationEmail(project);
+                journal.record(ProvisioningStep.NOTIFIED, null);
+                progress.completed(ProvisioningStep.NOTIFIED.name());
+            } else {
+                progress.skipped(ProvisioningStep.NOTIFIED.name());
+            }
+            progress.finished();
+        } catch (URISyntaxException | RuntimeException e) {
+            progress.failed(e);
+            throw e;
+        }
+    }
+
     private void sendConfirmationEmail(@Payload Operino project) {
         Map<String, String> config = operinoService.getConfigForOperino(project);
 
         try {
-            ParameterCollector parameterCollector = new ParameterCollector(thinkEhrRestClient, config);
+            ParameterCollector parameterCollector = new ParameterCollector(thinkEhrRestClient, config, cdrLookupCache);
 
             JSONObject pm = parameterCollector.getPostmanConfig();
             ByteArrayResource postman = new ByteArrayResource(pm.toString().getBytes());
@@ -105,97 +240,167 @@ public class OperinoProvisionerImpl implements InitializingBean, OperinoProvisio
         }
     }
 
-    private HttpHeaders provision(Operino project) throws URISyntaxException {
+    /**
+     * Provisions the domain, user, templates and patients of an operino, skipping the steps the journal
+     * shows as done by an earlier attempt. Every step is reported to the progress of the run.
+     */
+    private HttpHeaders provision(Operino project, ProvisioningJournal journal, ProvisioningProgress progress) throws URISyntaxException {
         String domainName = project.getDomain();
-        thinkEhrRestClient.createDomain(domainName, project.getName());
-        thinkEhrRestClient.createUser(domainName, project.getUser(), DOMAIN_PASSWORD);
+        // the ids handed out for the domain change when its patients are provisioned again
+        cdrLookupCache.evict(domainName);
+        if (!journal.isDone(ProvisioningStep.DOMAIN)) {
+            progress.started(ProvisioningStep.DOMAIN.name());
+            thinkEhrRestClient.createDomain(domainName, project.getName());
+            journal.record(ProvisioningStep.DOMAIN, domainName);
+            progress.completed(ProvisioningStep.DOMAIN.name());
+        } else {
+            progress.skipped(ProvisioningStep.DOMAIN.name());
+        }
+        if (!journal.isDone(ProvisioningStep.USER)) {
+            progress.started(ProvisioningStep.USER.name());
+            thinkEhrRestClient.createUser(domainName, project.getUser(), DOMAIN_PASSWORD);
+            journal.record(ProvisioningStep.USER, project.getUser().getLogin());
+            progress.completed(ProvisioningStep.USER.name());
+        } else {
+            progress.skipped(ProvisioningStep.USER.name());
+        }
 
         HttpHeaders headers = new HttpHeaders();
         headers.set("Authorization", ThinkEhrRestClient.createBasicAuthString(domainName, DOMAIN_PASSWORD));
-        // upload various templates - we have to upload at least on template as work around fo EhrExplorer bug
-        thinkEhrRestClient.uploadTemplate(headers, "sample_requests/problems/problems-template.xml");
-        // now if user has requested provisioning, we upload other templates and generated data
-        if (project.getProvision()) {
-            thinkEhrRestClient.uploadTemplate(headers, "sample_requests/allergies/allergies-template.xml");
-            thinkEhrRestClient.uploadTemplate(headers, "sample_requests/lab-results/lab-results-template.xml");
-            thinkEhrRestClient.uploadTemplate(headers, "sample_requests/orders/orders-template.xml");
-            thinkEhrRestClient.uploadTemplate(headers, "sample_requests/vital-signs/vital-signs-template.xml");
-            thinkEhrRestClient.uploadTemplate(headers, "sample_requests/procedures/procedures-template.xml");
+        if (!journal.isDone(ProvisioningStep.TEMPLATES)) {
+            progress.started(ProvisioningStep.TEMPLATES.name());
+            // upload various templates - we have to upload at least on template as work around fo EhrExplorer bug
+            List<String> templates = new ArrayList<>();
+            templates.add("sample_requests/problems/problems-template.xml");
+            // now if user has requested provisioning, we upload other templates and generated data
+            if (project.getProvision()) {
+                templates.add("sample_requests/allergies/allergies-template.xml");
+                templates.add("sample_requests/lab-results/lab-results-template.xml");
+                templates.add("sample_requests/orders/orders-template.xml");
+                templates.add(VITAL_SIGNS_TEMPLATE);
+                templates.add("sample_requests/procedures/procedures-template.xml");
+            }
+            templateRegistry.ensureTemplates(domainName, headers, templates);
+            journal.record(ProvisioningStep.TEMPLATES, null);
+            progress.completed(ProvisioningStep.TEMPLATES.name());
+        } else {
+            progress.skipped(ProvisioningStep.TEMPLATES.name());
+        }
 
-            createPatients(headers);
+        if (project.getProvision()) {
+            if (!journal.isDone(ProvisioningStep.PATIENTS)) {
+                createPatients(project, headers, journal, progress);
+            } else {
+                progress.skipped(ProvisioningEventDTO.PATIENTS);
+            }
+            if (!journal.isDone(ProvisioningStep.OBSERVATIONS)) {
+                progress.started(ProvisioningStep.OBSERVATIONS.name());
+                createObservations(domainName, headers, journal);
+                progress.completed(ProvisioningStep.OBSERVATIONS.name());
+            } else {
+                progress.skipped(ProvisioningStep.OBSERVATIONS.name());
+            }
         }
 
         log.info("Provisioning finished");
         return headers;
     }
 
-    private void createPatients(HttpHeaders headers) {
-        log.info("Creating patients (" + patients.size() + ")");
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        try {
-            for (Patient p : patients) {
-                // create patient
-                String patientId = thinkEhrRestClient.createPatient(headers, p);
-                log.debug("Created patient with Id = {}", patientId);
-                // create ehr
-                String ehrId = thinkEhrRestClient.createEhr(p, headers, subjectNamespace, p.getNhsNumber(), agentName);
-                log.debug("Created ehr with Id = {}", ehrId);
-                // now upload compositions against each template loaded above
-                // -- first process vital signs template compositions
-                // create composition file path
-                String compositionPath = "sample_requests/vital-signs/vital-signs-composition.json";
-                String compositionId = thinkEhrRestClient.createComposition(headers, ehrId, "Vital Signs Encounter (Composition)", agentName, compositionPath);
-                log.debug("Created composition with Id = {}", compositionId);
-                // -- first process allergy template compositions
-                for (int i = 1; i < 7; i++) {
-                    // create composition file path
-                    compositionPath = "sample_requests/allergies/AllergiesList_" + i + "FLAT.json";
-                    compositionId = thinkEhrRestClient.createComposition(headers, ehrId, "IDCR Allergies List.v0", agentName, compositionPath);
-                    log.debug("Created composition with Id = {}", compositionId);
-                }
-                // -- next process lab order compositions
-                for (int i = 1; i < 13; i++) {
-                    // create composition file path
-                    compositionPath = "sample_requests/orders/IDCR_Lab_Order_FLAT_" + i + ".json";
-                    compositionId = thinkEhrRestClient.createComposition(headers, ehrId, "IDCR - Laboratory Order.v0", agentName, compositionPath);
-                    log.debug("Created composition with Id = {}", compositionId);
-                }
-                // -- next process procedure compositions
-                for (int i = 1; i < 7; i++) {
-                    // create composition file path
-                    compositionPath = "sample_requests/procedures/IDCR_Procedures_List_FLAT_" + i + ".json";
-                    compositionId = thinkEhrRestClient.createComposition(headers, ehrId, "IDCR Procedures List.v0", agentName, compositionPath);
-                    log.debug("Created composition with Id = {}", compositionId);
-                }
-                // -- next process lab result compositions
-                for (int i = 1; i < 13; i++) {
-                    // create composition file path
-                    compositionPath = "sample_requests/lab-results/IDCR_Lab_Report_INPUT_FLAT_" + i + ".json";
-                    compositionId = thinkEhrRestClient.createComposition(headers, ehrId, "IDCR - Laboratory Test Report.v0", agentName, compositionPath);
-                    log.debug("Created composition with Id = {}", compositionId);
-                }
+    private void createPatients(Operino project, HttpHeaders headers, ProvisioningJournal journal, ProvisioningProgress progress) {
+        List<PatientRequest> fixturePatients = patientCatalogue.getPatients();
+        Iterable<PatientRequest> patients = fixturePatients;
+        int syntheticPatients = project.getSyntheticPatients() == null ? 0
+            : Math.max(0, Math.min(project.getSyntheticPatients(), synthetic.getAdminMaxPatients()));
+        if (syntheticPatients > 0) {
+            // generated while the engine takes them, so the population is never held in memory
+            SyntheticPopulation population = new SyntheticPopulation(thinkEhrRestClient, samplePayloadStore,
+                subjectNamespace, synthetic.getSeed(), syntheticPatients);
+            patients = () -> Stream.concat(fixturePatients.stream(), StreamSupport.stream(population.spliterator(), false)).iterator();
+        }
+        int total = fixturePatients.size() + syntheticPatients;
+        log.info("Creating patients (" + fixturePatients.size() + " fixture, " + syntheticPatients + " synthetic)");
+        progress.started(ProvisioningEventDTO.PATIENTS);
+        ProvisioningReport report = patientProvisioningEngine.provision(project.getDomain(), headers, patients, journal,
+            running -> progress.patients(running, total));
+        progress.patientsCompleted(report, total);
+        for (ProvisioningReport.PatientFailure failure : report.getFailures()) {
+            log.warn("Error creating patient data {}", failure);
+        }
+        if (report.getFailures().isEmpty()) {
+            journal.record(ProvisioningStep.PATIENTS, null);
+        }
+    }
+
+    private void createObservations(String domainName, HttpHeaders headers, ProvisioningJournal journal) {
+        try (InputStream csv = OperinoProvisionerImpl.class.getClassLoader().getResourceAsStream(OBSERVATIONS_FILE)) {
+            ObservationLoadDTO result = observationLoader.load(domainName, headers, subjectNamespace,
+                ObservationLoader.VITAL_SIGNS_TEMPLATE, csv, journal);
+            for (String failure : result.getFailures()) {
+                log.warn("Error creating observations: {}", failure);
+            }
+            for (String skip : result.getSkips()) {
+                log.info("Observations not created: {}", skip);
             }
-        } catch (HttpServerErrorException | HttpClientErrorException | IOException e) {
-            log.warn("Error creating patient data", e.getMessage());
+            // skipped subjects only get an EHR from a resumed patients step, the committed batches are not repeated
+            if (result.getFailures().isEmpty() && (result.getSkipped() == 0 || journal.isDone(ProvisioningStep.PATIENTS))) {
+                journal.record(ProvisioningStep.OBSERVATIONS, null);
+            }
+        } catch (IOException e) {
+            log.warn("Could not load observations from " + OBSERVATIONS_FILE, e);
         }
     }
 
     @Override
-    public void afterPropertiesSet() {
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ObservationLoadDTO loadObservations(Operino operino, InputStream csv) throws IOException {
+        String domainName = operino.getDomain();
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", ThinkEhrRestClient.createBasicAuthString(domainName, DOMAIN_PASSWORD));
+        templateRegistry.ensureTemplates(domainName, headers, Collections.singletonList(VITAL_SIGNS_TEMPLATE));
+        return observationLoader.load(domainName, headers, subjectNamespace, ObservationLoader.VITAL_SIGNS_TEMPLATE, csv);
     }
 
-    private List<Patient> loadPatientsList(String fileName) {
-        try {
-            CsvSchema bootstrapSchema = CsvSchema.emptySchema().withHeader();
-            CsvMapper mapper = new CsvMapper();
-            MappingIterator<Patient> mappingIterator = mapper.reader(Patient.class).with(bootstrapSchema).readValues(OperinoProvisionerImpl.class.getClassLoader().getResourceAsStream(fileName));
-            return mappingIterator.readAll();
-        } catch (Exception e) {
-            log.error("Error occurred while loading object list from file " + fileName, e);
-            return Collections.emptyList();
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void provisionPooledDomain(String domain) throws URISyntaxException {
+        User poolUser = new User();
+        poolUser.setLogin(POOL_USER);
+        Operino pooled = new Operino();
+        pooled.setDomain(domain);
+        pooled.setName(domain);
+        pooled.setProvision(true);
+        pooled.setUser(poolUser);
+
+        ProvisioningJournal journal = ProvisioningJournal.transientJournal();
+        provision(pooled, journal, new ProvisioningProgress(provisioningEventBus, null, true));
+        // a claimed domain skips these steps, so they must be complete
+        if (!journal.isDone(ProvisioningStep.PATIENTS) || !journal.isDone(ProvisioningStep.OBSERVATIONS)) {
+            throw new IllegalStateException("Patients of pooled domain " + domain + " were not provisioned completely");
         }
     }
 
+    @Override
+    public int getMaxSyntheticPatients() {
+        return SecurityUtils.isCurrentUserInRole(AuthoritiesConstants.ADMIN) ? synthetic.getAdminMaxPatients()
+            : synthetic.getMaxPatients();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        patientProvisioningEngine = new PatientProvisioningEngine(thinkEhrRestClient, samplePayloadStore,
+            metricRegistry, globalParallelism, domainParallelism, async, agentName);
+        patientCatalogue = new PatientCatalogue(thinkEhrRestClient, subjectNamespace, PATIENT_FILES);
+        observationLoader = new ObservationLoader(thinkEhrRestClient, metricRegistry, observations.getParallelism(),
+            observations.getBatchSize(), agentName);
+        thinkEhrRestClient.reserveBulkheads(globalParallelism + observations.getParallelism());
+    }
+
+    @Override
+    public void destroy() {
+        patientProvisioningEngine.shutdown();
+        observationLoader.shutdown();
+    }
+
     public void setSubjectNamespace(String subjectNamespace) {
         this.subjectNamespace = subjectNamespace;
     }
@@ -204,4 +409,191 @@ public class OperinoProvisionerImpl implements InitializingBean, OperinoProvisio
         this.agentName = agentName;
     }
 
+    public void setGlobalParallelism(int globalParallelism) {
+        this.globalParallelism = globalParallelism;
+    }
+
+    public void setDomainParallelism(int domainParallelism) {
+        this.domainParallelism = domainParallelism;
+    }
+
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    public Lane getLight() {
+        return light;
+    }
+
+    public Lane getHeavy() {
+        return heavy;
+    }
+
+    public Synthetic getSynthetic() {
+        return synthetic;
+    }
+
+    public Observations getObservations() {
+        return observations;
+    }
+
+    /**
+     * Provisioning of an operino sent to the member owning its domain, where the provisioner is injected
+     */
+    @SpringAware
+    static class OwnedProvisioning implements Callable<Void>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Long operinoId;
+
+        @Autowired
+        private transient OperinoProvisioner operinoProvisioner;
+
+        OwnedProvisioning(Long operinoId) {
+            this.operinoId = operinoId;
+        }
+
+        @Override
+        public Void call() throws URISyntaxException {
+            operinoProvisioner.provisionOwned(operinoId);
+            return null;
+        }
+    }
+
+    /**
+     * Settings of the consumers of one provisioning queue, bound from {@code provisioner.light.*} and
+     * {@code provisioner.heavy.*}
+     */
+    public static class Lane {
+        /**
+         * Consumers started with the application
+         */
+        private int concurrentConsumers;
+        /**
+         * Consumers the queue is scaled up to while messages are waiting
+         */
+        private int maxConcurrentConsumers;
+        /**
+         * Unacknowledged messages per consumer, a message prefetched by a busy consumer waits for it
+         */
+        private int prefetch;
+
+        private Lane(int concurrentConsumers, int maxConcurrentConsumers, int prefetch) {
+            this.concurrentConsumers = concurrentConsumers;
+            this.maxConcurrentConsumers = maxConcurrentConsumers;
+            this.prefetch = prefetch;
+        }
+
+        /**
+         * @return the default settings of the light lane, whose operinos take a few CDR calls each
+         */
+        public static Lane light() {
+            return new Lane(2, 8, 5);
+        }
+
+        /**
+         * @return the default settings of the heavy lane, whose operinos keep a consumer busy for minutes
+         */
+        public static Lane heavy() {
+            return new Lane(1, 3, 1);
+        }
+
+        public int getConcurrentConsumers() {
+            return concurrentConsumers;
+        }
+
+        public void setConcurrentConsumers(int concurrentConsumers) {
+            this.concurrentConsumers = concurrentConsumers;
+        }
+
+        public int getMaxConcurrentConsumers() {
+            return maxConcurrentConsumers;
+        }
+
+        public void setMaxConcurrentConsumers(int maxConcurrentConsumers) {
+            this.maxConcurrentConsumers = maxConcurrentConsumers;
+        }
+
+        public int getPrefetch() {
+            return prefetch;
+        }
+
+        public void setPrefetch(int prefetch) {
+            this.prefetch = prefetch;
+        }
+    }
+
+    /**
+     * Settings of the synthetic patients of load testing domains, bound from {@code provisioner.synthetic.*}
+     */
+    public static class Synthetic {
+        /**
+         * Every domain of the same size gets the same population
+         */
+        private long seed = 20170228L;
+        /**
+         * Upper bound of the synthetic patients the owner of an operino can ask for
+         */
+        private int maxPatients = 10000;
+        /**
+         * Upper bound of the synthetic patients an admin can ask for, and of the patients ever provisioned
+         */
+        private int adminMaxPatients = 1000000;
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public void setSeed(long seed) {
+            this.seed = seed;
+        }
+
+        public int getMaxPatients() {
+            return maxPatients;
+        }
+
+        public void setMaxPatients(int maxPatients) {
+            this.maxPatients = maxPatients;
+        }
+
+        public int getAdminMaxPatients() {
+            return adminMaxPatients;
+        }
+
+        public void setAdminMaxPatients(int adminMaxPatients) {
+            this.adminMaxPatients = adminMaxPatients;
+        }
+    }
+
+    /**
+     * Settings of loading observation CSVs, bound from {@code provisioner.observations.*}
+     */
+    public static class Observations {
+        /**
+         * Observations of one subject committed together
+         */
+        private int batchSize = 50;
+        /**
+         * Batches in flight per load
+         */
+        private int parallelism = 4;
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+    }
+
 }
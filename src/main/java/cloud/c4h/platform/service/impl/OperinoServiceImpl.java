@@ -8,10 +8,18 @@ import cloud.c4h.platform.domain.enumeration.NotificationStatus;
 import cloud.c4h.platform.domain.enumeration.OperinoComponentType;
 import cloud.c4h.platform.repository.NotificationRepository;
 import cloud.c4h.platform.repository.OperinoRepository;
+import cloud.c4h.platform.repository.ProvisioningCheckpointRepository;
 import cloud.c4h.platform.repository.search.OperinoSearchRepository;
 import cloud.c4h.platform.security.SecurityUtils;
+import cloud.c4h.platform.service.DomainPoolService;
+import cloud.c4h.platform.service.OperinoProvisioner;
 import cloud.c4h.platform.service.OperinoService;
 import cloud.c4h.platform.service.UserService;
+import cloud.c4h.platform.service.dto.DomainTeardownDTO;
+import cloud.c4h.platform.service.dto.NotificationMessageDTO;
+import cloud.c4h.platform.service.dto.OperinoChangeDTO;
+import cloud.c4h.platform.service.dto.OperinoMessageDTO;
+import cloud.c4h.platform.service.util.TransactionUtil;
 import cloud.c4h.platform.service.util.ThinkEhrRestClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,6 +30,7 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.ZonedDateTime;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -38,29 +47,37 @@ public class OperinoServiceImpl implements OperinoService {
 
     private final OperinoRepository operinoRepository;
     private final NotificationRepository notificationRepository;
+    private final ProvisioningCheckpointRepository provisioningCheckpointRepository;
     private final UserService userService;
     private final OperinoSearchRepository operinoSearchRepository;
     private final RabbitTemplate rabbitTemplate;
     private final ThinkEhrRestClient thinkEhrRestClient;
+    private final DomainPoolService domainPoolService;
 
     private Boolean createNewOperinoWithComponents;
 
     public OperinoServiceImpl(OperinoRepository operinoRepository,
                               NotificationRepository notificationRepository,
+                              ProvisioningCheckpointRepository provisioningCheckpointRepository,
                               OperinoSearchRepository operinoSearchRepository,
                               UserService userService,
                               RabbitTemplate rabbitTemplate,
-                              ThinkEhrRestClient thinkEhrRestClient) {
+                              ThinkEhrRestClient thinkEhrRestClient,
+                              DomainPoolService domainPoolService) {
         this.operinoRepository = operinoRepository;
         this.operinoSearchRepository = operinoSearchRepository;
         this.notificationRepository = notificationRepository;
+        this.provisioningCheckpointRepository = provisioningCheckpointRepository;
         this.userService = userService;
         this.rabbitTemplate = rabbitTemplate;
         this.thinkEhrRestClient = thinkEhrRestClient;
+        this.domainPoolService = domainPoolService;
     }
 
     /**
-     * Save a operino.
+     * Save a operino. A new operino is queued to be provisioned; changes to an existing one are queued as an
+     * {@link OperinoChangeDTO}, so an edit never provisions the operino all over again. A new operino that claimed a
+     * pooled domain also queues the renaming of the domain, see {@link OperinoChangeDTO#adopted}.
      *
      * @param operino the entity to save
      * @return the persisted entity
@@ -68,18 +85,66 @@ public class OperinoServiceImpl implements OperinoService {
     @Override
     public Operino save(Operino operino) {
         log.debug("Request to save Operino : {}", operino);
+        Operino stored = operino.getId() == null ? null : operinoRepository.findOne(operino.getId());
+        // taken before saving, which merges the changes into the stored operino
+        OperinoChangeDTO change = stored == null ? null : OperinoChangeDTO.between(stored, operino);
         operino.setUser(userService.getUserWithAuthoritiesByLogin(SecurityUtils.getCurrentUserLogin()).get());
         // assign all components to operino before save - cascade will save components automatically
         for (OperinoComponent component : operino.getComponents()) {
             component.setOperino(operino);
         }
+        // a new operino takes a pooled domain if one is ready, the provisioner then skips the steps done on it
+        boolean pooled = domainPoolService.claim(operino);
         Operino result = operinoRepository.save(operino);
+        if (pooled) {
+            domainPoolService.adopt(result);
+            queueChange(OperinoChangeDTO.adopted(result));
+        }
         operinoSearchRepository.save(result);
-        rabbitTemplate.convertAndSend("operinos", result);
-        log.info("Sent off result to rabbitmq");
+        if (stored == null) {
+            queueProvisioning(result, pooled);
+        } else if (!change.isEmpty()) {
+            queueChange(change);
+        }
         return result;
     }
 
+    private void queueChange(OperinoChangeDTO change) {
+        TransactionUtil.afterCommit(() -> {
+            rabbitTemplate.convertAndSend(CHANGES_QUEUE, change);
+            log.debug("Sent off changes of Operino {} to rabbitmq", change.getOperinoId());
+        });
+    }
+
+    /**
+     * Queue an operino to be provisioned again. The steps done on it before are skipped.
+     *
+     * @param operino the operino to provision
+     */
+    @Override
+    public void provision(Operino operino) {
+        log.debug("Request to provision Operino : {}", operino.getId());
+        queueProvisioning(operino, false);
+    }
+
+    private void queueProvisioning(Operino operino, boolean pooled) {
+        String queue = queueFor(operino, pooled);
+        OperinoMessageDTO message = new OperinoMessageDTO(operino.getId(), operino.getDomain());
+        TransactionUtil.afterCommit(() -> {
+            rabbitTemplate.convertAndSend(queue, message);
+            log.info("Sent off result to rabbitmq queue {}", queue);
+        });
+    }
+
+    /**
+     * @param pooled whether the operino claimed a pooled domain, which comes with its patients
+     * @return the queue of the provisioning lane for the operino
+     */
+    static String queueFor(Operino operino, boolean pooled) {
+        return pooled || !Boolean.TRUE.equals(operino.getProvision())
+            ? OperinoProvisioner.LIGHT_QUEUE : OperinoProvisioner.HEAVY_QUEUE;
+    }
+
     /**
      * Get all the operinos.
      *
@@ -91,7 +156,7 @@ public class OperinoServiceImpl implements OperinoService {
     public Page<Operino> findAll(Pageable pageable) {
         log.debug("Request to get all Operinos");
         if (userService.isAdmin()) {
-            Page<Operino> result = operinoRepository.findAll(pageable);
+            Page<Operino> result = operinoRepository.findByDeletionRequestedIsNull(pageable);
             return result;
         } else {
             Page<Operino> result = operinoRepository.findByUserIsCurrentUser(SecurityUtils.getCurrentUserLogin(), pageable);
@@ -113,7 +178,7 @@ public class OperinoServiceImpl implements OperinoService {
         if (operino != null) {
             return operino;
         } else if (userService.isAdmin()) {
-            return operinoRepository.findOne(id);
+            return operinoRepository.findOneByIdAndDeletionRequestedIsNull(id);
         } else {
             return null;
         }
@@ -148,7 +213,8 @@ public class OperinoServiceImpl implements OperinoService {
     }
 
     /**
-     * Delete the  operino by id.
+     * Request the deletion of the operino by id. The operino is marked as pending deletion, which hides it from its
+     * owner, and its domain is queued to be torn down; the operino is purged once the domain is gone.
      *
      * @param id the id of the entity
      */
@@ -158,15 +224,33 @@ public class OperinoServiceImpl implements OperinoService {
         // veirfy ownership
         Operino operino = findOne(id);
         if (operino != null) {
-            // first truncate domain
-            thinkEhrRestClient.truncateDomain(operino.getDomain());
-            operinoRepository.delete(id);
+            operino.setDeletionRequested(ZonedDateTime.now());
+            operinoRepository.save(operino);
             operinoSearchRepository.delete(id);
+            DomainTeardownDTO teardown = new DomainTeardownDTO(id, operino.getDomain());
+            TransactionUtil.afterCommit(() -> {
+                rabbitTemplate.convertAndSend(TEARDOWN_QUEUE, teardown);
+                log.debug("Sent off teardown of Operino {} to rabbitmq", id);
+            });
         } else {
             log.error("Unable to find operino {} to delete", id);
         }
     }
 
+    /**
+     * Remove the operino by id and its checkpoints, once its domain was torn down.
+     *
+     * @param id the id of the entity
+     */
+    @Override
+    public void purge(Long id) {
+        log.debug("Request to purge Operino : {}", id);
+        provisioningCheckpointRepository.deleteByOperinoId(id);
+        if (operinoRepository.exists(id)) {
+            operinoRepository.delete(id);
+        }
+    }
+
     /**
      * Search for the operino corresponding to the query.
      *
@@ -218,7 +302,7 @@ public class OperinoServiceImpl implements OperinoService {
         // save notification
         notification.setStatus(NotificationStatus.INPROGRESS);
 //        notification = notificationRepository.save(notification);
-        rabbitTemplate.convertAndSend("notifications", notification);
+        rabbitTemplate.convertAndSend(NOTIFICATIONS_QUEUE, new NotificationMessageDTO(notification));
         log.debug("Notification sent to rabbitmq");
 
         return notification;
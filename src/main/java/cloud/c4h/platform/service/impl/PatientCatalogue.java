@@ -0,0 +1,92 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.domain.Patient;
+import cloud.c4h.platform.service.util.PatientRequest;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The fixture patients provisioned into every domain, with their request bodies serialized once.
+ * <p>
+ * The CSV files are only read when the patients are first needed, so they do not slow down startup, and the
+ * resulting list is immutable and shared by all provisioning threads.
+ */
+public class PatientCatalogue {
+
+    private final Logger log = LoggerFactory.getLogger(PatientCatalogue.class);
+
+    private final ThinkEhrRestClient thinkEhrRestClient;
+    private final String subjectNamespace;
+    private final List<String> files;
+    private volatile List<PatientRequest> patients;
+
+    /**
+     * @param thinkEhrRestClient serializes the request bodies of the patients
+     * @param subjectNamespace   the namespace of the subject ids of the patients' EHRs
+     * @param files              the class path locations of the patient CSV files
+     */
+    public PatientCatalogue(ThinkEhrRestClient thinkEhrRestClient, String subjectNamespace, List<String> files) {
+        this.thinkEhrRestClient = thinkEhrRestClient;
+        this.subjectNamespace = subjectNamespace;
+        this.files = files;
+    }
+
+    /**
+     * @return the patients of all files, loaded on first use
+     */
+    public List<PatientRequest> getPatients() {
+        List<PatientRequest> result = patients;
+        if (result == null) {
+            synchronized (this) {
+                result = patients;
+                if (result == null) {
+                    result = load();
+                    patients = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<PatientRequest> load() {
+        long start = System.nanoTime();
+        List<PatientRequest> result = new ArrayList<>();
+        ObjectReader reader = new CsvMapper().readerFor(Patient.class).with(CsvSchema.emptySchema().withHeader());
+        for (String file : files) {
+            List<Patient> filePatients = loadPatientsList(reader, file);
+            for (Patient patient : filePatients) {
+                try {
+                    result.add(thinkEhrRestClient.createPatientRequest(patient, subjectNamespace));
+                } catch (JsonProcessingException e) {
+                    throw new UncheckedIOException("Unable to serialize patient " + patient.getNhsNumber(), e);
+                }
+            }
+            log.debug("Loaded {} patients from file {}", filePatients.size(), file);
+        }
+        log.debug("Final number of patients = {}, loaded in {} ms", result.size(), (System.nanoTime() - start) / 1000000);
+        return Collections.unmodifiableList(result);
+    }
+
+    private List<Patient> loadPatientsList(ObjectReader reader, String fileName) {
+        try (InputStream inputStream = PatientCatalogue.class.getClassLoader().getResourceAsStream(fileName)) {
+            MappingIterator<Patient> mappingIterator = reader.readValues(inputStream);
+            return mappingIterator.readAll();
+        } catch (IOException | RuntimeException e) {
+            log.error("Error occurred while loading object list from file " + fileName, e);
+            return Collections.emptyList();
+        }
+    }
+}
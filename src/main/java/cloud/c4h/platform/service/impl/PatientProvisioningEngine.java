@@ -0,0 +1,476 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+import cloud.c4h.platform.service.ProvisioningJournal;
+import cloud.c4h.platform.service.util.CompositionRequest;
+import cloud.c4h.platform.service.util.PatientRequest;
+import cloud.c4h.platform.service.util.SamplePayloadStore;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Provisions patients (party, EHR and sample compositions) into a CDR domain on a bounded worker pool.
+ * <p>
+ * All domains share a single pool of {@code globalParallelism} workers, while each provisioning run
+ * keeps at most {@code domainParallelism} patients in flight. A failing patient is recorded in the
+ * returned {@link ProvisioningReport} and does not stop the remaining patients. Patients arrive with their
+ * request bodies already serialized, see {@link PatientRequest}. The patients are only taken from the
+ * {@code Iterable} as in-flight patients complete, so a generated population such as {@link SyntheticPopulation}
+ * is never held in memory as a whole.
+ * <p>
+ * The sample compositions of a patient are committed together, see {@link ThinkEhrRestClient#commitCompositions}.
+ * Every completed step is recorded in the {@link ProvisioningJournal} of the run, and steps already found there
+ * are skipped, so a run resumed after a failure only does the missing work. Compositions posted individually, when
+ * the CDR does not take contributions, are recorded one by one. The journal entries of the patients are loaded
+ * {@value #PREFETCH_SIZE} patients at a time. A patient resumed after its party was created first looks up its EHR,
+ * which may have been created without being recorded.
+ * <p>
+ * In asynchronous mode the calls of a patient are chained on the non-blocking CDR transport instead of
+ * occupying a worker for the whole patient; the workers only record the completed steps.
+ */
+public class PatientProvisioningEngine {
+
+    static final String STEP_PARTY = "party";
+    static final String STEP_EHR = "ehr";
+    static final String STEP_COMPOSITION = "composition";
+
+    /**
+     * Number of patients whose journal entries are loaded at once, and which are taken from the iterable ahead of
+     * being provisioned
+     */
+    static final int PREFETCH_SIZE = 32;
+
+    private static final List<SampleComposition> SAMPLE_COMPOSITIONS = createSampleCompositions();
+
+    private final Logger log = LoggerFactory.getLogger(PatientProvisioningEngine.class);
+
+    private final ThinkEhrRestClient thinkEhrRestClient;
+    private final List<CompositionRequest> compositions;
+    private final ExecutorService executor;
+    private final int domainParallelism;
+    private final boolean async;
+    private final String agentName;
+
+    private final Meter patientsMeter;
+    private final Meter failuresMeter;
+    private final Timer partyTimer;
+    private final Timer ehrTimer;
+    private final Timer compositionTimer;
+
+    public PatientProvisioningEngine(ThinkEhrRestClient thinkEhrRestClient, SamplePayloadStore payloadStore,
+                                     MetricRegistry metricRegistry, int globalParallelism, int domainParallelism,
+                                     boolean async, String agentName) {
+        this.thinkEhrRestClient = thinkEhrRestClient;
+        this.compositions = createCompositionRequests(payloadStore);
+        this.domainParallelism = domainParallelism;
+        this.async = async;
+        this.agentName = agentName;
+        this.executor = new ThreadPoolExecutor(globalParallelism, globalParallelism, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), new ProvisionerThreadFactory());
+
+        this.patientsMeter = metricRegistry.meter(MetricRegistry.name(PatientProvisioningEngine.class, "patients"));
+        this.failuresMeter = metricRegistry.meter(MetricRegistry.name(PatientProvisioningEngine.class, "failures"));
+        this.partyTimer = metricRegistry.timer(MetricRegistry.name(PatientProvisioningEngine.class, "step", STEP_PARTY));
+        this.ehrTimer = metricRegistry.timer(MetricRegistry.name(PatientProvisioningEngine.class, "step", STEP_EHR));
+        this.compositionTimer = metricRegistry.timer(MetricRegistry.name(PatientProvisioningEngine.class, "step", STEP_COMPOSITION));
+    }
+
+    /**
+     * Provisions the given patients into a domain and waits until all of them have been processed.
+     *
+     * @param domain   the domain the patients are created in, used for reporting
+     * @param headers  the headers (authorization) used for every CDR call
+     * @param patients the patients to create
+     * @return the outcome of the run, including per patient failures
+     */
+    public ProvisioningReport provision(String domain, HttpHeaders headers, Iterable<PatientRequest> patients) {
+        return provision(domain, headers, patients, ProvisioningJournal.transientJournal());
+    }
+
+    /**
+     * Provisions the given patients into a domain, skipping the steps already recorded in the journal,
+     * and waits until all of them have been processed.
+     *
+     * @param domain   the domain the patients are created in, used for reporting
+     * @param headers  the headers (authorization) used for every CDR call
+     * @param patients the patients to create
+     * @param journal  the steps done so far, completed steps are recorded in it
+     * @return the outcome of the run, including per patient failures
+     */
+    public ProvisioningReport provision(String domain, HttpHeaders headers, Iterable<PatientRequest> patients, ProvisioningJournal journal) {
+        return provision(domain, headers, patients, journal, report -> {
+        });
+    }
+
+    /**
+     * Provisions the given patients into a domain, skipping the steps already recorded in the journal,
+     * and waits until all of them have been processed.
+     *
+     * @param domain   the domain the patients are created in, used for reporting
+     * @param headers  the headers (authorization) used for every CDR call
+     * @param patients the patients to create
+     * @param journal  the steps done so far, completed steps are recorded in it
+     * @param progress called with the report of the run after every processed patient, from the thread that processed it
+     * @return the outcome of the run, including per patient failures
+     */
+    public ProvisioningReport provision(String domain, HttpHeaders headers, Iterable<PatientRequest> patients, ProvisioningJournal journal,
+                                        Consumer<ProvisioningReport> progress) {
+        ProvisioningReport report = new ProvisioningReport(domain);
+        Semaphore inFlight = new Semaphore(domainParallelism);
+        try {
+            for (List<PatientRequest> batch : batches(patients)) {
+                journal.prefetch(batch.stream().map(PatientRequest::getSubjectId).collect(Collectors.toList()));
+                for (PatientRequest patient : batch) {
+                    inFlight.acquire();
+                    if (async) {
+                        provisionPatientAsync(headers, patient, journal, report).whenComplete((done, e) -> {
+                            try {
+                                progress.accept(report);
+                            } finally {
+                                journal.release(patient.getSubjectId());
+                                inFlight.release();
+                            }
+                        });
+                        continue;
+                    }
+                    try {
+                        executor.execute(() -> {
+                            try {
+                                provisionPatient(headers, patient, journal, report);
+                                progress.accept(report);
+                            } finally {
+                                journal.release(patient.getSubjectId());
+                                inFlight.release();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        journal.release(patient.getSubjectId());
+                        inFlight.release();
+                        report.failed(patient.getPatient(), STEP_PARTY, e);
+                        progress.accept(report);
+                    }
+                }
+            }
+            // every finished patient hands its permit back, so holding all of them means the run is complete
+            inFlight.acquire(domainParallelism);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while provisioning patients for domain {}", domain);
+        }
+        report.finish();
+
+        log.info("Provisioned {} patients ({} resumed) into domain {} in {} ms ({} patients/sec, p99 step latency {} ms), {} failures",
+            report.getSucceeded(), report.getResumed(), domain, report.getElapsedMillis(),
+            String.format("%.2f", report.getPatientsPerSecond()),
+            String.format("%.1f", report.getP99StepMillis()), report.getFailures().size());
+        return report;
+    }
+
+    private void provisionPatient(HttpHeaders sharedHeaders, PatientRequest patient, ProvisioningJournal journal, ProvisioningReport report) {
+        String subject = patient.getSubjectId();
+        if (journal.isDone(ProvisioningStep.COMPOSITIONS, subject)) {
+            report.resumed();
+            log.debug("Patient {} was already provisioned", subject);
+            return;
+        }
+
+        // HttpHeaders is mutable, so every worker gets its own copy
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(sharedHeaders);
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        String step = STEP_PARTY;
+        boolean partyDone = journal.isDone(ProvisioningStep.PARTY, subject);
+        try {
+            if (!partyDone) {
+                long start = System.nanoTime();
+                String patientId = thinkEhrRestClient.createPatient(headers, patient);
+                report.recordStep(partyTimer, System.nanoTime() - start);
+                journal.record(ProvisioningStep.PARTY, subject, patientId);
+                log.debug("Created patient with Id = {}", patientId);
+            }
+
+            step = STEP_EHR;
+            String ehrId = journal.getReference(ProvisioningStep.EHR, subject);
+            if (ehrId == null) {
+                long start = System.nanoTime();
+                String existingEhrId = partyDone ? thinkEhrRestClient.findEhrId(headers, patient.getSubjectNamespace(), subject) : null;
+                ehrId = existingEhrId != null
+                    ? thinkEhrRestClient.updateEhrStatus(headers, existingEhrId, patient)
+                    : thinkEhrRestClient.createEhr(headers, agentName, patient);
+                report.recordStep(ehrTimer, System.nanoTime() - start);
+                if (ehrId == null) {
+                    throw new IllegalStateException("Unable to update status of ehr");
+                }
+                journal.record(ProvisioningStep.EHR, subject, ehrId);
+                log.debug("Created ehr with Id = {}", ehrId);
+            }
+
+            step = STEP_COMPOSITION;
+            List<CompositionRequest> compositions = compositionsOf(patient);
+            List<Integer> pending = pendingCompositions(journal, subject, compositions.size());
+            List<String> committedIds = Collections.emptyList();
+            if (!pending.isEmpty()) {
+                long start = System.nanoTime();
+                committedIds = thinkEhrRestClient.commitCompositions(headers, ehrId, agentName, select(compositions, pending),
+                    (index, uid) -> journal.recordComposition(subject, pending.get(index), uid));
+                report.recordStep(compositionTimer, System.nanoTime() - start);
+            }
+            List<String> compositionIds = compositionUids(journal, subject, compositions.size(), pending, committedIds);
+            journal.recordCompositions(subject, compositionIds);
+            log.debug("Created compositions with Ids = {}", compositionIds);
+
+            report.succeeded();
+            patientsMeter.mark();
+        } catch (RuntimeException e) {
+            failuresMeter.mark();
+            report.failed(patient.getPatient(), step, e);
+            log.warn("Error creating patient data for {} at step {}: {}", subject, step, e.getMessage());
+        }
+    }
+
+    private CompletableFuture<Void> provisionPatientAsync(HttpHeaders sharedHeaders, PatientRequest patient, ProvisioningJournal journal,
+                                                          ProvisioningReport report) {
+        String subject = patient.getSubjectId();
+        if (journal.isDone(ProvisioningStep.COMPOSITIONS, subject)) {
+            report.resumed();
+            log.debug("Patient {} was already provisioned", subject);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(sharedHeaders);
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        AtomicReference<String> step = new AtomicReference<>(STEP_PARTY);
+        Queue<CompletableFuture<Void>> recordings = new ConcurrentLinkedQueue<>();
+        boolean partyDone = journal.isDone(ProvisioningStep.PARTY, subject);
+        CompletableFuture<String> party = partyDone
+            ? CompletableFuture.completedFuture(journal.getReference(ProvisioningStep.PARTY, subject))
+            : timed(partyTimer, report, () -> thinkEhrRestClient.createPatientAsync(headers, patient))
+            .thenApplyAsync(patientId -> {
+                journal.record(ProvisioningStep.PARTY, subject, patientId);
+                return patientId;
+            }, executor);
+
+        return party
+            .thenCompose(patientId -> {
+                step.set(STEP_EHR);
+                String ehrId = journal.getReference(ProvisioningStep.EHR, subject);
+                if (ehrId != null) {
+                    return CompletableFuture.completedFuture(ehrId);
+                }
+                return timed(ehrTimer, report, () -> createOrResumeEhrAsync(headers, patient, partyDone))
+                    .thenApplyAsync(createdEhrId -> {
+                        journal.record(ProvisioningStep.EHR, subject, createdEhrId);
+                        return createdEhrId;
+                    }, executor);
+            })
+            .thenCompose(ehrId -> {
+                step.set(STEP_COMPOSITION);
+                List<CompositionRequest> compositions = compositionsOf(patient);
+                List<Integer> pending = pendingCompositions(journal, subject, compositions.size());
+                CompletableFuture<List<String>> committed = pending.isEmpty()
+                    ? CompletableFuture.completedFuture(Collections.emptyList())
+                    : timed(compositionTimer, report, () -> thinkEhrRestClient.commitCompositionsAsync(headers, ehrId, agentName,
+                    select(compositions, pending), (index, uid) -> recordings.add(CompletableFuture.runAsync(
+                        () -> journal.recordComposition(subject, pending.get(index), uid), executor))));
+                // the single compositions must be recorded before the patient is, which supersedes them
+                return committed.thenCompose(committedIds -> CompletableFuture.allOf(recordings.toArray(new CompletableFuture[0]))
+                    .thenApply(done -> compositionUids(journal, subject, compositions.size(), pending, committedIds)));
+            })
+            .thenAcceptAsync(compositionIds -> journal.recordCompositions(subject, compositionIds), executor)
+            .handle((done, e) -> {
+                if (e == null) {
+                    report.succeeded();
+                    patientsMeter.mark();
+                } else {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    failuresMeter.mark();
+                    report.failed(patient.getPatient(), step.get(), cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+                    log.warn("Error creating patient data for {} at step {}: {}", subject, step.get(), cause.getMessage());
+                }
+                return null;
+            });
+    }
+
+    /**
+     * Creates the EHR of a patient. When the party was created by an earlier run, that run may also have created
+     * the EHR and failed before recording it, so an existing EHR only gets its status updated.
+     */
+    private CompletableFuture<String> createOrResumeEhrAsync(HttpHeaders headers, PatientRequest patient, boolean partyDone) {
+        if (!partyDone) {
+            return thinkEhrRestClient.createEhrAsync(headers, agentName, patient);
+        }
+        return thinkEhrRestClient.findEhrIdAsync(headers, patient.getSubjectNamespace(), patient.getSubjectId())
+            .thenCompose(ehrId -> ehrId != null
+                ? thinkEhrRestClient.updateEhrStatusAsync(headers, ehrId, patient)
+                : thinkEhrRestClient.createEhrAsync(headers, agentName, patient));
+    }
+
+    /**
+     * @return the positions of the compositions that have not been committed for the patient yet
+     */
+    private static List<Integer> pendingCompositions(ProvisioningJournal journal, String subject, int count) {
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (journal.getCompositionUid(subject, i) == null) {
+                pending.add(i);
+            }
+        }
+        return pending;
+    }
+
+    private static List<CompositionRequest> select(List<CompositionRequest> compositions, List<Integer> positions) {
+        List<CompositionRequest> selected = new ArrayList<>(positions.size());
+        for (Integer position : positions) {
+            selected.add(compositions.get(position));
+        }
+        return selected;
+    }
+
+    /**
+     * @return the uids of all compositions of the patient in commit order, the recorded ones merged with the ones just committed
+     */
+    private static List<String> compositionUids(ProvisioningJournal journal, String subject, int count, List<Integer> pending,
+                                                List<String> committedIds) {
+        List<String> uids = new ArrayList<>(count);
+        int next = 0;
+        for (int i = 0; i < count; i++) {
+            if (next < pending.size() && pending.get(next) == i) {
+                uids.add(committedIds.get(next++));
+            } else {
+                uids.add(journal.getCompositionUid(subject, i));
+            }
+        }
+        return uids;
+    }
+
+    /**
+     * @return the patients in consecutive batches of {@value #PREFETCH_SIZE}, taken from the iterable as they are used
+     */
+    private static Iterable<List<PatientRequest>> batches(Iterable<PatientRequest> patients) {
+        return () -> new Iterator<List<PatientRequest>>() {
+            private final Iterator<PatientRequest> iterator = patients.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public List<PatientRequest> next() {
+                List<PatientRequest> batch = new ArrayList<>(PREFETCH_SIZE);
+                while (batch.size() < PREFETCH_SIZE && iterator.hasNext()) {
+                    batch.add(iterator.next());
+                }
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * @return the compositions generated for the patient, or the sample compositions shared by all patients
+     */
+    private List<CompositionRequest> compositionsOf(PatientRequest patient) {
+        return patient.getCompositions() != null ? patient.getCompositions() : compositions;
+    }
+
+    /**
+     * Records the latency of a successful asynchronous call
+     */
+    private static <T> CompletableFuture<T> timed(Timer timer, ProvisioningReport report, Supplier<CompletableFuture<T>> call) {
+        long start = System.nanoTime();
+        return call.get().thenApply(result -> {
+            report.recordStep(timer, System.nanoTime() - start);
+            return result;
+        });
+    }
+
+    /**
+     * Stops the worker pool, letting already submitted patients finish.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return the compositions committed for every patient, in commit order
+     */
+    static List<SampleComposition> sampleCompositions() {
+        return SAMPLE_COMPOSITIONS;
+    }
+
+    private static List<CompositionRequest> createCompositionRequests(SamplePayloadStore payloadStore) {
+        List<CompositionRequest> requests = new ArrayList<>();
+        for (SampleComposition composition : SAMPLE_COMPOSITIONS) {
+            requests.add(new CompositionRequest(composition.templateId, payloadStore.get(composition.path), composition.path));
+        }
+        return Collections.unmodifiableList(requests);
+    }
+
+    private static List<SampleComposition> createSampleCompositions() {
+        List<SampleComposition> compositions = new ArrayList<>();
+        // -- first process vital signs template compositions
+        compositions.add(new SampleComposition("Vital Signs Encounter (Composition)", "sample_requests/vital-signs/vital-signs-composition.json"));
+        // -- next process allergy template compositions
+        for (int i = 1; i < 7; i++) {
+            compositions.add(new SampleComposition("IDCR Allergies List.v0", "sample_requests/allergies/AllergiesList_" + i + "FLAT.json"));
+        }
+        // -- next process lab order compositions
+        for (int i = 1; i < 13; i++) {
+            compositions.add(new SampleComposition("IDCR - Laboratory Order.v0", "sample_requests/orders/IDCR_Lab_Order_FLAT_" + i + ".json"));
+        }
+        // -- next process procedure compositions
+        for (int i = 1; i < 7; i++) {
+            compositions.add(new SampleComposition("IDCR Procedures List.v0", "sample_requests/procedures/IDCR_Procedures_List_FLAT_" + i + ".json"));
+        }
+        // -- next process lab result compositions
+        for (int i = 1; i < 13; i++) {
+            compositions.add(new SampleComposition("IDCR - Laboratory Test Report.v0", "sample_requests/lab-results/IDCR_Lab_Report_INPUT_FLAT_" + i + ".json"));
+        }
+        return Collections.unmodifiableList(compositions);
+    }
+
+    /**
+     * A sample composition that is committed for every provisioned patient
+     */
+    static final class SampleComposition {
+        final String templateId;
+        final String path;
+
+        SampleComposition(String templateId, String path) {
+            this.templateId = templateId;
+            this.path = path;
+        }
+    }
+
+    private static final class ProvisionerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "c4hcloudplatform-Provisioner-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
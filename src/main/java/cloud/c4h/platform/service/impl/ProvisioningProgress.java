@@ -0,0 +1,160 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+import cloud.c4h.platform.service.ProvisioningEventBus;
+import cloud.c4h.platform.service.dto.ProvisioningEventDTO;
+import cloud.c4h.platform.service.dto.ProvisioningEventDTO.Status;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the steps of one provisioning run and publishes them, with their timings and the overall
+ * progress, on the {@link ProvisioningEventBus}.
+ * <p>
+ * Every step weighs a fixed share of the run, and the patients step advances with each processed patient.
+ * Patient progress is only published when the overall percentage changes, so large runs do not flood the bus.
+ */
+class ProvisioningProgress {
+
+    private static final Map<String, Integer> WEIGHTS = new HashMap<>();
+    /**
+     * The steps only done when the operino asked for patients
+     */
+    private static final Set<String> PATIENT_STEPS = new HashSet<>(Arrays.asList(
+        ProvisioningEventDTO.PATIENTS, ProvisioningStep.OBSERVATIONS.name()));
+
+    static {
+        WEIGHTS.put(ProvisioningStep.DOMAIN.name(), 5);
+        WEIGHTS.put(ProvisioningStep.USER.name(), 5);
+        WEIGHTS.put(ProvisioningStep.TEMPLATES.name(), 10);
+        WEIGHTS.put(ProvisioningEventDTO.PATIENTS, 70);
+        WEIGHTS.put(ProvisioningStep.OBSERVATIONS.name(), 5);
+        WEIGHTS.put(ProvisioningStep.NOTIFIED.name(), 5);
+    }
+
+    private final ProvisioningEventBus eventBus;
+    private final Long operinoId;
+    private final int totalWeight;
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Long> stepStartNanos = new ConcurrentHashMap<>();
+    private final AtomicInteger lastPatientProgress = new AtomicInteger(-1);
+    private volatile int completedWeight;
+
+    /**
+     * @param withPatients whether the run provisions patients and their observations, which otherwise do not count
+     *                     towards the progress
+     */
+    ProvisioningProgress(ProvisioningEventBus eventBus, Long operinoId, boolean withPatients) {
+        this.eventBus = eventBus;
+        this.operinoId = operinoId;
+        int weight = 0;
+        for (Map.Entry<String, Integer> entry : WEIGHTS.entrySet()) {
+            if (withPatients || !PATIENT_STEPS.contains(entry.getKey())) {
+                weight += entry.getValue();
+            }
+        }
+        this.totalWeight = weight;
+    }
+
+    void started(String step) {
+        stepStartNanos.put(step, System.nanoTime());
+        publish(step, Status.STARTED, 0);
+    }
+
+    void completed(String step) {
+        completedWeight += WEIGHTS.get(step);
+        Long start = stepStartNanos.remove(step);
+        publish(step, Status.COMPLETED, start == null ? 0 : System.nanoTime() - start);
+    }
+
+    /**
+     * Reports a step that an earlier attempt already completed
+     */
+    void skipped(String step) {
+        completedWeight += WEIGHTS.get(step);
+        publish(step, Status.SKIPPED, 0);
+    }
+
+    /**
+     * Reports the patients processed so far; called concurrently by the provisioning workers.
+     */
+    void patients(ProvisioningReport report, int total) {
+        int processed = report.getSucceeded() + report.getResumed() + report.getFailures().size();
+        int progress = progress(total == 0 ? 1 : (double) processed / total);
+        int last = lastPatientProgress.get();
+        while (progress > last) {
+            if (lastPatientProgress.compareAndSet(last, progress)) {
+                Long start = stepStartNanos.get(ProvisioningEventDTO.PATIENTS);
+                ProvisioningEventDTO event = event(ProvisioningEventDTO.PATIENTS, Status.PROGRESS,
+                    start == null ? 0 : System.nanoTime() - start, progress);
+                event.setCompleted(report.getSucceeded() + report.getResumed());
+                event.setFailed(report.getFailures().size());
+                event.setTotal(total);
+                send(event);
+                return;
+            }
+            last = lastPatientProgress.get();
+        }
+    }
+
+    /**
+     * Reports the outcome of the patients step once all of them were processed
+     */
+    void patientsCompleted(ProvisioningReport report, int total) {
+        completedWeight += WEIGHTS.get(ProvisioningEventDTO.PATIENTS);
+        Long start = stepStartNanos.remove(ProvisioningEventDTO.PATIENTS);
+        ProvisioningEventDTO event = event(ProvisioningEventDTO.PATIENTS, Status.COMPLETED,
+            start == null ? 0 : System.nanoTime() - start, progress(0));
+        event.setCompleted(report.getSucceeded() + report.getResumed());
+        event.setFailed(report.getFailures().size());
+        event.setTotal(total);
+        event.setMessage(String.format("%.2f patients/sec, p99 step latency %.1f ms",
+            report.getPatientsPerSecond(), report.getP99StepMillis()));
+        send(event);
+    }
+
+    void finished() {
+        send(event(null, Status.FINISHED, System.nanoTime() - startNanos, 100));
+    }
+
+    void failed(Exception e) {
+        ProvisioningEventDTO event = event(null, Status.FAILED, System.nanoTime() - startNanos, progress(0));
+        event.setMessage(e.getMessage());
+        send(event);
+    }
+
+    private void publish(String step, Status status, long elapsedNanos) {
+        send(event(step, status, elapsedNanos, progress(0)));
+    }
+
+    /**
+     * @param patientFraction the share of the patients step done on top of the completed steps
+     */
+    private int progress(double patientFraction) {
+        double done = completedWeight + patientFraction * WEIGHTS.get(ProvisioningEventDTO.PATIENTS);
+        return (int) Math.min(100, done * 100 / totalWeight);
+    }
+
+    /**
+     * Runs without an operino, i.e. of pooled domains, have no one to tell
+     */
+    private void send(ProvisioningEventDTO event) {
+        if (operinoId != null) {
+            eventBus.publish(event);
+        }
+    }
+
+    private ProvisioningEventDTO event(String step, Status status, long elapsedNanos, int progress) {
+        ProvisioningEventDTO event = new ProvisioningEventDTO(operinoId, step, status);
+        event.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        event.setProgress(progress);
+        return event;
+    }
+}
@@ -0,0 +1,118 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.domain.Patient;
+import com.codahale.metrics.Timer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Outcome of provisioning the patients of one domain: throughput, step latency and per patient failures.
+ */
+public class ProvisioningReport {
+
+    private final String domain;
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger resumed = new AtomicInteger();
+    private final List<PatientFailure> failures = Collections.synchronizedList(new ArrayList<>());
+    private final Timer stepTimer = new Timer();
+    private volatile long elapsedNanos;
+
+    ProvisioningReport(String domain) {
+        this.domain = domain;
+    }
+
+    void recordStep(Timer globalTimer, long nanos) {
+        globalTimer.update(nanos, TimeUnit.NANOSECONDS);
+        stepTimer.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void succeeded() {
+        succeeded.incrementAndGet();
+    }
+
+    void resumed() {
+        resumed.incrementAndGet();
+    }
+
+    void failed(Patient patient, String step, Exception e) {
+        failures.add(new PatientFailure(patient.getNhsNumber(), step, e.getMessage()));
+    }
+
+    void finish() {
+        elapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public int getSucceeded() {
+        return succeeded.get();
+    }
+
+    /**
+     * @return the number of patients that were already provisioned by an earlier run and skipped
+     */
+    public int getResumed() {
+        return resumed.get();
+    }
+
+    public List<PatientFailure> getFailures() {
+        synchronized (failures) {
+            return new ArrayList<>(failures);
+        }
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    public double getPatientsPerSecond() {
+        return elapsedNanos == 0 ? 0 : succeeded.get() / (elapsedNanos / 1e9);
+    }
+
+    public double getP99StepMillis() {
+        return stepTimer.getSnapshot().get99thPercentile() / 1e6;
+    }
+
+    /**
+     * A patient that could not be provisioned, and the step it failed at
+     */
+    public static final class PatientFailure {
+        private final String nhsNumber;
+        private final String step;
+        private final String message;
+
+        PatientFailure(String nhsNumber, String step, String message) {
+            this.nhsNumber = nhsNumber;
+            this.step = step;
+            this.message = message;
+        }
+
+        public String getNhsNumber() {
+            return nhsNumber;
+        }
+
+        public String getStep() {
+            return step;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "PatientFailure{" +
+                "nhsNumber='" + nhsNumber + "'" +
+                ", step='" + step + "'" +
+                ", message='" + message + "'" +
+                '}';
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.domain.Patient;
+import cloud.c4h.platform.service.util.CompositionRequest;
+import cloud.c4h.platform.service.util.PatientRequest;
+import cloud.c4h.platform.service.util.SamplePayloadStore;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.regex.Pattern;
+
+/**
+ * A seeded population of synthetic patients for load testing domains, each with one FLAT composition for every
+ * IDCR template of the sample compositions.
+ * <p>
+ * Patients are generated one at a time as the iterator is advanced, so a population of a million patients costs no
+ * more memory than the patients in flight. Every iterator starts from the seed, so the same seed and size always
+ * produce the same patients, and a resumed run finds the patients it already provisioned under the same NHS numbers.
+ * <p>
+ * The compositions are variants of the sample compositions with new event times and composers and varied
+ * measurements. NHS numbers are valid (modulus 11) and numbered upwards from {@value #FIRST_NHS_NUMBER}, clear of
+ * the fixture patients.
+ */
+public class SyntheticPopulation implements Iterable<PatientRequest> {
+
+    /**
+     * The first nine digits of the NHS number of the first patient
+     */
+    static final long FIRST_NHS_NUMBER = 900000000L;
+
+    private static final Pattern DATE_TIME = Pattern.compile("\\d{4}-\\d{2}-\\d{2}T.*");
+    private static final String MAGNITUDE = "|magnitude";
+    private static final String COMPOSER = "ctx/composer_name";
+    private static final LocalDate OLDEST_BIRTH = LocalDate.of(1925, 1, 1);
+    private static final LocalDate YOUNGEST_BIRTH = LocalDate.of(2015, 12, 31);
+    private static final LocalDate FIRST_EVENT = LocalDate.of(2000, 1, 1);
+    private static final LocalDate LAST_EVENT = LocalDate.of(2017, 12, 31);
+
+    private static final String[] FEMALE_FORENAMES = {"Amelia", "Olivia", "Isla", "Emily", "Ava", "Jessica", "Lily",
+        "Sophie", "Grace", "Ruby", "Margaret", "Susan", "Patricia", "Helen", "Janet", "Karen", "Linda", "Carol"};
+    private static final String[] MALE_FORENAMES = {"Oliver", "Jack", "Harry", "Jacob", "Charlie", "Thomas", "George",
+        "Oscar", "James", "William", "David", "John", "Peter", "Michael", "Robert", "Stephen", "Ian", "Alan"};
+    private static final String[] SURNAMES = {"Smith", "Jones", "Williams", "Taylor", "Brown", "Davies", "Evans",
+        "Wilson", "Thomas", "Johnson", "Roberts", "Robinson", "Thompson", "Wright", "Walker", "White", "Edwards",
+        "Hughes", "Green", "Hall", "Lewis", "Harris", "Clarke", "Patel", "Jackson", "Wood", "Turner", "Martin", "Cooper"};
+    private static final String[] STREETS = {"High Street", "Station Road", "Main Street", "Park Road", "Church Road",
+        "Church Street", "London Road", "Victoria Road", "Green Lane", "Manor Road", "Queens Road", "Kings Road"};
+    private static final String[] TOWNS = {"Leeds", "Bradford", "Sheffield", "Nottingham", "Newark", "York",
+        "Harrogate", "Wakefield", "Doncaster", "Lincoln", "Derby", "Mansfield"};
+    private static final String[] COUNTIES = {"West Yorkshire", "South Yorkshire", "North Yorkshire",
+        "Nottinghamshire", "Lincolnshire", "Derbyshire"};
+    private static final String[] COMPOSERS = {"Dr Joyce Smith", "Dr Tony Shannon", "Dr Ian McNicoll",
+        "Dr Heather Leslie", "Dr Rachel Barrett", "Dr Anil Mehta"};
+
+    private final ThinkEhrRestClient thinkEhrRestClient;
+    private final String subjectNamespace;
+    private final long seed;
+    private final int size;
+    private final List<TemplateVariants> templates;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * @param thinkEhrRestClient serializes the request bodies of the patients
+     * @param payloadStore       the sample compositions the generated ones are based on
+     * @param subjectNamespace   the namespace of the subject ids of the patients' EHRs
+     * @param seed               the seed of the population
+     * @param size               the number of patients
+     */
+    public SyntheticPopulation(ThinkEhrRestClient thinkEhrRestClient, SamplePayloadStore payloadStore,
+                               String subjectNamespace, long seed, int size) {
+        this.thinkEhrRestClient = thinkEhrRestClient;
+        this.subjectNamespace = subjectNamespace;
+        this.seed = seed;
+        this.size = size;
+        this.templates = loadTemplates(payloadStore);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<PatientRequest> iterator() {
+        return new Generator();
+    }
+
+    /**
+     * The sample compositions grouped by template, each parsed into its FLAT path/value map
+     */
+    private List<TemplateVariants> loadTemplates(SamplePayloadStore payloadStore) {
+        Map<String, TemplateVariants> result = new LinkedHashMap<>();
+        for (PatientProvisioningEngine.SampleComposition composition : PatientProvisioningEngine.sampleCompositions()) {
+            try {
+                Map<String, Object> flat = objectMapper.readValue(payloadStore.get(composition.path).asString(),
+                    new TypeReference<LinkedHashMap<String, Object>>() {
+                    });
+                result.computeIfAbsent(composition.templateId, TemplateVariants::new).variants.add(flat);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to parse sample composition " + composition.path, e);
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(result.values()));
+    }
+
+    /**
+     * @return the check digit of the first nine digits of an NHS number, or 10 if no valid number starts with them
+     */
+    static int nhsCheckDigit(long digits) {
+        int sum = 0;
+        for (int weight = 2; weight <= 10; weight++) {
+            sum += (digits % 10) * weight;
+            digits /= 10;
+        }
+        int check = 11 - sum % 11;
+        return check == 11 ? 0 : check;
+    }
+
+    private static String pick(String[] values, SplittableRandom random) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static LocalDate between(LocalDate first, LocalDate last, SplittableRandom random) {
+        return first.plusDays(random.nextLong(last.toEpochDay() - first.toEpochDay() + 1));
+    }
+
+    private final class Generator implements Iterator<PatientRequest> {
+
+        private final SplittableRandom random = new SplittableRandom(seed);
+        private long nextDigits = FIRST_NHS_NUMBER;
+        private int generated;
+
+        @Override
+        public boolean hasNext() {
+            return generated < size;
+        }
+
+        @Override
+        public PatientRequest next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            generated++;
+            Patient patient = nextPatient();
+            try {
+                PatientRequest request = thinkEhrRestClient.createPatientRequest(patient, subjectNamespace);
+                return new PatientRequest(patient, request.getSubjectNamespace(), request.getSubjectId(),
+                    request.getPartyBody(), request.getEhrStatusBody(), nextCompositions(patient));
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException("Unable to serialize patient " + patient.getNhsNumber(), e);
+            }
+        }
+
+        private Patient nextPatient() {
+            boolean female = random.nextBoolean();
+            LocalDate dateOfBirth = between(OLDEST_BIRTH, YOUNGEST_BIRTH, random);
+            boolean adult = dateOfBirth.isBefore(YOUNGEST_BIRTH.minusYears(18));
+            String town = pick(TOWNS, random);
+
+            Patient patient = new Patient();
+            patient.setKey(String.valueOf(generated));
+            patient.setGender(female ? "Female" : "Male");
+            patient.setTitle(female ? (adult ? "Mrs" : "Miss") : (adult ? "Mr" : "Master"));
+            patient.setForename(pick(female ? FEMALE_FORENAMES : MALE_FORENAMES, random));
+            patient.setSurname(pick(SURNAMES, random));
+            patient.setAddress1((1 + random.nextInt(200)) + " " + pick(STREETS, random));
+            patient.setAddress2(town);
+            patient.setAddress3(pick(COUNTIES, random));
+            patient.setPostcode(String.format("%c%c%d %d%c%c", (char) ('A' + random.nextInt(26)), (char) ('A' + random.nextInt(26)),
+                1 + random.nextInt(99), random.nextInt(10), (char) ('A' + random.nextInt(26)), (char) ('A' + random.nextInt(26))));
+            patient.setTelephone(String.format("0%04d %06d", 1000 + random.nextInt(9000), random.nextInt(1000000)));
+            patient.setDateOfBirth(dateOfBirth.atStartOfDay(ZoneOffset.UTC));
+            patient.setNhsNumber(nextNhsNumber());
+            patient.setPasNumber(String.valueOf(100000 + random.nextInt(900000)));
+            patient.setDepartment(String.valueOf(1 + random.nextInt(5)));
+            patient.setGpNumber(String.valueOf(1 + random.nextInt(100)));
+            return patient;
+        }
+
+        private String nextNhsNumber() {
+            int check;
+            while ((check = nhsCheckDigit(nextDigits)) == 10) {
+                nextDigits++;
+            }
+            return String.valueOf(nextDigits++) + check;
+        }
+
+        private List<CompositionRequest> nextCompositions(Patient patient) throws JsonProcessingException {
+            LocalDate firstEvent = patient.getDateOfBirth().toLocalDate().isAfter(FIRST_EVENT)
+                ? patient.getDateOfBirth().toLocalDate() : FIRST_EVENT;
+            List<CompositionRequest> compositions = new ArrayList<>(templates.size());
+            for (TemplateVariants template : templates) {
+                int variant = random.nextInt(template.variants.size());
+                Instant time = between(firstEvent, LAST_EVENT, random).atStartOfDay(ZoneOffset.UTC).toInstant()
+                    .plusSeconds(random.nextInt(24 * 60 * 60));
+                byte[] body = objectMapper.writeValueAsBytes(vary(template.variants.get(variant),
+                    DateTimeFormatter.ISO_INSTANT.format(time)));
+                compositions.add(new CompositionRequest(template.templateId, body,
+                    "synthetic/" + patient.getNhsNumber() + "/" + template.templateId + "/" + (variant + 1)));
+            }
+            return compositions;
+        }
+
+        /**
+         * @return a copy of the FLAT composition with the given event time, a random composer and measurements
+         * varied by up to 15%
+         */
+        private Map<String, Object> vary(Map<String, Object> sample, String time) {
+            Map<String, Object> flat = new LinkedHashMap<>(sample);
+            for (Map.Entry<String, Object> entry : flat.entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof String && DATE_TIME.matcher((String) value).matches()) {
+                    entry.setValue(time);
+                } else if (entry.getKey().endsWith(MAGNITUDE) && value instanceof Number) {
+                    double varied = ((Number) value).doubleValue() * (0.85 + 0.3 * random.nextDouble());
+                    entry.setValue(value instanceof Integer || value instanceof Long
+                        ? (Object) Math.round(varied) : (Object) (Math.round(varied * 10) / 10.0));
+                }
+            }
+            flat.computeIfPresent(COMPOSER, (key, value) -> pick(COMPOSERS, random));
+            return flat;
+        }
+    }
+
+    private static final class TemplateVariants {
+        final String templateId;
+        final List<Map<String, Object>> variants = new ArrayList<>();
+
+        TemplateVariants(String templateId) {
+            this.templateId = templateId;
+        }
+    }
+}
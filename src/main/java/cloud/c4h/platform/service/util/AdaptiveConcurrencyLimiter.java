@@ -0,0 +1,265 @@
+package cloud.c4h.platform.service.util;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.RestClientException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Limits the number of requests in flight to the CDR, adapting the limit to how the CDR copes (AIMD).
+ * <p>
+ * Every request completing within the latency threshold grows the limit by about one per round of requests,
+ * as long as the limit is actually in use. A failed, throttled (5xx, 429) or slow request shrinks it by the
+ * backoff ratio - once per round, since the requests already in flight when the limit shrank report the same
+ * congestion. Requests released untimed, whose duration says nothing about congestion, only shrink the limit when
+ * they fail. Requests over the limit wait in a bounded queue and are rejected with a
+ * {@link ConcurrencyLimitExceededException} when it is full or they waited too long.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private final ThinkEhrRestClient.Limiter settings;
+    private final long latencyThresholdNanos;
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private final Timer queueWait = new Timer();
+    private final Meter rejections = new Meter();
+    private final Meter limitDecreases = new Meter();
+
+    // guarded by this
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos = System.nanoTime();
+
+    public AdaptiveConcurrencyLimiter(ThinkEhrRestClient.Limiter settings) {
+        this.settings = settings;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(settings.getLatencyThresholdMillis());
+        this.limit = Math.max(settings.getMinLimit(), Math.min(settings.getMaxLimit(), settings.getInitialLimit()));
+    }
+
+    /**
+     * Takes a permit for a request, waiting for one if the limit is reached.
+     *
+     * @throws ConcurrencyLimitExceededException if the queue is full or no permit became available in time
+     */
+    public Permit acquire() {
+        CompletableFuture<Permit> permit = acquireAsync();
+        try {
+            return permit.get(settings.getMaxQueueWaitMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (permit.cancel(false)) {
+                rejections.mark();
+                throw new ConcurrencyLimitExceededException("No CDR permit within " + settings.getMaxQueueWaitMillis() + " ms");
+            }
+            // granted while timing out
+            return permit.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!permit.cancel(false)) {
+                giveBack();
+            }
+            throw new ConcurrencyLimitExceededException("Interrupted while waiting for a CDR permit");
+        } catch (ExecutionException e) {
+            throw (ConcurrencyLimitExceededException) e.getCause();
+        }
+    }
+
+    /**
+     * Takes a permit for a request without blocking. The returned future completes when a permit is granted,
+     * on the thread releasing one, or fails with a {@link ConcurrencyLimitExceededException}.
+     */
+    public CompletableFuture<Permit> acquireAsync() {
+        CompletableFuture<Permit> result = new CompletableFuture<>();
+        List<Waiter> expired = new ArrayList<>();
+        boolean queued = false;
+        synchronized (this) {
+            expireWaiters(System.nanoTime(), expired);
+            if (waiters.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                result.complete(new Permit());
+            } else if (waiters.size() < settings.getMaxQueueSize()) {
+                waiters.add(new Waiter(result));
+                queued = true;
+            }
+        }
+        reject(expired);
+        if (result.isDone()) {
+            queueWait.update(0, TimeUnit.NANOSECONDS);
+        } else if (!queued) {
+            rejections.mark();
+            result.completeExceptionally(new ConcurrencyLimitExceededException("Too many requests waiting for the CDR"));
+        }
+        return result;
+    }
+
+    private void release(Permit permit, boolean dropped, boolean timed) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            inFlight--;
+            if (dropped || timed && now - permit.grantedNanos > latencyThresholdNanos) {
+                // requests sent before the last decrease saw the same congestion, so they do not count again
+                if (permit.grantedNanos > lastDecreaseNanos) {
+                    limit = Math.max(settings.getMinLimit(), limit * settings.getBackoffRatio());
+                    lastDecreaseNanos = now;
+                    limitDecreases.mark();
+                    log.debug("Decreased CDR concurrency limit to {}", (int) limit);
+                }
+            } else if (timed && inFlight + 1 >= limit / 2) {
+                limit = Math.min(settings.getMaxLimit(), limit + 1 / limit);
+            }
+        }
+        grantWaiters();
+    }
+
+    /**
+     * Returns a permit that was granted but never used, without adapting the limit
+     */
+    private void giveBack() {
+        synchronized (this) {
+            inFlight--;
+        }
+        grantWaiters();
+    }
+
+    /**
+     * Hands the free permits to the longest waiting requests. The futures are completed outside the lock,
+     * as completing them sends the waiting requests on this thread.
+     */
+    private void grantWaiters() {
+        List<Waiter> granted = new ArrayList<>();
+        List<Waiter> expired = new ArrayList<>();
+        long now = System.nanoTime();
+        synchronized (this) {
+            expireWaiters(now, expired);
+            while (!waiters.isEmpty() && inFlight < (int) limit) {
+                Waiter waiter = waiters.poll();
+                if (!waiter.future.isDone()) {
+                    inFlight++;
+                    granted.add(waiter);
+                }
+            }
+        }
+        reject(expired);
+        for (Waiter waiter : granted) {
+            queueWait.update(now - waiter.queuedNanos, TimeUnit.NANOSECONDS);
+            if (!waiter.future.complete(new Permit())) {
+                // cancelled by a blocking caller that just timed out
+                giveBack();
+            }
+        }
+    }
+
+    /**
+     * Removes the waiters that have been queued for too long or were cancelled; the caller holds the lock.
+     */
+    private void expireWaiters(long now, List<Waiter> expired) {
+        long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(settings.getMaxQueueWaitMillis());
+        while (!waiters.isEmpty()) {
+            Waiter waiter = waiters.peek();
+            if (!waiter.future.isDone() && now - waiter.queuedNanos < maxWaitNanos) {
+                return;
+            }
+            expired.add(waiters.poll());
+        }
+    }
+
+    private void reject(List<Waiter> expired) {
+        for (Waiter waiter : expired) {
+            if (waiter.future.completeExceptionally(new ConcurrencyLimitExceededException(
+                "No CDR permit within " + settings.getMaxQueueWaitMillis() + " ms"))) {
+                rejections.mark();
+            }
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return waiters.size();
+    }
+
+    public long getRejections() {
+        return rejections.getCount();
+    }
+
+    /**
+     * Publishes the current limit, requests in flight and queued, queue wait and rejections under the given name
+     */
+    public void registerMetrics(MetricRegistry metricRegistry, String name) {
+        registerGauge(metricRegistry, MetricRegistry.name(name, "limit"), this::getLimit);
+        registerGauge(metricRegistry, MetricRegistry.name(name, "inFlight"), this::getInFlight);
+        registerGauge(metricRegistry, MetricRegistry.name(name, "queued"), this::getQueued);
+        register(metricRegistry, MetricRegistry.name(name, "queueWait"), queueWait);
+        register(metricRegistry, MetricRegistry.name(name, "rejections"), rejections);
+        register(metricRegistry, MetricRegistry.name(name, "limitDecreases"), limitDecreases);
+    }
+
+    private static void registerGauge(MetricRegistry metricRegistry, String name, Gauge<Integer> gauge) {
+        register(metricRegistry, name, gauge);
+    }
+
+    private static void register(MetricRegistry metricRegistry, String name, Metric metric) {
+        metricRegistry.remove(name);
+        metricRegistry.register(name, metric);
+    }
+
+    /**
+     * Permission to send one request; must be released exactly once when its response arrived or it failed
+     */
+    public final class Permit {
+        private final long grantedNanos = System.nanoTime();
+
+        /**
+         * @param dropped whether the request failed or the CDR signalled overload, which shrinks the limit
+         */
+        public void release(boolean dropped) {
+            release(dropped, true);
+        }
+
+        /**
+         * @param dropped whether the request failed or the CDR signalled overload, which shrinks the limit
+         * @param timed   whether the duration of the request is compared to the latency threshold; false for
+         *                requests that are slow by nature, which then neither grow nor shrink the limit unless dropped
+         */
+        public void release(boolean dropped, boolean timed) {
+            AdaptiveConcurrencyLimiter.this.release(this, dropped, timed);
+        }
+    }
+
+    private static final class Waiter {
+        private final CompletableFuture<Permit> future;
+        private final long queuedNanos = System.nanoTime();
+
+        Waiter(CompletableFuture<Permit> future) {
+            this.future = future;
+        }
+    }
+
+    /**
+     * Thrown when a request to the CDR is rejected to protect it from more load than it currently handles
+     */
+    public static class ConcurrencyLimitExceededException extends RestClientException {
+        public ConcurrencyLimitExceededException(String message) {
+            super(message);
+        }
+    }
+}
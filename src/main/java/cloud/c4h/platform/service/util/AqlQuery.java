@@ -0,0 +1,81 @@
+package cloud.c4h.platform.service.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An AQL query with bound parameters, run by {@link ThinkEhrRestClient#query} a page at a time.
+ * <p>
+ * Values are bound by the CDR to the {@code :name} placeholders of the statement, so they never have to be quoted
+ * into it. Pages are fetched by offset, so the statement should order its rows for the pages not to overlap.
+ */
+public final class AqlQuery {
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private final String aql;
+    private final Map<String, Object> parameters = new LinkedHashMap<>();
+    private int pageSize = DEFAULT_PAGE_SIZE;
+
+    /**
+     * @param aql the statement, with {@code :name} placeholders for the parameters
+     */
+    public AqlQuery(String aql) {
+        this.aql = aql;
+    }
+
+    /**
+     * Binds a value to the {@code :name} placeholder
+     */
+    public AqlQuery parameter(String name, Object value) {
+        parameters.put(name, value);
+        return this;
+    }
+
+    /**
+     * Sets the number of rows fetched per request
+     */
+    public AqlQuery pageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    public String getAql() {
+        return aql;
+    }
+
+    public Map<String, Object> getParameters() {
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return the body of the request for the page starting at the given row
+     */
+    Map<String, Object> page(long offset) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("aql", aql);
+        if (!parameters.isEmpty()) {
+            body.put("aqlParameters", parameters);
+        }
+        body.put("offset", offset);
+        body.put("fetch", pageSize);
+        return body;
+    }
+
+    @Override
+    public String toString() {
+        return "AqlQuery{" +
+            "aql='" + aql + "'" +
+            ", parameters=" + parameters +
+            ", pageSize=" + pageSize +
+            '}';
+    }
+}
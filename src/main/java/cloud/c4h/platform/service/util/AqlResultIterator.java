@@ -0,0 +1,160 @@
+package cloud.c4h.platform.service.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The rows of an {@link AqlQuery}, pulled from the CDR as they are iterated.
+ * <p>
+ * Each page is read from the open response by a streaming parser, one row at a time, and the next page is only
+ * requested once the rows of the current one are used up, so any number of rows is read in the memory of one. A
+ * page with fewer rows than the page size is the last one. The response of the current page is held open until the
+ * iteration ends, so an iteration given up early must be closed.
+ */
+public class AqlResultIterator<T> implements Iterator<T>, Closeable {
+
+    /**
+     * Requests the page starting at a row
+     */
+    @FunctionalInterface
+    interface PageSource {
+        /**
+         * @return the open response, or null if there are no rows from the offset on
+         */
+        ClientHttpResponse open(long offset) throws IOException;
+    }
+
+    private final ObjectMapper objectMapper;
+    private final Class<T> rowType;
+    private final int pageSize;
+    private final PageSource pages;
+
+    private ClientHttpResponse response;
+    private JsonParser parser;
+    private long offset;
+    private int rowsInPage;
+    private T next;
+    private boolean done;
+
+    AqlResultIterator(ObjectMapper objectMapper, Class<T> rowType, int pageSize, PageSource pages) {
+        this.objectMapper = objectMapper;
+        this.rowType = rowType;
+        this.pageSize = pageSize;
+        this.pages = pages;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            try {
+                next = advance();
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T row = next;
+        next = null;
+        return row;
+    }
+
+    /**
+     * @return the remaining rows, closing the iteration when the stream is closed
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(this::close);
+    }
+
+    private T advance() throws IOException {
+        while (true) {
+            if (parser == null && !openPage()) {
+                close();
+                return null;
+            }
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                rowsInPage++;
+                return objectMapper.readValue(parser, rowType);
+            }
+            // the end of the page
+            boolean full = rowsInPage >= pageSize;
+            closePage();
+            if (!full) {
+                close();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Requests the next page and positions the parser at the start of its rows
+     *
+     * @return whether the page has rows
+     */
+    private boolean openPage() throws IOException {
+        response = pages.open(offset);
+        offset += pageSize;
+        rowsInPage = 0;
+        if (response == null) {
+            return false;
+        }
+        parser = objectMapper.getFactory().createParser(response.getBody());
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return false;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("resultSet".equals(field) && value == JsonToken.START_ARRAY) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    private void closePage() {
+        try {
+            if (parser != null) {
+                parser.close();
+            }
+        } catch (IOException e) {
+            // the response is closed anyway
+        } finally {
+            parser = null;
+            if (response != null) {
+                response.close();
+                response = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        done = true;
+        closePage();
+    }
+}
@@ -0,0 +1,114 @@
+package cloud.c4h.platform.service.util;
+
+import cloud.c4h.platform.service.util.cdr.CdrJson;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking counterpart of {@link CdrHttpTransport}: a pooled, keep-alive HTTP client driven by a few
+ * I/O reactor threads, so many requests can be in flight without a thread waiting on each of them.
+ * <p>
+ * Uses the same connection limits and timeouts as the blocking transport, and evicts idle and expired connections
+ * in the background the same way. Pooled connections need no validation before they are leased: the I/O reactor
+ * sees the CDR closing one as soon as it happens and drops it from the pool.
+ */
+public class CdrAsyncHttpTransport implements Closeable {
+
+    private final Logger log = LoggerFactory.getLogger(CdrAsyncHttpTransport.class);
+
+    private final PoolingNHttpClientConnectionManager connectionManager;
+    private final CloseableHttpAsyncClient httpClient;
+    private final AsyncRestTemplate restTemplate;
+    private final ScheduledExecutorService idleConnectionEvictor;
+
+    public CdrAsyncHttpTransport(ThinkEhrRestClient.Http settings) throws IOReactorException {
+        IOReactorConfig reactorConfig = IOReactorConfig.custom()
+            .setIoThreadCount(settings.getIoThreads())
+            .setConnectTimeout(settings.getConnectTimeout())
+            .setSoTimeout(settings.getReadTimeout())
+            .build();
+        connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactorConfig));
+        connectionManager.setMaxTotal(settings.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(settings.getMaxConnectionsPerRoute());
+
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(settings.getConnectTimeout())
+            .setSocketTimeout(settings.getReadTimeout())
+            .setConnectionRequestTimeout(settings.getConnectionRequestTimeout())
+            .build();
+
+        httpClient = HttpAsyncClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+            .setThreadFactory(new CustomizableThreadFactory("c4hcloudplatform-CdrAsync-"))
+            .build();
+        httpClient.start();
+        idleConnectionEvictor = startIdleConnectionEvictor(settings.getIdleEvictionSeconds());
+
+        restTemplate = new AsyncRestTemplate(new HttpComponentsAsyncClientHttpRequestFactory(httpClient));
+        CdrJson.configure(restTemplate.getMessageConverters());
+        log.debug("Created asynchronous CDR transport (max connections = {}, per route = {}, io threads = {})",
+            settings.getMaxConnections(), settings.getMaxConnectionsPerRoute(), settings.getIoThreads());
+    }
+
+    private ScheduledExecutorService startIdleConnectionEvictor(long idleEvictionSeconds) {
+        if (idleEvictionSeconds <= 0) {
+            return null;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("c4hcloudplatform-CdrAsyncEvictor-");
+        threadFactory.setDaemon(true);
+        ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        evictor.scheduleWithFixedDelay(() -> {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(idleEvictionSeconds, TimeUnit.SECONDS);
+        }, idleEvictionSeconds, idleEvictionSeconds, TimeUnit.SECONDS);
+        return evictor;
+    }
+
+    public AsyncRestTemplate getRestTemplate() {
+        return restTemplate;
+    }
+
+    /**
+     * Publishes the connection pool statistics as gauges under the given name
+     */
+    public void registerMetrics(MetricRegistry metricRegistry, String name) {
+        registerGauge(metricRegistry, MetricRegistry.name(name, "leased"), () -> connectionManager.getTotalStats().getLeased());
+        registerGauge(metricRegistry, MetricRegistry.name(name, "available"), () -> connectionManager.getTotalStats().getAvailable());
+        registerGauge(metricRegistry, MetricRegistry.name(name, "pending"), () -> connectionManager.getTotalStats().getPending());
+        registerGauge(metricRegistry, MetricRegistry.name(name, "max"), () -> connectionManager.getTotalStats().getMax());
+    }
+
+    private void registerGauge(MetricRegistry metricRegistry, String name, Gauge<Integer> gauge) {
+        metricRegistry.remove(name);
+        metricRegistry.register(name, gauge);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (idleConnectionEvictor != null) {
+            idleConnectionEvictor.shutdownNow();
+        }
+        httpClient.close();
+    }
+}
@@ -0,0 +1,259 @@
+package cloud.c4h.platform.service.util;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.client.RestClientException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker and bulkhead of one {@link CdrOperation} class.
+ * <p>
+ * After {@code failureThreshold} consecutive failures (I/O errors and 5xx responses) the breaker opens and rejects
+ * all requests of its class for {@code openSeconds}, instead of letting each of them wait for the socket to give
+ * up. It then lets {@code halfOpenCalls} trial requests through: the breaker closes when one succeeds and opens
+ * again when one fails. The bulkhead bounds the blocking requests in flight of the class, so a slow CDR operation
+ * cannot take every web and listener thread; a request waits at most {@code bulkheadWaitMillis} for a slot. Callers
+ * with a known concurrency, like the provisioning workers, {@link #reserve} the slots they need, so they are bounded
+ * by the concurrency limiter rather than rejected by the bulkhead. Rejected requests fail with a
+ * {@link CdrUnavailableException}.
+ */
+public class CdrCircuitBreaker {
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final Logger log = LoggerFactory.getLogger(CdrCircuitBreaker.class);
+
+    private final CdrOperation operation;
+    private final ThinkEhrRestClient.Breaker settings;
+    private final LongSupplier clock;
+    private final Semaphore bulkhead;
+    private final Meter rejections = new Meter();
+    private final Meter failures = new Meter();
+    private volatile int bulkheadSize;
+
+    // guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntilMillis;
+    private int trials;
+
+    public CdrCircuitBreaker(CdrOperation operation, ThinkEhrRestClient.Breaker settings) {
+        this(operation, settings, System::currentTimeMillis);
+    }
+
+    CdrCircuitBreaker(CdrOperation operation, ThinkEhrRestClient.Breaker settings, LongSupplier clock) {
+        this.operation = operation;
+        this.settings = settings;
+        this.clock = clock;
+        this.bulkheadSize = settings.getBulkheadSize();
+        this.bulkhead = new Semaphore(bulkheadSize);
+    }
+
+    /**
+     * Grows the bulkhead to admit the given number of blocking requests in flight; it is never shrunk
+     */
+    public synchronized void reserve(int requests) {
+        if (requests > bulkheadSize) {
+            bulkhead.release(requests - bulkheadSize);
+            log.info("Bulkhead of CDR {} operations grown to {} requests", operation.label(), requests);
+            bulkheadSize = requests;
+        }
+    }
+
+    /**
+     * Admits a blocking request, waiting for a slot of the bulkhead if it is full.
+     *
+     * @throws CdrUnavailableException if the breaker is open or no slot became free in time
+     */
+    public Call acquire() {
+        Call call = admit();
+        try {
+            if (!bulkhead.tryAcquire(settings.getBulkheadWaitMillis(), TimeUnit.MILLISECONDS)) {
+                call.abandon();
+                rejections.mark();
+                throw new CdrUnavailableException("CDR " + operation.label() + " operations are busy: "
+                    + bulkheadSize + " requests in flight");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            call.abandon();
+            throw new CdrUnavailableException("Interrupted while waiting for CDR " + operation.label() + " operations");
+        }
+        call.bulkheadSlot = true;
+        return call;
+    }
+
+    /**
+     * Admits a request of the non-blocking transport, which holds no thread while it is in flight and so only
+     * goes through the breaker
+     *
+     * @throws CdrUnavailableException if the breaker is open
+     */
+    public Call acquireAsync() {
+        return admit();
+    }
+
+    private Call admit() {
+        long now = clock.getAsLong();
+        boolean trial = false;
+        String rejection = null;
+        synchronized (this) {
+            if (state == State.OPEN && now >= openUntilMillis) {
+                state = State.HALF_OPEN;
+                trials = 0;
+                log.info("Trying CDR {} operations again", operation.label());
+            }
+            if (state == State.OPEN) {
+                rejection = "circuit open after " + consecutiveFailures + " consecutive failures, retrying in "
+                    + TimeUnit.MILLISECONDS.toSeconds(openUntilMillis - now + 999) + " s";
+            } else if (state == State.HALF_OPEN) {
+                if (trials < settings.getHalfOpenCalls()) {
+                    trials++;
+                    trial = true;
+                } else {
+                    rejection = "circuit half open, waiting for the trial requests";
+                }
+            }
+        }
+        if (rejection != null) {
+            rejections.mark();
+            throw new CdrUnavailableException("CDR " + operation.label() + " operations are unavailable: " + rejection);
+        }
+        return new Call(trial);
+    }
+
+    private void succeeded(Call call) {
+        synchronized (this) {
+            consecutiveFailures = 0;
+            if (state == State.HALF_OPEN) {
+                state = State.CLOSED;
+                log.info("CDR {} operations recovered, circuit closed", operation.label());
+            }
+        }
+    }
+
+    private void failed(Call call) {
+        failures.mark();
+        synchronized (this) {
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN ? call.trial : state == State.CLOSED && consecutiveFailures >= settings.getFailureThreshold()) {
+                state = State.OPEN;
+                openUntilMillis = clock.getAsLong() + TimeUnit.SECONDS.toMillis(settings.getOpenSeconds());
+                log.warn("CDR {} operations failed {} times in a row, circuit open for {} s",
+                    operation.label(), consecutiveFailures, settings.getOpenSeconds());
+            }
+        }
+    }
+
+    private synchronized void abandoned(Call call) {
+        if (call.trial && state == State.HALF_OPEN) {
+            trials--;
+        }
+    }
+
+    public CdrOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return the state, where an open breaker whose time is up already counts as half open
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && clock.getAsLong() >= openUntilMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public int getBulkheadSize() {
+        return bulkheadSize;
+    }
+
+    public int getBulkheadAvailable() {
+        return bulkhead.availablePermits();
+    }
+
+    public long getRejections() {
+        return rejections.getCount();
+    }
+
+    /**
+     * Publishes the state (0 closed, 1 half open, 2 open), free bulkhead slots, failures and rejections under the
+     * given name
+     */
+    public void registerMetrics(MetricRegistry metricRegistry, String name) {
+        register(metricRegistry, MetricRegistry.name(name, "state"), (Gauge<Integer>) () -> getState().ordinal());
+        register(metricRegistry, MetricRegistry.name(name, "bulkheadAvailable"), (Gauge<Integer>) this::getBulkheadAvailable);
+        register(metricRegistry, MetricRegistry.name(name, "failures"), failures);
+        register(metricRegistry, MetricRegistry.name(name, "rejections"), rejections);
+    }
+
+    private static void register(MetricRegistry metricRegistry, String name, Metric metric) {
+        metricRegistry.remove(name);
+        metricRegistry.register(name, metric);
+    }
+
+    /**
+     * An admitted request; must be completed exactly once with its outcome
+     */
+    public final class Call {
+        private final boolean trial;
+        private boolean bulkheadSlot;
+
+        private Call(boolean trial) {
+            this.trial = trial;
+        }
+
+        /**
+         * @param failed whether the CDR failed the request, as opposed to answering it or the request not being sent
+         */
+        public void complete(boolean failed) {
+            release();
+            if (failed) {
+                failed(this);
+            } else {
+                succeeded(this);
+            }
+        }
+
+        /**
+         * Gives up a request that was not sent, e.g. rejected by another limit, without counting it either way
+         */
+        public void abandon() {
+            release();
+            abandoned(this);
+        }
+
+        private void release() {
+            if (bulkheadSlot) {
+                bulkheadSlot = false;
+                bulkhead.release();
+            }
+        }
+    }
+
+    /**
+     * Thrown instead of sending a request the CDR is not expected to answer, or has no capacity left for
+     */
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public static class CdrUnavailableException extends RestClientException {
+        public CdrUnavailableException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package cloud.c4h.platform.service.util;
+
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reports the CDR as {@value #DEGRADED} while the circuit breaker of any of its operation classes is open, with the
+ * state, consecutive failures and free bulkhead slots of every class as details. It sends no requests of its own.
+ * <p>
+ * An open breaker means only part of the application is unavailable, so the status is mapped to 200 and ordered
+ * between {@code OUT_OF_SERVICE} and {@code UP} in {@code application.yml}, instead of taking the whole instance
+ * out of its load balancer as {@code DOWN} would.
+ */
+@Component
+public class CdrHealthIndicator extends AbstractHealthIndicator {
+
+    public static final String DEGRADED = "DEGRADED";
+
+    private final ThinkEhrRestClient thinkEhrRestClient;
+
+    public CdrHealthIndicator(ThinkEhrRestClient thinkEhrRestClient) {
+        this.thinkEhrRestClient = thinkEhrRestClient;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        if (!thinkEhrRestClient.getBreaker().isEnabled()) {
+            builder.unknown().withDetail("breaker", "disabled");
+            return;
+        }
+        boolean open = false;
+        for (CdrCircuitBreaker circuitBreaker : thinkEhrRestClient.circuitBreakers().values()) {
+            CdrCircuitBreaker.State state = circuitBreaker.getState();
+            open |= state == CdrCircuitBreaker.State.OPEN;
+            Map<String, Object> details = new LinkedHashMap<>();
+            details.put("state", state);
+            details.put("consecutiveFailures", circuitBreaker.getConsecutiveFailures());
+            details.put("bulkheadAvailable", circuitBreaker.getBulkheadAvailable());
+            details.put("rejections", circuitBreaker.getRejections());
+            builder.withDetail(circuitBreaker.getOperation().label(), details);
+        }
+        if (open) {
+            builder.status(DEGRADED);
+        } else {
+            builder.up();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package cloud.c4h.platform.service.util;
+
+import cloud.c4h.platform.service.util.cdr.CdrJson;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pooled, keep-alive HTTP transport shared by all calls to the CDR.
+ * <p>
+ * Connections (and their TLS sessions) are reused across requests, idle connections are evicted in the
+ * background and every request is bounded by connect, read and pool-acquire timeouts.
+ */
+public class CdrHttpTransport implements Closeable {
+
+    private final Logger log = LoggerFactory.getLogger(CdrHttpTransport.class);
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final RestTemplate restTemplate;
+
+    public CdrHttpTransport(ThinkEhrRestClient.Http settings) {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(settings.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(settings.getMaxConnectionsPerRoute());
+        // re-check connections that sat idle for a while before leasing them, the CDR may have closed them
+        connectionManager.setValidateAfterInactivity(settings.getValidateAfterInactivity());
+
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(settings.getConnectTimeout())
+            .setSocketTimeout(settings.getReadTimeout())
+            .setConnectionRequestTimeout(settings.getConnectionRequestTimeout())
+            .build();
+
+        httpClient = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+            .evictExpiredConnections()
+            .evictIdleConnections(settings.getIdleEvictionSeconds(), TimeUnit.SECONDS)
+            .build();
+
+        // request bodies stay buffered: the interceptors of the CDR client copy the body into the request they
+        // execute, which a streaming request of this factory does not support
+        restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+        CdrJson.configure(restTemplate.getMessageConverters());
+        log.debug("Created CDR transport (max connections = {}, per route = {})",
+            settings.getMaxConnections(), settings.getMaxConnectionsPerRoute());
+    }
+
+    public RestTemplate getRestTemplate() {
+        return restTemplate;
+    }
+
+    /**
+     * Publishes the connection pool statistics as gauges under the given name
+     */
+    public void registerMetrics(MetricRegistry metricRegistry, String name) {
+        registerGauge(metricRegistry, MetricRegistry.name(name, "leased"), () -> connectionManager.getTotalStats().getLeased());
+        registerGauge(metricRegistry, MetricRegistry.name(name, "available"), () -> connectionManager.getTotalStats().getAvailable());
+        registerGauge(metricRegistry, MetricRegistry.name(name, "pending"), () -> connectionManager.getTotalStats().getPending());
+        registerGauge(metricRegistry, MetricRegistry.name(name, "max"), () -> connectionManager.getTotalStats().getMax());
+    }
+
+    private void registerGauge(MetricRegistry metricRegistry, String name, Gauge<Integer> gauge) {
+        metricRegistry.remove(name);
+        metricRegistry.register(name, gauge);
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+}
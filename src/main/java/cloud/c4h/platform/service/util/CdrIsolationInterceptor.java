@@ -0,0 +1,99 @@
+package cloud.c4h.platform.service.util;
+
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.AsyncClientHttpRequestExecution;
+import org.springframework.http.client.AsyncClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Sends every request of the blocking and non-blocking CDR transports through the {@link CdrCircuitBreaker} of its
+ * {@link CdrOperation}, reporting I/O failures and server errors as failures. Requests rejected before they were
+ * sent, e.g. by the concurrency limiter, count neither way.
+ */
+public class CdrIsolationInterceptor implements ClientHttpRequestInterceptor, AsyncClientHttpRequestInterceptor {
+
+    private final Map<CdrOperation, CdrCircuitBreaker> breakers;
+    private final String baseUrl;
+
+    /**
+     * @param baseUrl the url of the CDR REST API, used to tell the operations apart
+     */
+    public CdrIsolationInterceptor(Map<CdrOperation, CdrCircuitBreaker> breakers, String baseUrl) {
+        this.breakers = breakers;
+        this.baseUrl = baseUrl;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        CdrOperation operation = CdrOperation.of(request.getURI(), baseUrl);
+        if (operation == null) {
+            return execution.execute(request, body);
+        }
+        CdrCircuitBreaker.Call call = breakers.get(operation).acquire();
+        boolean sent = false;
+        boolean failed = true;
+        try {
+            ClientHttpResponse response = execution.execute(request, body);
+            sent = true;
+            failed = isFailure(response);
+            return response;
+        } catch (IOException | ResourceAccessException e) {
+            sent = true;
+            throw e;
+        } finally {
+            if (sent) {
+                call.complete(failed);
+            } else {
+                call.abandon();
+            }
+        }
+    }
+
+    @Override
+    public ListenableFuture<ClientHttpResponse> intercept(HttpRequest request, byte[] body, AsyncClientHttpRequestExecution execution) throws IOException {
+        CdrOperation operation = CdrOperation.of(request.getURI(), baseUrl);
+        if (operation == null) {
+            return execution.executeAsync(request, body);
+        }
+        CdrCircuitBreaker.Call call = breakers.get(operation).acquireAsync();
+        SettableListenableFuture<ClientHttpResponse> result = new SettableListenableFuture<>();
+        try {
+            execution.executeAsync(request, body).addCallback(
+                response -> {
+                    call.complete(isFailure(response));
+                    result.set(response);
+                },
+                failure -> {
+                    if (failure instanceof IOException || failure instanceof ResourceAccessException) {
+                        call.complete(true);
+                    } else {
+                        call.abandon();
+                    }
+                    result.setException(failure);
+                });
+        } catch (IOException | ResourceAccessException e) {
+            call.complete(true);
+            throw e;
+        } catch (RuntimeException e) {
+            call.abandon();
+            throw e;
+        }
+        return result;
+    }
+
+    private static boolean isFailure(ClientHttpResponse response) {
+        try {
+            return response.getRawStatusCode() >= 500;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package cloud.c4h.platform.service.util;
+
+import java.net.URI;
+
+/**
+ * The classes of CDR operations isolated from each other by their own {@link CdrCircuitBreaker}, so e.g. an admin
+ * API that is down does not stop compositions from being committed
+ */
+public enum CdrOperation {
+
+    /**
+     * Domains and users of the admin API, the manager API and templates
+     */
+    ADMIN,
+    DEMOGRAPHICS,
+    EHR,
+    COMPOSITION,
+    QUERY;
+
+    /**
+     * @param baseUrl the url of the CDR REST API
+     * @return the class of the request, or null for the requests opening sessions, which are part of the request
+     * that needs the session and already isolated with it
+     */
+    static CdrOperation of(URI uri, String baseUrl) {
+        String url = uri.toString();
+        if (baseUrl == null || !url.startsWith(baseUrl)) {
+            return ADMIN;
+        }
+        String path = url.substring(baseUrl.length());
+        if (path.startsWith("session")) {
+            return null;
+        } else if (path.startsWith("demographics")) {
+            return DEMOGRAPHICS;
+        } else if (path.startsWith("ehr")) {
+            return EHR;
+        } else if (path.startsWith("composition")) {
+            return COMPOSITION;
+        } else if (path.startsWith("query")) {
+            return QUERY;
+        }
+        return ADMIN;
+    }
+
+    /**
+     * @return the name used in metrics, health details and errors
+     */
+    public String label() {
+        return name().toLowerCase();
+    }
+}
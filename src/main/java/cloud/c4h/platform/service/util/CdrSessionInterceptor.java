@@ -0,0 +1,137 @@
+package cloud.c4h.platform.service.util;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.AsyncClientHttpRequestExecution;
+import org.springframework.http.client.AsyncClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.support.HttpRequestWrapper;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Replaces the basic auth credentials of requests to the CDR REST API by the token of a session from the
+ * {@link CdrSessionManager}. A request whose session the CDR rejects, e.g. after it restarted, is sent once more with
+ * a new session. Requests to the admin and manager APIs, which do not take sessions, keep their credentials.
+ */
+public class CdrSessionInterceptor implements ClientHttpRequestInterceptor, AsyncClientHttpRequestInterceptor {
+
+    private final CdrSessionManager sessionManager;
+    private final String baseUrl;
+    private final Executor executor;
+
+    /**
+     * @param baseUrl  the url of the CDR REST API, requests to other urls are left alone
+     * @param executor runs the calls opening sessions for the non-blocking transport
+     */
+    public CdrSessionInterceptor(CdrSessionManager sessionManager, String baseUrl, Executor executor) {
+        this.sessionManager = sessionManager;
+        this.baseUrl = baseUrl;
+        this.executor = executor;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        String authorization = authorization(request);
+        if (authorization == null) {
+            return execution.execute(request, body);
+        }
+        String token = sessionManager.token(authorization);
+        useSession(request, token);
+        ClientHttpResponse response = execution.execute(request, body);
+        if (!isRejected(response)) {
+            return response;
+        }
+        response.close();
+        sessionManager.invalidate(authorization, token);
+        useSession(request, sessionManager.token(authorization));
+        return execution.execute(request, body);
+    }
+
+    @Override
+    public ListenableFuture<ClientHttpResponse> intercept(HttpRequest request, byte[] body, AsyncClientHttpRequestExecution execution) throws IOException {
+        String authorization = authorization(request);
+        if (authorization == null) {
+            return execution.executeAsync(request, body);
+        }
+        SettableListenableFuture<ClientHttpResponse> result = new SettableListenableFuture<>();
+        sendAsync(new SessionRequest(request), body, execution, authorization, true, result);
+        return result;
+    }
+
+    private void sendAsync(HttpRequest request, byte[] body, AsyncClientHttpRequestExecution execution,
+                           String authorization, boolean retry, SettableListenableFuture<ClientHttpResponse> result) {
+        sessionManager.tokenAsync(authorization, executor).whenComplete((token, e) -> {
+            if (e != null) {
+                result.setException(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                return;
+            }
+            try {
+                useSession(request, token);
+                execution.executeAsync(request, body).addCallback(
+                    response -> {
+                        if (retry && isRejected(response)) {
+                            response.close();
+                            sessionManager.invalidate(authorization, token);
+                            sendAsync(request, body, execution, authorization, false, result);
+                        } else {
+                            result.set(response);
+                        }
+                    },
+                    result::setException);
+            } catch (IOException | RuntimeException failure) {
+                result.setException(failure);
+            }
+        });
+    }
+
+    /**
+     * @return the basic auth credentials of a request to the REST API, null if it is not to take a session
+     */
+    private String authorization(HttpRequest request) {
+        String authorization = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        if (authorization == null || !authorization.startsWith("Basic ") || baseUrl == null
+            || !request.getURI().toString().startsWith(baseUrl)) {
+            return null;
+        }
+        return authorization;
+    }
+
+    private static void useSession(HttpRequest request, String token) {
+        request.getHeaders().remove(HttpHeaders.AUTHORIZATION);
+        request.getHeaders().set(CdrSessionManager.SESSION_HEADER, token);
+    }
+
+    /**
+     * A request with headers of its own: the headers of an asynchronous request are read-only once it is being
+     * executed, which it already is when the interceptors run
+     */
+    private static class SessionRequest extends HttpRequestWrapper {
+        private final HttpHeaders headers = new HttpHeaders();
+
+        SessionRequest(HttpRequest request) {
+            super(request);
+            headers.putAll(request.getHeaders());
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+    }
+
+    private static boolean isRejected(ClientHttpResponse response) {
+        try {
+            return response.getRawStatusCode() == HttpStatus.UNAUTHORIZED.value();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package cloud.c4h.platform.service.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the CDR sessions opened for each identity (domain user or admin), so requests send a session token the CDR
+ * looks up instead of credentials it has to verify.
+ * <p>
+ * A session is used until {@code refreshMarginSeconds} before it would expire, then the next request opens a new
+ * one. Requests of the same identity needing a session while one is being opened wait for that one, so concurrent
+ * refreshes cost a single call; a failed open is not cached, the next request tries again.
+ */
+public class CdrSessionManager {
+
+    /**
+     * The header the CDR takes the session token from
+     */
+    public static final String SESSION_HEADER = "Ehr-Session";
+
+    private final ConcurrentMap<String, CompletableFuture<Session>> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong opened = new AtomicLong();
+    private final Function<String, String> opener;
+    private final long lifetimeMillis;
+    private final LongSupplier clock;
+
+    /**
+     * @param opener   opens a session for the credentials of an Authorization header and returns its token
+     * @param settings the lifetime of the sessions
+     */
+    public CdrSessionManager(Function<String, String> opener, ThinkEhrRestClient.Session settings) {
+        this(opener, settings, System::currentTimeMillis);
+    }
+
+    CdrSessionManager(Function<String, String> opener, ThinkEhrRestClient.Session settings, LongSupplier clock) {
+        this.opener = opener;
+        this.lifetimeMillis = Math.max(0, settings.getTtlSeconds() - settings.getRefreshMarginSeconds()) * 1000;
+        this.clock = clock;
+    }
+
+    /**
+     * @param authorization the Authorization header of the identity
+     * @return the token of a live session of the identity, opened on the calling thread if needed
+     */
+    public String token(String authorization) {
+        try {
+            return session(authorization, Runnable::run).join().token;
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #token(String)}
+     *
+     * @param executor runs the call opening a session, if one is needed
+     */
+    public CompletableFuture<String> tokenAsync(String authorization, Executor executor) {
+        return session(authorization, executor).thenApply(session -> session.token);
+    }
+
+    /**
+     * Drops a session the CDR rejected, unless it was replaced already.
+     */
+    public void invalidate(String authorization, String token) {
+        sessions.computeIfPresent(authorization, (key, session) -> isOpened(session) && session.join().token.equals(token) ? null : session);
+    }
+
+    /**
+     * @return the number of sessions opened so far
+     */
+    public long getOpened() {
+        return opened.get();
+    }
+
+    private CompletableFuture<Session> session(String authorization, Executor executor) {
+        CompletableFuture<Session> created = new CompletableFuture<>();
+        CompletableFuture<Session> current = sessions.compute(authorization, (key, session) -> isUsable(session) ? session : created);
+        if (current == created) {
+            executor.execute(() -> open(authorization, created));
+        }
+        return current;
+    }
+
+    private void open(String authorization, CompletableFuture<Session> session) {
+        try {
+            String token = opener.apply(authorization);
+            opened.incrementAndGet();
+            session.complete(new Session(token, clock.getAsLong() + lifetimeMillis));
+        } catch (RuntimeException e) {
+            sessions.remove(authorization, session);
+            session.completeExceptionally(e);
+        }
+    }
+
+    private boolean isUsable(CompletableFuture<Session> session) {
+        if (session == null) {
+            return false;
+        }
+        // a session being opened is waited for
+        return !session.isDone() || isOpened(session) && session.join().expiresAt > clock.getAsLong();
+    }
+
+    private static boolean isOpened(CompletableFuture<Session> session) {
+        return session.isDone() && !session.isCompletedExceptionally();
+    }
+
+    private static final class Session {
+        private final String token;
+        private final long expiresAt;
+
+        private Session(String token, long expiresAt) {
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package cloud.c4h.platform.service.util;
+
+/**
+ * A FLAT composition to be committed against a template, with its pre-serialized JSON body
+ */
+public final class CompositionRequest {
+
+    private final String templateId;
+    private final byte[] body;
+    private final String source;
+
+    /**
+     * @param templateId the template the composition conforms to
+     * @param body       the FLAT JSON body - shared, so it must not be modified
+     * @param source     where the body comes from, used for logging
+     */
+    public CompositionRequest(String templateId, byte[] body, String source) {
+        this.templateId = templateId;
+        this.body = body;
+        this.source = source;
+    }
+
+    /**
+     * @param templateId the template the composition conforms to
+     * @param payload    the stored FLAT JSON body
+     * @param source     where the body comes from, used for logging
+     */
+    public CompositionRequest(String templateId, SamplePayloadStore.Payload payload, String source) {
+        this(templateId, payload.bytes(), source);
+    }
+
+    public String getTemplateId() {
+        return templateId;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public String toString() {
+        return "CompositionRequest{" +
+            "templateId='" + templateId + "'" +
+            ", source='" + source + "'" +
+            '}';
+    }
+}
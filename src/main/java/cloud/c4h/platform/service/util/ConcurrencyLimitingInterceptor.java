@@ -0,0 +1,102 @@
+package cloud.c4h.platform.service.util;
+
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.AsyncClientHttpRequestExecution;
+import org.springframework.http.client.AsyncClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Sends every request of the blocking and non-blocking CDR transports through an {@link AdaptiveConcurrencyLimiter},
+ * reporting server errors, throttling and I/O failures as drops.
+ * <p>
+ * Only the failures of {@link CdrOperation#ADMIN} requests count: truncating a domain or uploading a template
+ * takes far longer than the latency threshold without the CDR being congested.
+ * <p>
+ * Requests opening sessions take no permit: they are sent while the request needing the session already holds
+ * one, and with a low limit the two would wait for each other until the queue wait runs out.
+ */
+public class ConcurrencyLimitingInterceptor implements ClientHttpRequestInterceptor, AsyncClientHttpRequestInterceptor {
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final String baseUrl;
+
+    /**
+     * @param baseUrl the url of the CDR REST API, used to tell the requests opening sessions apart
+     */
+    public ConcurrencyLimitingInterceptor(AdaptiveConcurrencyLimiter limiter, String baseUrl) {
+        this.limiter = limiter;
+        this.baseUrl = baseUrl;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        if (opensSession(request)) {
+            return execution.execute(request, body);
+        }
+        boolean timed = isTimed(request);
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire();
+        boolean dropped = true;
+        try {
+            ClientHttpResponse response = execution.execute(request, body);
+            dropped = isOverloaded(response);
+            return response;
+        } finally {
+            permit.release(dropped, timed);
+        }
+    }
+
+    @Override
+    public ListenableFuture<ClientHttpResponse> intercept(HttpRequest request, byte[] body, AsyncClientHttpRequestExecution execution) throws IOException {
+        if (opensSession(request)) {
+            return execution.executeAsync(request, body);
+        }
+        boolean timed = isTimed(request);
+        SettableListenableFuture<ClientHttpResponse> result = new SettableListenableFuture<>();
+        limiter.acquireAsync().whenComplete((permit, e) -> {
+            if (e != null) {
+                result.setException(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                return;
+            }
+            try {
+                execution.executeAsync(request, body).addCallback(
+                    response -> {
+                        permit.release(isOverloaded(response), timed);
+                        result.set(response);
+                    },
+                    failure -> {
+                        permit.release(true, timed);
+                        result.setException(failure);
+                    });
+            } catch (IOException | RuntimeException failure) {
+                permit.release(true, timed);
+                result.setException(failure);
+            }
+        });
+        return result;
+    }
+
+    private boolean opensSession(HttpRequest request) {
+        return baseUrl != null && CdrOperation.of(request.getURI(), baseUrl) == null;
+    }
+
+    private boolean isTimed(HttpRequest request) {
+        return baseUrl == null || CdrOperation.of(request.getURI(), baseUrl) != CdrOperation.ADMIN;
+    }
+
+    private static boolean isOverloaded(ClientHttpResponse response) {
+        try {
+            int status = response.getRawStatusCode();
+            return status >= 500 || status == HttpStatus.TOO_MANY_REQUESTS.value();
+        } catch (IOException e) {
+            return true;
+        }
+    }
+}
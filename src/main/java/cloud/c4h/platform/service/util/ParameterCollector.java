@@ -1,5 +1,6 @@
 package cloud.c4h.platform.service.util;
 
+import cloud.c4h.platform.service.CdrLookupCache;
 import cloud.c4h.platform.service.OperinoService;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -12,11 +13,20 @@ import java.util.regex.Pattern;
 public class ParameterCollector {
     private final ThinkEhrRestClient thinkEhrRestClient;
     private final Map<String, String> config;
+    private final CdrLookupCache lookupCache;
     private JSONObject postmanConfig;
 
     public ParameterCollector(ThinkEhrRestClient thinkEhrRestClient, Map<String, String> config) {
+        this(thinkEhrRestClient, config, null);
+    }
+
+    /**
+     * @param lookupCache caches the ids queried from the CDR per domain, or null to query them every time
+     */
+    public ParameterCollector(ThinkEhrRestClient thinkEhrRestClient, Map<String, String> config, CdrLookupCache lookupCache) {
         this.thinkEhrRestClient = thinkEhrRestClient;
         this.config = config;
+        this.lookupCache = lookupCache;
     }
 
     public String getWorkspaceMarkdown() throws JSONException {
@@ -40,7 +50,9 @@ public class ParameterCollector {
     }
 
     private JSONArray createPostmanValues() throws JSONException {
-        String ehrId = thinkEhrRestClient.queryEhrId();
+        CdrLookupCache.Lookups lookups = lookupCache == null
+            ? lookUp()
+            : lookupCache.get(config.get(OperinoService.DOMAIN), this::lookUp);
         String user = config.get(OperinoService.USERNAME);
         String pass = config.get(OperinoService.PASSWORD);
 
@@ -60,10 +72,18 @@ public class ParameterCollector {
             .put(createMapEntry("subjectId", "9999999000"))
             .put(createMapEntry("nhsNumber", "9999999000"))
             .put(createMapEntry("subjectNamespace", "uk.nhs.nhs_number"))
-            .put(createMapEntry("ehrId", ehrId))
-            .put(createMapEntry("partyId", thinkEhrRestClient.queryPartyId("ivor", "cox")))
+            .put(createMapEntry("ehrId", lookups.getEhrId()))
+            .put(createMapEntry("partyId", lookups.getPartyId()))
             .put(createMapEntry("templateId", "Vital Signs Encounter (Composition)"))
-            .put(createMapEntry("compositionId", thinkEhrRestClient.queryCompositionId(ehrId)));
+            .put(createMapEntry("compositionId", lookups.getCompositionId()));
+    }
+
+    /**
+     * Queries the CDR for the ids of the dummy patient and its sample composition
+     */
+    private CdrLookupCache.Lookups lookUp() {
+        String ehrId = thinkEhrRestClient.queryEhrId();
+        return new CdrLookupCache.Lookups(ehrId, thinkEhrRestClient.queryPartyId("ivor", "cox"), thinkEhrRestClient.queryCompositionId(ehrId));
     }
 
     private String createWorkspaceMarkdown(JSONObject postmanConfig) throws JSONException {
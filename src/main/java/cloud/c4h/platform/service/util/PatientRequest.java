@@ -0,0 +1,85 @@
+package cloud.c4h.platform.service.util;
+
+import cloud.c4h.platform.domain.Patient;
+
+import java.util.List;
+
+/**
+ * A patient to be provisioned, with its pre-serialized demographics party and EHR status JSON bodies, and optionally
+ * the compositions to commit for it
+ *
+ * @see ThinkEhrRestClient#createPatientRequest(Patient, String)
+ */
+public final class PatientRequest {
+
+    private final Patient patient;
+    private final String subjectNamespace;
+    private final String subjectId;
+    private final byte[] partyBody;
+    private final byte[] ehrStatusBody;
+    private final List<CompositionRequest> compositions;
+
+    /**
+     * @param patient          the patient the bodies were created from
+     * @param subjectNamespace the namespace of the subject id of the EHR
+     * @param subjectId        the id of the patient in that namespace
+     * @param partyBody        the demographics party body - shared, so it must not be modified
+     * @param ehrStatusBody    the EHR status body - shared, so it must not be modified
+     */
+    public PatientRequest(Patient patient, String subjectNamespace, String subjectId, byte[] partyBody, byte[] ehrStatusBody) {
+        this(patient, subjectNamespace, subjectId, partyBody, ehrStatusBody, null);
+    }
+
+    /**
+     * @param patient          the patient the bodies were created from
+     * @param subjectNamespace the namespace of the subject id of the EHR
+     * @param subjectId        the id of the patient in that namespace
+     * @param partyBody        the demographics party body - shared, so it must not be modified
+     * @param ehrStatusBody    the EHR status body - shared, so it must not be modified
+     * @param compositions     the compositions of this patient, or null to commit the sample compositions
+     */
+    public PatientRequest(Patient patient, String subjectNamespace, String subjectId, byte[] partyBody, byte[] ehrStatusBody,
+                          List<CompositionRequest> compositions) {
+        this.patient = patient;
+        this.subjectNamespace = subjectNamespace;
+        this.subjectId = subjectId;
+        this.partyBody = partyBody;
+        this.ehrStatusBody = ehrStatusBody;
+        this.compositions = compositions;
+    }
+
+    public Patient getPatient() {
+        return patient;
+    }
+
+    public String getSubjectNamespace() {
+        return subjectNamespace;
+    }
+
+    public String getSubjectId() {
+        return subjectId;
+    }
+
+    public byte[] getPartyBody() {
+        return partyBody;
+    }
+
+    public byte[] getEhrStatusBody() {
+        return ehrStatusBody;
+    }
+
+    /**
+     * @return the compositions of this patient, or null if the sample compositions are committed
+     */
+    public List<CompositionRequest> getCompositions() {
+        return compositions;
+    }
+
+    @Override
+    public String toString() {
+        return "PatientRequest{" +
+            "subjectNamespace='" + subjectNamespace + "'" +
+            ", subjectId='" + subjectId + "'" +
+            '}';
+    }
+}
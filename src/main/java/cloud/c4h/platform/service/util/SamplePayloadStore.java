@@ -0,0 +1,133 @@
+package cloud.c4h.platform.service.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable store of the composition, template and ehr status payloads under {@code sample_requests/}.
+ * <p>
+ * Everything is read once at startup; JSON payloads are compacted so that the bytes can be written
+ * straight to the request body without being parsed or serialized again.
+ */
+@Component
+public class SamplePayloadStore {
+
+    public static final String ROOT = "sample_requests/";
+
+    private final Logger log = LoggerFactory.getLogger(SamplePayloadStore.class);
+
+    private final Map<String, Payload> payloads;
+
+    public SamplePayloadStore() {
+        this.payloads = Collections.unmodifiableMap(load());
+        log.debug("Loaded {} sample payloads", payloads.size());
+    }
+
+    /**
+     * @param path the class path location, e.g. {@code sample_requests/orders/orders-template.xml}
+     * @return the payload stored under that path
+     * @throws IllegalArgumentException if there is no such payload
+     */
+    public Payload get(String path) {
+        Payload payload = payloads.get(path);
+        if (payload == null) {
+            throw new IllegalArgumentException("Unknown sample payload " + path);
+        }
+        return payload;
+    }
+
+    public Set<String> getPaths() {
+        return payloads.keySet();
+    }
+
+    private Map<String, Payload> load() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Map<String, Payload> result = new HashMap<>();
+        try {
+            Resource[] resources = new PathMatchingResourcePatternResolver(SamplePayloadStore.class.getClassLoader())
+                .getResources("classpath*:" + ROOT + "**/*.*");
+            for (Resource resource : resources) {
+                String url = URLDecoder.decode(resource.getURL().toString(), StandardCharsets.UTF_8.name());
+                String path = url.substring(url.lastIndexOf("/" + ROOT) + 1);
+                byte[] bytes;
+                try (InputStream inputStream = resource.getInputStream()) {
+                    bytes = IOUtils.toByteArray(inputStream);
+                }
+                if (path.endsWith(".json")) {
+                    bytes = objectMapper.writeValueAsBytes(objectMapper.readTree(bytes));
+                }
+                result.put(path, new Payload(bytes));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to load sample payloads from class path", e);
+        }
+        return result;
+    }
+
+    /**
+     * A pre-serialized request body and the SHA-256 hash of its content.
+     * <p>
+     * The bytes are shared between all callers and never copied, so they are only handed out as read-only views;
+     * the CDR transports in this package send them as they are.
+     */
+    public static final class Payload {
+        private final byte[] bytes;
+        private final String hash;
+
+        Payload(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = DigestUtils.sha256Hex(bytes);
+        }
+
+        /**
+         * @return a read-only view of the payload bytes
+         */
+        public ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+
+        /**
+         * Writes the payload bytes to the given stream
+         */
+        public void writeTo(OutputStream outputStream) throws IOException {
+            outputStream.write(bytes);
+        }
+
+        public int size() {
+            return bytes.length;
+        }
+
+        /**
+         * @return the payload bytes themselves, for the request bodies of the CDR transports, which do not modify them
+         */
+        byte[] bytes() {
+            return bytes;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public String asString() {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
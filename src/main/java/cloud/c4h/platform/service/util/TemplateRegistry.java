@@ -0,0 +1,208 @@
+package cloud.c4h.platform.service.util;
+
+import com.hazelcast.core.HazelcastInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Registry of the operational templates under {@code sample_requests/}, keyed by template id and content hash.
+ * <p>
+ * The CDR template listing is fetched once per domain and cached, so only templates the domain does not
+ * have yet are uploaded - concurrently, since they are independent of each other. The listings are held in a
+ * Hazelcast map shared by the cluster, bounded and expired by its configuration, so evicting a domain is seen by
+ * every node. Concurrent misses of a domain on a node wait for one listing.
+ */
+@Component
+public class TemplateRegistry {
+
+    private static final Pattern TEMPLATE_ID = Pattern.compile("<template_id>\\s*<value>([^<]+)</value>");
+    private static final int UPLOAD_THREADS = 4;
+
+    public static final String MAP = "domain-templates";
+
+    private final Logger log = LoggerFactory.getLogger(TemplateRegistry.class);
+
+    private final ThinkEhrRestClient thinkEhrRestClient;
+    private final Map<String, Template> templatesByPath;
+    private final ConcurrentMap<String, Set<String>> domainTemplates;
+    private final ConcurrentMap<String, CompletableFuture<Set<String>>> listing = new ConcurrentHashMap<>();
+    private final ExecutorService uploadExecutor;
+
+    @Autowired
+    public TemplateRegistry(ThinkEhrRestClient thinkEhrRestClient, SamplePayloadStore payloadStore, HazelcastInstance hazelcastInstance) {
+        this(thinkEhrRestClient, payloadStore, hazelcastInstance.<String, Set<String>>getMap(MAP));
+    }
+
+    /**
+     * @param domainTemplates the template ids of the domains, the values must be serializable sets
+     */
+    public TemplateRegistry(ThinkEhrRestClient thinkEhrRestClient, SamplePayloadStore payloadStore,
+                            ConcurrentMap<String, Set<String>> domainTemplates) {
+        this.thinkEhrRestClient = thinkEhrRestClient;
+        this.domainTemplates = domainTemplates;
+        Map<String, Template> templates = new HashMap<>();
+        for (String path : payloadStore.getPaths()) {
+            if (path.endsWith(".xml")) {
+                SamplePayloadStore.Payload payload = payloadStore.get(path);
+                Matcher matcher = TEMPLATE_ID.matcher(payload.asString());
+                if (matcher.find()) {
+                    templates.put(path, new Template(matcher.group(1).trim(), path, payload.getHash()));
+                }
+            }
+        }
+        this.templatesByPath = Collections.unmodifiableMap(templates);
+        this.uploadExecutor = Executors.newFixedThreadPool(UPLOAD_THREADS, new UploadThreadFactory());
+        log.debug("Registered {} templates", templatesByPath.size());
+    }
+
+    /**
+     * Makes sure the domain has all the given templates, uploading the missing ones.
+     *
+     * @param domain        the domain the templates are needed in
+     * @param headers       the headers authenticating against the domain
+     * @param templatePaths the class path locations of the templates
+     * @return the number of templates that had to be uploaded
+     * @throws IllegalArgumentException if a path is not a known template
+     */
+    public int ensureTemplates(String domain, HttpHeaders headers, Collection<String> templatePaths) {
+        Set<String> present = ConcurrentHashMap.newKeySet();
+        present.addAll(listTemplates(domain, headers));
+
+        // identical content is only uploaded once, whatever path it comes from
+        Map<String, Template> missing = new LinkedHashMap<>();
+        for (String path : templatePaths) {
+            Template template = getTemplate(path);
+            if (!present.contains(template.getTemplateId())) {
+                missing.putIfAbsent(template.getHash(), template);
+            }
+        }
+        if (missing.isEmpty()) {
+            log.debug("Domain {} already has all {} templates", domain, templatePaths.size());
+            return 0;
+        }
+
+        List<CompletableFuture<Void>> uploads = new ArrayList<>();
+        for (Template template : missing.values()) {
+            uploads.add(CompletableFuture.runAsync(() -> {
+                thinkEhrRestClient.uploadTemplate(headers, template.getPath());
+                present.add(template.getTemplateId());
+                log.debug("Uploaded template {} to domain {}", template.getTemplateId(), domain);
+            }, uploadExecutor));
+        }
+        try {
+            join(CompletableFuture.allOf(uploads.toArray(new CompletableFuture[uploads.size()])));
+        } finally {
+            // the uploads that succeeded are not repeated
+            domainTemplates.put(domain, new HashSet<>(present));
+        }
+        log.info("Uploaded {} of {} templates to domain {}", missing.size(), templatePaths.size(), domain);
+        return missing.size();
+    }
+
+    /**
+     * @return the cached template ids of the domain, or the ones just listed by this caller or a concurrent one
+     */
+    private Set<String> listTemplates(String domain, HttpHeaders headers) {
+        Set<String> cached = domainTemplates.get(domain);
+        if (cached != null) {
+            return cached;
+        }
+        CompletableFuture<Set<String>> result = new CompletableFuture<>();
+        CompletableFuture<Set<String>> inFlight = listing.putIfAbsent(domain, result);
+        if (inFlight != null) {
+            return join(inFlight);
+        }
+        try {
+            Set<String> templateIds = new HashSet<>(thinkEhrRestClient.listTemplates(headers));
+            domainTemplates.put(domain, templateIds);
+            result.complete(templateIds);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        } finally {
+            listing.remove(domain, result);
+        }
+        return join(result);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the path is not a known template
+     */
+    public Template getTemplate(String path) {
+        Template template = templatesByPath.get(path);
+        if (template == null) {
+            throw new IllegalArgumentException("Unknown template " + path);
+        }
+        return template;
+    }
+
+    /**
+     * Forgets what is known about the templates of a domain across the cluster, e.g. once it has been truncated
+     */
+    public void evict(String domain) {
+        domainTemplates.remove(domain);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        uploadExecutor.shutdown();
+    }
+
+    /**
+     * An operational template, identified by its template id and the hash of its content
+     */
+    public static final class Template {
+        private final String templateId;
+        private final String path;
+        private final String hash;
+
+        Template(String templateId, String path, String hash) {
+            this.templateId = templateId;
+            this.path = path;
+            this.hash = hash;
+        }
+
+        public String getTemplateId() {
+            return templateId;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+    }
+
+    private static final class UploadThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "c4hcloudplatform-TemplateUpload-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -2,29 +2,40 @@ package cloud.c4h.platform.service.util;
 
 import cloud.c4h.platform.domain.Patient;
 import cloud.c4h.platform.domain.User;
+import cloud.c4h.platform.service.util.cdr.*;
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.codec.binary.Base64;
-import org.json.JSONException;
-import org.json.JSONObject;
+import org.apache.http.nio.reactor.IOReactorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.http.*;
+import org.springframework.http.client.AsyncClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
-import java.io.BufferedReader;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
 
 /**
  * A naive rest client for ThinkEhr
@@ -35,8 +46,22 @@ import java.util.*;
 public class ThinkEhrRestClient {
 
     private final Logger log = LoggerFactory.getLogger(ThinkEhrRestClient.class);
-    private final RestTemplate restTemplate = new RestTemplate();
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectMapper objectMapper = CdrJson.mapper();
+    private final Http http = new Http();
+    private volatile CdrHttpTransport transport;
+    private volatile CdrAsyncHttpTransport asyncTransport;
+    private MetricRegistry metricRegistry;
+    private volatile SamplePayloadStore payloadStore;
+    private final Batch batch = new Batch();
+    private final Limiter limiter = new Limiter();
+    private final Session session = new Session();
+    private final Breaker breaker = new Breaker();
+    private volatile Map<CdrOperation, CdrCircuitBreaker> circuitBreakers;
+    private volatile CdrSessionManager sessionManager;
+    private volatile String adminAuthorization;
+    private volatile AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private volatile Boolean contributionsSupported;
+    private volatile ExecutorService pipelineExecutor;
     String adminName;
     String password;
     String cdrUrl;
@@ -50,58 +75,296 @@ public class ThinkEhrRestClient {
         return "Basic " + new String(base64CredsBytes);
     }
 
-    ResponseEntity<Map> doPost(String url, HttpHeaders httpHeaders, Object body) throws JsonProcessingException, RestClientException {
+    /**
+     * The shared, pooled rest template - created on first use so that the http settings are bound by then
+     */
+    RestTemplate restTemplate() {
+        CdrHttpTransport result = transport;
+        if (result == null) {
+            synchronized (this) {
+                result = transport;
+                if (result == null) {
+                    result = new CdrHttpTransport(http);
+                    result.getRestTemplate().setInterceptors(interceptors(ClientHttpRequestInterceptor.class));
+                    if (metricRegistry != null) {
+                        result.registerMetrics(metricRegistry, MetricRegistry.name(ThinkEhrRestClient.class, "connections"));
+                    }
+                    transport = result;
+                }
+            }
+        }
+        return result.getRestTemplate();
+    }
 
-        HttpEntity<Object> request = new HttpEntity<>(objectMapper.writeValueAsString(body), httpHeaders);
+    /**
+     * The non-blocking template used by the asynchronous operations, created on first use
+     */
+    AsyncRestTemplate asyncRestTemplate() {
+        CdrAsyncHttpTransport result = asyncTransport;
+        if (result == null) {
+            synchronized (this) {
+                result = asyncTransport;
+                if (result == null) {
+                    try {
+                        result = new CdrAsyncHttpTransport(http);
+                    } catch (IOReactorException e) {
+                        throw new IllegalStateException("Unable to start asynchronous CDR transport", e);
+                    }
+                    result.getRestTemplate().setInterceptors(interceptors(AsyncClientHttpRequestInterceptor.class));
+                    if (metricRegistry != null) {
+                        result.registerMetrics(metricRegistry, MetricRegistry.name(ThinkEhrRestClient.class, "asyncConnections"));
+                    }
+                    asyncTransport = result;
+                }
+            }
+        }
+        return result.getRestTemplate();
+    }
+
+    /**
+     * The interceptors of both transports: the breakers come first, so a request of an operation that is down
+     * fails before it queues for the limiter, and the limiter before the sessions, so a request sent again with a
+     * new session keeps its permit. Opening the session itself takes no permit, see
+     * {@link ConcurrencyLimitingInterceptor}
+     */
+    private <T> List<T> interceptors(Class<T> type) {
+        List<T> interceptors = new ArrayList<>();
+        if (breaker.isEnabled()) {
+            interceptors.add(type.cast(new CdrIsolationInterceptor(circuitBreakers(), baseUrl)));
+        }
+        if (limiter.isEnabled()) {
+            interceptors.add(type.cast(new ConcurrencyLimitingInterceptor(concurrencyLimiter(), baseUrl)));
+        }
+        if (session.isEnabled()) {
+            interceptors.add(type.cast(new CdrSessionInterceptor(sessionManager(), baseUrl, pipelineExecutor())));
+        }
+        return interceptors;
+    }
+
+    /**
+     * The circuit breakers and bulkheads of the operation classes, shared by the blocking and non-blocking
+     * transports
+     */
+    public Map<CdrOperation, CdrCircuitBreaker> circuitBreakers() {
+        Map<CdrOperation, CdrCircuitBreaker> result = circuitBreakers;
+        if (result == null) {
+            synchronized (this) {
+                result = circuitBreakers;
+                if (result == null) {
+                    result = new EnumMap<>(CdrOperation.class);
+                    for (CdrOperation operation : CdrOperation.values()) {
+                        CdrCircuitBreaker circuitBreaker = new CdrCircuitBreaker(operation, breaker);
+                        if (metricRegistry != null) {
+                            circuitBreaker.registerMetrics(metricRegistry,
+                                MetricRegistry.name(ThinkEhrRestClient.class, "breaker", operation.label()));
+                        }
+                        result.put(operation, circuitBreaker);
+                    }
+                    result = Collections.unmodifiableMap(result);
+                    circuitBreakers = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Grows the bulkheads of the provisioning operations to admit the blocking requests of the given number of
+     * workers, each of which posts up to {@code thinkehr.batch.pipelineDepth} compositions at a time when they are
+     * not committed as one contribution.
+     *
+     * @param workers the threads provisioning patients or observations at the same time
+     */
+    public void reserveBulkheads(int workers) {
+        Map<CdrOperation, CdrCircuitBreaker> circuitBreakers = circuitBreakers();
+        circuitBreakers.get(CdrOperation.DEMOGRAPHICS).reserve(workers);
+        circuitBreakers.get(CdrOperation.EHR).reserve(workers);
+        circuitBreakers.get(CdrOperation.COMPOSITION).reserve(workers * batch.getPipelineDepth());
+    }
+
+    /**
+     * The sessions shared by the blocking and non-blocking transports
+     */
+    CdrSessionManager sessionManager() {
+        CdrSessionManager result = sessionManager;
+        if (result == null) {
+            synchronized (this) {
+                result = sessionManager;
+                if (result == null) {
+                    result = new CdrSessionManager(this::openSession, session);
+                    sessionManager = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Opens a CDR session for the credentials of a basic auth header.
+     *
+     * @return the token of the session
+     */
+    String openSession(String authorization) {
+        String credentials = new String(Base64.decodeBase64(authorization.substring("Basic ".length())), StandardCharsets.UTF_8);
+        int colon = credentials.indexOf(':');
+        URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl + "session")
+            .queryParam("username", credentials.substring(0, Math.max(0, colon)))
+            .queryParam("password", colon < 0 ? "" : credentials.substring(colon + 1))
+            .build().encode().toUri();
+        SessionResponse response = restTemplate().postForObject(uri, null, SessionResponse.class);
+        String sessionId = response == null ? null : response.getSessionId();
+        if (sessionId == null) {
+            throw new RestClientException("CDR opened no session for " + credentials.substring(0, Math.max(0, colon)));
+        }
+        log.debug("Opened CDR session for {}", credentials.substring(0, Math.max(0, colon)));
+        return sessionId;
+    }
+
+    /**
+     * The limiter shared by the blocking and non-blocking transports, so the CDR sees one adaptive limit
+     */
+    AdaptiveConcurrencyLimiter concurrencyLimiter() {
+        AdaptiveConcurrencyLimiter result = concurrencyLimiter;
+        if (result == null) {
+            synchronized (this) {
+                result = concurrencyLimiter;
+                if (result == null) {
+                    result = new AdaptiveConcurrencyLimiter(limiter);
+                    if (metricRegistry != null) {
+                        result.registerMetrics(metricRegistry, MetricRegistry.name(ThinkEhrRestClient.class, "limiter"));
+                    }
+                    concurrencyLimiter = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The preloaded sample payloads - falls back to loading them here when not running inside Spring
+     */
+    SamplePayloadStore payloads() {
+        if (payloadStore == null) {
+            synchronized (this) {
+                if (payloadStore == null) {
+                    payloadStore = new SamplePayloadStore();
+                }
+            }
+        }
+        return payloadStore;
+    }
+
+    /**
+     * Executor for the individually posted compositions of {@link #commitCompositions}
+     */
+    ExecutorService pipelineExecutor() {
+        if (pipelineExecutor == null) {
+            synchronized (this) {
+                if (pipelineExecutor == null) {
+                    pipelineExecutor = Executors.newCachedThreadPool(new CustomizableThreadFactory("c4hcloudplatform-CdrPipeline-"));
+                }
+            }
+        }
+        return pipelineExecutor;
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        if (pipelineExecutor != null) {
+            pipelineExecutor.shutdown();
+        }
+        if (transport != null) {
+            transport.close();
+        }
+        if (asyncTransport != null) {
+            asyncTransport.close();
+        }
+    }
+
+    <T> ResponseEntity<T> doPost(String url, HttpHeaders httpHeaders, Object body, Class<T> responseType) throws RestClientException {
+
+        // the converter writes the body straight to the request stream
+        HttpEntity<Object> request = new HttpEntity<>(body, httpHeaders);
         log.debug("request = " + request);
 
-        ResponseEntity<Map> responseEntity = restTemplate.postForEntity(url, request, Map.class);
+        ResponseEntity<T> responseEntity = restTemplate().postForEntity(url, request, responseType);
         log.debug("responseEntity = {}", responseEntity);
 
         return responseEntity;
     }
 
-    String queryEhrId() throws JSONException {
+    String queryEhrId() {
         String url = baseUrl + "ehr/?subjectId=9999999000&subjectNamespace=uk.nhs.nhs_number";
         HttpEntity<Object> request = new HttpEntity<>(getAdminHeaders());
-        ResponseEntity<String> result = new RestTemplate().exchange(url, HttpMethod.GET, request, String.class);
+        ResponseEntity<EhrResponse> result = restTemplate().exchange(url, HttpMethod.GET, request, EhrResponse.class);
         if (result.getStatusCode() == HttpStatus.OK) {
-            return new JSONObject(result.getBody()).getString("ehrId");
+            return result.getBody().getEhrId();
         } else {
             log.warn("Could not retrieve EHR ID");
             return "n/a";
         }
     }
 
-    String queryPartyId(String firstName, String lastName) throws JSONException {
+    String queryPartyId(String firstName, String lastName) {
         String url = baseUrl + "demographics/party/query/?lastNames=*" + lastName + "*&firstNames=*" + firstName + "*";
         HttpEntity<Object> request = new HttpEntity<>(getAdminHeaders());
-        ResponseEntity<String> result = new RestTemplate().exchange(url, HttpMethod.GET, request, String.class);
+        ResponseEntity<PartyList> result = restTemplate().exchange(url, HttpMethod.GET, request, PartyList.class);
         if (result.getStatusCode() == HttpStatus.OK) {
-            return new JSONObject(result.getBody()).getJSONArray("parties").getJSONObject(0).getString("id");
+            return result.getBody().getParties().get(0).getId();
         } else {
             log.warn("Could not retrieve party ID");
             return "n/a";
         }
     }
 
-    String queryCompositionId(String ehrId) throws JSONException {
-        String url = baseUrl + "query";
-
-        String aql = "select c/context/start_time/value as start_time,"
+    String queryCompositionId(String ehrId) {
+        AqlQuery query = new AqlQuery("select c/context/start_time/value as start_time,"
             + " c/name/value as name,"
-            + " c/uid/value as uid from EHR e [ehr_id/value='" + ehrId + "'] contains COMPOSITION c";
-        String aqlRequest = "{\"aql\" : \"" + aql + "\"}";
-
-        HttpEntity<String> postEntity = new HttpEntity<>(aqlRequest, getAdminHeaders());
-        ResponseEntity<String> result = new RestTemplate().exchange(url, HttpMethod.POST, postEntity, String.class);
-
-        if (result.getStatusCode() == HttpStatus.OK) {
-            return new JSONObject(result.getBody()).getJSONArray("resultSet").getJSONObject(0).getString("uid");
-        } else {
-            log.warn("Could not retrieve composition ID");
-            return "n/a";
+            + " c/uid/value as uid from EHR e [ehr_id/value=:ehrId] contains COMPOSITION c")
+            .parameter("ehrId", ehrId)
+            .pageSize(1);
+        try (AqlResultIterator<Map> rows = query(getAdminHeaders(), query, Map.class)) {
+            if (rows.hasNext()) {
+                return String.valueOf(rows.next().get("uid"));
+            }
         }
+        log.warn("Could not retrieve composition ID");
+        return "n/a";
+    }
+
+    /**
+     * Runs an AQL query, requesting its rows a page at a time as they are iterated.
+     *
+     * @param httpHeaders the headers identifying the domain to query
+     * @param query       the query and its parameters
+     * @param rowType     the type each row is read as, e.g. a Map of the columns
+     * @return the rows, to be closed if not iterated to the end
+     */
+    public <T> AqlResultIterator<T> query(HttpHeaders httpHeaders, AqlQuery query, Class<T> rowType) {
+        URI uri = URI.create(baseUrl + "query");
+        return new AqlResultIterator<>(objectMapper, rowType, query.getPageSize(), offset -> {
+            log.debug("Querying rows {} to {} of {}", offset, offset + query.getPageSize(), query);
+            // from the intercepting factory, so the request is limited and sent with a session like all others
+            ClientHttpRequest request = restTemplate().getRequestFactory().createRequest(uri, HttpMethod.POST);
+            request.getHeaders().putAll(httpHeaders);
+            request.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+            request.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+            request.getBody().write(objectMapper.writeValueAsBytes(query.page(offset)));
+            ClientHttpResponse response = request.execute();
+            try {
+                if (restTemplate().getErrorHandler().hasError(response)) {
+                    restTemplate().getErrorHandler().handleError(response);
+                }
+                if (response.getRawStatusCode() == HttpStatus.NO_CONTENT.value()) {
+                    response.close();
+                    return null;
+                }
+                return response;
+            } catch (IOException | RuntimeException e) {
+                response.close();
+                throw e;
+            }
+        });
     }
 
     public ResponseEntity truncateDomain(String domainSystemId) {
@@ -109,7 +372,7 @@ public class ThinkEhrRestClient {
         HttpEntity<Object> request = new HttpEntity<>(getAdminHeaders());
         log.debug("request = " + request);
 
-        ResponseEntity<Map> responseEntity = restTemplate.postForEntity(managerUrl + "domain/" + domainSystemId + "/truncate", request, Map.class);
+        ResponseEntity<Map> responseEntity = restTemplate().postForEntity(managerUrl + "domain/" + domainSystemId + "/truncate", request, Map.class);
         log.debug("responseEntity.getBody() = {}", responseEntity.getBody());
         if (responseEntity.getStatusCode() == HttpStatus.OK) {
             log.info("Successfully deleted domain {}", domainSystemId);
@@ -119,22 +382,50 @@ public class ThinkEhrRestClient {
         return responseEntity;
     }
 
+    /**
+     * Serializes the demographics party and EHR status bodies of a patient, so they can be sent any number of times
+     * without being built again. The patient's NHS number is used as the subject id.
+     */
+    public PatientRequest createPatientRequest(Patient patient, String subjectNamespace) throws JsonProcessingException {
+        return new PatientRequest(patient, subjectNamespace, patient.getNhsNumber(),
+            objectMapper.writeValueAsBytes(Party.of(patient)),
+            createEhrStatusBody(patient, subjectNamespace, patient.getNhsNumber()).getBytes(StandardCharsets.UTF_8));
+    }
+
     public String createPatient(HttpHeaders httpHeaders, Patient patient) throws JsonProcessingException {
+        return createPatient(httpHeaders, objectMapper.writeValueAsBytes(Party.of(patient)));
+    }
+
+    public String createPatient(HttpHeaders httpHeaders, PatientRequest patient) {
+        return createPatient(httpHeaders, patient.getPartyBody());
+    }
 
-        ResponseEntity<Map> responseEntity = doPost(baseUrl + "demographics/party", httpHeaders, transformPatient(patient));
+    private String createPatient(HttpHeaders httpHeaders, byte[] partyBody) {
+
+        HttpEntity<byte[]> request = new HttpEntity<>(partyBody, httpHeaders);
+        ResponseEntity<MetaResponse> responseEntity = restTemplate().postForEntity(baseUrl + "demographics/party", request, MetaResponse.class);
         log.debug("responseEntity = {}", responseEntity);
         log.debug("responseEntity.getBody() = {}", responseEntity.getBody());
-        Map response = responseEntity.getBody();
         if (responseEntity.getStatusCode() == HttpStatus.CREATED) {
-            Map<String, String> meta = (Map<String, String>) response.get("meta");
-            String href = meta.get("href");
-            return href.substring(href.lastIndexOf('/') + 1);
+            return responseEntity.getBody().getMeta().lastHrefSegment();
         } else {
             throw new RuntimeException("Unable to create patient");
         }
     }
 
     public String createEhr(Patient patient, HttpHeaders httpHeaders, String subjectNamespace, String subjectId, String committerName) {
+        return createEhr(httpHeaders, committerName, new PatientRequest(patient, subjectNamespace, subjectId, null,
+            createEhrStatusBody(patient, subjectNamespace, subjectId).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Creates the EHR of a patient and then updates its status with the pre-serialized status body
+     *
+     * @return the id of the EHR, or null if it could not be created
+     */
+    public String createEhr(HttpHeaders httpHeaders, String committerName, PatientRequest patient) {
+        String subjectNamespace = patient.getSubjectNamespace();
+        String subjectId = patient.getSubjectId();
 
         UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseUrl + "ehr")
             .queryParam("subjectNamespace", subjectNamespace)
@@ -145,190 +436,617 @@ public class ThinkEhrRestClient {
         HttpEntity<Object> request = new HttpEntity<>(httpHeaders);
         log.debug("request = " + request);
 
-        ResponseEntity<Map> responseEntity = restTemplate.exchange(
+        ResponseEntity<EhrResponse> responseEntity = restTemplate().exchange(
             builder.build().encode().toUri(),
             HttpMethod.POST,
             request,
-            Map.class);
+            EhrResponse.class);
         log.debug("responseEntity = {}", responseEntity);
-        log.debug("responseEntity.getBody() = {}", responseEntity.getBody());
-        Map response = responseEntity.getBody();
         if (responseEntity.getStatusCode() == HttpStatus.CREATED) {
-            String ehrId = response.get("ehrId").toString();
+            String ehrId = responseEntity.getBody().getEhrId();
             log.debug("ehrId = {}", ehrId);
+            return updateEhrStatus(httpHeaders, ehrId, patient);
+        }
+        return null;
+    }
 
-            // read body from existing json template and fill in values
-            InputStream inputStream = ThinkEhrRestClient.class.getClassLoader().getResourceAsStream("sample_requests/ehrStatusBody.json");
-
-            Scanner s = new java.util.Scanner(inputStream).useDelimiter("\\A");
-            String bodyString = s.hasNext() ? s.next() : "";
-
-            // now update data with values from patient
-            bodyString = bodyString.replaceAll("<subjectId>", subjectId);
-            bodyString = bodyString.replaceAll("<subjectNamespace>", subjectNamespace);
-            bodyString = bodyString.replaceAll("<gender>", patient.getGender());
-            bodyString = bodyString.replaceAll("<birth_year>", String.valueOf(patient.getDateOfBirth().getYear()));
-            request = new HttpEntity<>(bodyString, httpHeaders);
-            log.debug("Ehr PUT request = " + request);
-
-            // PUT call to ehr/status/
-            builder = UriComponentsBuilder.fromHttpUrl(baseUrl + "ehr/status/" + ehrId);
-
-            responseEntity = restTemplate.exchange(
-                builder.build().encode().toUri(),
-                HttpMethod.PUT,
-                request,
-                Map.class);
-            log.debug("EHR PUT responseEntity = {}", responseEntity);
-            log.debug("EHR PUT responseEntity.getBody() = {}", responseEntity.getBody());
-            response = responseEntity.getBody();
-            if (responseEntity.getStatusCode() == HttpStatus.OK) {
-                Map<String, String> meta = (Map<String, String>) response.get("meta");
-                String href = meta.get("href");
-                return href.substring(href.lastIndexOf('/') + 1);
-            }
+    /**
+     * Updates the status of an existing EHR with the pre-serialized status body of the patient
+     *
+     * @return the id of the EHR, or null if its status could not be updated
+     */
+    public String updateEhrStatus(HttpHeaders httpHeaders, String ehrId, PatientRequest patient) {
+        HttpEntity<byte[]> request = new HttpEntity<>(patient.getEhrStatusBody(), httpHeaders);
+        log.debug("Ehr PUT request = " + request);
+
+        // PUT call to ehr/status/
+        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseUrl + "ehr/status/" + ehrId);
+
+        ResponseEntity<MetaResponse> statusEntity = restTemplate().exchange(
+            builder.build().encode().toUri(),
+            HttpMethod.PUT,
+            request,
+            MetaResponse.class);
+        log.debug("EHR PUT responseEntity = {}", statusEntity);
+        if (statusEntity.getStatusCode() == HttpStatus.OK) {
+            return statusEntity.getBody().getMeta().lastHrefSegment();
         }
         return null;
     }
 
-    public String createComposition(HttpHeaders httpHeaders, String ehrId, String templateId, String commiterName, String compositionPath) throws IOException {
+    /**
+     * Looks up the EHR of a subject
+     *
+     * @return the id of the EHR, or null if the subject has none
+     */
+    public String findEhrId(HttpHeaders httpHeaders, String subjectNamespace, String subjectId) {
+        URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl + "ehr")
+            .queryParam("subjectId", subjectId)
+            .queryParam("subjectNamespace", subjectNamespace)
+            .build().encode().toUri();
+        try {
+            ResponseEntity<EhrResponse> responseEntity = restTemplate().exchange(uri, HttpMethod.GET, new HttpEntity<>(httpHeaders), EhrResponse.class);
+            log.debug("responseEntity = {}", responseEntity);
+            EhrResponse response = responseEntity.getBody();
+            if (responseEntity.getStatusCode() == HttpStatus.OK && response != null) {
+                return response.getEhrId();
+            }
+            return null;
+        } catch (HttpStatusCodeException e) {
+            if (e.getStatusCode() == HttpStatus.NOT_FOUND) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    public String createComposition(HttpHeaders httpHeaders, String ehrId, String templateId, String commiterName, String compositionPath) {
+        return createComposition(httpHeaders, ehrId, commiterName,
+            new CompositionRequest(templateId, payloads().get(compositionPath), compositionPath));
+    }
+
+    public String createComposition(HttpHeaders httpHeaders, String ehrId, String commiterName, CompositionRequest composition) {
 
         UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseUrl + "composition")
             .queryParam("ehrId", ehrId)
-            .queryParam("templateId", templateId)
+            .queryParam("templateId", composition.getTemplateId())
             .queryParam("commiterName", commiterName)
             .queryParam("format", "FLAT");
 
-        Map data = objectMapper.readValue(ThinkEhrRestClient.class.getClassLoader().getResourceAsStream(compositionPath), Map.class);
-        HttpEntity<Object> request = new HttpEntity<>(objectMapper.writeValueAsString(data), httpHeaders);
-        log.debug("request = " + request);
+        // the pre-serialized bytes are written to the request body as they are
+        HttpEntity<byte[]> request = new HttpEntity<>(composition.getBody(), httpHeaders);
+        log.debug("request = {} ({})", composition.getSource(), httpHeaders);
 
-        ResponseEntity<Map> responseEntity = restTemplate.exchange(
+        ResponseEntity<CompositionResponse> responseEntity = restTemplate().exchange(
             builder.build().encode().toUri(),
             HttpMethod.POST,
             request,
-            Map.class);
+            CompositionResponse.class);
         log.debug("responseEntity = {}", responseEntity);
-        log.debug("responseEntity.getBody() = {}", responseEntity.getBody());
-        Map response = responseEntity.getBody();
         if (responseEntity.getStatusCode() == HttpStatus.CREATED) {
-            return response.get("compositionUid").toString();
+            return responseEntity.getBody().getCompositionUid();
         } else {
             throw new RuntimeException("Unable to create composition");
         }
     }
 
-    public void uploadTemplate(HttpHeaders httpHeaders, String templatePath) {
-        httpHeaders.setContentType(MediaType.APPLICATION_XML);
+    /**
+     * Commits all compositions of one EHR. When the CDR accepts contributions they are sent as a single
+     * request, otherwise they are posted individually with up to {@code thinkehr.batch.pipelineDepth}
+     * requests in flight.
+     *
+     * @return the uids of the committed compositions, in the order of the given compositions
+     */
+    public List<String> commitCompositions(HttpHeaders httpHeaders, String ehrId, String commiterName, List<CompositionRequest> compositions) {
+        return commitCompositions(httpHeaders, ehrId, commiterName, compositions, (index, uid) -> {
+        });
+    }
+
+    /**
+     * Commits all compositions of one EHR, see {@link #commitCompositions(HttpHeaders, String, String, List)}.
+     * When the compositions are posted individually, the listener is called with the position and uid of every
+     * composition as soon as it is committed, so the caller learns about the compositions that were created even
+     * when others fail. A contribution is committed as a whole, so the listener is not called for it.
+     *
+     * @return the uids of the committed compositions, in the order of the given compositions
+     */
+    public List<String> commitCompositions(HttpHeaders httpHeaders, String ehrId, String commiterName, List<CompositionRequest> compositions,
+                                           BiConsumer<Integer, String> committed) {
+        if (batch.isContributions() && !Boolean.FALSE.equals(contributionsSupported)) {
+            try {
+                List<String> uids = commitContribution(httpHeaders, ehrId, commiterName, compositions);
+                contributionsSupported = Boolean.TRUE;
+                return uids;
+            } catch (HttpStatusCodeException e) {
+                if (!Boolean.TRUE.equals(contributionsSupported) && isUnsupported(e.getStatusCode())) {
+                    log.info("CDR does not accept contributions ({}), posting compositions individually", e.getStatusCode());
+                    contributionsSupported = Boolean.FALSE;
+                } else {
+                    throw e;
+                }
+            }
+        }
+        return commitIndividually(httpHeaders, ehrId, commiterName, compositions, committed);
+    }
 
-        String templateToSubmit = null;
-        try (InputStream inputStream = ThinkEhrRestClient.class.getClassLoader().getResourceAsStream(templatePath)) {
-            BufferedReader bufReader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    private List<String> commitContribution(HttpHeaders httpHeaders, String ehrId, String commiterName, List<CompositionRequest> compositions) {
+        URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl + batch.getContributionPath())
+            .queryParam("ehrId", ehrId)
+            .queryParam("commiterName", commiterName)
+            .queryParam("format", "FLAT")
+            .build().encode().toUri();
+
+        HttpEntity<byte[]> request = new HttpEntity<>(createContributionBody(compositions), httpHeaders);
+        log.debug("contribution request = {} compositions ({})", compositions.size(), httpHeaders);
+
+        ResponseEntity<ContributionResponse> responseEntity = restTemplate().exchange(uri, HttpMethod.POST, request, ContributionResponse.class);
+        log.debug("responseEntity = {}", responseEntity);
+        return contributionUids(responseEntity);
+    }
+
+    private static List<String> contributionUids(ResponseEntity<ContributionResponse> responseEntity) {
+        ContributionResponse response = responseEntity.getBody();
+        if (responseEntity.getStatusCode().is2xxSuccessful() && response != null && response.getCompositionUids() != null) {
+            return response.getCompositionUids();
+        } else {
+            throw new RuntimeException("Unable to commit contribution");
+        }
+    }
+
+    /**
+     * Writes {@code {"compositions":[{"templateId":..,"composition":..},..]}} around the pre-serialized bodies
+     */
+    private byte[] createContributionBody(List<CompositionRequest> compositions) {
+        int size = 32;
+        for (CompositionRequest composition : compositions) {
+            size += composition.getBody().length + composition.getTemplateId().length() + 48;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream(size);
+        try {
+            body.write("{\"compositions\":[".getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < compositions.size(); i++) {
+                CompositionRequest composition = compositions.get(i);
+                body.write((i == 0 ? "{\"templateId\":" : ",{\"templateId\":").getBytes(StandardCharsets.UTF_8));
+                body.write(objectMapper.writeValueAsBytes(composition.getTemplateId()));
+                body.write(",\"composition\":".getBytes(StandardCharsets.UTF_8));
+                body.write(composition.getBody());
+                body.write('}');
+            }
+            body.write("]}".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return body.toByteArray();
+    }
 
-            StringBuilder sb = new StringBuilder();
-            String line = bufReader.readLine();
-            while (line != null) {
-                sb.append(line).append("\n");
-                line = bufReader.readLine();
+    private List<String> commitIndividually(HttpHeaders httpHeaders, String ehrId, String commiterName, List<CompositionRequest> compositions,
+                                            BiConsumer<Integer, String> committed) {
+        Semaphore inFlight = new Semaphore(batch.getPipelineDepth());
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < compositions.size(); i++) {
+                int index = i;
+                CompositionRequest composition = compositions.get(i);
+                inFlight.acquire();
+                results.add(CompletableFuture
+                    .supplyAsync(() -> {
+                        String uid = createComposition(httpHeaders, ehrId, commiterName, composition);
+                        committed.accept(index, uid);
+                        return uid;
+                    }, pipelineExecutor())
+                    .whenComplete((uid, e) -> inFlight.release()));
+            }
+            List<String> uids = new ArrayList<>();
+            for (CompletableFuture<String> result : results) {
+                uids.add(result.join());
             }
-            // now set final value of templateToSubmit
-            templateToSubmit = sb.toString();
+            return uids;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RestClientException("Interrupted while committing compositions", e);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
 
-            HttpEntity<String> templateRequest = new HttpEntity<>(templateToSubmit, httpHeaders);
-            log.trace("templateRequest = " + templateRequest);
-            ResponseEntity templateResponse = restTemplate.postForEntity(baseUrl + "template", templateRequest, String.class);
-            log.trace("templateResponse = " + templateResponse);
+    private static boolean isUnsupported(HttpStatus status) {
+        return status == HttpStatus.NOT_FOUND || status == HttpStatus.METHOD_NOT_ALLOWED || status == HttpStatus.NOT_IMPLEMENTED;
+    }
 
-        } catch (NullPointerException | IOException e) {
-            log.error("Unable to read init template from class path. Nested exception is : ", e);
-        } finally {
-            log.trace("Init template : {}", templateToSubmit);
+    /**
+     * Asynchronous variant of {@link #createPatient}, sent over the non-blocking transport.
+     *
+     * @return the id of the created party
+     */
+    public CompletableFuture<String> createPatientAsync(HttpHeaders httpHeaders, Patient patient) {
+        try {
+            return createPatientAsync(httpHeaders, objectMapper.writeValueAsBytes(Party.of(patient)));
+        } catch (JsonProcessingException e) {
+            return failed(e);
         }
     }
 
+    /**
+     * Asynchronous variant of {@link #createPatient(HttpHeaders, PatientRequest)}.
+     *
+     * @return the id of the created party
+     */
+    public CompletableFuture<String> createPatientAsync(HttpHeaders httpHeaders, PatientRequest patient) {
+        return createPatientAsync(httpHeaders, patient.getPartyBody());
+    }
+
+    private CompletableFuture<String> createPatientAsync(HttpHeaders httpHeaders, byte[] partyBody) {
+        HttpEntity<byte[]> request = new HttpEntity<>(partyBody, httpHeaders);
+        return exchangeAsync(URI.create(baseUrl + "demographics/party"), HttpMethod.POST, request, MetaResponse.class)
+            .thenApply(responseEntity -> {
+                if (responseEntity.getStatusCode() == HttpStatus.CREATED) {
+                    return responseEntity.getBody().getMeta().lastHrefSegment();
+                }
+                throw new RestClientException("Unable to create patient");
+            });
+    }
+
+    /**
+     * Asynchronous variant of {@link #createEhr}: creates the EHR and then updates its status.
+     *
+     * @return the id of the created EHR
+     */
+    public CompletableFuture<String> createEhrAsync(Patient patient, HttpHeaders httpHeaders, String subjectNamespace, String subjectId, String committerName) {
+        return createEhrAsync(httpHeaders, committerName, new PatientRequest(patient, subjectNamespace, subjectId, null,
+            createEhrStatusBody(patient, subjectNamespace, subjectId).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Asynchronous variant of {@link #createEhr(HttpHeaders, String, PatientRequest)}.
+     *
+     * @return the id of the created EHR
+     */
+    public CompletableFuture<String> createEhrAsync(HttpHeaders httpHeaders, String committerName, PatientRequest patient) {
+        String subjectNamespace = patient.getSubjectNamespace();
+        String subjectId = patient.getSubjectId();
+        URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl + "ehr")
+            .queryParam("subjectNamespace", subjectNamespace)
+            .queryParam("subjectId", subjectId)
+            .queryParam("committerName", committerName)
+            .build().encode().toUri();
+
+        return exchangeAsync(uri, HttpMethod.POST, new HttpEntity<>(httpHeaders), EhrResponse.class)
+            .thenCompose(responseEntity -> {
+                if (responseEntity.getStatusCode() != HttpStatus.CREATED) {
+                    throw new RestClientException("Unable to create ehr");
+                }
+                return updateEhrStatusAsync(httpHeaders, responseEntity.getBody().getEhrId(), patient);
+            });
+    }
+
+    /**
+     * Asynchronous variant of {@link #updateEhrStatus}.
+     *
+     * @return the id of the EHR
+     */
+    public CompletableFuture<String> updateEhrStatusAsync(HttpHeaders httpHeaders, String ehrId, PatientRequest patient) {
+        URI statusUri = UriComponentsBuilder.fromHttpUrl(baseUrl + "ehr/status/" + ehrId).build().encode().toUri();
+        HttpEntity<byte[]> request = new HttpEntity<>(patient.getEhrStatusBody(), httpHeaders);
+        return exchangeAsync(statusUri, HttpMethod.PUT, request, MetaResponse.class)
+            .thenApply(responseEntity -> {
+                if (responseEntity.getStatusCode() == HttpStatus.OK) {
+                    return responseEntity.getBody().getMeta().lastHrefSegment();
+                }
+                throw new RestClientException("Unable to update status of ehr");
+            });
+    }
+
+    /**
+     * Asynchronous variant of {@link #findEhrId}.
+     *
+     * @return the id of the EHR, or null if the subject has none
+     */
+    public CompletableFuture<String> findEhrIdAsync(HttpHeaders httpHeaders, String subjectNamespace, String subjectId) {
+        URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl + "ehr")
+            .queryParam("subjectId", subjectId)
+            .queryParam("subjectNamespace", subjectNamespace)
+            .build().encode().toUri();
+
+        CompletableFuture<String> result = new CompletableFuture<>();
+        exchangeAsync(uri, HttpMethod.GET, new HttpEntity<>(httpHeaders), EhrResponse.class)
+            .whenComplete((responseEntity, e) -> {
+                Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                if (cause == null) {
+                    EhrResponse response = responseEntity.getBody();
+                    result.complete(responseEntity.getStatusCode() == HttpStatus.OK && response != null ? response.getEhrId() : null);
+                } else if (cause instanceof HttpStatusCodeException
+                    && ((HttpStatusCodeException) cause).getStatusCode() == HttpStatus.NOT_FOUND) {
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(cause);
+                }
+            });
+        return result;
+    }
+
+    /**
+     * Asynchronous variant of {@link #createComposition(HttpHeaders, String, String, CompositionRequest)}.
+     *
+     * @return the uid of the created composition
+     */
+    public CompletableFuture<String> createCompositionAsync(HttpHeaders httpHeaders, String ehrId, String commiterName, CompositionRequest composition) {
+        URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl + "composition")
+            .queryParam("ehrId", ehrId)
+            .queryParam("templateId", composition.getTemplateId())
+            .queryParam("commiterName", commiterName)
+            .queryParam("format", "FLAT")
+            .build().encode().toUri();
+
+        return exchangeAsync(uri, HttpMethod.POST, new HttpEntity<>(composition.getBody(), httpHeaders), CompositionResponse.class)
+            .thenApply(responseEntity -> {
+                if (responseEntity.getStatusCode() == HttpStatus.CREATED) {
+                    return responseEntity.getBody().getCompositionUid();
+                }
+                throw new RestClientException("Unable to create composition");
+            });
+    }
+
+    /**
+     * Asynchronous variant of {@link #commitCompositions}. Without contribution support all compositions are
+     * posted at once, the connection pool limits how many of them are actually on the wire.
+     *
+     * @return the uids of the committed compositions, in the order of the given compositions
+     */
+    public CompletableFuture<List<String>> commitCompositionsAsync(HttpHeaders httpHeaders, String ehrId, String commiterName, List<CompositionRequest> compositions) {
+        return commitCompositionsAsync(httpHeaders, ehrId, commiterName, compositions, (index, uid) -> {
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #commitCompositions(HttpHeaders, String, String, List, BiConsumer)}. The listener
+     * is called on the thread that completed the request.
+     *
+     * @return the uids of the committed compositions, in the order of the given compositions
+     */
+    public CompletableFuture<List<String>> commitCompositionsAsync(HttpHeaders httpHeaders, String ehrId, String commiterName, List<CompositionRequest> compositions,
+                                                                   BiConsumer<Integer, String> committed) {
+        if (!batch.isContributions() || Boolean.FALSE.equals(contributionsSupported)) {
+            return createCompositionsAsync(httpHeaders, ehrId, commiterName, compositions, committed);
+        }
+        URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl + batch.getContributionPath())
+            .queryParam("ehrId", ehrId)
+            .queryParam("commiterName", commiterName)
+            .queryParam("format", "FLAT")
+            .build().encode().toUri();
+
+        CompletableFuture<List<String>> result = new CompletableFuture<>();
+        exchangeAsync(uri, HttpMethod.POST, new HttpEntity<>(createContributionBody(compositions), httpHeaders), ContributionResponse.class)
+            .whenComplete((responseEntity, e) -> {
+                Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                if (cause == null) {
+                    try {
+                        List<String> uids = contributionUids(responseEntity);
+                        contributionsSupported = Boolean.TRUE;
+                        result.complete(uids);
+                    } catch (RuntimeException invalid) {
+                        result.completeExceptionally(invalid);
+                    }
+                } else if (cause instanceof HttpStatusCodeException && !Boolean.TRUE.equals(contributionsSupported)
+                    && isUnsupported(((HttpStatusCodeException) cause).getStatusCode())) {
+                    log.info("CDR does not accept contributions ({}), posting compositions individually",
+                        ((HttpStatusCodeException) cause).getStatusCode());
+                    contributionsSupported = Boolean.FALSE;
+                    createCompositionsAsync(httpHeaders, ehrId, commiterName, compositions, committed).whenComplete((uids, failure) -> {
+                        if (failure == null) {
+                            result.complete(uids);
+                        } else {
+                            result.completeExceptionally(failure);
+                        }
+                    });
+                } else {
+                    result.completeExceptionally(cause);
+                }
+            });
+        return result;
+    }
+
+    private CompletableFuture<List<String>> createCompositionsAsync(HttpHeaders httpHeaders, String ehrId, String commiterName, List<CompositionRequest> compositions,
+                                                                    BiConsumer<Integer, String> committed) {
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < compositions.size(); i++) {
+            int index = i;
+            results.add(createCompositionAsync(httpHeaders, ehrId, commiterName, compositions.get(i)).thenApply(uid -> {
+                committed.accept(index, uid);
+                return uid;
+            }));
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[results.size()]))
+            .thenApply(done -> {
+                List<String> uids = new ArrayList<>();
+                for (CompletableFuture<String> result : results) {
+                    uids.add(result.join());
+                }
+                return uids;
+            });
+    }
+
+    /**
+     * Sends a request over the non-blocking transport. Failures, including error responses, complete the
+     * returned future exceptionally with the same {@link RestClientException}s the blocking calls throw.
+     */
+    private <T> CompletableFuture<ResponseEntity<T>> exchangeAsync(URI uri, HttpMethod method, HttpEntity<?> request, Class<T> responseType) {
+        CompletableFuture<ResponseEntity<T>> result = new CompletableFuture<>();
+        log.debug("async {} {}", method, uri);
+        try {
+            asyncRestTemplate().exchange(uri, method, request, responseType).addCallback(
+                responseEntity -> {
+                    log.debug("responseEntity = {}", responseEntity);
+                    result.complete(responseEntity);
+                },
+                e -> result.completeExceptionally(e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(e);
+        return result;
+    }
+
+    /**
+     * Uploads an operational template to the domain the headers authenticate against
+     *
+     * @throws IllegalArgumentException if there is no template at the given path
+     * @throws RestClientException      if the CDR rejects the template
+     */
+    public void uploadTemplate(HttpHeaders httpHeaders, String templatePath) {
+        // templates may be uploaded concurrently, so leave the caller's headers untouched
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(httpHeaders);
+        headers.setContentType(MediaType.APPLICATION_XML);
+
+        SamplePayloadStore.Payload template = payloads().get(templatePath);
+        HttpEntity<byte[]> templateRequest = new HttpEntity<>(template.bytes(), headers);
+        log.trace("templateRequest = {} ({})", templatePath, template.getHash());
+        ResponseEntity templateResponse = restTemplate().postForEntity(baseUrl + "template", templateRequest, String.class);
+        log.trace("templateResponse = " + templateResponse);
+    }
+
+    /**
+     * Lists the ids of the templates already present in the domain the headers authenticate against
+     */
+    public Set<String> listTemplates(HttpHeaders httpHeaders) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(httpHeaders);
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+
+        ResponseEntity<TemplateList> responseEntity = restTemplate().exchange(baseUrl + "template", HttpMethod.GET, new HttpEntity<>(headers), TemplateList.class);
+        log.debug("responseEntity = {}", responseEntity);
+        Set<String> templateIds = new HashSet<>();
+        TemplateList response = responseEntity.getBody();
+        // an empty domain answers with 204 and no body
+        if (response != null && response.getTemplates() != null) {
+            for (TemplateList.Template template : response.getTemplates()) {
+                templateIds.add(template.getTemplateId());
+            }
+        }
+        return templateIds;
+    }
+
+    /**
+     * @return the system ids of all domains of the CDR
+     */
+    public Set<String> listDomains() throws URISyntaxException {
+        URI uri = new URI(cdrUrl + "/admin/rest/v1/domains");
+        HttpEntity<Object> request = new HttpEntity<>(getAdminHeaders());
+        Domain[] response = restTemplate().exchange(uri, HttpMethod.GET, request, Domain[].class).getBody();
+        Set<String> domains = new HashSet<>();
+        if (response != null) {
+            for (Domain domain : response) {
+                domains.add(domain.getSystemId());
+            }
+        }
+        return domains;
+    }
 
     public ResponseEntity<String> createDomain(String domainName, String projectName) throws URISyntaxException {
         URI uri = new URI(cdrUrl + "/admin/rest/v1/domains");
-        String requestJson = "{" +
-            "\"blocked\": \"false\"," +
-            "\"description\": \"" + projectName + "\"," +
-            "\"name\": \"" + domainName + "\"," +
-            "\"systemId\": \"" + domainName + "\"" +
-            "}";
-        HttpEntity<Object> request = new HttpEntity<>(requestJson, getAdminHeaders());
-        log.debug("createDomain" + requestJson);
-        return restTemplate.exchange(uri, HttpMethod.POST, request, String.class);
+        HttpEntity<Object> request = new HttpEntity<>(new Domain(domainName, projectName), getAdminHeaders());
+        log.debug("createDomain {}", domainName);
+        return restTemplate().exchange(uri, HttpMethod.POST, request, String.class);
+    }
+
+    /**
+     * Sets the description of an existing domain, e.g. when a pooled domain is assigned to an operino
+     */
+    public ResponseEntity<String> updateDomain(String domainName, String projectName) throws URISyntaxException {
+        URI uri = new URI(cdrUrl + "/admin/rest/v1/domains/" + domainName);
+        HttpEntity<Object> request = new HttpEntity<>(new Domain(domainName, projectName), getAdminHeaders());
+        log.debug("updateDomain {}", domainName);
+        return restTemplate().exchange(uri, HttpMethod.PUT, request, String.class);
     }
 
     public ResponseEntity<String> createUser(String domainName, User domainUser, String domainPassword) throws URISyntaxException {
         URI uri = new URI(cdrUrl + "/admin/rest/v1/users");
+        HttpEntity<Object> request = new HttpEntity<>(new DomainUser(domainName, domainUser.getLogin(), domainPassword), getAdminHeaders());
 
-        String requestJson = "{" +
-            "\"username\": \"" + domainName + "\"," +
-            "\"password\": \"" + domainPassword + "\"," +
-            "\"name\": \"" + domainUser.getLogin() + "\"," +
-            "\"externalRef\": null," +
-            "\"blocked\": false," +
-            "\"defaultDomain\": \"" + domainName + "\"," +
-            "\"roles\": {\"" + domainName + "\": [\"ROLE_ADMIN\"]}," +
-            "\"superUser\": false" +
-            "}";
-        HttpEntity<Object> request = new HttpEntity<>(requestJson, getAdminHeaders());
-
-        return restTemplate.exchange(uri, HttpMethod.POST, request, String.class);
-    }
-
-    /**
-     * Utility method for wrapping {@link Patient} object in the format that ThinkEhr expects
-     */
-    private Map<String, Object> transformPatient(Patient patient) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("dateOfBirth", patient.getDateOfBirth());
-        map.put("firstNames", patient.getForename());
-        map.put("gender", patient.getGender().toUpperCase());
-        map.put("lastNames", patient.getSurname());
-        map.put("version", 1);
-        // create address key
-        Map<String, Object> addressMap = new HashMap<>();
-        addressMap.put("address", patient.getAddress1().concat(" ").concat(patient.getAddress2()).concat(" ").concat(patient.getAddress3()));
-        addressMap.put("version", 1);
-        map.put("address", addressMap);
-
-        // create partyAdditionalInfo
-        Map<String, Object> titleMap = new HashMap<>();
-        titleMap.put("key", "title");
-        titleMap.put("value", patient.getTitle());
-        titleMap.put("version", 1);
-        Map<String, Object> nhsNumberMap = new HashMap<>();
-        nhsNumberMap.put("key", "uk.nhs.nhs_number");
-        nhsNumberMap.put("value", patient.getNhsNumber());
-        nhsNumberMap.put("version", 1);
-        // add title and nhs number maps to partyAdditionalInfo
-        List<Map<String, Object>> partyAdditionalInfo = new ArrayList<>();
-        partyAdditionalInfo.add(titleMap);
-        partyAdditionalInfo.add(nhsNumberMap);
-
-        map.put("partyAdditionalInfo", partyAdditionalInfo);
-
-        return map;
+        return restTemplate().exchange(uri, HttpMethod.POST, request, String.class);
+    }
+
+    /**
+     * Sets the name of the admin user of an existing domain to the login of its new owner, keeping its password
+     */
+    public ResponseEntity<String> updateUser(String domainName, User domainUser) throws URISyntaxException {
+        URI uri = new URI(cdrUrl + "/admin/rest/v1/users/" + domainName);
+        HttpEntity<Object> request = new HttpEntity<>(new DomainUser(domainName, domainUser.getLogin(), null), getAdminHeaders());
+
+        return restTemplate().exchange(uri, HttpMethod.PUT, request, String.class);
+    }
+
+    /**
+     * Fills in the values of the patient in the preloaded ehr status body
+     */
+    private String createEhrStatusBody(Patient patient, String subjectNamespace, String subjectId) {
+        return payloads().get(SamplePayloadStore.ROOT + "ehrStatusBody.json").asString()
+            .replace("<subjectId>", subjectId)
+            .replace("<subjectNamespace>", subjectNamespace)
+            .replace("<gender>", patient.getGender())
+            .replace("<birth_year>", String.valueOf(patient.getDateOfBirth().getYear()));
     }
 
     private HttpHeaders getAdminHeaders() {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
 
-        String base64Creds = createBasicAuthString(this.adminName, this.password);
+        String base64Creds = adminAuthorization;
+        if (base64Creds == null) {
+            base64Creds = createBasicAuthString(this.adminName, this.password);
+            adminAuthorization = base64Creds;
+        }
         headers.add("Authorization", base64Creds);
 
         return headers;
     }
 
+    @Autowired(required = false)
+    public void setMetricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    @Autowired
+    public void setPayloadStore(SamplePayloadStore payloadStore) {
+        this.payloadStore = payloadStore;
+    }
+
+    public Http getHttp() {
+        return http;
+    }
+
+    public Batch getBatch() {
+        return batch;
+    }
+
+    public Limiter getLimiter() {
+        return limiter;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public Breaker getBreaker() {
+        return breaker;
+    }
+
     public void setPassword(String password) {
         this.password = password;
+        this.adminAuthorization = null;
     }
 
     public void setAdminName(String adminName) {
         this.adminName = adminName;
+        this.adminAuthorization = null;
     }
 
     public void setManagerUrl(String managerUrl) {
@@ -346,4 +1064,287 @@ public class ThinkEhrRestClient {
     public void setCdrUrl(String cdrUrl) {
         this.cdrUrl = cdrUrl;
     }
+
+    /**
+     * Settings of the pooled http transport used for all CDR traffic, bound from {@code thinkehr.http.*}
+     */
+    public static class Http {
+        private int maxConnections = 100;
+        private int maxConnectionsPerRoute = 50;
+        private int connectTimeout = 5000;
+        private int readTimeout = 60000;
+        private int connectionRequestTimeout = 10000;
+        private int validateAfterInactivity = 2000;
+        private long idleEvictionSeconds = 30;
+        private int ioThreads = 2;
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public int getMaxConnectionsPerRoute() {
+            return maxConnectionsPerRoute;
+        }
+
+        public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        }
+
+        public int getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public void setConnectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+        }
+
+        public int getReadTimeout() {
+            return readTimeout;
+        }
+
+        public void setReadTimeout(int readTimeout) {
+            this.readTimeout = readTimeout;
+        }
+
+        public int getConnectionRequestTimeout() {
+            return connectionRequestTimeout;
+        }
+
+        public void setConnectionRequestTimeout(int connectionRequestTimeout) {
+            this.connectionRequestTimeout = connectionRequestTimeout;
+        }
+
+        public int getValidateAfterInactivity() {
+            return validateAfterInactivity;
+        }
+
+        public void setValidateAfterInactivity(int validateAfterInactivity) {
+            this.validateAfterInactivity = validateAfterInactivity;
+        }
+
+        public long getIdleEvictionSeconds() {
+            return idleEvictionSeconds;
+        }
+
+        public void setIdleEvictionSeconds(long idleEvictionSeconds) {
+            this.idleEvictionSeconds = idleEvictionSeconds;
+        }
+
+        public int getIoThreads() {
+            return ioThreads;
+        }
+
+        public void setIoThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+        }
+    }
+
+    /**
+     * Settings for committing the compositions of an EHR, bound from {@code thinkehr.batch.*}
+     */
+    public static class Batch {
+        private boolean contributions = true;
+        private String contributionPath = "composition/contribution";
+        private int pipelineDepth = 8;
+
+        public boolean isContributions() {
+            return contributions;
+        }
+
+        public void setContributions(boolean contributions) {
+            this.contributions = contributions;
+        }
+
+        public String getContributionPath() {
+            return contributionPath;
+        }
+
+        public void setContributionPath(String contributionPath) {
+            this.contributionPath = contributionPath;
+        }
+
+        public int getPipelineDepth() {
+            return pipelineDepth;
+        }
+
+        public void setPipelineDepth(int pipelineDepth) {
+            this.pipelineDepth = pipelineDepth;
+        }
+    }
+
+    /**
+     * Settings of the adaptive limit on requests in flight to the CDR, bound from {@code thinkehr.limiter.*}
+     */
+    public static class Limiter {
+        private boolean enabled = true;
+        private int initialLimit = 20;
+        private int minLimit = 2;
+        private int maxLimit = 100;
+        private double backoffRatio = 0.9;
+        private long latencyThresholdMillis = 5000;
+        private int maxQueueSize = 1000;
+        private long maxQueueWaitMillis = 30000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public double getBackoffRatio() {
+            return backoffRatio;
+        }
+
+        public void setBackoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+        }
+
+        public long getLatencyThresholdMillis() {
+            return latencyThresholdMillis;
+        }
+
+        public void setLatencyThresholdMillis(long latencyThresholdMillis) {
+            this.latencyThresholdMillis = latencyThresholdMillis;
+        }
+
+        public int getMaxQueueSize() {
+            return maxQueueSize;
+        }
+
+        public void setMaxQueueSize(int maxQueueSize) {
+            this.maxQueueSize = maxQueueSize;
+        }
+
+        public long getMaxQueueWaitMillis() {
+            return maxQueueWaitMillis;
+        }
+
+        public void setMaxQueueWaitMillis(long maxQueueWaitMillis) {
+            this.maxQueueWaitMillis = maxQueueWaitMillis;
+        }
+    }
+
+    /**
+     * Settings of the circuit breakers and bulkheads isolating the CDR operation classes, bound from
+     * {@code thinkehr.breaker.*}
+     */
+    public static class Breaker {
+        private boolean enabled = true;
+        private int failureThreshold = 5;
+        private long openSeconds = 30;
+        private int halfOpenCalls = 1;
+        private int bulkheadSize = 20;
+        private long bulkheadWaitMillis = 2000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getFailureThreshold() {
+            return failureThreshold;
+        }
+
+        public void setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+        }
+
+        public long getOpenSeconds() {
+            return openSeconds;
+        }
+
+        public void setOpenSeconds(long openSeconds) {
+            this.openSeconds = openSeconds;
+        }
+
+        public int getHalfOpenCalls() {
+            return halfOpenCalls;
+        }
+
+        public void setHalfOpenCalls(int halfOpenCalls) {
+            this.halfOpenCalls = halfOpenCalls;
+        }
+
+        public int getBulkheadSize() {
+            return bulkheadSize;
+        }
+
+        public void setBulkheadSize(int bulkheadSize) {
+            this.bulkheadSize = bulkheadSize;
+        }
+
+        public long getBulkheadWaitMillis() {
+            return bulkheadWaitMillis;
+        }
+
+        public void setBulkheadWaitMillis(long bulkheadWaitMillis) {
+            this.bulkheadWaitMillis = bulkheadWaitMillis;
+        }
+    }
+
+    /**
+     * Settings of the CDR sessions used instead of basic auth on the REST API, bound from {@code thinkehr.session.*}
+     */
+    public static class Session {
+        private boolean enabled = true;
+        private long ttlSeconds = 1800;
+        private long refreshMarginSeconds = 60;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getTtlSeconds() {
+            return ttlSeconds;
+        }
+
+        public void setTtlSeconds(long ttlSeconds) {
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        public long getRefreshMarginSeconds() {
+            return refreshMarginSeconds;
+        }
+
+        public void setRefreshMarginSeconds(long refreshMarginSeconds) {
+            this.refreshMarginSeconds = refreshMarginSeconds;
+        }
+    }
 }
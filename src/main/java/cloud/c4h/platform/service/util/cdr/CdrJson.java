@@ -0,0 +1,51 @@
+package cloud.c4h.platform.service.util.cdr;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.util.List;
+
+/**
+ * The ObjectMapper shared by everything reading and writing CDR json, configured once for the CDR's format.
+ * <p>
+ * It is kept apart from the application's mapper, whose settings follow the REST API of the application rather
+ * than the CDR's. Unknown properties are ignored, so new fields in CDR responses do not break the typed models, and
+ * dates are written as ISO-8601 strings.
+ */
+public final class CdrJson {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+        .registerModule(new JavaTimeModule())
+        .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+        // the http message converters flush and close the streams they hand out themselves
+        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private CdrJson() {
+    }
+
+    /**
+     * @return the shared mapper, which must not be reconfigured
+     */
+    public static ObjectMapper mapper() {
+        return MAPPER;
+    }
+
+    /**
+     * Makes the json converters of a rest template read and write with the shared mapper. Responses are read straight
+     * from the stream of the connection; request bodies are still written into a buffer first, as the interceptors of
+     * the CDR client need the whole request before it is sent.
+     */
+    public static void configure(List<HttpMessageConverter<?>> converters) {
+        for (HttpMessageConverter<?> converter : converters) {
+            if (converter instanceof MappingJackson2HttpMessageConverter) {
+                ((MappingJackson2HttpMessageConverter) converter).setObjectMapper(MAPPER);
+            }
+        }
+    }
+}
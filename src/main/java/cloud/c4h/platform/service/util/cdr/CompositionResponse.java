@@ -0,0 +1,17 @@
+package cloud.c4h.platform.service.util.cdr;
+
+/**
+ * The response to committing a composition
+ */
+public class CompositionResponse extends MetaResponse {
+
+    private String compositionUid;
+
+    public String getCompositionUid() {
+        return compositionUid;
+    }
+
+    public void setCompositionUid(String compositionUid) {
+        this.compositionUid = compositionUid;
+    }
+}
@@ -0,0 +1,22 @@
+package cloud.c4h.platform.service.util.cdr;
+
+import java.util.List;
+
+/**
+ * The response to committing several compositions as one contribution
+ */
+public class ContributionResponse {
+
+    private List<String> compositionUids;
+
+    /**
+     * @return the uids of the compositions, in the order they were sent
+     */
+    public List<String> getCompositionUids() {
+        return compositionUids;
+    }
+
+    public void setCompositionUids(List<String> compositionUids) {
+        this.compositionUids = compositionUids;
+    }
+}
@@ -0,0 +1,60 @@
+package cloud.c4h.platform.service.util.cdr;
+
+/**
+ * A domain as the admin API creates, updates and lists it
+ */
+public class Domain {
+
+    private String systemId;
+
+    private String name;
+
+    private String description;
+
+    private boolean blocked;
+
+    public Domain() {
+    }
+
+    /**
+     * @param systemId    the id of the domain, also used as its name
+     * @param description the name of the project the domain is for
+     */
+    public Domain(String systemId, String description) {
+        this.systemId = systemId;
+        this.name = systemId;
+        this.description = description;
+    }
+
+    public String getSystemId() {
+        return systemId;
+    }
+
+    public void setSystemId(String systemId) {
+        this.systemId = systemId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public boolean isBlocked() {
+        return blocked;
+    }
+
+    public void setBlocked(boolean blocked) {
+        this.blocked = blocked;
+    }
+}
@@ -0,0 +1,110 @@
+package cloud.c4h.platform.service.util.cdr;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The admin user of a domain, as the admin API creates and updates it
+ */
+public class DomainUser {
+
+    private String username;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String password;
+
+    private String name;
+
+    private String externalRef;
+
+    private boolean blocked;
+
+    private String defaultDomain;
+
+    private Map<String, List<String>> roles;
+
+    private boolean superUser;
+
+    public DomainUser() {
+    }
+
+    /**
+     * @param domain   the domain the user administers, also the name the user logs in with
+     * @param name     the display name of the user
+     * @param password the password of the user, or null to leave it unchanged
+     */
+    public DomainUser(String domain, String name, String password) {
+        this.username = domain;
+        this.password = password;
+        this.name = name;
+        this.defaultDomain = domain;
+        this.roles = Collections.singletonMap(domain, Collections.singletonList("ROLE_ADMIN"));
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getExternalRef() {
+        return externalRef;
+    }
+
+    public void setExternalRef(String externalRef) {
+        this.externalRef = externalRef;
+    }
+
+    public boolean isBlocked() {
+        return blocked;
+    }
+
+    public void setBlocked(boolean blocked) {
+        this.blocked = blocked;
+    }
+
+    public String getDefaultDomain() {
+        return defaultDomain;
+    }
+
+    public void setDefaultDomain(String defaultDomain) {
+        this.defaultDomain = defaultDomain;
+    }
+
+    public Map<String, List<String>> getRoles() {
+        return roles;
+    }
+
+    public void setRoles(Map<String, List<String>> roles) {
+        this.roles = roles;
+    }
+
+    public boolean isSuperUser() {
+        return superUser;
+    }
+
+    public void setSuperUser(boolean superUser) {
+        this.superUser = superUser;
+    }
+}
@@ -0,0 +1,17 @@
+package cloud.c4h.platform.service.util.cdr;
+
+/**
+ * The response to creating or looking up an EHR
+ */
+public class EhrResponse extends MetaResponse {
+
+    private String ehrId;
+
+    public String getEhrId() {
+        return ehrId;
+    }
+
+    public void setEhrId(String ehrId) {
+        this.ehrId = ehrId;
+    }
+}
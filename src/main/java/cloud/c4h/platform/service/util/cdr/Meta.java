@@ -0,0 +1,24 @@
+package cloud.c4h.platform.service.util.cdr;
+
+/**
+ * The {@code meta} of a CDR response, linking to the resource created or updated
+ */
+public class Meta {
+
+    private String href;
+
+    /**
+     * @return the id at the end of the href
+     */
+    public String lastHrefSegment() {
+        return href.substring(href.lastIndexOf('/') + 1);
+    }
+
+    public String getHref() {
+        return href;
+    }
+
+    public void setHref(String href) {
+        this.href = href;
+    }
+}
@@ -0,0 +1,17 @@
+package cloud.c4h.platform.service.util.cdr;
+
+/**
+ * A CDR response only telling where the resource is, e.g. of a created party or an updated EHR status
+ */
+public class MetaResponse {
+
+    private Meta meta;
+
+    public Meta getMeta() {
+        return meta;
+    }
+
+    public void setMeta(Meta meta) {
+        this.meta = meta;
+    }
+}
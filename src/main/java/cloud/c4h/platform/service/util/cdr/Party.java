@@ -0,0 +1,182 @@
+package cloud.c4h.platform.service.util.cdr;
+
+import cloud.c4h.platform.domain.Patient;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A demographics party, as the CDR creates and finds it
+ */
+public class Party {
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String id;
+
+    private ZonedDateTime dateOfBirth;
+
+    private String firstNames;
+
+    private String lastNames;
+
+    private String gender;
+
+    private int version;
+
+    private Address address;
+
+    private List<AdditionalInfo> partyAdditionalInfo = new ArrayList<>();
+
+    /**
+     * Wraps a patient in the format the CDR expects, with the title and NHS number as additional info
+     */
+    public static Party of(Patient patient) {
+        Party party = new Party();
+        party.setDateOfBirth(patient.getDateOfBirth());
+        party.setFirstNames(patient.getForename());
+        party.setGender(patient.getGender().toUpperCase());
+        party.setLastNames(patient.getSurname());
+        party.setVersion(1);
+        party.setAddress(new Address(patient.getAddress1() + " " + patient.getAddress2() + " " + patient.getAddress3()));
+        party.getPartyAdditionalInfo().add(new AdditionalInfo("title", patient.getTitle()));
+        party.getPartyAdditionalInfo().add(new AdditionalInfo("uk.nhs.nhs_number", patient.getNhsNumber()));
+        return party;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public ZonedDateTime getDateOfBirth() {
+        return dateOfBirth;
+    }
+
+    public void setDateOfBirth(ZonedDateTime dateOfBirth) {
+        this.dateOfBirth = dateOfBirth;
+    }
+
+    public String getFirstNames() {
+        return firstNames;
+    }
+
+    public void setFirstNames(String firstNames) {
+        this.firstNames = firstNames;
+    }
+
+    public String getLastNames() {
+        return lastNames;
+    }
+
+    public void setLastNames(String lastNames) {
+        this.lastNames = lastNames;
+    }
+
+    public String getGender() {
+        return gender;
+    }
+
+    public void setGender(String gender) {
+        this.gender = gender;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public Address getAddress() {
+        return address;
+    }
+
+    public void setAddress(Address address) {
+        this.address = address;
+    }
+
+    public List<AdditionalInfo> getPartyAdditionalInfo() {
+        return partyAdditionalInfo;
+    }
+
+    public void setPartyAdditionalInfo(List<AdditionalInfo> partyAdditionalInfo) {
+        this.partyAdditionalInfo = partyAdditionalInfo;
+    }
+
+    public static class Address {
+
+        private String address;
+
+        private int version = 1;
+
+        public Address() {
+        }
+
+        public Address(String address) {
+            this.address = address;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public void setAddress(String address) {
+            this.address = address;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public void setVersion(int version) {
+            this.version = version;
+        }
+    }
+
+    public static class AdditionalInfo {
+
+        private String key;
+
+        private String value;
+
+        private int version = 1;
+
+        public AdditionalInfo() {
+        }
+
+        public AdditionalInfo(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public void setKey(String key) {
+            this.key = key;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public void setValue(String value) {
+            this.value = value;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public void setVersion(int version) {
+            this.version = version;
+        }
+    }
+}
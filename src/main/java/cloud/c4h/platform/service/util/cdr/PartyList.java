@@ -0,0 +1,20 @@
+package cloud.c4h.platform.service.util.cdr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parties found by a demographics query
+ */
+public class PartyList {
+
+    private List<Party> parties = new ArrayList<>();
+
+    public List<Party> getParties() {
+        return parties;
+    }
+
+    public void setParties(List<Party> parties) {
+        this.parties = parties;
+    }
+}
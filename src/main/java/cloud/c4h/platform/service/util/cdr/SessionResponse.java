@@ -0,0 +1,17 @@
+package cloud.c4h.platform.service.util.cdr;
+
+/**
+ * The response to opening a session
+ */
+public class SessionResponse {
+
+    private String sessionId;
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+}
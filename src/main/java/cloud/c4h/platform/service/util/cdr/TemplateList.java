@@ -0,0 +1,33 @@
+package cloud.c4h.platform.service.util.cdr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The templates of a domain
+ */
+public class TemplateList {
+
+    private List<Template> templates = new ArrayList<>();
+
+    public List<Template> getTemplates() {
+        return templates;
+    }
+
+    public void setTemplates(List<Template> templates) {
+        this.templates = templates;
+    }
+
+    public static class Template {
+
+        private String templateId;
+
+        public String getTemplateId() {
+            return templateId;
+        }
+
+        public void setTemplateId(String templateId) {
+            this.templateId = templateId;
+        }
+    }
+}
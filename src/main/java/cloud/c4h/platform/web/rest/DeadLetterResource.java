@@ -0,0 +1,74 @@
+package cloud.c4h.platform.web.rest;
+
+import cloud.c4h.platform.service.MessageRetryService;
+import cloud.c4h.platform.service.dto.DeadLetterDTO;
+
+import com.codahale.metrics.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * REST controller for inspecting and replaying the messages dead-lettered by {@link MessageRetryService}.
+ */
+@RestController
+@RequestMapping("/management/dead-letters")
+public class DeadLetterResource {
+
+    private final Logger log = LoggerFactory.getLogger(DeadLetterResource.class);
+
+    private final MessageRetryService messageRetryService;
+
+    public DeadLetterResource(MessageRetryService messageRetryService) {
+        this.messageRetryService = messageRetryService;
+    }
+
+    /**
+     * GET  /dead-letters : get the number of dead-lettered messages of every work queue.
+     *
+     * @return the ResponseEntity with status 200 (OK) and the counts by work queue in body
+     */
+    @GetMapping
+    @Timed
+    public Map<String, Integer> count() {
+        return messageRetryService.countDeadLetters();
+    }
+
+    /**
+     * GET  /dead-letters/:queue : get the oldest dead-lettered messages of a work queue.
+     *
+     * @param queue the work queue
+     * @param limit the maximum number of messages to get
+     * @return the ResponseEntity with status 200 (OK) and the list of messages in body, or with status 404 (Not Found)
+     */
+    @GetMapping("/{queue:.+}")
+    @Timed
+    public ResponseEntity<List<DeadLetterDTO>> peek(@PathVariable String queue, @RequestParam(defaultValue = "20") int limit) {
+        if (!MessageRetryService.WORK_QUEUES.contains(queue)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(messageRetryService.peek(queue, limit));
+    }
+
+    /**
+     * POST  /dead-letters/:queue/replay : move the oldest dead-lettered messages of a work queue back onto it.
+     *
+     * @param queue the work queue
+     * @param limit the maximum number of messages to replay
+     * @return the ResponseEntity with status 200 (OK) and the number of replayed messages in body, or with status 404 (Not Found)
+     */
+    @PostMapping("/{queue:.+}/replay")
+    @Timed
+    public ResponseEntity<Map<String, Integer>> replay(@PathVariable String queue, @RequestParam(defaultValue = "100") int limit) {
+        log.debug("REST request to replay {} dead letters of {}", limit, queue);
+        if (!MessageRetryService.WORK_QUEUES.contains(queue)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(Collections.singletonMap("replayed", messageRetryService.replay(queue, limit)));
+    }
+}
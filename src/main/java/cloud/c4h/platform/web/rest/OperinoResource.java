@@ -3,7 +3,11 @@ package cloud.c4h.platform.web.rest;
 import cloud.c4h.platform.domain.Operino;
 import cloud.c4h.platform.domain.OperinoComponent;
 import cloud.c4h.platform.service.OperinoComponentService;
+import cloud.c4h.platform.service.OperinoProvisioner;
 import cloud.c4h.platform.service.OperinoService;
+import cloud.c4h.platform.service.ProvisioningEventBus;
+import cloud.c4h.platform.service.dto.ObservationLoadDTO;
+import cloud.c4h.platform.service.dto.ProvisioningEventDTO;
 import cloud.c4h.platform.web.rest.util.HeaderUtil;
 import cloud.c4h.platform.web.rest.util.PaginationUtil;
 import com.codahale.metrics.annotation.Timed;
@@ -15,15 +19,20 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 /**
  * REST controller for managing Operino.
@@ -36,13 +45,19 @@ public class OperinoResource {
 
     private static final String ENTITY_NAME = "operino";
     private static final String COMPONENT_ENTITY_NAME = "component";
+    private static final long PROVISIONING_EVENTS_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
 
     private final OperinoService operinoService;
     private final OperinoComponentService operinoComponentService;
+    private final ProvisioningEventBus provisioningEventBus;
+    private final OperinoProvisioner operinoProvisioner;
 
-    public OperinoResource(OperinoService operinoService, OperinoComponentService operinoComponentService) {
+    public OperinoResource(OperinoService operinoService, OperinoComponentService operinoComponentService,
+                           ProvisioningEventBus provisioningEventBus, OperinoProvisioner operinoProvisioner) {
         this.operinoService = operinoService;
         this.operinoComponentService = operinoComponentService;
+        this.provisioningEventBus = provisioningEventBus;
+        this.operinoProvisioner = operinoProvisioner;
     }
 
     /**
@@ -59,6 +74,9 @@ public class OperinoResource {
         if (operino.getId() != null) {
             return ResponseEntity.badRequest().headers(HeaderUtil.createFailureAlert(ENTITY_NAME, "idexists", "A new operino cannot already have an ID")).body(null);
         }
+        if (exceedsSyntheticPatients(operino, null)) {
+            return tooManySyntheticPatients();
+        }
         operino = operinoService.addDefaultComponents(operino);
         Operino result = operinoService.save(operino);
         return ResponseEntity.created(new URI("/api/operinos/" + result.getId()))
@@ -85,6 +103,9 @@ public class OperinoResource {
         }
         Operino verifiedOperino = operinoService.verifyOwnershipAndGet(operino.getId());
         if (verifiedOperino != null) {
+            if (exceedsSyntheticPatients(operino, verifiedOperino)) {
+                return tooManySyntheticPatients();
+            }
             Operino result = operinoService.save(operino);
             return ResponseEntity.ok()
                 .headers(HeaderUtil.createEntityUpdateAlert(ENTITY_NAME, operino.getId().toString()))
@@ -95,6 +116,26 @@ public class OperinoResource {
         }
     }
 
+    /**
+     * POST  /operinos/:id/provision : provision the "id" operino again, skipping the steps done before.
+     *
+     * @param id the id of the operino to provision
+     * @return the ResponseEntity with status 202 (Accepted), or with status 400 (Bad Request) if the operino is not found
+     */
+    @PostMapping("/operinos/{id}/provision")
+    @Timed
+    public ResponseEntity<Void> provisionOperino(@PathVariable Long id) {
+        log.debug("REST request to provision Operino : {}", id);
+        Operino operino = operinoService.verifyOwnershipAndGet(id);
+        if (operino != null) {
+            operinoService.provision(operino);
+            return ResponseEntity.accepted().build();
+        } else {
+            return ResponseEntity.badRequest()
+                .headers(HeaderUtil.createFailureAlert(ENTITY_NAME, "Not found", String.valueOf(id))).build();
+        }
+    }
+
     /**
      * GET  /operinos : get all the operinos.
      *
@@ -126,6 +167,85 @@ public class OperinoResource {
         return ResponseUtil.wrapOrNotFound(Optional.ofNullable(operino));
     }
 
+    /**
+     * GET  /operinos/:id/provisioning/events : stream the provisioning progress of the "id" operino as server-sent events.
+     * <p>
+     * The latest known event is sent first; the stream ends after the run finishes or fails.
+     *
+     * @param id the id of the operino to watch
+     * @return the ResponseEntity with status 200 (OK) and the event stream in body, or with status 404 (Not Found)
+     */
+    @GetMapping(value = "/operinos/{id}/provisioning/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Timed
+    public ResponseEntity<SseEmitter> getOperinoProvisioningEvents(@PathVariable Long id) {
+        log.debug("REST request to stream provisioning events of Operino : {}", id);
+        Operino operino = operinoService.verifyOwnershipAndGet(id);
+        if (operino == null) {
+            return ResponseEntity.notFound().build();
+        }
+        SseEmitter emitter = new SseEmitter(PROVISIONING_EVENTS_TIMEOUT);
+        Runnable unsubscribe = provisioningEventBus.subscribe(id, event -> sendProvisioningEvent(emitter, event),
+            emitter::complete);
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * Only admins can ask for more synthetic patients than owners, an owner can keep what an admin granted
+     */
+    private boolean exceedsSyntheticPatients(Operino operino, Operino saved) {
+        Integer requested = operino.getSyntheticPatients();
+        return requested != null && requested > operinoProvisioner.getMaxSyntheticPatients()
+            && (saved == null || !requested.equals(saved.getSyntheticPatients()));
+    }
+
+    private ResponseEntity<Operino> tooManySyntheticPatients() {
+        return ResponseEntity.badRequest().headers(HeaderUtil.createFailureAlert(ENTITY_NAME, "syntheticpatients",
+            "At most " + operinoProvisioner.getMaxSyntheticPatients() + " synthetic patients can be provisioned")).body(null);
+    }
+
+    private void sendProvisioningEvent(SseEmitter emitter, ProvisioningEventDTO event) {
+        try {
+            emitter.send(SseEmitter.event().data(event, MediaType.APPLICATION_JSON));
+            if (event.isTerminal()) {
+                emitter.complete();
+            }
+        } catch (IOException | IllegalStateException e) {
+            // the client went away or the stream already ended
+            log.debug("Could not send provisioning event {}: {}", event, e.getMessage());
+            emitter.completeWithError(e);
+        }
+    }
+
+    /**
+     * POST  /operinos/:id/observations : load a CSV of vital signs observations into the EHRs of the "id" operino.
+     * <p>
+     * The first column is the subjectId of the patient, the others are FLAT paths of the vital signs template.
+     * The request body is read as it arrives, so the CSV can be of any size.
+     *
+     * @param id      the id of the operino to load the observations into
+     * @param request the request with the CSV as body
+     * @return the ResponseEntity with status 200 (OK) and the outcome of the load in body, or with status 400 (Bad Request)
+     * if the CSV cannot be parsed, or with status 404 (Not Found)
+     */
+    @PostMapping(value = "/operinos/{id}/observations", consumes = "text/csv")
+    @Timed
+    public ResponseEntity<ObservationLoadDTO> loadOperinoObservations(@PathVariable Long id, HttpServletRequest request) {
+        log.debug("REST request to load observations into Operino : {}", id);
+        Operino operino = operinoService.verifyOwnershipAndGet(id);
+        if (operino == null) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            return ResponseEntity.ok(operinoProvisioner.loadObservations(operino, request.getInputStream()));
+        } catch (IOException e) {
+            log.warn("Could not load observations into Operino {}: {}", id, e.getMessage());
+            return ResponseEntity.badRequest()
+                .headers(HeaderUtil.createFailureAlert(ENTITY_NAME, "invalidcsv", e.getMessage())).build();
+        }
+    }
+
     /**
      * GET  /operinos/:id/components : get the components linked to the "id" operino.
      *
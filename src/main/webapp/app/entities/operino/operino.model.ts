@@ -6,6 +6,7 @@ export class Operino {
         public name?: string,
         public active?: boolean,
         public provision?: boolean,
+        public syntheticPatients?: number,
         public user?: User,
         public config?: {},
         public components?: OperinoComponent[]
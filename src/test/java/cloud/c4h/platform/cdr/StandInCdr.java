@@ -0,0 +1,520 @@
+package cloud.c4h.platform.cdr;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-process stand-in for the CDR, implementing the endpoints used by
+ * {@link cloud.c4h.platform.service.util.ThinkEhrRestClient}: admin domains and users, templates, parties,
+ * EHRs and their status, compositions and contributions, AQL queries, sessions and the manager truncate.
+ * <p>
+ * It keeps just enough state per domain (identified by the basic auth user, or the user of the session) to answer
+ * consistently, counts the requests it receives per endpoint, and can inject latency and errors:
+ * <ul>
+ * <li>{@link #setLatency(long, long)} delays every response by a fixed time plus random jitter</li>
+ * <li>{@link #setErrorRate(double, int)} fails a random share of the requests with the given status</li>
+ * <li>{@link #failNext(String, int, int)} fails the next requests to one endpoint</li>
+ * </ul>
+ * Random decisions use a fixed seed, so runs are repeatable.
+ */
+public class StandInCdr implements AutoCloseable {
+
+    public static final String DOMAINS = "/admin/rest/v1/domains";
+    public static final String USERS = "/admin/rest/v1/users";
+    public static final String TEMPLATE = "/rest/v1/template";
+    public static final String PARTY = "/rest/v1/demographics/party";
+    public static final String PARTY_QUERY = "/rest/v1/demographics/party/query";
+    public static final String EHR = "/rest/v1/ehr";
+    public static final String EHR_STATUS = "/rest/v1/ehr/status";
+    public static final String COMPOSITION = "/rest/v1/composition";
+    public static final String CONTRIBUTION = "/rest/v1/composition/contribution";
+    public static final String QUERY = "/rest/v1/query";
+    public static final String TRUNCATE = "/manager/rest/domain/truncate";
+    public static final String SESSION = "/rest/v1/session";
+
+    private static final Pattern TEMPLATE_ID = Pattern.compile("<template_id>\\s*<value>([^<]+)</value>");
+    private static final Pattern TRUNCATE_PATH = Pattern.compile("/manager/rest/domain/([^/]+)/truncate");
+    private static final String ANONYMOUS = "";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Domain> domains = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> userNames = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> sessions = new ConcurrentHashMap<>();
+    private final Queue<JsonNode> queries = new ConcurrentLinkedQueue<>();
+    private final Random random = new Random(42);
+
+    private volatile boolean contributions = true;
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+
+    public StandInCdr() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * @return the url to configure as {@code thinkehr.cdrUrl}
+     */
+    public String getCdrUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return the url to configure as {@code thinkehr.baseUrl}
+     */
+    public String getBaseUrl() {
+        return getCdrUrl() + "/rest/v1/";
+    }
+
+    /**
+     * @return the url to configure as {@code thinkehr.managerUrl}
+     */
+    public String getManagerUrl() {
+        return getCdrUrl() + "/manager/rest/";
+    }
+
+    /**
+     * Makes the contribution endpoint answer 404, like a CDR without contribution support
+     */
+    public void setContributions(boolean contributions) {
+        this.contributions = contributions;
+    }
+
+    /**
+     * Delays every response by {@code latencyMillis} plus a random share of {@code jitterMillis}
+     */
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    /**
+     * Answers the given share of all requests (0 to 1) with the given error status
+     */
+    public void setErrorRate(double errorRate, int errorStatus) {
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+    }
+
+    /**
+     * Answers the next {@code count} requests to an endpoint with the given error status
+     */
+    public void failNext(String endpoint, int count, int status) {
+        failures.put(endpoint + "#" + status, new AtomicInteger(count));
+    }
+
+    /**
+     * @return the number of requests received for the given endpoint, including failed ones
+     */
+    public int getRequests(String endpoint) {
+        AtomicInteger count = requests.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return the number of requests received for all endpoints
+     */
+    public int getRoundTrips() {
+        int total = 0;
+        for (AtomicInteger count : requests.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    /**
+     * @return the templates uploaded to a domain
+     */
+    public Set<String> getTemplates(String domain) {
+        Domain state = domains.get(domain);
+        return state == null ? Collections.emptySet() : new HashSet<>(state.templates);
+    }
+
+    /**
+     * @return the number of compositions committed to a domain
+     */
+    public int getCompositions(String domain) {
+        Domain state = domains.get(domain);
+        return state == null ? 0 : state.compositions.get();
+    }
+
+    /**
+     * @return the description the domain was created or last updated with
+     */
+    public String getDescription(String domain) {
+        Domain state = domains.get(domain);
+        return state == null ? null : state.description;
+    }
+
+    /**
+     * @return the name the user was created or last updated with
+     */
+    public String getUserName(String username) {
+        return userNames.get(username);
+    }
+
+    /**
+     * @return the bodies of the AQL queries received, in the order they were received
+     */
+    public List<JsonNode> getQueries() {
+        return new ArrayList<>(queries);
+    }
+
+    /**
+     * Forgets all sessions, like a CDR restarting, so requests with their tokens are answered with 401
+     */
+    public void expireSessions() {
+        sessions.clear();
+    }
+
+    public boolean hasDomain(String domain) {
+        return domains.containsKey(domain);
+    }
+
+    public void reset() {
+        requests.clear();
+        failures.clear();
+        domains.clear();
+        userNames.clear();
+        sessions.clear();
+        queries.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String endpoint = endpoint(exchange.getRequestURI().getPath());
+            requests.computeIfAbsent(endpoint, key -> new AtomicInteger()).incrementAndGet();
+            byte[] body = readBody(exchange.getRequestBody());
+            delay();
+
+            Integer injected = injectedFailure(endpoint);
+            if (injected != null) {
+                respond(exchange, injected, Collections.singletonMap("message", "Injected failure"));
+                return;
+            }
+            String session = exchange.getRequestHeaders().getFirst("Ehr-Session");
+            if (session != null && !sessions.containsKey(session)) {
+                respond(exchange, 401, Collections.singletonMap("message", "Invalid session"));
+                return;
+            }
+            dispatch(exchange, endpoint, body);
+        } catch (RuntimeException e) {
+            respond(exchange, 500, Collections.singletonMap("message", String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void dispatch(HttpExchange exchange, String endpoint, byte[] body) throws IOException {
+        String method = exchange.getRequestMethod();
+        Domain domain = domain(exchange);
+        switch (endpoint) {
+            case DOMAINS:
+                if ("GET".equals(method)) {
+                    listDomains(exchange);
+                    break;
+                }
+                JsonNode request = objectMapper.readTree(body);
+                domains.computeIfAbsent(request.path("systemId").asText(), key -> new Domain())
+                    .description = request.path("description").asText();
+                respond(exchange, 200, Collections.singletonMap("systemId", request.path("systemId").asText()));
+                break;
+            case SESSION:
+                String sessionId = UUID.randomUUID().toString();
+                sessions.put(sessionId, String.valueOf(query(exchange, "username")));
+                respond(exchange, 201, Collections.singletonMap("sessionId", sessionId));
+                break;
+            case USERS:
+                JsonNode user = objectMapper.readTree(body);
+                userNames.put(user.path("username").asText(), user.path("name").asText());
+                respond(exchange, 200, Collections.singletonMap("username", user.path("username").asText()));
+                break;
+            case TEMPLATE:
+                if ("GET".equals(method)) {
+                    listTemplates(exchange, domain);
+                } else {
+                    Matcher matcher = TEMPLATE_ID.matcher(new String(body, StandardCharsets.UTF_8));
+                    if (!matcher.find()) {
+                        respond(exchange, 400, Collections.singletonMap("message", "Not an operational template"));
+                        break;
+                    }
+                    domain.templates.add(matcher.group(1).trim());
+                    respond(exchange, 201, Collections.singletonMap("templateId", matcher.group(1).trim()));
+                }
+                break;
+            case PARTY:
+                String partyId = UUID.randomUUID().toString();
+                domain.parties.add(partyId);
+                respond(exchange, 201, meta(getBaseUrl() + "demographics/party/" + partyId));
+                break;
+            case PARTY_QUERY:
+                respond(exchange, 200, Collections.singletonMap("parties",
+                    Collections.singletonList(Collections.singletonMap("id", domain.parties.isEmpty() ? "n/a" : domain.parties.peek()))));
+                break;
+            case EHR:
+                if ("GET".equals(method)) {
+                    String subjectId = query(exchange, "subjectId");
+                    String ehrId = subjectId == null ? null : domain.ehrs.get(subjectId);
+                    if (ehrId == null) {
+                        respond(exchange, 204, null);
+                    } else {
+                        respond(exchange, 200, Collections.singletonMap("ehrId", ehrId));
+                    }
+                } else {
+                    String subjectId = query(exchange, "subjectId");
+                    String ehrId = UUID.randomUUID().toString();
+                    if (subjectId != null && domain.ehrs.putIfAbsent(subjectId, ehrId) != null) {
+                        respond(exchange, 400, Collections.singletonMap("message", "EHR for subject already exists"));
+                        break;
+                    }
+                    respond(exchange, 201, Collections.singletonMap("ehrId", ehrId));
+                }
+                break;
+            case EHR_STATUS:
+                String path = exchange.getRequestURI().getPath();
+                respond(exchange, 200, meta(getBaseUrl() + "ehr/status/" + path.substring(path.lastIndexOf('/') + 1)));
+                break;
+            case COMPOSITION:
+                domain.compositions.incrementAndGet();
+                respond(exchange, 201, Collections.singletonMap("compositionUid",
+                    compositionUid(query(exchange, "ehrId"), objectMapper.readTree(body))));
+                break;
+            case CONTRIBUTION:
+                if (!contributions) {
+                    respond(exchange, 404, Collections.singletonMap("message", "Not found"));
+                    break;
+                }
+                List<String> uids = new ArrayList<>();
+                for (JsonNode composition : objectMapper.readTree(body).path("compositions")) {
+                    uids.add(compositionUid(query(exchange, "ehrId"), composition.path("composition")));
+                }
+                domain.compositions.addAndGet(uids.size());
+                respond(exchange, 201, Collections.singletonMap("compositionUids", uids));
+                break;
+            case QUERY:
+                query(exchange, domain, objectMapper.readTree(body));
+                break;
+            case TRUNCATE:
+                Matcher matcher = TRUNCATE_PATH.matcher(exchange.getRequestURI().getPath());
+                if (matcher.matches()) {
+                    domains.remove(matcher.group(1));
+                }
+                respond(exchange, 200, Collections.emptyMap());
+                break;
+            default:
+                respond(exchange, 404, Collections.singletonMap("message", "Not found"));
+        }
+    }
+
+    /**
+     * Lists the domains created over the admin API, not the ones requests of unknown users fall into
+     */
+    private void listDomains(HttpExchange exchange) throws IOException {
+        List<Map<String, String>> listed = new ArrayList<>();
+        domains.forEach((systemId, domain) -> {
+            if (domain.description != null) {
+                listed.add(Collections.singletonMap("systemId", systemId));
+            }
+        });
+        respond(exchange, 200, listed);
+    }
+
+    /**
+     * Answers a query with one row per composition committed to the domain, paged by the offset and fetch of the
+     * request, or 204 if there are no rows
+     */
+    private void query(HttpExchange exchange, Domain domain, JsonNode request) throws IOException {
+        queries.add(request);
+        int total = domain.compositions.get();
+        int from = (int) Math.min(total, request.path("offset").asLong(0));
+        int to = request.has("fetch") ? (int) Math.min(total, from + request.path("fetch").asLong()) : total;
+        if (from >= to) {
+            respond(exchange, 204, null);
+            return;
+        }
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int row = from; row < to; row++) {
+            Map<String, Object> columns = new LinkedHashMap<>();
+            columns.put("uid", "composition-" + row + "::stand-in::1");
+            columns.put("row", row);
+            rows.add(columns);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("meta", Collections.singletonMap("href", getBaseUrl() + "query"));
+        result.put("aql", request.path("aql").asText());
+        result.put("resultSet", rows);
+        respond(exchange, 200, result);
+    }
+
+    private void listTemplates(HttpExchange exchange, Domain domain) throws IOException {
+        if (domain.templates.isEmpty()) {
+            respond(exchange, 204, null);
+            return;
+        }
+        List<Map<String, String>> templates = new ArrayList<>();
+        for (String templateId : domain.templates) {
+            templates.add(Collections.singletonMap("templateId", templateId));
+        }
+        respond(exchange, 200, Collections.singletonMap("templates", templates));
+    }
+
+    private static String endpoint(String path) {
+        if (path.startsWith(EHR_STATUS + "/")) {
+            return EHR_STATUS;
+        }
+        if (path.startsWith(PARTY_QUERY)) {
+            return PARTY_QUERY;
+        }
+        if (TRUNCATE_PATH.matcher(path).matches()) {
+            return TRUNCATE;
+        }
+        // updates of a single domain or user
+        if (path.startsWith(DOMAINS + "/")) {
+            return DOMAINS;
+        }
+        if (path.startsWith(USERS + "/")) {
+            return USERS;
+        }
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    /**
+     * The domain a request works on, taken from the user of the session or the basic auth user name
+     */
+    private Domain domain(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        String session = exchange.getRequestHeaders().getFirst("Ehr-Session");
+        String user = ANONYMOUS;
+        if (session != null) {
+            user = sessions.getOrDefault(session, ANONYMOUS);
+        } else if (authorization != null && authorization.startsWith("Basic ")) {
+            String credentials = new String(Base64.getDecoder().decode(authorization.substring(6)), StandardCharsets.UTF_8);
+            user = credentials.substring(0, Math.max(0, credentials.indexOf(':')));
+        }
+        return domains.computeIfAbsent(user, key -> new Domain());
+    }
+
+    private static String query(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return parameter.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private void delay() {
+        long delay = latencyMillis;
+        if (jitterMillis > 0) {
+            synchronized (random) {
+                delay += (long) (random.nextDouble() * jitterMillis);
+            }
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Integer injectedFailure(String endpoint) {
+        for (Map.Entry<String, AtomicInteger> failure : failures.entrySet()) {
+            if (failure.getKey().startsWith(endpoint + "#") && failure.getValue().getAndDecrement() > 0) {
+                return Integer.valueOf(failure.getKey().substring(endpoint.length() + 1));
+            }
+        }
+        if (errorRate > 0) {
+            synchronized (random) {
+                if (random.nextDouble() < errorRate) {
+                    return errorStatus;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, Object> meta(String href) {
+        return Collections.singletonMap("meta", Collections.singletonMap("href", href));
+    }
+
+    /**
+     * @return the uid the stand-in gives a composition committed to an EHR, derived from both so tests can map
+     * returned uids back to the compositions they committed
+     */
+    public static String compositionUid(String ehrId, byte[] composition) throws IOException {
+        return compositionUid(ehrId, new ObjectMapper().readTree(composition));
+    }
+
+    private static String compositionUid(String ehrId, JsonNode composition) throws IOException {
+        byte[] key = (ehrId + ":" + composition).getBytes(StandardCharsets.UTF_8);
+        return UUID.nameUUIDFromBytes(key) + "::stand-in::1";
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * What the stand-in remembers about a domain
+     */
+    private static final class Domain {
+        final Set<String> templates = ConcurrentHashMap.newKeySet();
+        final Queue<String> parties = new ConcurrentLinkedQueue<>();
+        final ConcurrentMap<String, String> ehrs = new ConcurrentHashMap<>();
+        final AtomicInteger compositions = new AtomicInteger();
+        volatile String description;
+    }
+}
@@ -0,0 +1,213 @@
+package cloud.c4h.platform.cdr;
+
+import cloud.c4h.platform.domain.User;
+import cloud.c4h.platform.service.util.AqlQuery;
+import cloud.c4h.platform.service.util.AqlResultIterator;
+import cloud.c4h.platform.service.util.CompositionRequest;
+import cloud.c4h.platform.service.util.SamplePayloadStore;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class StandInCdrTest {
+
+    private static final String DOMAIN = "stand-in";
+
+    private StandInCdr cdr;
+    private ThinkEhrRestClient client;
+    private HttpHeaders headers;
+
+    @Before
+    public void setUp() throws Exception {
+        cdr = new StandInCdr();
+        client = new ThinkEhrRestClient();
+        client.setCdrUrl(cdr.getCdrUrl());
+        client.setBaseUrl(cdr.getBaseUrl());
+        client.setManagerUrl(cdr.getManagerUrl());
+        client.setAdminName("admin");
+        client.setPassword("admin");
+        client.setPayloadStore(new SamplePayloadStore());
+        headers = new HttpHeaders();
+        headers.set("Authorization", ThinkEhrRestClient.createBasicAuthString(DOMAIN, "secret"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.destroy();
+        cdr.close();
+    }
+
+    @Test
+    public void createsDomainWithTemplates() throws Exception {
+        User user = new User();
+        user.setLogin("user");
+
+        client.createDomain(DOMAIN, "Stand-in");
+        client.createUser(DOMAIN, user, "secret");
+        assertThat(client.listTemplates(headers)).isEmpty();
+        client.uploadTemplate(headers, "sample_requests/problems/problems-template.xml");
+
+        assertThat(cdr.hasDomain(DOMAIN)).isTrue();
+        assertThat(client.listTemplates(headers)).containsExactly("IDCR Problem List.v1");
+        assertThat(cdr.getRequests(StandInCdr.DOMAINS)).isEqualTo(1);
+        assertThat(cdr.getRequests(StandInCdr.USERS)).isEqualTo(1);
+        assertThat(cdr.getRequests(StandInCdr.TEMPLATE)).isEqualTo(3);
+    }
+
+    @Test
+    public void renamesDomainAndUser() throws Exception {
+        User pool = new User();
+        pool.setLogin("pool");
+        User owner = new User();
+        owner.setLogin("owner");
+        client.createDomain(DOMAIN, DOMAIN);
+        client.createUser(DOMAIN, pool, "secret");
+
+        client.updateDomain(DOMAIN, "Renamed");
+        client.updateUser(DOMAIN, owner);
+
+        assertThat(cdr.getDescription(DOMAIN)).isEqualTo("Renamed");
+        assertThat(cdr.getUserName(DOMAIN)).isEqualTo("owner");
+        assertThat(cdr.getRequests(StandInCdr.DOMAINS)).isEqualTo(2);
+        assertThat(cdr.getRequests(StandInCdr.USERS)).isEqualTo(2);
+    }
+
+    @Test
+    public void listsCreatedDomains() throws Exception {
+        client.createDomain(DOMAIN, "Stand-in");
+        client.uploadTemplate(headers, "sample_requests/problems/problems-template.xml");
+
+        assertThat(client.listDomains()).containsExactly(DOMAIN);
+
+        client.truncateDomain(DOMAIN);
+
+        assertThat(client.listDomains()).isEmpty();
+    }
+
+    @Test
+    public void truncateForgetsDomain() throws Exception {
+        client.createDomain(DOMAIN, "Stand-in");
+        client.uploadTemplate(headers, "sample_requests/problems/problems-template.xml");
+
+        client.truncateDomain(DOMAIN);
+
+        assertThat(cdr.getRequests(StandInCdr.TRUNCATE)).isEqualTo(1);
+        assertThat(cdr.getTemplates(DOMAIN)).isEmpty();
+    }
+
+    @Test
+    public void reusesSessionOfDomain() throws Exception {
+        client.createDomain(DOMAIN, "Stand-in");
+        client.uploadTemplate(headers, "sample_requests/problems/problems-template.xml");
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(client.listTemplates(headers)).containsExactly("IDCR Problem List.v1");
+        }
+
+        assertThat(cdr.getRequests(StandInCdr.SESSION)).isEqualTo(1);
+    }
+
+    @Test
+    public void opensNewSessionWhenRejected() throws Exception {
+        client.uploadTemplate(headers, "sample_requests/problems/problems-template.xml");
+        cdr.expireSessions();
+
+        assertThat(client.listTemplates(headers)).containsExactly("IDCR Problem List.v1");
+        assertThat(cdr.getRequests(StandInCdr.SESSION)).isEqualTo(2);
+    }
+
+    @Test
+    public void opensSessionsWithoutPermitOfLimiter() throws Exception {
+        client.getLimiter().setInitialLimit(1);
+        client.getLimiter().setMinLimit(1);
+        client.getLimiter().setMaxLimit(1);
+        client.getLimiter().setMaxQueueWaitMillis(2000);
+        client.uploadTemplate(headers, "sample_requests/problems/problems-template.xml");
+        cdr.expireSessions();
+
+        assertThat(client.listTemplates(headers)).containsExactly("IDCR Problem List.v1");
+        cdr.expireSessions();
+        CompositionRequest composition = new CompositionRequest("Vital Signs", "{}".getBytes(), "test");
+        assertThat(client.createCompositionAsync(headers, "ehr", "committer", composition).get(5, TimeUnit.SECONDS)).isNotEmpty();
+
+        assertThat(cdr.getRequests(StandInCdr.SESSION)).isEqualTo(3);
+    }
+
+    @Test
+    public void pagesQueryWithBoundParameters() {
+        CompositionRequest composition = new CompositionRequest("Vital Signs", "{}".getBytes(), "test");
+        for (int i = 0; i < 5; i++) {
+            client.createComposition(headers, "ehr", "committer", composition);
+        }
+        AqlQuery query = new AqlQuery("select c/uid/value as uid from EHR e [ehr_id/value=:ehrId] contains COMPOSITION c order by c/uid/value")
+            .parameter("ehrId", "ehr")
+            .pageSize(2);
+
+        List<String> uids = new ArrayList<>();
+        try (AqlResultIterator<Map> rows = client.query(headers, query, Map.class)) {
+            rows.forEachRemaining(row -> uids.add((String) row.get("uid")));
+        }
+
+        assertThat(uids).hasSize(5).doesNotHaveDuplicates();
+        assertThat(cdr.getRequests(StandInCdr.QUERY)).isEqualTo(3);
+        JsonNode last = cdr.getQueries().get(2);
+        assertThat(last.path("aqlParameters").path("ehrId").asText()).isEqualTo("ehr");
+        assertThat(last.path("offset").asLong()).isEqualTo(4);
+        assertThat(last.path("fetch").asInt()).isEqualTo(2);
+    }
+
+    @Test
+    public void injectsLatency() {
+        cdr.setLatency(100, 50);
+
+        long start = System.nanoTime();
+        client.listTemplates(headers);
+
+        assertThat((System.nanoTime() - start) / 1_000_000).isGreaterThanOrEqualTo(100);
+    }
+
+    @Test
+    public void failsNextRequests() {
+        cdr.failNext(StandInCdr.TEMPLATE, 1, 503);
+
+        try {
+            client.listTemplates(headers);
+            fail("expected the injected failure");
+        } catch (HttpServerErrorException e) {
+            assertThat(e.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        assertThat(client.listTemplates(headers)).isEmpty();
+    }
+
+    @Test
+    public void injectsErrorRate() {
+        cdr.setErrorRate(0.5, 500);
+        // the errors would open the breaker of the templates, which is not what is measured here
+        client.getBreaker().setEnabled(false);
+
+        int failed = 0;
+        for (int i = 0; i < 100; i++) {
+            try {
+                client.listTemplates(headers);
+            } catch (HttpStatusCodeException e) {
+                failed++;
+            }
+        }
+
+        assertThat(failed).isBetween(30, 70);
+    }
+}
@@ -0,0 +1,135 @@
+package cloud.c4h.platform.service;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CdrLookupCacheTest {
+
+    private final Map<String, CdrLookupCache.Lookups> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger lookedUp = new AtomicInteger();
+    private IMap<String, CdrLookupCache.Lookups> map;
+    private CdrLookupCache cache;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        HazelcastInstance hazelcastInstance = mock(HazelcastInstance.class);
+        map = mock(IMap.class);
+        when(hazelcastInstance.<String, CdrLookupCache.Lookups>getMap(CdrLookupCache.MAP)).thenReturn(map);
+        when(map.get(anyString())).thenAnswer(invocation -> entries.get(invocation.getArguments()[0]));
+        doAnswer(invocation -> entries.put((String) invocation.getArguments()[0], (CdrLookupCache.Lookups) invocation.getArguments()[1]))
+            .when(map).set(anyString(), any(CdrLookupCache.Lookups.class), anyLong(), any(TimeUnit.class));
+        doAnswer(invocation -> entries.remove(invocation.getArguments()[0])).when(map).delete(anyString());
+        when(map.tryLock(anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+        cache = new CdrLookupCache(hazelcastInstance);
+    }
+
+    @Test
+    public void servesLookupsOfDomainFromCache() {
+        CdrLookupCache.Lookups first = cache.get("domain", this::lookUp);
+
+        assertThat(cache.get("domain", this::lookUp)).isSameAs(first);
+        assertThat(cache.get("other", this::lookUp).getEhrId()).isEqualTo("ehr-2");
+        assertThat(lookedUp.get()).isEqualTo(2);
+        assertThat(cache.getHits()).isEqualTo(1);
+        verify(map).set("domain", first, 3600, TimeUnit.SECONDS);
+        verify(map).unlock("domain");
+    }
+
+    @Test
+    public void evictedDomainIsLookedUpAgain() {
+        cache.get("domain", this::lookUp);
+
+        cache.evict("domain");
+
+        assertThat(cache.get("domain", this::lookUp).getEhrId()).isEqualTo("ehr-2");
+    }
+
+    @Test
+    public void incompleteLookupsAreNotCached() {
+        cache.get("domain", () -> new CdrLookupCache.Lookups("ehr", "n/a", "n/a"));
+
+        assertThat(entries).isEmpty();
+        assertThat(cache.get("domain", this::lookUp).getPartyId()).isEqualTo("party-1");
+    }
+
+    @Test
+    public void failedLookupIsNotCached() {
+        try {
+            cache.get("domain", () -> {
+                throw new ResourceAccessException("Connection refused");
+            });
+            fail("expected the failure of the lookup");
+        } catch (ResourceAccessException e) {
+            assertThat(e.getMessage()).isEqualTo("Connection refused");
+        }
+        verify(map).unlock("domain");
+        assertThat(cache.get("domain", this::lookUp).getEhrId()).isEqualTo("ehr-1");
+    }
+
+    @Test
+    public void concurrentMissesLookUpOnce() throws Exception {
+        CountDownLatch looking = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<CdrLookupCache.Lookups>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.get("domain", () -> {
+                looking.countDown();
+                await(release);
+                return lookUp();
+            })));
+            assertThat(looking.await(5, TimeUnit.SECONDS)).isTrue();
+            for (int i = 0; i < 7; i++) {
+                results.add(executor.submit(() -> cache.get("domain", this::lookUp)));
+            }
+            release.countDown();
+
+            for (Future<CdrLookupCache.Lookups> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS).getEhrId()).isEqualTo("ehr-1");
+            }
+            assertThat(lookedUp.get()).isEqualTo(1);
+            verify(map).set(eq("domain"), any(CdrLookupCache.Lookups.class), anyLong(), any(TimeUnit.class));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private CdrLookupCache.Lookups lookUp() {
+        int n = lookedUp.incrementAndGet();
+        return new CdrLookupCache.Lookups("ehr-" + n, "party-" + n, "composition-" + n);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
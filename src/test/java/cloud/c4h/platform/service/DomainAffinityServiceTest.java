@@ -0,0 +1,124 @@
+package cloud.c4h.platform.service;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IExecutorService;
+import com.hazelcast.core.ILock;
+import com.hazelcast.core.Member;
+import com.hazelcast.core.Partition;
+import com.hazelcast.core.PartitionService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URISyntaxException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DomainAffinityServiceTest {
+
+    private HazelcastInstance hazelcastInstance;
+    private Member owner;
+    private IExecutorService executor;
+    private DomainAffinityService domainAffinityService;
+
+    @Before
+    public void setUp() {
+        hazelcastInstance = mock(HazelcastInstance.class);
+        PartitionService partitionService = mock(PartitionService.class);
+        Partition partition = mock(Partition.class);
+        owner = mock(Member.class);
+        executor = mock(IExecutorService.class);
+        when(hazelcastInstance.getPartitionService()).thenReturn(partitionService);
+        when(partitionService.getPartition("domain")).thenReturn(partition);
+        when(partition.getOwner()).thenReturn(owner);
+        when(hazelcastInstance.getExecutorService(DomainAffinityService.executorName(DomainAffinityService.LIGHT_LANE))).thenReturn(executor);
+        domainAffinityService = new DomainAffinityService(hazelcastInstance);
+    }
+
+    @Test
+    public void runsOwnedWorkLocally() throws Exception {
+        when(owner.localMember()).thenReturn(true);
+
+        assertThat(domainAffinityService.callOnOwner(DomainAffinityService.LIGHT_LANE, "domain", () -> "done")).isEqualTo("done");
+        verify(executor, never()).submitToKeyOwner(any(Callable.class), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void sendsWorkToOwner() throws Exception {
+        when(owner.localMember()).thenReturn(false);
+        Callable<String> task = () -> "local";
+        when(executor.submitToKeyOwner(task, "domain")).thenReturn(CompletableFuture.completedFuture("remote"));
+
+        assertThat(domainAffinityService.callOnOwner(DomainAffinityService.LIGHT_LANE, "domain", task)).isEqualTo("remote");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void rethrowsFailureOfOwner() {
+        when(owner.localMember()).thenReturn(false);
+        CompletableFuture<Object> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new URISyntaxException("domain", "Illegal character"));
+        when(executor.submitToKeyOwner(any(Callable.class), eq("domain"))).thenReturn(failed);
+
+        try {
+            domainAffinityService.callOnOwner(DomainAffinityService.LIGHT_LANE, "domain", () -> null);
+            fail("Expected the failure of the owner");
+        } catch (URISyntaxException e) {
+            assertThat(e.getReason()).isEqualTo("Illegal character");
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void handsBackWorkNotFinishedInTime() throws Exception {
+        when(owner.localMember()).thenReturn(false);
+        domainAffinityService.getLight().setWaitMillis(10);
+        when(executor.submitToKeyOwner(any(Callable.class), eq("domain"))).thenReturn(new CompletableFuture<>());
+
+        assertThatThrownBy(() -> domainAffinityService.callOnOwner(DomainAffinityService.LIGHT_LANE, "domain", () -> null))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("within 10 ms");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void rethrowsRejectionOfFullOwner() {
+        when(owner.localMember()).thenReturn(false);
+        CompletableFuture<Object> rejected = new CompletableFuture<>();
+        rejected.completeExceptionally(new RejectedExecutionException("Queue is full"));
+        when(executor.submitToKeyOwner(any(Callable.class), eq("domain"))).thenReturn(rejected);
+
+        assertThatThrownBy(() -> domainAffinityService.callOnOwner(DomainAffinityService.LIGHT_LANE, "domain", () -> null))
+            .isInstanceOf(RejectedExecutionException.class);
+    }
+
+    @Test
+    public void runsLocallyWhenNotRouting() {
+        when(owner.localMember()).thenReturn(false);
+        domainAffinityService.setRouteToOwner(false);
+
+        assertThat(domainAffinityService.isLocal("domain")).isTrue();
+    }
+
+    @Test
+    public void lockedDomainIsNotTaken() throws Exception {
+        ILock lock = mock(ILock.class);
+        when(hazelcastInstance.getLock("provisioning-domain:domain")).thenReturn(lock);
+        when(lock.tryLock(anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(false);
+
+        assertThat(domainAffinityService.tryLock("domain")).isFalse();
+    }
+}
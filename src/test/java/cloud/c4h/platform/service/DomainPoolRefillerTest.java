@@ -0,0 +1,90 @@
+package cloud.c4h.platform.service;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.ILock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DomainPoolRefillerTest {
+
+    private DomainPoolService domainPoolService;
+    private OperinoProvisioner operinoProvisioner;
+    private ILock refillLock;
+    private DomainPoolRefiller refiller;
+
+    @Before
+    public void setUp() {
+        domainPoolService = mock(DomainPoolService.class);
+        operinoProvisioner = mock(OperinoProvisioner.class);
+        when(domainPoolService.getRefillConcurrency()).thenReturn(2);
+        when(domainPoolService.getTargetSize()).thenReturn(2);
+        HazelcastInstance hazelcastInstance = mock(HazelcastInstance.class);
+        refillLock = mock(ILock.class);
+        when(hazelcastInstance.getLock(DomainPoolRefiller.REFILL_LOCK)).thenReturn(refillLock);
+        when(refillLock.tryLock()).thenReturn(true);
+        refiller = new DomainPoolRefiller(domainPoolService, operinoProvisioner, hazelcastInstance);
+    }
+
+    @After
+    public void tearDown() {
+        refiller.destroy();
+    }
+
+    @Test
+    public void provisionsReservedDomains() throws Exception {
+        when(domainPoolService.findExpired()).thenReturn(Collections.emptyList());
+        when(domainPoolService.reserve()).thenReturn(Arrays.asList("first", "second"));
+        doThrow(new IllegalStateException("Patients missing")).when(operinoProvisioner).provisionPooledDomain("second");
+
+        refiller.refill();
+
+        verify(domainPoolService, timeout(5000)).ready("first");
+        verify(domainPoolService, timeout(5000)).discard("second");
+        verify(domainPoolService, never()).ready("second");
+        verify(refillLock).unlock();
+    }
+
+    @Test
+    public void leavesRefillToNodeHoldingLock() throws Exception {
+        when(domainPoolService.findExpired()).thenReturn(Collections.emptyList());
+        when(refillLock.tryLock()).thenReturn(false);
+
+        refiller.refill();
+
+        verify(domainPoolService, never()).reserve();
+        verify(refillLock, never()).unlock();
+        verify(operinoProvisioner, never()).provisionPooledDomain(anyString());
+    }
+
+    @Test
+    public void discardsExpiredDomains() throws Exception {
+        when(domainPoolService.findExpired()).thenReturn(Collections.singletonList("stuck"));
+        when(domainPoolService.reserve()).thenReturn(Collections.emptyList());
+
+        refiller.refill();
+
+        verify(domainPoolService).discard("stuck");
+        verify(operinoProvisioner, never()).provisionPooledDomain(anyString());
+    }
+
+    @Test
+    public void disabledPoolIsNotRefilled() {
+        when(domainPoolService.getTargetSize()).thenReturn(0);
+
+        refiller.refill();
+
+        verify(domainPoolService, never()).reserve();
+    }
+}
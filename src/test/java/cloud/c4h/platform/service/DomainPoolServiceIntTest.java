@@ -0,0 +1,146 @@
+package cloud.c4h.platform.service;
+
+import cloud.c4h.platform.PlatformApp;
+import cloud.c4h.platform.domain.Operino;
+import cloud.c4h.platform.domain.PooledDomain;
+import cloud.c4h.platform.domain.enumeration.PooledDomainStatus;
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+import cloud.c4h.platform.repository.OperinoRepository;
+import cloud.c4h.platform.repository.PooledDomainRepository;
+import cloud.c4h.platform.repository.UserRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the DomainPoolService.
+ *
+ * @see DomainPoolService
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = PlatformApp.class)
+@Transactional
+public class DomainPoolServiceIntTest {
+
+    @Autowired
+    private DomainPoolService domainPoolService;
+
+    @Autowired
+    private PooledDomainRepository pooledDomainRepository;
+
+    @Autowired
+    private ProvisioningCheckpointService provisioningCheckpointService;
+
+    @Autowired
+    private OperinoRepository operinoRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Before
+    public void setUp() {
+        domainPoolService.setTargetSize(2);
+        domainPoolService.setRefillConcurrency(2);
+    }
+
+    @After
+    public void tearDown() {
+        domainPoolService.setTargetSize(0);
+        domainPoolService.setRefillConcurrency(1);
+    }
+
+    @Test
+    public void claimsReadyDomainOnce() {
+        pooled("provisioning-domain", PooledDomainStatus.PROVISIONING);
+        pooled("ready-domain", PooledDomainStatus.READY);
+
+        Operino first = newOperino();
+        Operino second = newOperino();
+
+        assertThat(domainPoolService.claim(first)).isTrue();
+        assertThat(first.getDomain()).isEqualTo("ready-domain");
+        assertThat(domainPoolService.claim(second)).isFalse();
+        assertThat(pooledDomainRepository.findOneByDomain("ready-domain").isPresent()).isFalse();
+        assertThat(pooledDomainRepository.findOneByDomain("provisioning-domain").isPresent()).isTrue();
+    }
+
+    @Test
+    public void onlyNewStandardOperinosClaim() {
+        pooled("ready-domain", PooledDomainStatus.READY);
+
+        Operino withoutPatients = newOperino();
+        withoutPatients.setProvision(false);
+        Operino synthetic = newOperino();
+        synthetic.setSyntheticPatients(1000);
+
+        assertThat(domainPoolService.claim(withoutPatients)).isFalse();
+        assertThat(domainPoolService.claim(synthetic)).isFalse();
+        assertThat(pooledDomainRepository.countByStatus(PooledDomainStatus.READY)).isEqualTo(1);
+    }
+
+    @Test
+    public void adoptedDomainSkipsPooledSteps() {
+        pooled("ready-domain", PooledDomainStatus.READY);
+        Operino operino = newOperino();
+        domainPoolService.claim(operino);
+        operino = operinoRepository.save(operino);
+
+        domainPoolService.adopt(operino);
+
+        ProvisioningJournal journal = provisioningCheckpointService.open(operino);
+        for (ProvisioningStep step : DomainPoolService.POOLED_STEPS) {
+            assertThat(journal.isDone(step)).isTrue();
+        }
+        assertThat(journal.getReference(ProvisioningStep.DOMAIN, null)).isEqualTo("ready-domain");
+        assertThat(journal.isDone(ProvisioningStep.NOTIFIED)).isFalse();
+    }
+
+    @Test
+    public void reservesDomainsMissingFromPool() {
+        List<String> reserved = domainPoolService.reserve();
+
+        assertThat(reserved).hasSize(2);
+        assertThat(domainPoolService.reserve()).isEmpty();
+
+        domainPoolService.ready(reserved.get(0));
+        domainPoolService.discard(reserved.get(1));
+
+        assertThat(pooledDomainRepository.countByStatus(PooledDomainStatus.READY)).isEqualTo(1);
+        assertThat(domainPoolService.reserve()).hasSize(1);
+    }
+
+    @Test
+    public void findsDomainsProvisioningTooLong() {
+        PooledDomain stuck = pooled("stuck-domain", PooledDomainStatus.PROVISIONING);
+        stuck.setCreatedDate(ZonedDateTime.now().minusDays(1));
+        pooled("new-domain", PooledDomainStatus.PROVISIONING);
+
+        assertThat(domainPoolService.findExpired()).containsExactly("stuck-domain");
+    }
+
+    private PooledDomain pooled(String domain, PooledDomainStatus status) {
+        PooledDomain pooled = new PooledDomain();
+        pooled.setDomain(domain);
+        pooled.setStatus(status);
+        pooled.setReadyDate(status == PooledDomainStatus.READY ? ZonedDateTime.now() : null);
+        return pooledDomainRepository.saveAndFlush(pooled);
+    }
+
+    private Operino newOperino() {
+        Operino operino = new Operino();
+        operino.setName("pooled");
+        operino.setProvision(true);
+        operino.setUser(userRepository.findOneByLogin("user").get());
+        return operino;
+    }
+}
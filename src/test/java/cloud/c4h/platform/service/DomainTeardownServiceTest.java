@@ -0,0 +1,114 @@
+package cloud.c4h.platform.service;
+
+import cloud.c4h.platform.domain.Operino;
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+import cloud.c4h.platform.repository.OperinoRepository;
+import cloud.c4h.platform.repository.PooledDomainRepository;
+import cloud.c4h.platform.repository.ProvisioningCheckpointRepository;
+import cloud.c4h.platform.service.dto.DomainTeardownDTO;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DomainTeardownServiceTest {
+
+    private static final String OPERINO_DOMAIN = "0b1d6f3e-8f4a-4f0e-9a43-6f7c2d2c1a10";
+    private static final String POOLED_DOMAIN = "5e0c7e4b-2a6d-4b1f-8d1c-3f9e1a7b6c21";
+    private static final String ORPHAN_DOMAIN = "9a3f2c1d-7e6b-4a5c-8d9e-0f1a2b3c4d5e";
+
+    private OperinoRepository operinoRepository;
+    private ThinkEhrRestClient thinkEhrRestClient;
+    private RabbitTemplate rabbitTemplate;
+    private DomainTeardownService domainTeardownService;
+
+    @Before
+    public void setUp() throws Exception {
+        operinoRepository = mock(OperinoRepository.class);
+        PooledDomainRepository pooledDomainRepository = mock(PooledDomainRepository.class);
+        ProvisioningCheckpointRepository provisioningCheckpointRepository = mock(ProvisioningCheckpointRepository.class);
+        thinkEhrRestClient = mock(ThinkEhrRestClient.class);
+        rabbitTemplate = mock(RabbitTemplate.class);
+        when(operinoRepository.findAllDomains()).thenReturn(Collections.singletonList(OPERINO_DOMAIN));
+        when(pooledDomainRepository.findAllDomains()).thenReturn(Collections.singletonList(POOLED_DOMAIN));
+        when(provisioningCheckpointRepository.findDomainsOfOperinosWithStep(ProvisioningStep.DOMAIN))
+            .thenReturn(Collections.singletonList(OPERINO_DOMAIN));
+        when(thinkEhrRestClient.listDomains())
+            .thenReturn(new HashSet<>(Arrays.asList(OPERINO_DOMAIN, POOLED_DOMAIN, ORPHAN_DOMAIN, "shared")));
+        domainTeardownService = new DomainTeardownService(operinoRepository, pooledDomainRepository,
+            provisioningCheckpointRepository, thinkEhrRestClient, rabbitTemplate);
+    }
+
+    @Test
+    public void requeuesOperinosPendingDeletionTooLong() {
+        Operino pending = new Operino();
+        pending.setId(42L);
+        pending.setDomain(OPERINO_DOMAIN);
+        pending.setDeletionRequested(ZonedDateTime.now().minusHours(1));
+        when(operinoRepository.findByDeletionRequestedBefore(any(ZonedDateTime.class))).thenReturn(Collections.singletonList(pending));
+
+        domainTeardownService.reconcile();
+
+        DomainTeardownDTO teardown = sent();
+        assertThat(teardown.getOperinoId()).isEqualTo(42L);
+        assertThat(teardown.getDomain()).isEqualTo(OPERINO_DOMAIN);
+    }
+
+    @Test
+    public void onlyReportsOrphanDomainsByDefault() {
+        domainTeardownService.reconcile();
+
+        verify(rabbitTemplate, never()).convertAndSend(anyString(), any(Object.class));
+    }
+
+    @Test
+    public void tearsDownGeneratedOrphanDomainsWhenEnabled() {
+        domainTeardownService.setTruncateOrphanDomains(true);
+
+        domainTeardownService.reconcile();
+
+        DomainTeardownDTO teardown = sent();
+        assertThat(teardown.getOperinoId()).isNull();
+        assertThat(teardown.getDomain()).isEqualTo(ORPHAN_DOMAIN);
+    }
+
+    @Test
+    public void unreachableCdrStillRequeuesPendingDeletions() throws Exception {
+        when(thinkEhrRestClient.listDomains()).thenThrow(new ResourceAccessException("Connection refused"));
+        domainTeardownService.setTruncateOrphanDomains(true);
+
+        domainTeardownService.reconcile();
+
+        verify(operinoRepository).findByDeletionRequestedBefore(any(ZonedDateTime.class));
+        verify(rabbitTemplate, never()).convertAndSend(anyString(), any(Object.class));
+    }
+
+    @Test
+    public void onlyUuidDomainsAreGenerated() {
+        assertThat(DomainTeardownService.isGenerated(ORPHAN_DOMAIN)).isTrue();
+        assertThat(DomainTeardownService.isGenerated("shared")).isFalse();
+        assertThat(DomainTeardownService.isGenerated("1-2-3-4-5")).isFalse();
+    }
+
+    private DomainTeardownDTO sent() {
+        ArgumentCaptor<Object> message = ArgumentCaptor.forClass(Object.class);
+        verify(rabbitTemplate).convertAndSend(eq(OperinoService.TEARDOWN_QUEUE), message.capture());
+        return (DomainTeardownDTO) message.getValue();
+    }
+}
@@ -0,0 +1,47 @@
+package cloud.c4h.platform.service;
+
+import io.github.jhipster.config.JHipsterProperties;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MailServiceTest {
+
+    private JavaMailSender javaMailSender;
+    private MailService mailService;
+
+    @Before
+    public void setUp() {
+        javaMailSender = mock(JavaMailSender.class);
+        when(javaMailSender.createMimeMessage()).thenAnswer(invocation -> new MimeMessage(Session.getInstance(new Properties())));
+        doThrow(new MailSendException("smtp unreachable")).when(javaMailSender).send(any(MimeMessage.class));
+        JHipsterProperties jHipsterProperties = new JHipsterProperties();
+        jHipsterProperties.getMail().setFrom("test@localhost");
+        mailService = new MailService(jHipsterProperties, javaMailSender, null, null);
+    }
+
+    @Test
+    public void sendingNowThrowsWhenTheMailServerFails() {
+        assertThatThrownBy(() -> mailService.sendEmailNow("john.doe@example.com", "subject", "content", false, true))
+            .isInstanceOf(MailSendException.class);
+    }
+
+    @Test
+    public void sendingInTheBackgroundOnlyLogsFailures() {
+        mailService.sendEmail("john.doe@example.com", "subject", "content", false, true);
+
+        verify(javaMailSender).send(any(MimeMessage.class));
+    }
+}
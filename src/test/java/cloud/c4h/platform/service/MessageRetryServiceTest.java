@@ -0,0 +1,165 @@
+package cloud.c4h.platform.service;
+
+import cloud.c4h.platform.config.ApplicationProperties;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.RabbitUtils;
+import org.springframework.amqp.rabbit.core.ChannelCallback;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.RabbitExceptionTranslator;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MessageRetryServiceTest {
+
+    private RabbitTemplate rabbitTemplate;
+    private AmqpAdmin amqpAdmin;
+    private MessageRetryService messageRetryService;
+
+    @Before
+    public void setUp() {
+        rabbitTemplate = mock(RabbitTemplate.class);
+        amqpAdmin = mock(AmqpAdmin.class);
+        ApplicationProperties properties = new ApplicationProperties();
+        ApplicationProperties.Retry retry = properties.getMessaging().getRetry();
+        retry.setMaxAttempts(4);
+        retry.setInitialIntervalMillis(1000);
+        retry.setMultiplier(2.0);
+        retry.setMaxIntervalMillis(3000);
+        retry.setJitter(0.5);
+        messageRetryService = new MessageRetryService(rabbitTemplate, amqpAdmin, properties);
+    }
+
+    @Test
+    public void delayGrowsExponentiallyUpToMaximum() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(messageRetryService.delayMillis(1)).isBetween(1000L, 1500L);
+            assertThat(messageRetryService.delayMillis(2)).isBetween(2000L, 3000L);
+            assertThat(messageRetryService.delayMillis(3)).isBetween(3000L, 4500L);
+            assertThat(messageRetryService.delayMillis(10)).isBetween(3000L, 4500L);
+        }
+    }
+
+    @Test
+    public void retriesOnQueueOfAttempt() {
+        messageRetryService.retry("operinos", "payload", 1, new IOException("Timeout"));
+
+        MessageProperties properties = sent("operinos.retry.2");
+        assertThat(properties.getHeaders().get(MessageRetryService.ATTEMPTS)).isEqualTo(2);
+        assertThat(Long.parseLong(properties.getExpiration())).isBetween(2000L, 3000L);
+    }
+
+    @Test
+    public void deadLettersAfterMaxAttempts() {
+        messageRetryService.retry("notifications", "payload", 3, new IOException("Timeout"));
+
+        MessageProperties properties = sent("notifications.dlq");
+        assertThat(properties.getHeaders().get(MessageRetryService.ATTEMPTS)).isEqualTo(4);
+        assertThat(properties.getHeaders().get(MessageRetryService.ERROR)).isEqualTo("java.io.IOException: Timeout");
+        assertThat(properties.getExpiration()).isNull();
+        verify(rabbitTemplate, never()).convertAndSend(eq("notifications.retry.4"), any(Object.class), any(MessagePostProcessor.class));
+    }
+
+    @Test
+    public void countsDeadLettersOfEveryWorkQueue() {
+        Properties queue = new Properties();
+        queue.put(RabbitAdmin.QUEUE_MESSAGE_COUNT, 7);
+        when(amqpAdmin.getQueueProperties("operinos.dlq")).thenReturn(queue);
+
+        assertThat(messageRetryService.countDeadLetters())
+            .containsEntry("operinos", 7)
+            .containsEntry("operinos.light", 0)
+            .containsEntry("operinos.changes", 0)
+            .containsEntry("operinos.teardown", 0)
+            .containsEntry("notifications", 0);
+    }
+
+    @Test
+    public void replaysDeadLettersAfterConfirmedPublish() throws Exception {
+        Channel channel = replayChannel();
+        when(channel.basicGet("operinos.dlq", false)).thenReturn(deadLetter(1), deadLetter(2), null);
+
+        assertThat(messageRetryService.replay("operinos", 10)).isEqualTo(2);
+
+        ArgumentCaptor<AMQP.BasicProperties> properties = ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+        InOrder inOrder = inOrder(channel);
+        inOrder.verify(channel).confirmSelect();
+        inOrder.verify(channel).basicPublish(eq(""), eq("operinos"), properties.capture(), any(byte[].class));
+        inOrder.verify(channel).waitForConfirmsOrDie(anyLong());
+        inOrder.verify(channel).basicAck(1, false);
+        assertThat(properties.getValue().getHeaders()).containsOnlyKeys("x-custom");
+        assertThat(properties.getValue().getMessageId()).isEqualTo("message-1");
+        verify(channel).basicAck(2, false);
+    }
+
+    @Test
+    public void keepsDeadLetterWhenPublishIsNotConfirmed() throws Exception {
+        Channel channel = replayChannel();
+        when(channel.basicGet("operinos.dlq", false)).thenReturn(deadLetter(1));
+        doThrow(new IOException("nack")).when(channel).waitForConfirmsOrDie(anyLong());
+
+        assertThatThrownBy(() -> messageRetryService.replay("operinos", 10)).isInstanceOf(AmqpException.class);
+
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        assertThat(RabbitUtils.isPhysicalCloseRequired()).isFalse();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Channel replayChannel() {
+        Channel channel = mock(Channel.class);
+        when(rabbitTemplate.execute(any(ChannelCallback.class))).thenAnswer(invocation -> {
+            try {
+                return ((ChannelCallback<?>) invocation.getArguments()[0]).doInRabbit(channel);
+            } catch (Exception e) {
+                throw RabbitExceptionTranslator.convertRabbitAccessException(e);
+            }
+        });
+        return channel;
+    }
+
+    private static GetResponse deadLetter(long deliveryTag) {
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(MessageRetryService.ATTEMPTS, 4);
+        headers.put(MessageRetryService.ERROR, "java.io.IOException: Timeout");
+        headers.put(MessageRetryService.DEAD_LETTERED, 1L);
+        headers.put("x-custom", "kept");
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+            .messageId("message-" + deliveryTag).headers(headers).build();
+        return new GetResponse(new Envelope(deliveryTag, false, "", "operinos.dlq"), properties, new byte[0], 0);
+    }
+
+    private MessageProperties sent(String queue) {
+        ArgumentCaptor<MessagePostProcessor> postProcessor = ArgumentCaptor.forClass(MessagePostProcessor.class);
+        verify(rabbitTemplate).convertAndSend(eq(queue), eq((Object) "payload"), postProcessor.capture());
+        Message message = new Message(new byte[0], new MessageProperties());
+        return postProcessor.getValue().postProcessMessage(message).getMessageProperties();
+    }
+}
@@ -0,0 +1,144 @@
+package cloud.c4h.platform.service;
+
+import cloud.c4h.platform.PlatformApp;
+import cloud.c4h.platform.domain.Operino;
+import cloud.c4h.platform.domain.ProvisioningCheckpoint;
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+import cloud.c4h.platform.repository.OperinoRepository;
+import cloud.c4h.platform.repository.ProvisioningCheckpointRepository;
+import cloud.c4h.platform.repository.UserRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the ProvisioningCheckpointService.
+ * <p>
+ * Not transactional, as checkpoints are committed in transactions of their own.
+ *
+ * @see ProvisioningCheckpointService
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = PlatformApp.class)
+public class ProvisioningCheckpointServiceIntTest {
+
+    @Autowired
+    private ProvisioningCheckpointService provisioningCheckpointService;
+
+    @Autowired
+    private ProvisioningCheckpointRepository provisioningCheckpointRepository;
+
+    @Autowired
+    private OperinoRepository operinoRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private Operino operino;
+
+    @Before
+    public void setUp() {
+        operino = new Operino();
+        operino.setName("checkpoints");
+        operino.setUser(userRepository.findOneByLogin("user").get());
+        operino = operinoRepository.save(operino);
+    }
+
+    @After
+    public void tearDown() {
+        provisioningCheckpointService.clear(operino.getId());
+        operinoRepository.delete(operino.getId());
+    }
+
+    @Test
+    public void resumedJournalContainsRecordedSteps() {
+        ProvisioningJournal journal = provisioningCheckpointService.open(operino);
+        journal.record(ProvisioningStep.DOMAIN, operino.getDomain());
+        journal.record(ProvisioningStep.TEMPLATES, null);
+        journal.record(ProvisioningStep.PARTY, "9999999000", "party-1");
+        journal.record(ProvisioningStep.EHR, "9999999000", "ehr-1");
+        journal.recordCompositions("9999999000", Arrays.asList("uid-1", "uid-2"));
+
+        ProvisioningJournal resumed = provisioningCheckpointService.open(operino);
+
+        assertThat(provisioningCheckpointRepository.findByOperinoId(operino.getId())).hasSize(5);
+        assertThat(resumed.isDone(ProvisioningStep.DOMAIN)).isTrue();
+        assertThat(resumed.isDone(ProvisioningStep.TEMPLATES)).isTrue();
+        assertThat(resumed.isDone(ProvisioningStep.USER)).isFalse();
+        assertThat(resumed.getReference(ProvisioningStep.EHR, "9999999000")).isEqualTo("ehr-1");
+        assertThat(resumed.getCompositionUids("9999999000")).containsExactly("uid-1", "uid-2");
+        assertThat(resumed.isDone(ProvisioningStep.PARTY, "9999999001")).isFalse();
+    }
+
+    @Test
+    public void singleCompositionsAreReplacedByPatientCompositions() {
+        ProvisioningJournal journal = provisioningCheckpointService.open(operino);
+        journal.record(ProvisioningStep.EHR, "9999999000", "ehr-1");
+        journal.recordComposition("9999999000", 0, "uid-1");
+        journal.recordComposition("9999999000", 2, "uid-3");
+
+        ProvisioningJournal resumed = provisioningCheckpointService.open(operino);
+        resumed.prefetch(Arrays.asList("9999999000", "9999999001"));
+
+        assertThat(resumed.getCompositionUid("9999999000", 0)).isEqualTo("uid-1");
+        assertThat(resumed.getCompositionUid("9999999000", 1)).isNull();
+        assertThat(resumed.getCompositionUid("9999999000", 2)).isEqualTo("uid-3");
+
+        resumed.recordCompositions("9999999000", Arrays.asList("uid-1", "uid-2", "uid-3"));
+
+        assertThat(provisioningCheckpointRepository.findByOperinoId(operino.getId()))
+            .extracting(ProvisioningCheckpoint::getStep)
+            .containsOnly(ProvisioningStep.EHR, ProvisioningStep.COMPOSITIONS);
+        assertThat(provisioningCheckpointService.open(operino).getCompositionUids("9999999000"))
+            .containsExactly("uid-1", "uid-2", "uid-3");
+    }
+
+    @Test
+    public void resumedJournalContainsCommittedObservations() {
+        provisioningCheckpointService.open(operino).recordObservations("9999999000", Arrays.asList(1, 3, 4));
+
+        ProvisioningJournal resumed = provisioningCheckpointService.open(operino);
+
+        assertThat(resumed.isObservationCommitted("9999999000", 3)).isTrue();
+        assertThat(resumed.isObservationCommitted("9999999000", 2)).isFalse();
+        assertThat(resumed.isObservationCommitted("9999999001", 1)).isFalse();
+    }
+
+    @Test
+    public void releasedPatientsAreLoadedAgain() {
+        ProvisioningJournal journal = provisioningCheckpointService.open(operino);
+        journal.record(ProvisioningStep.PARTY, "9999999000", "party-1");
+        journal.release("9999999000");
+        provisioningCheckpointService.open(operino).record(ProvisioningStep.EHR, "9999999000", "ehr-1");
+
+        assertThat(journal.getReference(ProvisioningStep.PARTY, "9999999000")).isEqualTo("party-1");
+        assertThat(journal.getReference(ProvisioningStep.EHR, "9999999000")).isEqualTo("ehr-1");
+    }
+
+    @Test
+    public void patientsWithoutCheckpointsAreNotDone() {
+        provisioningCheckpointService.open(operino).record(ProvisioningStep.DOMAIN, operino.getDomain());
+
+        ProvisioningJournal journal = provisioningCheckpointService.open(operino);
+
+        assertThat(journal.isDone(ProvisioningStep.DOMAIN)).isTrue();
+        assertThat(journal.isDone(ProvisioningStep.PARTY, "9999999000")).isFalse();
+    }
+
+    @Test
+    public void clearRemovesCheckpoints() {
+        provisioningCheckpointService.open(operino).record(ProvisioningStep.DOMAIN, operino.getDomain());
+
+        provisioningCheckpointService.clear(operino.getId());
+
+        assertThat(provisioningCheckpointService.open(operino).isDone(ProvisioningStep.DOMAIN)).isFalse();
+    }
+}
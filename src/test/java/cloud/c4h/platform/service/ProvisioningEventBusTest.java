@@ -0,0 +1,107 @@
+package cloud.c4h.platform.service;
+
+import cloud.c4h.platform.service.dto.ProvisioningEventDTO;
+import cloud.c4h.platform.service.dto.ProvisioningEventDTO.Status;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProvisioningEventBusTest {
+
+    private final ProvisioningEventBus eventBus = new ProvisioningEventBus(null, Runnable::run);
+
+    @Test
+    public void deliversEventsOfTheWatchedOperino() {
+        List<ProvisioningEventDTO> received = new ArrayList<>();
+        eventBus.subscribe(1L, received::add);
+
+        eventBus.publish(new ProvisioningEventDTO(1L, "DOMAIN", Status.STARTED));
+        eventBus.publish(new ProvisioningEventDTO(2L, "DOMAIN", Status.STARTED));
+        eventBus.publish(new ProvisioningEventDTO(1L, "DOMAIN", Status.COMPLETED));
+
+        assertThat(received).extracting(ProvisioningEventDTO::getOperinoId).containsOnly(1L);
+        assertThat(received).extracting(ProvisioningEventDTO::getStatus).containsExactly(Status.STARTED, Status.COMPLETED);
+    }
+
+    @Test
+    public void replaysLatestEventToNewSubscribers() {
+        eventBus.publish(new ProvisioningEventDTO(1L, "DOMAIN", Status.STARTED));
+        eventBus.publish(new ProvisioningEventDTO(1L, "DOMAIN", Status.COMPLETED));
+
+        List<ProvisioningEventDTO> received = new ArrayList<>();
+        eventBus.subscribe(1L, received::add);
+
+        assertThat(received).extracting(ProvisioningEventDTO::getStatus).containsExactly(Status.COMPLETED);
+        assertThat(eventBus.getLatestEvent(2L)).isNull();
+    }
+
+    @Test
+    public void stopsDeliveringAfterUnsubscribe() {
+        List<ProvisioningEventDTO> received = new ArrayList<>();
+        Runnable unsubscribe = eventBus.subscribe(1L, received::add);
+
+        eventBus.publish(new ProvisioningEventDTO(1L, null, Status.STARTED));
+        unsubscribe.run();
+        eventBus.publish(new ProvisioningEventDTO(1L, null, Status.FINISHED));
+
+        assertThat(received).hasSize(1);
+    }
+
+    @Test
+    public void keepsDeliveringWhenAListenerFails() {
+        List<ProvisioningEventDTO> received = new ArrayList<>();
+        eventBus.subscribe(1L, event -> {
+            throw new IllegalStateException("client went away");
+        });
+        eventBus.subscribe(1L, received::add);
+
+        eventBus.publish(new ProvisioningEventDTO(1L, null, Status.FINISHED));
+
+        assertThat(received).hasSize(1);
+    }
+
+    @Test
+    public void deliversOffThePublishingThread() throws InterruptedException {
+        ProvisioningEventBus pooledBus = new ProvisioningEventBus(null);
+        AtomicReference<Thread> deliveryThread = new AtomicReference<>();
+        CountDownLatch delivered = new CountDownLatch(1);
+        pooledBus.subscribe(1L, event -> {
+            deliveryThread.set(Thread.currentThread());
+            delivered.countDown();
+        });
+
+        pooledBus.publish(new ProvisioningEventDTO(1L, null, Status.FINISHED));
+
+        assertThat(delivered.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(deliveryThread.get()).isNotSameAs(Thread.currentThread());
+        pooledBus.destroy();
+    }
+
+    @Test
+    public void dropsSubscriberThatFallsBehind() {
+        List<Runnable> stalled = new ArrayList<>();
+        ProvisioningEventBus stalledBus = new ProvisioningEventBus(null, stalled::add);
+        AtomicBoolean dropped = new AtomicBoolean();
+        List<ProvisioningEventDTO> received = new ArrayList<>();
+        stalledBus.subscribe(1L, received::add, () -> dropped.set(true));
+
+        for (int i = 0; i < ProvisioningEventBus.MAX_PENDING_EVENTS; i++) {
+            stalledBus.publish(new ProvisioningEventDTO(1L, "DOMAIN", Status.STARTED));
+        }
+        assertThat(dropped.get()).isFalse();
+        stalledBus.publish(new ProvisioningEventDTO(1L, "DOMAIN", Status.COMPLETED));
+
+        assertThat(dropped.get()).isTrue();
+        stalled.forEach(Runnable::run);
+        stalledBus.publish(new ProvisioningEventDTO(1L, null, Status.FINISHED));
+        assertThat(received).hasSize(ProvisioningEventBus.MAX_PENDING_EVENTS);
+        assertThat(stalled).hasSize(1);
+    }
+}
@@ -0,0 +1,46 @@
+package cloud.c4h.platform.service.dto;
+
+import cloud.c4h.platform.domain.Email;
+import cloud.c4h.platform.domain.Notification;
+import cloud.c4h.platform.domain.Operino;
+import cloud.c4h.platform.domain.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NotificationMessageDTOTest {
+
+    @Test
+    public void carriesOperinoIdInsteadOfEntity() {
+        User user = new User();
+        user.setLogin("user");
+        user.setPassword("$2a$10$secret-password-hash");
+        Operino operino = new Operino();
+        operino.setId(42L);
+        operino.setUser(user);
+        Email email = new Email();
+        email.setRecipients(Collections.singleton("recipient@example.com"));
+        Notification notification = new Notification();
+        notification.setOperino(operino);
+        notification.setRecordComponentId("composition-id");
+        notification.setEmail(email);
+
+        Jackson2JsonMessageConverter converter = new Jackson2JsonMessageConverter();
+        converter.setJsonObjectMapper(new ObjectMapper());
+        Message message = converter.toMessage(new NotificationMessageDTO(notification), new MessageProperties());
+
+        assertThat(new String(message.getBody(), StandardCharsets.UTF_8)).doesNotContain("secret-password-hash");
+        NotificationMessageDTO received = (NotificationMessageDTO) converter.fromMessage(message);
+        assertThat(received.getVersion()).isEqualTo(NotificationMessageDTO.VERSION);
+        assertThat(received.getOperinoId()).isEqualTo(42L);
+        assertThat(received.getRecordComponentId()).isEqualTo("composition-id");
+        assertThat(received.getEmail().getRecipients()).containsExactly("recipient@example.com");
+    }
+}
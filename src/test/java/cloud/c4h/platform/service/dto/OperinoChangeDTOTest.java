@@ -0,0 +1,64 @@
+package cloud.c4h.platform.service.dto;
+
+import cloud.c4h.platform.domain.Operino;
+import cloud.c4h.platform.domain.OperinoComponent;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OperinoChangeDTOTest {
+
+    @Test
+    public void unchangedOperinoHasNoChanges() {
+        Operino stored = operino("name", 1L, 2L);
+
+        OperinoChangeDTO change = OperinoChangeDTO.between(stored, operino("name", 2L, 1L));
+
+        assertThat(change.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void setsChangedPropertiesOnly() {
+        Operino stored = operino("name", 1L, 2L);
+        Operino saved = operino("renamed", 2L, 3L);
+        saved.setProvision(true);
+
+        OperinoChangeDTO change = OperinoChangeDTO.between(stored, saved);
+
+        assertThat(change.isEmpty()).isFalse();
+        assertThat(change.getOperinoId()).isEqualTo(42L);
+        assertThat(change.getDomain()).isEqualTo(stored.getDomain());
+        assertThat(change.getName()).isEqualTo("renamed");
+        assertThat(change.getProvision()).isTrue();
+        assertThat(change.getActive()).isNull();
+        assertThat(change.getSyntheticPatients()).isNull();
+        assertThat(change.getAddedComponents()).containsExactly(3L);
+        assertThat(change.getRemovedComponents()).containsExactly(1L);
+    }
+
+    @Test
+    public void adoptedOperinoRenamesItsDomain() {
+        Operino saved = operino("pooled", 1L);
+
+        OperinoChangeDTO change = OperinoChangeDTO.adopted(saved);
+
+        assertThat(change.isEmpty()).isFalse();
+        assertThat(change.getAdopted()).isTrue();
+        assertThat(change.getDomain()).isEqualTo(saved.getDomain());
+        assertThat(change.getName()).isEqualTo("pooled");
+    }
+
+    private static Operino operino(String name, Long... componentIds) {
+        Operino operino = new Operino();
+        operino.setId(42L);
+        operino.setDomain("domain");
+        operino.setName(name);
+        operino.setActive(true);
+        for (Long id : componentIds) {
+            OperinoComponent component = new OperinoComponent();
+            component.setId(id);
+            operino.addComponent(component);
+        }
+        return operino;
+    }
+}
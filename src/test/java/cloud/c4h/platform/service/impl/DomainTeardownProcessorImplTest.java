@@ -0,0 +1,102 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.service.CdrLookupCache;
+import cloud.c4h.platform.service.DomainAffinityService;
+import cloud.c4h.platform.service.MessageRetryService;
+import cloud.c4h.platform.service.OperinoService;
+import cloud.c4h.platform.service.dto.DomainTeardownDTO;
+import cloud.c4h.platform.service.util.TemplateRegistry;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DomainTeardownProcessorImplTest {
+
+    private OperinoService operinoService;
+    private ThinkEhrRestClient thinkEhrRestClient;
+    private TemplateRegistry templateRegistry;
+    private DomainAffinityService domainAffinityService;
+    private MessageRetryService messageRetryService;
+    private CdrLookupCache cdrLookupCache;
+    private DomainTeardownProcessorImpl processor;
+
+    @Before
+    public void setUp() {
+        operinoService = mock(OperinoService.class);
+        thinkEhrRestClient = mock(ThinkEhrRestClient.class);
+        templateRegistry = mock(TemplateRegistry.class);
+        domainAffinityService = mock(DomainAffinityService.class);
+        messageRetryService = mock(MessageRetryService.class);
+        cdrLookupCache = mock(CdrLookupCache.class);
+        when(domainAffinityService.tryLock("domain")).thenReturn(true);
+        processor = new DomainTeardownProcessorImpl(operinoService, thinkEhrRestClient, templateRegistry,
+            domainAffinityService, messageRetryService, cdrLookupCache);
+    }
+
+    @Test
+    public void truncatesDomainThenPurgesOperino() {
+        processor.receive(new DomainTeardownDTO(42L, "domain"), null);
+
+        verify(thinkEhrRestClient).truncateDomain("domain");
+        verify(templateRegistry).evict("domain");
+        verify(cdrLookupCache).evict("domain");
+        verify(domainAffinityService).unlock("domain");
+        verify(operinoService).purge(42L);
+    }
+
+    @Test
+    public void domainAlreadyGoneIsTornDown() {
+        when(thinkEhrRestClient.truncateDomain("domain")).thenThrow(new HttpClientErrorException(HttpStatus.NOT_FOUND));
+
+        processor.receive(new DomainTeardownDTO(42L, "domain"), 2);
+
+        verify(operinoService).purge(42L);
+        verify(messageRetryService, never()).retry(anyString(), any(), any(Integer.class), any(Exception.class));
+    }
+
+    @Test
+    public void retriesTeardownOfBusyDomain() {
+        when(domainAffinityService.tryLock("domain")).thenReturn(false);
+        DomainTeardownDTO teardown = new DomainTeardownDTO(42L, "domain");
+
+        processor.receive(teardown, 1);
+
+        verify(thinkEhrRestClient, never()).truncateDomain(anyString());
+        verify(operinoService, never()).purge(anyLong());
+        verify(messageRetryService).retry(eq(OperinoService.TEARDOWN_QUEUE), eq(teardown), eq(1), isA(IllegalStateException.class));
+    }
+
+    @Test
+    public void retriesFailedTruncationWithoutPurging() {
+        ResourceAccessException failure = new ResourceAccessException("Connection refused");
+        when(thinkEhrRestClient.truncateDomain("domain")).thenThrow(failure);
+        DomainTeardownDTO teardown = new DomainTeardownDTO(42L, "domain");
+
+        processor.receive(teardown, 1);
+
+        verify(domainAffinityService).unlock("domain");
+        verify(operinoService, never()).purge(anyLong());
+        verify(messageRetryService).retry(eq(OperinoService.TEARDOWN_QUEUE), eq(teardown), eq(1), eq(failure));
+    }
+
+    @Test
+    public void orphanDomainHasNoOperinoToPurge() {
+        processor.receive(new DomainTeardownDTO(null, "domain"), null);
+
+        verify(thinkEhrRestClient).truncateDomain("domain");
+        verify(operinoService, never()).purge(anyLong());
+    }
+}
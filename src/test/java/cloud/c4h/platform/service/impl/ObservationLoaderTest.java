@@ -0,0 +1,152 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.cdr.StandInCdr;
+import cloud.c4h.platform.service.ProvisioningJournal;
+import cloud.c4h.platform.service.dto.ObservationLoadDTO;
+import cloud.c4h.platform.service.util.PatientRequest;
+import cloud.c4h.platform.service.util.SamplePayloadStore;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ObservationLoaderTest {
+
+    private static final String DOMAIN = "observations";
+    private static final String SUBJECT_NAMESPACE = "uk.nhs.nhs_number";
+
+    private StandInCdr cdr;
+    private ThinkEhrRestClient client;
+    private HttpHeaders headers;
+
+    @Before
+    public void setUp() throws Exception {
+        cdr = new StandInCdr();
+        client = new ThinkEhrRestClient();
+        client.setBaseUrl(cdr.getBaseUrl());
+        client.setPayloadStore(new SamplePayloadStore());
+        headers = new HttpHeaders();
+        headers.set("Authorization", ThinkEhrRestClient.createBasicAuthString(DOMAIN, "secret"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.destroy();
+        cdr.close();
+    }
+
+    @Test
+    public void writesRowAsFlatComposition() throws Exception {
+        Map<String, String> row = new LinkedHashMap<>();
+        row.put("subjectId", "9999999000");
+        row.put("ctx/time", "2010-10-10T06:00:00");
+        row.put("nursing_vital_signs_observations/vital_signs:0/body_temperature:0/any_event:0/temperature|magnitude", "36.6");
+        row.put("nursing_vital_signs_observations/vital_signs:0/pulse:0/any_event:0/heart_rate|magnitude", "55");
+        row.put("nursing_vital_signs_observations/vital_signs:0/pulse:0/any_event:0/heart_rate|unit", "/s");
+        row.put("nursing_vital_signs_observations/vital_signs:0/indirect_oximetry:0/any_event:0/spo2|numerator", "");
+
+        String flat = new String(ObservationLoader.toFlatComposition(row), StandardCharsets.UTF_8);
+
+        assertThat(flat).isEqualTo("{\"ctx/time\":\"2010-10-10T06:00:00\","
+            + "\"nursing_vital_signs_observations/vital_signs:0/body_temperature:0/any_event:0/temperature|magnitude\":36.6,"
+            + "\"nursing_vital_signs_observations/vital_signs:0/body_temperature:0/any_event:0/temperature|unit\":\"°C\","
+            + "\"nursing_vital_signs_observations/vital_signs:0/pulse:0/any_event:0/heart_rate|magnitude\":55,"
+            + "\"nursing_vital_signs_observations/vital_signs:0/pulse:0/any_event:0/heart_rate|unit\":\"/s\"}");
+    }
+
+    @Test
+    public void loadsNursingObservationsInBatchesPerSubject() throws Exception {
+        // the fixture patients with observations
+        for (String subjectId : Arrays.asList("9999999000", "9999999001", "9999999002", "9999999003", "9999999004",
+            "9999999005", "9999999006", "9999999007", "9999999008", "9999999009", "9999999010", "9999999014", "9999999025",
+            "9999999026", "9999999032", "9999999059", "9999999070", "9999999078", "9999999093", "9999999094", "9999999095",
+            "9999999096", "9999999098")) {
+            createEhr(subjectId);
+        }
+        ObservationLoader loader = new ObservationLoader(client, new MetricRegistry(), 4, 5, "test");
+
+        ObservationLoadDTO report;
+        try (InputStream csv = ObservationLoaderTest.class.getClassLoader().getResourceAsStream(OperinoProvisionerImpl.OBSERVATIONS_FILE)) {
+            report = loader.load(DOMAIN, headers, SUBJECT_NAMESPACE, ObservationLoader.VITAL_SIGNS_TEMPLATE, csv);
+        }
+        loader.shutdown();
+
+        assertThat(report.getRows()).isEqualTo(477);
+        assertThat(report.getCommitted()).isEqualTo(477);
+        assertThat(report.getSkipped()).isEqualTo(0);
+        assertThat(report.getFailed()).isEqualTo(0);
+        assertThat(report.getSubjects()).isEqualTo(23);
+        assertThat(report.getBatches()).isGreaterThanOrEqualTo(477 / 5).isLessThan(477);
+        assertThat(cdr.getCompositions(DOMAIN)).isEqualTo(477);
+        // one creation and one lookup per subject
+        assertThat(cdr.getRequests(StandInCdr.EHR)).isEqualTo(46);
+    }
+
+    @Test
+    public void skipsSubjectsWithoutEhr() throws Exception {
+        createEhr("9999999000");
+        String csv = "subjectId,ctx/time,nursing_vital_signs_observations/vital_signs:0/pulse:0/any_event:0/heart_rate|magnitude\n"
+            + "9999999000,2010-10-10T06:00:00,55\n"
+            + "1234567890,2010-10-10T06:00:00,60\n"
+            + ",2010-10-10T06:00:00,65\n"
+            + "9999999000,2010-10-10T07:00:00,57\n";
+        ObservationLoader loader = new ObservationLoader(client, new MetricRegistry(), 2, 50, "test");
+
+        ObservationLoadDTO report = loader.load(DOMAIN, headers, SUBJECT_NAMESPACE, ObservationLoader.VITAL_SIGNS_TEMPLATE,
+            new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+        loader.shutdown();
+
+        assertThat(report.getRows()).isEqualTo(4);
+        assertThat(report.getCommitted()).isEqualTo(2);
+        assertThat(report.getSkipped()).isEqualTo(1);
+        assertThat(report.getFailed()).isEqualTo(1);
+        assertThat(report.getBatches()).isEqualTo(1);
+        assertThat(report.getFailures()).containsOnly("Row 3 has no subjectId");
+        assertThat(report.getSkips()).containsOnly("No EHR for subject 1234567890, skipped 1 observations");
+    }
+
+    @Test
+    public void resumedLoadCommitsOnlyRowsNotCommittedBefore() throws Exception {
+        createEhr("9999999000");
+        String csv = "subjectId,ctx/time,nursing_vital_signs_observations/vital_signs:0/pulse:0/any_event:0/heart_rate|magnitude\n"
+            + "9999999000,2010-10-10T06:00:00,55\n"
+            + "1234567890,2010-10-10T06:00:00,60\n"
+            + "9999999000,2010-10-10T07:00:00,57\n";
+        ProvisioningJournal journal = ProvisioningJournal.transientJournal();
+        ObservationLoader loader = new ObservationLoader(client, new MetricRegistry(), 2, 50, "test");
+
+        ObservationLoadDTO first = loader.load(DOMAIN, headers, SUBJECT_NAMESPACE, ObservationLoader.VITAL_SIGNS_TEMPLATE,
+            new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), journal);
+        createEhr("1234567890");
+        ObservationLoadDTO resumed = loader.load(DOMAIN, headers, SUBJECT_NAMESPACE, ObservationLoader.VITAL_SIGNS_TEMPLATE,
+            new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), journal);
+        loader.shutdown();
+
+        assertThat(first.getCommitted()).isEqualTo(2);
+        assertThat(first.getSkipped()).isEqualTo(1);
+        assertThat(first.getFailures()).isEmpty();
+        assertThat(resumed.getCommitted()).isEqualTo(1);
+        assertThat(resumed.getResumed()).isEqualTo(2);
+        assertThat(resumed.getSkipped()).isEqualTo(0);
+        assertThat(cdr.getCompositions(DOMAIN)).isEqualTo(3);
+    }
+
+    private void createEhr(String subjectId) {
+        HttpHeaders jsonHeaders = new HttpHeaders();
+        jsonHeaders.putAll(headers);
+        jsonHeaders.setContentType(MediaType.APPLICATION_JSON);
+        client.createEhr(jsonHeaders, "test", new PatientRequest(null, SUBJECT_NAMESPACE, subjectId, null, "{}".getBytes(StandardCharsets.UTF_8)));
+    }
+}
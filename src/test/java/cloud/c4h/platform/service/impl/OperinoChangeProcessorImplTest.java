@@ -0,0 +1,109 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.domain.Operino;
+import cloud.c4h.platform.domain.User;
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+import cloud.c4h.platform.service.MessageRetryService;
+import cloud.c4h.platform.service.OperinoService;
+import cloud.c4h.platform.service.ProvisioningCheckpointService;
+import cloud.c4h.platform.service.ProvisioningJournal;
+import cloud.c4h.platform.service.dto.OperinoChangeDTO;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.client.ResourceAccessException;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OperinoChangeProcessorImplTest {
+
+    private OperinoService operinoService;
+    private ThinkEhrRestClient thinkEhrRestClient;
+    private MessageRetryService messageRetryService;
+    private ProvisioningJournal journal;
+    private Operino operino;
+    private OperinoChangeProcessorImpl processor;
+
+    @Before
+    public void setUp() {
+        operinoService = mock(OperinoService.class);
+        ProvisioningCheckpointService provisioningCheckpointService = mock(ProvisioningCheckpointService.class);
+        thinkEhrRestClient = mock(ThinkEhrRestClient.class);
+        messageRetryService = mock(MessageRetryService.class);
+        journal = ProvisioningJournal.transientJournal();
+        operino = new Operino();
+        operino.setId(42L);
+        operino.setDomain("domain");
+        operino.setName("renamed again");
+        operino.setProvision(true);
+        when(operinoService.findOneNoAuth(42L)).thenReturn(operino);
+        when(provisioningCheckpointService.open(operino)).thenReturn(journal);
+        processor = new OperinoChangeProcessorImpl(operinoService, provisioningCheckpointService, thinkEhrRestClient, messageRetryService);
+    }
+
+    @Test
+    public void renamesProvisionedDomain() throws Exception {
+        journal.record(ProvisioningStep.DOMAIN, "domain");
+
+        processor.receive(change("renamed", null), null);
+
+        verify(thinkEhrRestClient).updateDomain("domain", "renamed again");
+        verify(operinoService, never()).provision(any(Operino.class));
+    }
+
+    @Test
+    public void leavesDomainNotProvisionedYetToProvisioner() throws Exception {
+        processor.receive(change("renamed", null), null);
+
+        verify(thinkEhrRestClient, never()).updateDomain(anyString(), anyString());
+    }
+
+    @Test
+    public void renamesAdoptedPooledDomainAndUser() throws Exception {
+        User owner = new User();
+        owner.setLogin("owner");
+        operino.setUser(owner);
+        journal.record(ProvisioningStep.DOMAIN, "domain");
+        journal.record(ProvisioningStep.USER, "owner");
+
+        processor.receive(OperinoChangeDTO.adopted(operino), null);
+
+        verify(thinkEhrRestClient).updateDomain("domain", "renamed again");
+        verify(thinkEhrRestClient).updateUser("domain", owner);
+        verify(messageRetryService, never()).retry(anyString(), any(), any(), any(Exception.class));
+    }
+
+    @Test
+    public void provisionsOperinoWhenProvisioningSwitchedOn() {
+        processor.receive(change(null, true), null);
+
+        verify(operinoService).provision(operino);
+    }
+
+    @Test
+    public void retriesChangeCdrFailedToApply() throws Exception {
+        journal.record(ProvisioningStep.DOMAIN, "domain");
+        ResourceAccessException failure = new ResourceAccessException("Connection refused");
+        when(thinkEhrRestClient.updateDomain("domain", "renamed again")).thenThrow(failure);
+        OperinoChangeDTO change = change("renamed", null);
+
+        processor.receive(change, 1);
+
+        verify(messageRetryService).retry(eq(OperinoService.CHANGES_QUEUE), eq(change), eq(1), eq(failure));
+    }
+
+    private static OperinoChangeDTO change(String name, Boolean provision) {
+        OperinoChangeDTO change = new OperinoChangeDTO();
+        change.setOperinoId(42L);
+        change.setDomain("domain");
+        change.setName(name);
+        change.setProvision(provision);
+        return change;
+    }
+}
@@ -0,0 +1,23 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.domain.Operino;
+import cloud.c4h.platform.service.OperinoProvisioner;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OperinoServiceImplTest {
+
+    @Test
+    public void queuesOperinosByProvisioningWork() {
+        Operino withPatients = new Operino();
+        withPatients.setProvision(true);
+        Operino withoutPatients = new Operino();
+        withoutPatients.setProvision(false);
+
+        assertThat(OperinoServiceImpl.queueFor(withPatients, false)).isEqualTo(OperinoProvisioner.HEAVY_QUEUE);
+        assertThat(OperinoServiceImpl.queueFor(withPatients, true)).isEqualTo(OperinoProvisioner.LIGHT_QUEUE);
+        assertThat(OperinoServiceImpl.queueFor(withoutPatients, false)).isEqualTo(OperinoProvisioner.LIGHT_QUEUE);
+        assertThat(OperinoServiceImpl.queueFor(new Operino(), false)).isEqualTo(OperinoProvisioner.LIGHT_QUEUE);
+    }
+}
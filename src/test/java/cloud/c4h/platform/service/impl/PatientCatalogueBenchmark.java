@@ -0,0 +1,151 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.domain.Patient;
+import cloud.c4h.platform.service.util.PatientRequest;
+import cloud.c4h.platform.service.util.SamplePayloadStore;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares loading the fixture patients eagerly, as the provisioner constructor used to, with the lazy
+ * {@link PatientCatalogue}, and encoding the patients for every domain with reusing the pre-encoded bodies.
+ * <p>
+ * The startup benchmarks run once in a fresh JVM each ({@code SingleShotTime}), so they include the class loading
+ * and the first use of Jackson that a real context startup pays. Run {@link #main(String[])} after
+ * {@code mvn test-compile}.
+ */
+public class PatientCatalogueBenchmark {
+
+    private static final String SUBJECT_NAMESPACE = "uk.nhs.nhs_number";
+
+    /**
+     * The client, which the application context creates anyway
+     */
+    @State(Scope.Benchmark)
+    public static class Client {
+        ThinkEhrRestClient client;
+
+        @Setup
+        public void setUp() {
+            client = new ThinkEhrRestClient();
+            client.setPayloadStore(new SamplePayloadStore());
+        }
+    }
+
+    /**
+     * The loaded patients, kept out of the startup benchmarks so those start cold
+     */
+    @State(Scope.Benchmark)
+    public static class Loaded {
+        ThinkEhrRestClient client;
+        List<Patient> patients;
+        PatientCatalogue catalogue;
+
+        @Setup
+        public void setUp(Client client) {
+            this.client = client.client;
+            catalogue = new PatientCatalogue(this.client, SUBJECT_NAMESPACE, OperinoProvisionerImpl.PATIENT_FILES);
+            patients = new ArrayList<>();
+            for (PatientRequest patient : catalogue.getPatients()) {
+                patients.add(patient.getPatient());
+            }
+        }
+    }
+
+    /**
+     * What bean creation used to cost: a fresh {@code CsvMapper} parsing every file
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public List<Patient> startupEager() throws IOException {
+        List<Patient> result = new ArrayList<>();
+        for (String file : OperinoProvisionerImpl.PATIENT_FILES) {
+            CsvMapper mapper = new CsvMapper();
+            MappingIterator<Patient> iterator = mapper.readerFor(Patient.class).with(CsvSchema.emptySchema().withHeader())
+                .readValues(PatientCatalogueBenchmark.class.getClassLoader().getResourceAsStream(file));
+            result.addAll(iterator.readAll());
+        }
+        return result;
+    }
+
+    /**
+     * What bean creation costs now
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public PatientCatalogue startupLazy(Client client) {
+        return new PatientCatalogue(client.client, SUBJECT_NAMESPACE, OperinoProvisionerImpl.PATIENT_FILES);
+    }
+
+    /**
+     * The cost moved to the first provisioning run, including encoding every patient
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public List<PatientRequest> firstUse(Client client) {
+        return new PatientCatalogue(client.client, SUBJECT_NAMESPACE, OperinoProvisionerImpl.PATIENT_FILES).getPatients();
+    }
+
+    /**
+     * Building and serializing the bodies of every patient, as was done for every domain
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public void encodePerDomain(Loaded loaded, Blackhole blackhole) throws IOException {
+        for (Patient patient : loaded.patients) {
+            blackhole.consume(loaded.client.createPatientRequest(patient, SUBJECT_NAMESPACE));
+        }
+    }
+
+    /**
+     * Reusing the pre-encoded bodies of the catalogue
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public void reusePerDomain(Loaded loaded, Blackhole blackhole) {
+        for (PatientRequest patient : loaded.catalogue.getPatients()) {
+            blackhole.consume(patient.getPartyBody());
+            blackhole.consume(patient.getEhrStatusBody());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(PatientCatalogueBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,66 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.service.util.PatientRequest;
+import cloud.c4h.platform.service.util.SamplePayloadStore;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class PatientCatalogueTest {
+
+    private ThinkEhrRestClient client;
+
+    @Before
+    public void setUp() {
+        client = new ThinkEhrRestClient();
+        client.setPayloadStore(new SamplePayloadStore());
+    }
+
+    @Test
+    public void loadsAndEncodesPatientsOnFirstUse() throws JsonProcessingException {
+        ThinkEhrRestClient spy = spy(client);
+        PatientCatalogue catalogue = new PatientCatalogue(spy, "uk.nhs.nhs_number", OperinoProvisionerImpl.PATIENT_FILES);
+        verify(spy, never()).createPatientRequest(any(), anyString());
+
+        List<PatientRequest> patients = catalogue.getPatients();
+
+        assertThat(patients).hasSize(105);
+        assertThat(catalogue.getPatients()).isSameAs(patients);
+        verify(spy, times(105)).createPatientRequest(any(), anyString());
+    }
+
+    @Test
+    public void preEncodesRequestBodies() {
+        PatientCatalogue catalogue = new PatientCatalogue(client, "uk.nhs.nhs_number", OperinoProvisionerImpl.PATIENT_FILES);
+
+        PatientRequest patient = catalogue.getPatients().get(0);
+
+        assertThat(patient.getSubjectId()).isEqualTo("9999999000");
+        assertThat(new String(patient.getPartyBody(), StandardCharsets.UTF_8)).contains("\"lastNames\":\"Cox\"");
+        assertThat(new String(patient.getEhrStatusBody(), StandardCharsets.UTF_8))
+            .contains("\"subjectId\":\"9999999000\"", "\"subjectNamespace\":\"uk.nhs.nhs_number\"", "\"value\":\"1944\"")
+            .doesNotContain("<gender>");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void isImmutable() {
+        new PatientCatalogue(client, "uk.nhs.nhs_number", OperinoProvisionerImpl.PATIENT_FILES).getPatients().clear();
+    }
+
+    @Test
+    public void skipsMissingFiles() {
+        PatientCatalogue catalogue = new PatientCatalogue(client, "uk.nhs.nhs_number", Arrays.asList("data/missing.csv", "data/patients1.csv"));
+
+        assertThat(catalogue.getPatients()).hasSize(20);
+    }
+}
@@ -0,0 +1,188 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.domain.Patient;
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+import cloud.c4h.platform.service.ProvisioningJournal;
+import cloud.c4h.platform.service.util.CompositionRequest;
+import cloud.c4h.platform.service.util.PatientRequest;
+import cloud.c4h.platform.service.util.SamplePayloadStore;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class PatientProvisioningEngineTest {
+
+    private static final int DOMAIN_PARALLELISM = 3;
+    private static final int COMPOSITION_COUNT = PatientProvisioningEngine.sampleCompositions().size();
+    private static final AtomicInteger COMMITTED = new AtomicInteger();
+
+    private ThinkEhrRestClient client;
+    private PatientProvisioningEngine engine;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        COMMITTED.set(0);
+        client = mock(ThinkEhrRestClient.class);
+        when(client.createPatient(any(HttpHeaders.class), any(PatientRequest.class))).thenAnswer(invocation -> {
+            Patient patient = ((PatientRequest) invocation.getArguments()[1]).getPatient();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(5);
+            inFlight.decrementAndGet();
+            if ("failing".equals(patient.getNhsNumber())) {
+                throw new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+            return "party-" + patient.getNhsNumber();
+        });
+        when(client.createEhr(any(HttpHeaders.class), anyString(), any(PatientRequest.class))).thenReturn("ehr");
+        when(client.commitCompositions(any(HttpHeaders.class), eq("ehr"), anyString(), anyListOf(CompositionRequest.class), any(BiConsumer.class)))
+            .thenAnswer(invocation -> commit(invocation.getArguments(), Integer.MAX_VALUE));
+
+        engine = new PatientProvisioningEngine(client, new SamplePayloadStore(), new MetricRegistry(), 8, DOMAIN_PARALLELISM, false, "agent");
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void provisionKeepsFailuresPerPatient() {
+        List<PatientRequest> patients = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            patients.add(createPatient(i == 7 ? "failing" : String.valueOf(i)));
+        }
+
+        ProvisioningReport report = engine.provision("domain", new HttpHeaders(), patients);
+
+        assertThat(report.getSucceeded()).isEqualTo(19);
+        assertThat(report.getFailures()).hasSize(1);
+        assertThat(report.getFailures().get(0).getNhsNumber()).isEqualTo("failing");
+        assertThat(report.getFailures().get(0).getStep()).isEqualTo(PatientProvisioningEngine.STEP_PARTY);
+    }
+
+    @Test
+    public void provisionRespectsDomainParallelism() {
+        List<PatientRequest> patients = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            patients.add(createPatient(String.valueOf(i)));
+        }
+
+        ProvisioningReport report = engine.provision("domain", new HttpHeaders(), patients);
+
+        assertThat(report.getSucceeded()).isEqualTo(30);
+        assertThat(maxInFlight.get()).isLessThanOrEqualTo(DOMAIN_PARALLELISM);
+        assertThat(report.getPatientsPerSecond()).isGreaterThan(0);
+    }
+
+    @Test
+    public void provisionSkipsRecordedSteps() throws Exception {
+        ProvisioningJournal journal = ProvisioningJournal.transientJournal();
+        journal.record(ProvisioningStep.PARTY, "1", "party-1");
+        journal.record(ProvisioningStep.EHR, "1", "ehr");
+        journal.recordCompositions("2", Collections.singletonList("uid-0"));
+        List<PatientRequest> patients = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            patients.add(createPatient(String.valueOf(i)));
+        }
+
+        ProvisioningReport report = engine.provision("domain", new HttpHeaders(), patients, journal);
+
+        assertThat(report.getSucceeded()).isEqualTo(2);
+        assertThat(report.getResumed()).isEqualTo(1);
+        verify(client, times(1)).createPatient(any(HttpHeaders.class), any(PatientRequest.class));
+        verify(client, times(1)).createEhr(any(HttpHeaders.class), anyString(), any(PatientRequest.class));
+        verify(client, times(2)).commitCompositions(any(HttpHeaders.class), eq("ehr"), anyString(), anyListOf(CompositionRequest.class), any(BiConsumer.class));
+        verify(client, never()).findEhrId(any(HttpHeaders.class), anyString(), anyString());
+        assertThat(journal.getCompositionUids("0")).hasSize(COMPOSITION_COUNT).doesNotContainNull();
+        assertThat(journal.getCompositionUids("1")).hasSize(COMPOSITION_COUNT).doesNotContainNull();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void provisionResumesPartiallyCommittedCompositions() throws Exception {
+        when(client.commitCompositions(any(HttpHeaders.class), eq("ehr"), anyString(), anyListOf(CompositionRequest.class), any(BiConsumer.class)))
+            .thenAnswer(invocation -> commit(invocation.getArguments(), 2))
+            .thenAnswer(invocation -> commit(invocation.getArguments(), Integer.MAX_VALUE));
+        ProvisioningJournal journal = ProvisioningJournal.transientJournal();
+        List<PatientRequest> patients = Collections.singletonList(createPatient("1"));
+
+        ProvisioningReport failed = engine.provision("domain", new HttpHeaders(), patients, journal);
+        ProvisioningReport resumed = engine.provision("domain", new HttpHeaders(), patients, journal);
+
+        assertThat(failed.getFailures()).hasSize(1);
+        assertThat(failed.getFailures().get(0).getStep()).isEqualTo(PatientProvisioningEngine.STEP_COMPOSITION);
+        assertThat(journal.isDone(ProvisioningStep.COMPOSITIONS, "1")).isTrue();
+        assertThat(resumed.getSucceeded()).isEqualTo(1);
+        ArgumentCaptor<List> committed = ArgumentCaptor.forClass(List.class);
+        verify(client, times(2)).commitCompositions(any(HttpHeaders.class), eq("ehr"), anyString(), committed.capture(), any(BiConsumer.class));
+        assertThat(committed.getAllValues().get(0)).hasSize(COMPOSITION_COUNT);
+        assertThat(committed.getAllValues().get(1)).hasSize(COMPOSITION_COUNT - 2);
+        List<String> uids = journal.getCompositionUids("1");
+        assertThat(uids).hasSize(COMPOSITION_COUNT).doesNotHaveDuplicates();
+        assertThat(uids.subList(0, 2)).containsExactly("uid-0", "uid-1");
+        assertThat(journal.getCompositionUid("1", 0)).isNull();
+        verify(client, times(1)).createEhr(any(HttpHeaders.class), anyString(), any(PatientRequest.class));
+    }
+
+    @Test
+    public void provisionReusesEhrOfResumedPatient() {
+        when(client.findEhrId(any(HttpHeaders.class), eq("uk.nhs.nhs_number"), eq("1"))).thenReturn("ehr");
+        when(client.updateEhrStatus(any(HttpHeaders.class), eq("ehr"), any(PatientRequest.class))).thenReturn("ehr");
+        ProvisioningJournal journal = ProvisioningJournal.transientJournal();
+        journal.record(ProvisioningStep.PARTY, "1", "party-1");
+
+        ProvisioningReport report = engine.provision("domain", new HttpHeaders(), Collections.singletonList(createPatient("1")), journal);
+
+        assertThat(report.getSucceeded()).isEqualTo(1);
+        assertThat(journal.getReference(ProvisioningStep.EHR, "1")).isEqualTo("ehr");
+        verify(client).updateEhrStatus(any(HttpHeaders.class), eq("ehr"), any(PatientRequest.class));
+        verify(client, never()).createEhr(any(HttpHeaders.class), anyString(), any(PatientRequest.class));
+    }
+
+    /**
+     * Commits the given compositions up to the limit, then fails like a CDR error
+     */
+    @SuppressWarnings("unchecked")
+    private static List<String> commit(Object[] arguments, int limit) {
+        List<CompositionRequest> compositions = (List<CompositionRequest>) arguments[3];
+        BiConsumer<Integer, String> committed = (BiConsumer<Integer, String>) arguments[4];
+        List<String> uids = new ArrayList<>();
+        for (int i = 0; i < compositions.size(); i++) {
+            if (i == limit) {
+                throw new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+            String uid = "uid-" + COMMITTED.getAndIncrement();
+            committed.accept(i, uid);
+            uids.add(uid);
+        }
+        return uids;
+    }
+
+    private PatientRequest createPatient(String nhsNumber) {
+        Patient patient = new Patient();
+        patient.setNhsNumber(nhsNumber);
+        patient.setGender("Male");
+        return new PatientRequest(patient, "uk.nhs.nhs_number", nhsNumber, new byte[0], new byte[0]);
+    }
+}
@@ -0,0 +1,159 @@
+package cloud.c4h.platform.service.impl;
+
+import ch.qos.logback.classic.Level;
+import cloud.c4h.platform.cdr.StandInCdr;
+import cloud.c4h.platform.domain.Patient;
+import cloud.c4h.platform.domain.User;
+import cloud.c4h.platform.service.util.PatientRequest;
+import cloud.c4h.platform.service.util.SamplePayloadStore;
+import cloud.c4h.platform.service.util.TemplateRegistry;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import com.codahale.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provisions operinos end to end - domain, user, templates and patients - against a {@link StandInCdr},
+ * with several operinos in flight at once.
+ * <p>
+ * Run {@link #main(String[])} after {@code mvn test-compile}. JMH reports operinos per second (throughput),
+ * the latency percentiles of provisioning one operino (sample time) and, through the GC profiler, the
+ * allocation rate and bytes allocated per operino. {@code gc.alloc.rate} only covers the benchmark threads;
+ * {@code gc.churn.*} also covers the provisioning workers, the I/O threads and the stand-in, which runs in the
+ * same JVM - so compare runs with each other rather than with production.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(4)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProvisioningBenchmark {
+
+    private static final String PASSWORD = "benchmark";
+    private static final List<String> TEMPLATES = Arrays.asList(
+        "sample_requests/problems/problems-template.xml",
+        "sample_requests/allergies/allergies-template.xml",
+        "sample_requests/lab-results/lab-results-template.xml",
+        "sample_requests/orders/orders-template.xml",
+        "sample_requests/vital-signs/vital-signs-template.xml",
+        "sample_requests/procedures/procedures-template.xml");
+
+    /**
+     * Whether patients are provisioned over the non-blocking transport
+     */
+    @Param({"false", "true"})
+    public boolean async;
+
+    /**
+     * Latency the stand-in adds to every response, in milliseconds
+     */
+    @Param({"0", "10"})
+    public long latencyMillis;
+
+    /**
+     * Whether the stand-in accepts contributions or compositions are posted one by one
+     */
+    @Param({"true", "false"})
+    public boolean contributions;
+
+    /**
+     * Patients provisioned per operino
+     */
+    @Param({"10"})
+    public int patients;
+
+    private final AtomicInteger operinos = new AtomicInteger();
+    private StandInCdr cdr;
+    private ThinkEhrRestClient client;
+    private TemplateRegistry templateRegistry;
+    private PatientProvisioningEngine engine;
+    private List<PatientRequest> patientList;
+    private User user;
+
+    @Setup
+    public void setUp() throws Exception {
+        // the test logging configuration logs every request, which would dominate the measurement
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("cloud.c4h")).setLevel(Level.WARN);
+
+        cdr = new StandInCdr();
+        cdr.setLatency(latencyMillis, latencyMillis / 2);
+        cdr.setContributions(contributions);
+
+        SamplePayloadStore payloadStore = new SamplePayloadStore();
+        client = new ThinkEhrRestClient();
+        client.setCdrUrl(cdr.getCdrUrl());
+        client.setBaseUrl(cdr.getBaseUrl());
+        client.setManagerUrl(cdr.getManagerUrl());
+        client.setAdminName("admin");
+        client.setPassword("admin");
+        client.setPayloadStore(payloadStore);
+        templateRegistry = new TemplateRegistry(client, payloadStore, new ConcurrentHashMap<>());
+        engine = new PatientProvisioningEngine(client, payloadStore, new MetricRegistry(), 16, 4, async, "benchmark");
+
+        user = new User();
+        user.setLogin("benchmark");
+        patientList = new ArrayList<>();
+        for (int i = 0; i < patients; i++) {
+            Patient patient = new Patient();
+            patient.setNhsNumber(String.valueOf(9000000000L + i));
+            patient.setTitle("Mx");
+            patient.setForename("Forename" + i);
+            patient.setSurname("Surname" + i);
+            patient.setGender("Female");
+            patient.setDateOfBirth("01/01/1980");
+            patient.setAddress1("1 Street");
+            patient.setAddress2("Town");
+            patient.setAddress3("County");
+            patientList.add(client.createPatientRequest(patient, "uk.nhs.nhs_number"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        engine.shutdown();
+        templateRegistry.destroy();
+        client.destroy();
+        cdr.close();
+    }
+
+    @Benchmark
+    public ProvisioningReport provisionOperino() throws URISyntaxException {
+        String domain = "benchmark-" + operinos.incrementAndGet();
+        client.createDomain(domain, domain);
+        client.createUser(domain, user, PASSWORD);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", ThinkEhrRestClient.createBasicAuthString(domain, PASSWORD));
+        templateRegistry.ensureTemplates(domain, headers, TEMPLATES);
+
+        ProvisioningReport report = engine.provision(domain, headers, patientList);
+        if (!report.getFailures().isEmpty()) {
+            throw new IllegalStateException("Provisioning failed: " + report.getFailures());
+        }
+        return report;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(ProvisioningBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,82 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.domain.Patient;
+import cloud.c4h.platform.domain.enumeration.ProvisioningStep;
+import cloud.c4h.platform.service.ProvisioningEventBus;
+import cloud.c4h.platform.service.dto.ProvisioningEventDTO;
+import cloud.c4h.platform.service.dto.ProvisioningEventDTO.Status;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProvisioningProgressTest {
+
+    private final List<ProvisioningEventDTO> events = new ArrayList<>();
+    private ProvisioningEventBus eventBus;
+
+    @Before
+    public void setUp() {
+        eventBus = new ProvisioningEventBus(null, Runnable::run);
+        eventBus.subscribe(1L, events::add);
+    }
+
+    @Test
+    public void reportsStepsWithProgress() {
+        ProvisioningProgress progress = new ProvisioningProgress(eventBus, 1L, false);
+
+        progress.started(ProvisioningStep.DOMAIN.name());
+        progress.completed(ProvisioningStep.DOMAIN.name());
+        progress.skipped(ProvisioningStep.USER.name());
+        progress.started(ProvisioningStep.TEMPLATES.name());
+        progress.completed(ProvisioningStep.TEMPLATES.name());
+        progress.skipped(ProvisioningStep.NOTIFIED.name());
+        progress.finished();
+
+        assertThat(events).extracting(ProvisioningEventDTO::getStatus).containsExactly(
+            Status.STARTED, Status.COMPLETED, Status.SKIPPED, Status.STARTED, Status.COMPLETED, Status.SKIPPED, Status.FINISHED);
+        assertThat(events).extracting(ProvisioningEventDTO::getProgress).containsExactly(0, 20, 40, 40, 80, 100, 100);
+        assertThat(events.get(6).getStep()).isNull();
+        assertThat(events.get(6).isTerminal()).isTrue();
+    }
+
+    @Test
+    public void publishesPatientProgressOncePerPercent() {
+        ProvisioningProgress progress = new ProvisioningProgress(eventBus, 1L, true);
+        progress.started(ProvisioningEventDTO.PATIENTS);
+        ProvisioningReport report = new ProvisioningReport("domain");
+
+        for (int i = 0; i < 400; i++) {
+            report.succeeded();
+            progress.patients(report, 400);
+        }
+        report.failed(new Patient(), PatientProvisioningEngine.STEP_EHR, new IllegalStateException("failed"));
+        report.finish();
+        progress.patientsCompleted(report, 400);
+
+        List<ProvisioningEventDTO> patientEvents = events.subList(1, events.size() - 1);
+        assertThat(patientEvents).extracting(ProvisioningEventDTO::getProgress).hasSize(71).startsWith(0, 1).endsWith(70);
+        assertThat(patientEvents).extracting(ProvisioningEventDTO::getStatus).containsOnly(Status.PROGRESS);
+        ProvisioningEventDTO completed = events.get(events.size() - 1);
+        assertThat(completed.getStatus()).isEqualTo(Status.COMPLETED);
+        assertThat(completed.getCompleted()).isEqualTo(400);
+        assertThat(completed.getFailed()).isEqualTo(1);
+        assertThat(completed.getProgress()).isEqualTo(70);
+    }
+
+    @Test
+    public void reportsFailure() {
+        ProvisioningProgress progress = new ProvisioningProgress(eventBus, 1L, true);
+
+        progress.started(ProvisioningStep.DOMAIN.name());
+        progress.failed(new IllegalStateException("CDR unavailable"));
+
+        ProvisioningEventDTO failed = events.get(events.size() - 1);
+        assertThat(failed.getStatus()).isEqualTo(Status.FAILED);
+        assertThat(failed.getMessage()).isEqualTo("CDR unavailable");
+        assertThat(failed.getProgress()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,68 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.service.util.SamplePayloadStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the request bodies built for one provisioned patient (ehr status and all sample compositions)
+ * when read from the class path on every call against the preloaded {@link SamplePayloadStore}.
+ * <p>
+ * Run {@link #main(String[])} after {@code mvn test-compile}; the GC profiler reports the bytes allocated
+ * per patient as {@code gc.alloc.rate.norm}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SamplePayloadBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private SamplePayloadStore payloadStore;
+
+    @Setup
+    public void setUp() {
+        payloadStore = new SamplePayloadStore();
+    }
+
+    @Benchmark
+    public void classPathPerPatient(Blackhole blackhole) throws IOException {
+        InputStream inputStream = SamplePayloadBenchmark.class.getClassLoader().getResourceAsStream("sample_requests/ehrStatusBody.json");
+        Scanner s = new Scanner(inputStream).useDelimiter("\\A");
+        blackhole.consume(s.hasNext() ? s.next() : "");
+        for (PatientProvisioningEngine.SampleComposition composition : PatientProvisioningEngine.sampleCompositions()) {
+            Map data = objectMapper.readValue(SamplePayloadBenchmark.class.getClassLoader().getResourceAsStream(composition.path), Map.class);
+            blackhole.consume(objectMapper.writeValueAsString(data));
+        }
+    }
+
+    @Benchmark
+    public void payloadStorePerPatient(Blackhole blackhole) {
+        blackhole.consume(payloadStore.get("sample_requests/ehrStatusBody.json").asString());
+        for (PatientProvisioningEngine.SampleComposition composition : PatientProvisioningEngine.sampleCompositions()) {
+            blackhole.consume(payloadStore.get(composition.path).asByteBuffer());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(SamplePayloadBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,132 @@
+package cloud.c4h.platform.service.impl;
+
+import cloud.c4h.platform.cdr.StandInCdr;
+import cloud.c4h.platform.service.util.CompositionRequest;
+import cloud.c4h.platform.service.util.PatientRequest;
+import cloud.c4h.platform.service.util.SamplePayloadStore;
+import cloud.c4h.platform.service.util.ThinkEhrRestClient;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class SyntheticPopulationTest {
+
+    private static final String SUBJECT_NAMESPACE = "uk.nhs.nhs_number";
+
+    private SamplePayloadStore payloadStore;
+    private ThinkEhrRestClient client;
+
+    @Before
+    public void setUp() {
+        payloadStore = new SamplePayloadStore();
+        client = new ThinkEhrRestClient();
+        client.setPayloadStore(payloadStore);
+    }
+
+    @Test
+    public void sameSeedGivesSamePopulation() {
+        List<PatientRequest> first = take(new SyntheticPopulation(client, payloadStore, SUBJECT_NAMESPACE, 42, 50), 50);
+        List<PatientRequest> second = take(new SyntheticPopulation(client, payloadStore, SUBJECT_NAMESPACE, 42, 50), 50);
+        List<PatientRequest> other = take(new SyntheticPopulation(client, payloadStore, SUBJECT_NAMESPACE, 43, 50), 50);
+
+        for (int i = 0; i < 50; i++) {
+            assertThat(second.get(i).getSubjectId()).isEqualTo(first.get(i).getSubjectId());
+            assertThat(second.get(i).getPartyBody()).isEqualTo(first.get(i).getPartyBody());
+            assertThat(second.get(i).getCompositions().get(0).getBody()).isEqualTo(first.get(i).getCompositions().get(0).getBody());
+        }
+        assertThat(other.get(0).getSubjectId()).isEqualTo(first.get(0).getSubjectId());
+        assertThat(other.get(0).getPartyBody()).isNotEqualTo(first.get(0).getPartyBody());
+    }
+
+    @Test
+    public void generatesUniqueValidNhsNumbers() {
+        Set<String> nhsNumbers = new HashSet<>();
+        for (PatientRequest patient : new SyntheticPopulation(client, payloadStore, SUBJECT_NAMESPACE, 42, 10000)) {
+            String nhsNumber = patient.getSubjectId();
+            assertThat(nhsNumber).hasSize(10).startsWith("900");
+            assertThat(SyntheticPopulation.nhsCheckDigit(Long.parseLong(nhsNumber.substring(0, 9))))
+                .isEqualTo(nhsNumber.charAt(9) - '0');
+            nhsNumbers.add(nhsNumber);
+        }
+
+        assertThat(nhsNumbers).hasSize(10000);
+        assertThat(SyntheticPopulation.nhsCheckDigit(943476591L)).isEqualTo(9);
+    }
+
+    @Test
+    public void generatesOneFlatCompositionPerTemplate() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        PatientRequest patient = new SyntheticPopulation(client, payloadStore, SUBJECT_NAMESPACE, 42, 1).iterator().next();
+
+        List<String> templateIds = new ArrayList<>();
+        for (CompositionRequest composition : patient.getCompositions()) {
+            templateIds.add(composition.getTemplateId());
+            Map<String, Object> flat = objectMapper.readValue(composition.getBody(), new TypeReference<Map<String, Object>>() {
+            });
+            assertThat(flat).containsKeys("ctx/composer_name", "ctx/time");
+            assertThat((String) flat.get("ctx/time")).endsWith("Z").matches("20[01][0-9]-.*");
+        }
+        assertThat(templateIds).containsExactly("Vital Signs Encounter (Composition)", "IDCR Allergies List.v0",
+            "IDCR - Laboratory Order.v0", "IDCR Procedures List.v0", "IDCR - Laboratory Test Report.v0");
+        assertThat(new String(patient.getEhrStatusBody(), StandardCharsets.UTF_8))
+            .contains("\"subjectId\":\"" + patient.getSubjectId() + "\"");
+    }
+
+    @Test
+    public void generatesPatientsOnlyAsTheyAreTaken() throws Exception {
+        ThinkEhrRestClient spy = spy(client);
+        SyntheticPopulation population = new SyntheticPopulation(spy, payloadStore, SUBJECT_NAMESPACE, 42, 1000000);
+
+        List<PatientRequest> patients = take(population, 3);
+
+        assertThat(patients).hasSize(3);
+        assertThat(population.size()).isEqualTo(1000000);
+        verify(spy, times(3)).createPatientRequest(any(), anyString());
+    }
+
+    @Test
+    public void provisionsGeneratedCompositions() throws Exception {
+        try (StandInCdr cdr = new StandInCdr()) {
+            client.setBaseUrl(cdr.getBaseUrl());
+            PatientProvisioningEngine engine = new PatientProvisioningEngine(client, payloadStore, new MetricRegistry(),
+                4, 4, false, "test");
+            HttpHeaders headers = new HttpHeaders();
+            headers.set("Authorization", ThinkEhrRestClient.createBasicAuthString("synthetic", "secret"));
+
+            ProvisioningReport report = engine.provision("synthetic", headers,
+                new SyntheticPopulation(client, payloadStore, SUBJECT_NAMESPACE, 42, 40));
+
+            assertThat(report.getSucceeded()).isEqualTo(40);
+            assertThat(cdr.getCompositions("synthetic")).isEqualTo(200);
+            engine.shutdown();
+            client.destroy();
+        }
+    }
+
+    private static List<PatientRequest> take(Iterable<PatientRequest> population, int count) {
+        List<PatientRequest> result = new ArrayList<>();
+        Iterator<PatientRequest> iterator = population.iterator();
+        while (result.size() < count && iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+}
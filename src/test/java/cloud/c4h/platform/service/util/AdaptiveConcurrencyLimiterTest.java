@@ -0,0 +1,224 @@
+package cloud.c4h.platform.service.util;
+
+import cloud.c4h.platform.cdr.StandInCdr;
+import cloud.c4h.platform.domain.Patient;
+import cloud.c4h.platform.service.util.AdaptiveConcurrencyLimiter.ConcurrencyLimitExceededException;
+import cloud.c4h.platform.service.util.AdaptiveConcurrencyLimiter.Permit;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private ThinkEhrRestClient.Limiter settings;
+
+    @Before
+    public void setUp() {
+        settings = new ThinkEhrRestClient.Limiter();
+        settings.setInitialLimit(10);
+        settings.setMinLimit(2);
+        settings.setMaxLimit(20);
+        settings.setBackoffRatio(0.5);
+        settings.setMaxQueueSize(2);
+        settings.setMaxQueueWaitMillis(50);
+    }
+
+    @Test
+    public void growsWhileTheLimitIsUsed() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(settings);
+
+        for (int round = 0; round < 5; round++) {
+            List<Permit> permits = new ArrayList<>();
+            for (int i = 0; i < limiter.getLimit(); i++) {
+                permits.add(limiter.acquire());
+            }
+            permits.forEach(permit -> permit.release(false));
+        }
+
+        assertThat(limiter.getLimit()).isGreaterThan(10);
+        assertThat(limiter.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void doesNotGrowWhenIdle() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(settings);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire().release(false);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(10);
+    }
+
+    @Test
+    public void shrinksOncePerRoundOfDrops() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(settings);
+        List<Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            permits.add(limiter.acquire());
+        }
+
+        permits.forEach(permit -> permit.release(true));
+        assertThat(limiter.getLimit()).isEqualTo(5);
+
+        limiter.acquire().release(true);
+        limiter.acquire().release(true);
+        limiter.acquire().release(true);
+        assertThat(limiter.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    public void treatsSlowResponsesAsDrops() throws InterruptedException {
+        settings.setLatencyThresholdMillis(10);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(settings);
+
+        Permit permit = limiter.acquire();
+        Thread.sleep(20);
+        permit.release(false);
+
+        assertThat(limiter.getLimit()).isEqualTo(5);
+    }
+
+    @Test
+    public void ignoresLatencyOfUntimedRequests() throws InterruptedException {
+        settings.setLatencyThresholdMillis(10);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(settings);
+
+        Permit permit = limiter.acquire();
+        Thread.sleep(20);
+        permit.release(false, false);
+        assertThat(limiter.getLimit()).isEqualTo(10);
+
+        limiter.acquire().release(true, false);
+        assertThat(limiter.getLimit()).isEqualTo(5);
+    }
+
+    @Test
+    public void slowAdminRequestsDoNotShrinkTheLimit() throws IOException {
+        settings.setLatencyThresholdMillis(10);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(settings);
+        ConcurrencyLimitingInterceptor interceptor = new ConcurrencyLimitingInterceptor(limiter, "http://cdr/rest/v1/");
+        ClientHttpResponse ok = new MockClientHttpResponse(new byte[0], HttpStatus.OK);
+        ClientHttpRequestExecution slowExecution = (request, body) -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return ok;
+        };
+
+        interceptor.intercept(new MockClientHttpRequest(HttpMethod.POST, URI.create("http://cdr/rest/v1/definition/template/adl1.4")),
+            new byte[0], slowExecution);
+        interceptor.intercept(new MockClientHttpRequest(HttpMethod.DELETE, URI.create("http://cdr/admin/rest/v1/ehr")),
+            new byte[0], slowExecution);
+        assertThat(limiter.getLimit()).isEqualTo(10);
+
+        interceptor.intercept(new MockClientHttpRequest(HttpMethod.POST, URI.create("http://cdr/rest/v1/composition")),
+            new byte[0], slowExecution);
+        assertThat(limiter.getLimit()).isEqualTo(5);
+    }
+
+    @Test
+    public void queuesRequestsOverTheLimit() {
+        settings.setInitialLimit(2);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(settings);
+        Permit first = limiter.acquire();
+        limiter.acquire();
+
+        CompletableFuture<Permit> queued = limiter.acquireAsync();
+        assertThat(queued).isNotDone();
+        assertThat(limiter.getQueued()).isEqualTo(1);
+
+        first.release(false);
+        assertThat(queued).isCompleted();
+        assertThat(limiter.getInFlight()).isEqualTo(2);
+        assertThat(limiter.getQueued()).isEqualTo(0);
+    }
+
+    @Test
+    public void rejectsWhenTheQueueIsFull() {
+        settings.setInitialLimit(2);
+        // the queued requests must not expire while the test runs, or they count as rejections too
+        settings.setMaxQueueWaitMillis(60000);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(settings);
+        limiter.acquire();
+        limiter.acquire();
+        limiter.acquireAsync();
+        limiter.acquireAsync();
+
+        assertThat(limiter.acquireAsync()).isCompletedExceptionally();
+        try {
+            limiter.acquire();
+            fail("Expected the request to be rejected");
+        } catch (ConcurrencyLimitExceededException e) {
+            assertThat(limiter.getRejections()).isEqualTo(2);
+        }
+    }
+
+    @Test(expected = ConcurrencyLimitExceededException.class)
+    public void rejectsAfterWaitingTooLong() {
+        settings.setInitialLimit(2);
+        settings.setMaxQueueSize(10);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(settings);
+        limiter.acquire();
+        limiter.acquire();
+
+        limiter.acquire();
+    }
+
+    @Test
+    public void limitsCdrCallsAndShrinksOnServerErrors() throws Exception {
+        try (StandInCdr cdr = new StandInCdr()) {
+            ThinkEhrRestClient client = new ThinkEhrRestClient();
+            client.setBaseUrl(cdr.getBaseUrl());
+            client.setPayloadStore(new SamplePayloadStore());
+            MetricRegistry metricRegistry = new MetricRegistry();
+            client.setMetricRegistry(metricRegistry);
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            Patient patient = new Patient();
+            patient.setNhsNumber("9000000000");
+            patient.setTitle("Mx");
+            patient.setForename("Forename");
+            patient.setSurname("Surname");
+            patient.setGender("Female");
+            patient.setDateOfBirth("01/01/1980");
+            patient.setAddress1("1 Street");
+            patient.setAddress2("Town");
+            patient.setAddress3("County");
+
+            cdr.failNext(StandInCdr.PARTY, 1, 503);
+            try {
+                client.createPatient(headers, patient);
+                fail("Expected the injected server error");
+            } catch (HttpServerErrorException e) {
+                assertThat(client.concurrencyLimiter().getLimit()).isEqualTo(18);
+            }
+            assertThat(client.createPatientAsync(headers, patient).get()).isNotNull();
+
+            assertThat(client.concurrencyLimiter().getInFlight()).isEqualTo(0);
+            assertThat(metricRegistry.getGauges()).containsKey(MetricRegistry.name(ThinkEhrRestClient.class, "limiter", "limit"));
+            assertThat(metricRegistry.getTimers().get(MetricRegistry.name(ThinkEhrRestClient.class, "limiter", "queueWait")).getCount()).isEqualTo(2);
+            client.destroy();
+        }
+    }
+}
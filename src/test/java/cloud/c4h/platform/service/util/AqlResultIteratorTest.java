@@ -0,0 +1,86 @@
+package cloud.c4h.platform.service.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AqlResultIteratorTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<Long> offsets = new ArrayList<>();
+
+    @Test
+    public void pullsPagesAsRowsAreIterated() {
+        AqlResultIterator<Map> rows = rows(5, 2);
+
+        assertThat(rows.next().get("uid")).isEqualTo("0");
+        assertThat(rows.next().get("uid")).isEqualTo("1");
+        assertThat(offsets).containsExactly(0L);
+        assertThat(rows.next().get("uid")).isEqualTo("2");
+        assertThat(offsets).containsExactly(0L, 2L);
+        rows.next();
+        rows.next();
+
+        assertThat(rows.hasNext()).isFalse();
+        assertThat(offsets).containsExactly(0L, 2L, 4L);
+    }
+
+    @Test
+    public void fullLastPageEndsWithEmptyPage() {
+        List<String> uids = rows(4, 2).stream().map(row -> (String) row.get("uid")).collect(Collectors.toList());
+
+        assertThat(uids).containsExactly("0", "1", "2", "3");
+        assertThat(offsets).containsExactly(0L, 2L, 4L);
+    }
+
+    @Test
+    public void readsRowsAsType() {
+        AqlResultIterator<Row> rows = new AqlResultIterator<>(objectMapper, Row.class, 10, offset -> page(offset, 3, 10));
+
+        assertThat(rows.stream().map(row -> row.uid).collect(Collectors.toList())).containsExactly("0", "1", "2");
+    }
+
+    @Test
+    public void closesResponseOfIterationGivenUp() {
+        AqlResultIterator<Map> rows = rows(5, 2);
+        rows.next();
+
+        rows.close();
+
+        assertThat(rows.hasNext()).isFalse();
+        assertThat(offsets).containsExactly(0L);
+    }
+
+    private AqlResultIterator<Map> rows(int total, int pageSize) {
+        return new AqlResultIterator<>(objectMapper, Map.class, pageSize, offset -> page(offset, total, pageSize));
+    }
+
+    /**
+     * A page of rows with uids counting from 0, after the other fields of the CDR's answer
+     */
+    private MockClientHttpResponse page(long offset, int total, int pageSize) {
+        offsets.add(offset);
+        if (offset >= total) {
+            return null;
+        }
+        StringBuilder json = new StringBuilder("{\"meta\":{\"href\":\"query\",\"links\":[1,2]},\"aql\":\"select\",\"resultSet\":[");
+        for (long row = offset; row < Math.min(total, offset + pageSize); row++) {
+            json.append(row == offset ? "" : ",").append("{\"uid\":\"").append(row).append("\",\"name\":{\"value\":\"Vitals\"}}");
+        }
+        return new MockClientHttpResponse(json.append("]}").toString().getBytes(StandardCharsets.UTF_8), HttpStatus.OK);
+    }
+
+    static class Row {
+        public String uid;
+        public Map<String, Object> name;
+    }
+}
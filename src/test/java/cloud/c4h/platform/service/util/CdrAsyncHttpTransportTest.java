@@ -0,0 +1,76 @@
+package cloud.c4h.platform.service.util;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CdrAsyncHttpTransportTest {
+
+    private HttpServer server;
+    private CdrAsyncHttpTransport transport;
+    private MetricRegistry metricRegistry;
+    private String url;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ok", exchange -> {
+            byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        ThinkEhrRestClient.Http settings = new ThinkEhrRestClient.Http();
+        settings.setIdleEvictionSeconds(1);
+        transport = new CdrAsyncHttpTransport(settings);
+        metricRegistry = new MetricRegistry();
+        transport.registerMetrics(metricRegistry, "cdr");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void connectionsAreReused() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            transport.getRestTemplate().getForEntity(url + "/ok", String.class).get();
+        }
+
+        assertThat(gauge("cdr.leased")).isEqualTo(0);
+        assertThat(gauge("cdr.available")).isEqualTo(1);
+    }
+
+    @Test
+    public void idleConnectionsAreEvicted() throws Exception {
+        transport.getRestTemplate().getForEntity(url + "/ok", String.class).get();
+        assertThat(gauge("cdr.available")).isEqualTo(1);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((Integer) gauge("cdr.available") > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+
+        assertThat(gauge("cdr.available")).isEqualTo(0);
+    }
+
+    private Object gauge(String name) {
+        Gauge gauge = metricRegistry.getGauges().get(name);
+        return gauge.getValue();
+    }
+}
@@ -0,0 +1,160 @@
+package cloud.c4h.platform.service.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class CdrCircuitBreakerTest {
+
+    private static final String BASE_URL = "http://cdr/rest/v1/";
+
+    private final AtomicLong now = new AtomicLong();
+    private ThinkEhrRestClient.Breaker settings;
+
+    @Before
+    public void setUp() {
+        settings = new ThinkEhrRestClient.Breaker();
+        settings.setFailureThreshold(3);
+        settings.setOpenSeconds(30);
+        settings.setBulkheadSize(2);
+        settings.setBulkheadWaitMillis(0);
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CdrCircuitBreaker breaker = new CdrCircuitBreaker(CdrOperation.ADMIN, settings, now::get);
+
+        breaker.acquire().complete(true);
+        breaker.acquire().complete(true);
+        breaker.acquire().complete(false);
+        breaker.acquire().complete(true);
+        breaker.acquire().complete(true);
+        assertThat(breaker.getState()).isEqualTo(CdrCircuitBreaker.State.CLOSED);
+        breaker.acquire().complete(true);
+
+        assertThat(breaker.getState()).isEqualTo(CdrCircuitBreaker.State.OPEN);
+        assertRejected(breaker, "CDR admin operations are unavailable: circuit open after 3 consecutive failures, retrying in 30 s");
+        assertThat(breaker.getRejections()).isEqualTo(1);
+    }
+
+    @Test
+    public void trialRequestClosesOrReopens() {
+        CdrCircuitBreaker breaker = openBreaker();
+
+        now.set(30_000);
+        assertThat(breaker.getState()).isEqualTo(CdrCircuitBreaker.State.HALF_OPEN);
+        CdrCircuitBreaker.Call trial = breaker.acquire();
+        assertRejected(breaker, "CDR query operations are unavailable: circuit half open, waiting for the trial requests");
+        trial.complete(true);
+        assertThat(breaker.getState()).isEqualTo(CdrCircuitBreaker.State.OPEN);
+
+        now.set(60_000);
+        breaker.acquire().complete(false);
+        assertThat(breaker.getState()).isEqualTo(CdrCircuitBreaker.State.CLOSED);
+        breaker.acquire().complete(false);
+    }
+
+    @Test
+    public void abandonedTrialLetsAnotherThrough() {
+        CdrCircuitBreaker breaker = openBreaker();
+        now.set(30_000);
+
+        breaker.acquire().abandon();
+
+        breaker.acquire().complete(false);
+        assertThat(breaker.getState()).isEqualTo(CdrCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void bulkheadBoundsBlockingRequests() {
+        CdrCircuitBreaker breaker = new CdrCircuitBreaker(CdrOperation.COMPOSITION, settings, now::get);
+        CdrCircuitBreaker.Call first = breaker.acquire();
+        breaker.acquire();
+
+        assertRejected(breaker, "CDR composition operations are busy: 2 requests in flight");
+        // requests of the non-blocking transport hold no thread, so they only go through the breaker
+        breaker.acquireAsync().complete(false);
+
+        first.complete(false);
+        assertThat(breaker.getBulkheadAvailable()).isEqualTo(1);
+        breaker.acquire();
+    }
+
+    @Test
+    public void interceptorIsolatesOperationClasses() throws IOException {
+        Map<CdrOperation, CdrCircuitBreaker> breakers = new EnumMap<>(CdrOperation.class);
+        for (CdrOperation operation : CdrOperation.values()) {
+            breakers.put(operation, new CdrCircuitBreaker(operation, settings, now::get));
+        }
+        CdrIsolationInterceptor interceptor = new CdrIsolationInterceptor(Collections.unmodifiableMap(breakers), BASE_URL);
+        ClientHttpRequestExecution down = (request, body) -> {
+            throw new ConnectException("Connection refused");
+        };
+        ClientHttpRequestExecution serverError = (request, body) -> new MockClientHttpResponse(new byte[0], HttpStatus.BAD_GATEWAY);
+        ClientHttpRequestExecution ok = (request, body) -> new MockClientHttpResponse(new byte[0], HttpStatus.OK);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                interceptor.intercept(request("http://cdr/admin/rest/v1/domains"), new byte[0], down);
+                fail("expected the connection to be refused");
+            } catch (ConnectException e) {
+                assertThat(e.getMessage()).isEqualTo("Connection refused");
+            }
+        }
+        interceptor.intercept(request("http://cdr/admin/rest/v1/domains"), new byte[0], serverError).close();
+
+        assertThat(breakers.get(CdrOperation.ADMIN).getState()).isEqualTo(CdrCircuitBreaker.State.OPEN);
+        assertThat(breakers.get(CdrOperation.ADMIN).getBulkheadAvailable()).isEqualTo(2);
+        interceptor.intercept(request(BASE_URL + "composition?ehrId=1"), new byte[0], ok).close();
+        // opening a session is part of the request it is opened for
+        interceptor.intercept(request(BASE_URL + "session?username=domain"), new byte[0], ok).close();
+        assertThat(breakers.get(CdrOperation.COMPOSITION).getState()).isEqualTo(CdrCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void classifiesRequests() {
+        assertThat(CdrOperation.of(URI.create("http://cdr/admin/rest/v1/users/domain"), BASE_URL)).isEqualTo(CdrOperation.ADMIN);
+        assertThat(CdrOperation.of(URI.create(BASE_URL + "template"), BASE_URL)).isEqualTo(CdrOperation.ADMIN);
+        assertThat(CdrOperation.of(URI.create(BASE_URL + "demographics/party/query/?lastNames=*"), BASE_URL)).isEqualTo(CdrOperation.DEMOGRAPHICS);
+        assertThat(CdrOperation.of(URI.create(BASE_URL + "ehr/status/1234"), BASE_URL)).isEqualTo(CdrOperation.EHR);
+        assertThat(CdrOperation.of(URI.create(BASE_URL + "composition/contribution"), BASE_URL)).isEqualTo(CdrOperation.COMPOSITION);
+        assertThat(CdrOperation.of(URI.create(BASE_URL + "query"), BASE_URL)).isEqualTo(CdrOperation.QUERY);
+        assertThat(CdrOperation.of(URI.create(BASE_URL + "session?username=domain"), BASE_URL)).isNull();
+    }
+
+    private CdrCircuitBreaker openBreaker() {
+        CdrCircuitBreaker breaker = new CdrCircuitBreaker(CdrOperation.QUERY, settings, now::get);
+        for (int i = 0; i < settings.getFailureThreshold(); i++) {
+            breaker.acquire().complete(true);
+        }
+        return breaker;
+    }
+
+    private static void assertRejected(CdrCircuitBreaker breaker, String message) {
+        try {
+            breaker.acquire();
+            fail("expected the request to be rejected");
+        } catch (CdrCircuitBreaker.CdrUnavailableException e) {
+            assertThat(e.getMessage()).isEqualTo(message);
+        }
+    }
+
+    private static MockClientHttpRequest request(String url) {
+        return new MockClientHttpRequest(HttpMethod.GET, URI.create(url));
+    }
+}
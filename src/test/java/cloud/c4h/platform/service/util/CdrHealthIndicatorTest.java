@@ -0,0 +1,42 @@
+package cloud.c4h.platform.service.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CdrHealthIndicatorTest {
+
+    private ThinkEhrRestClient thinkEhrRestClient;
+    private CdrHealthIndicator healthIndicator;
+
+    @Before
+    public void setUp() {
+        thinkEhrRestClient = new ThinkEhrRestClient();
+        thinkEhrRestClient.getBreaker().setFailureThreshold(1);
+        healthIndicator = new CdrHealthIndicator(thinkEhrRestClient);
+    }
+
+    @Test
+    public void reportsUpWhileAllBreakersAreClosed() {
+        Health health = healthIndicator.health();
+
+        assertThat(health.getStatus()).isEqualTo(Status.UP);
+        assertThat(health.getDetails()).containsKeys("admin", "ehr", "composition");
+    }
+
+    @Test
+    public void reportsDegradedInsteadOfDownWhileBreakerIsOpen() {
+        thinkEhrRestClient.circuitBreakers().get(CdrOperation.COMPOSITION).acquire().complete(true);
+
+        Health health = healthIndicator.health();
+
+        assertThat(health.getStatus().getCode()).isEqualTo(CdrHealthIndicator.DEGRADED);
+        assertThat(((Map<?, ?>) health.getDetails().get("composition")).get("state")).isEqualTo(CdrCircuitBreaker.State.OPEN);
+        assertThat(((Map<?, ?>) health.getDetails().get("ehr")).get("state")).isEqualTo(CdrCircuitBreaker.State.CLOSED);
+    }
+}
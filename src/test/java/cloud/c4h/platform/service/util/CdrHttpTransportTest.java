@@ -0,0 +1,78 @@
+package cloud.c4h.platform.service.util;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CdrHttpTransportTest {
+
+    private HttpServer server;
+    private CdrHttpTransport transport;
+    private MetricRegistry metricRegistry;
+    private String url;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ok", exchange -> {
+            byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        ThinkEhrRestClient.Http settings = new ThinkEhrRestClient.Http();
+        settings.setReadTimeout(200);
+        transport = new CdrHttpTransport(settings);
+        metricRegistry = new MetricRegistry();
+        transport.registerMetrics(metricRegistry, "cdr");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void connectionsAreReused() {
+        for (int i = 0; i < 5; i++) {
+            transport.getRestTemplate().getForObject(url + "/ok", String.class);
+        }
+
+        assertThat(gauge("cdr.leased")).isEqualTo(0);
+        assertThat(gauge("cdr.available")).isEqualTo(1);
+    }
+
+    @Test(expected = ResourceAccessException.class)
+    public void slowResponsesTimeOut() {
+        transport.getRestTemplate().getForObject(url + "/slow", String.class);
+    }
+
+    private Object gauge(String name) {
+        Gauge gauge = metricRegistry.getGauges().get(name);
+        return gauge.getValue();
+    }
+}
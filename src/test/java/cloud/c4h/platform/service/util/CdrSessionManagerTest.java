@@ -0,0 +1,123 @@
+package cloud.c4h.platform.service.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class CdrSessionManagerTest {
+
+    private static final String DOMAIN = "Basic ZG9tYWluOnNlY3JldA==";
+    private static final String ADMIN = "Basic YWRtaW46YWRtaW4=";
+
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger opened = new AtomicInteger();
+    private ThinkEhrRestClient.Session settings;
+
+    @Before
+    public void setUp() {
+        settings = new ThinkEhrRestClient.Session();
+        settings.setTtlSeconds(60);
+        settings.setRefreshMarginSeconds(10);
+    }
+
+    @Test
+    public void reusesSessionOfIdentity() {
+        CdrSessionManager sessions = new CdrSessionManager(this::open, settings, now::get);
+
+        String token = sessions.token(DOMAIN);
+
+        assertThat(sessions.token(DOMAIN)).isEqualTo(token);
+        assertThat(sessions.token(ADMIN)).isNotEqualTo(token);
+        assertThat(sessions.getOpened()).isEqualTo(2);
+    }
+
+    @Test
+    public void refreshesSessionBeforeItExpires() {
+        CdrSessionManager sessions = new CdrSessionManager(this::open, settings, now::get);
+        String token = sessions.token(DOMAIN);
+
+        now.set(49_000);
+        assertThat(sessions.token(DOMAIN)).isEqualTo(token);
+        now.set(50_000);
+        assertThat(sessions.token(DOMAIN)).isNotEqualTo(token);
+    }
+
+    @Test
+    public void invalidatedSessionIsReplaced() {
+        CdrSessionManager sessions = new CdrSessionManager(this::open, settings, now::get);
+        String token = sessions.token(DOMAIN);
+
+        sessions.invalidate(DOMAIN, token);
+        String replaced = sessions.token(DOMAIN);
+        // a late rejection of the old session leaves the new one alone
+        sessions.invalidate(DOMAIN, token);
+
+        assertThat(replaced).isNotEqualTo(token);
+        assertThat(sessions.token(DOMAIN)).isEqualTo(replaced);
+    }
+
+    @Test
+    public void failedOpenIsNotCached() {
+        AtomicInteger calls = new AtomicInteger();
+        CdrSessionManager sessions = new CdrSessionManager(authorization -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new ResourceAccessException("Connection refused");
+            }
+            return "token";
+        }, settings, now::get);
+
+        try {
+            sessions.token(DOMAIN);
+            fail("expected the failure to open a session");
+        } catch (ResourceAccessException e) {
+            assertThat(e.getMessage()).isEqualTo("Connection refused");
+        }
+        assertThat(sessions.token(DOMAIN)).isEqualTo("token");
+    }
+
+    @Test
+    public void concurrentRefreshesOpenOneSession() throws Exception {
+        CountDownLatch opening = new CountDownLatch(1);
+        CdrSessionManager sessions = new CdrSessionManager(authorization -> {
+            try {
+                opening.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return open(authorization);
+        }, settings, now::get);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> tokens = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                tokens.add(executor.submit(() -> sessions.token(DOMAIN)));
+            }
+            assertThat(sessions.tokenAsync(DOMAIN, executor).isDone()).isFalse();
+            opening.countDown();
+
+            for (Future<String> token : tokens) {
+                assertThat(token.get(5, TimeUnit.SECONDS)).isEqualTo("session-1");
+            }
+            assertThat(opened.get()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private String open(String authorization) {
+        return "session-" + opened.incrementAndGet();
+    }
+}
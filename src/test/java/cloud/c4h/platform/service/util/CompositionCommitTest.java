@@ -0,0 +1,184 @@
+package cloud.c4h.platform.service.util;
+
+import cloud.c4h.platform.cdr.StandInCdr;
+import cloud.c4h.platform.domain.Patient;
+import cloud.c4h.platform.service.impl.PatientProvisioningEngine;
+import cloud.c4h.platform.service.impl.ProvisioningReport;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Counts the CDR round trips needed to provision patients against a {@link StandInCdr}, over the blocking
+ * and the non-blocking transport.
+ */
+public class CompositionCommitTest {
+
+    private static final int PATIENTS = 5;
+    private static final int COMPOSITIONS = 37;
+
+    private StandInCdr cdr;
+    private ThinkEhrRestClient client;
+    private SamplePayloadStore payloadStore;
+    private PatientProvisioningEngine engine;
+
+    @Before
+    public void setUp() throws Exception {
+        cdr = new StandInCdr();
+        client = new ThinkEhrRestClient();
+        client.setBaseUrl(cdr.getBaseUrl());
+        payloadStore = new SamplePayloadStore();
+        client.setPayloadStore(payloadStore);
+        engine = createEngine(false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (engine != null) {
+            engine.shutdown();
+        }
+        client.destroy();
+        cdr.close();
+    }
+
+    @Test
+    public void commitsCompositionsAsOneContribution() throws Exception {
+        ProvisioningReport report = engine.provision("domain", new HttpHeaders(), createPatients());
+
+        assertThat(report.getFailures()).isEmpty();
+        assertThat(report.getSucceeded()).isEqualTo(PATIENTS);
+        assertThat(cdr.getRequests(StandInCdr.CONTRIBUTION)).isEqualTo(PATIENTS);
+        assertThat(cdr.getRequests(StandInCdr.COMPOSITION)).isEqualTo(0);
+        // party, ehr, ehr status and one contribution
+        assertThat(cdr.getRoundTrips()).isEqualTo(PATIENTS * 4);
+    }
+
+    @Test
+    public void fallsBackToIndividualCompositions() throws Exception {
+        cdr.setContributions(false);
+
+        ProvisioningReport report = engine.provision("domain", new HttpHeaders(), createPatients());
+
+        assertThat(report.getFailures()).isEmpty();
+        assertThat(report.getSucceeded()).isEqualTo(PATIENTS);
+        assertThat(cdr.getRequests(StandInCdr.COMPOSITION)).isEqualTo(PATIENTS * COMPOSITIONS);
+        // the contribution endpoint is only probed until the first rejection
+        assertThat(cdr.getRequests(StandInCdr.CONTRIBUTION)).isBetween(1, 2);
+        assertThat(cdr.getRoundTrips() - cdr.getRequests(StandInCdr.CONTRIBUTION)).isEqualTo(PATIENTS * (3 + COMPOSITIONS));
+    }
+
+    @Test
+    public void asyncCommitsCompositionsAsOneContribution() throws Exception {
+        engine.shutdown();
+        engine = createEngine(true);
+
+        ProvisioningReport report = engine.provision("domain", new HttpHeaders(), createPatients());
+
+        assertThat(report.getFailures()).isEmpty();
+        assertThat(report.getSucceeded()).isEqualTo(PATIENTS);
+        assertThat(cdr.getRequests(StandInCdr.CONTRIBUTION)).isEqualTo(PATIENTS);
+        assertThat(cdr.getRoundTrips()).isEqualTo(PATIENTS * 4);
+    }
+
+    @Test
+    public void asyncFansOutIndividualCompositions() throws Exception {
+        cdr.setContributions(false);
+        engine.shutdown();
+        engine = createEngine(true);
+
+        ProvisioningReport report = engine.provision("domain", new HttpHeaders(), createPatients());
+
+        assertThat(report.getFailures()).isEmpty();
+        assertThat(report.getSucceeded()).isEqualTo(PATIENTS);
+        assertThat(cdr.getRequests(StandInCdr.COMPOSITION)).isEqualTo(PATIENTS * COMPOSITIONS);
+        assertThat(cdr.getRoundTrips() - cdr.getRequests(StandInCdr.CONTRIBUTION)).isEqualTo(PATIENTS * (3 + COMPOSITIONS));
+    }
+
+    @Test
+    public void asyncReportsFailedStep() throws Exception {
+        cdr.setContributions(false);
+        cdr.close();
+        engine.shutdown();
+        engine = createEngine(true);
+
+        ProvisioningReport report = engine.provision("domain", new HttpHeaders(), createPatients());
+
+        assertThat(report.getSucceeded()).isEqualTo(0);
+        assertThat(report.getFailures()).hasSize(PATIENTS);
+        assertThat(report.getFailures().get(0).getStep()).isEqualTo("party");
+    }
+
+    @Test
+    public void provisionsAtFullSpeedThroughBulkheads() throws Exception {
+        cdr.setContributions(false);
+        cdr.setLatency(5, 5);
+        client.getBreaker().setBulkheadWaitMillis(0);
+        engine.shutdown();
+        engine = new PatientProvisioningEngine(client, payloadStore, new MetricRegistry(), 16, 16, false, "agent");
+        client.reserveBulkheads(16);
+
+        ProvisioningReport report = engine.provision("domain", new HttpHeaders(), createPatients(32));
+
+        assertThat(report.getFailures()).isEmpty();
+        assertThat(report.getSucceeded()).isEqualTo(32);
+        for (CdrCircuitBreaker circuitBreaker : client.circuitBreakers().values()) {
+            assertThat(circuitBreaker.getRejections()).isEqualTo(0);
+            assertThat(circuitBreaker.getBulkheadAvailable()).isEqualTo(circuitBreaker.getBulkheadSize());
+        }
+        assertThat(client.circuitBreakers().get(CdrOperation.COMPOSITION).getBulkheadSize())
+            .isEqualTo(16 * client.getBatch().getPipelineDepth());
+    }
+
+    @Test
+    public void returnsUidsInCommitOrder() throws Exception {
+        cdr.setContributions(false);
+        List<CompositionRequest> compositions = new ArrayList<>();
+        for (int i = 1; i < 13; i++) {
+            String path = "sample_requests/orders/IDCR_Lab_Order_FLAT_" + i + ".json";
+            compositions.add(new CompositionRequest("IDCR - Laboratory Order.v0", payloadStore.get(path), path));
+        }
+
+        List<String> uids = client.commitCompositions(new HttpHeaders(), "ehr", "agent", compositions);
+
+        List<String> expected = new ArrayList<>();
+        for (CompositionRequest composition : compositions) {
+            expected.add(StandInCdr.compositionUid("ehr", composition.getBody()));
+        }
+        assertThat(expected).doesNotHaveDuplicates();
+        assertThat(uids).containsExactlyElementsOf(expected);
+    }
+
+    private PatientProvisioningEngine createEngine(boolean async) {
+        return new PatientProvisioningEngine(client, payloadStore, new MetricRegistry(), 4, 2, async, "agent");
+    }
+
+    private List<PatientRequest> createPatients() throws JsonProcessingException {
+        return createPatients(PATIENTS);
+    }
+
+    private List<PatientRequest> createPatients(int count) throws JsonProcessingException {
+        List<PatientRequest> patients = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Patient patient = new Patient();
+            patient.setNhsNumber(String.format("99999990%02d", i));
+            patient.setForename("Forename" + i);
+            patient.setSurname("Surname" + i);
+            patient.setTitle("Mr");
+            patient.setGender("Male");
+            patient.setDateOfBirth("01/01/1970");
+            patient.setAddress1("1 Street");
+            patient.setAddress2("Town");
+            patient.setAddress3("County");
+            patients.add(client.createPatientRequest(patient, "uk.nhs.nhs_number"));
+        }
+        return patients;
+    }
+}
@@ -0,0 +1,59 @@
+package cloud.c4h.platform.service.util;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SamplePayloadStoreTest {
+
+    private final SamplePayloadStore store = new SamplePayloadStore();
+
+    @Test
+    public void loadsCompositionsAndTemplates() {
+        assertThat(store.getPaths())
+            .contains("sample_requests/ehrStatusBody.json")
+            .contains("sample_requests/orders/IDCR_Lab_Order_FLAT_12.json")
+            .contains("sample_requests/problems/1_1_IDCR ProblemList.v1.json")
+            .contains("sample_requests/vital-signs/vital-signs-template.xml");
+    }
+
+    @Test
+    public void jsonPayloadsAreCompacted() {
+        String body = store.get("sample_requests/ehrStatusBody.json").asString();
+
+        assertThat(body).startsWith("{\"subjectId\":\"<subjectId>\"").doesNotContain("\n");
+    }
+
+    @Test
+    public void hashesContent() throws IOException {
+        SamplePayloadStore.Payload payload = store.get("sample_requests/orders/orders-template.xml");
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        payload.writeTo(content);
+
+        assertThat(content.size()).isEqualTo(payload.size());
+        assertThat(payload.getHash()).isEqualTo(DigestUtils.sha256Hex(content.toByteArray()));
+    }
+
+    @Test
+    public void contentCannotBeModifiedThroughItsView() {
+        SamplePayloadStore.Payload payload = store.get("sample_requests/orders/orders-template.xml");
+        String hash = payload.getHash();
+        ByteBuffer view = payload.asByteBuffer();
+
+        assertThatThrownBy(() -> view.put(0, (byte) 0)).isInstanceOf(ReadOnlyBufferException.class);
+        assertThat(view.hasArray()).isFalse();
+        assertThat(DigestUtils.sha256Hex(payload.asString())).isEqualTo(hash);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownPaths() {
+        store.get("sample_requests/unknown.json");
+    }
+}
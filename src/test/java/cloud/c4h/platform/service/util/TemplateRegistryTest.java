@@ -0,0 +1,140 @@
+package cloud.c4h.platform.service.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class TemplateRegistryTest {
+
+    private static final String PROBLEMS = "sample_requests/problems/problems-template.xml";
+    private static final String ORDERS = "sample_requests/orders/orders-template.xml";
+    private static final String VITAL_SIGNS = "sample_requests/vital-signs/vital-signs-template.xml";
+
+    private ThinkEhrRestClient client;
+    private ConcurrentMap<String, Set<String>> domainTemplates;
+    private TemplateRegistry registry;
+
+    @Before
+    public void setUp() {
+        client = mock(ThinkEhrRestClient.class);
+        domainTemplates = new ConcurrentHashMap<>();
+        registry = new TemplateRegistry(client, new SamplePayloadStore(), domainTemplates);
+    }
+
+    @After
+    public void tearDown() {
+        registry.destroy();
+    }
+
+    @Test
+    public void readsTemplateIds() {
+        assertThat(registry.getTemplate(PROBLEMS).getTemplateId()).isEqualTo("IDCR Problem List.v1");
+        assertThat(registry.getTemplate(VITAL_SIGNS).getTemplateId()).isEqualTo("Vital Signs Encounter (Composition)");
+    }
+
+    @Test
+    public void uploadsOnlyMissingTemplates() {
+        when(client.listTemplates(any(HttpHeaders.class))).thenReturn(new HashSet<>(Collections.singletonList("IDCR Problem List.v1")));
+        List<String> templates = Arrays.asList(PROBLEMS, ORDERS, VITAL_SIGNS);
+
+        assertThat(registry.ensureTemplates("domain", new HttpHeaders(), templates)).isEqualTo(2);
+        assertThat(registry.ensureTemplates("domain", new HttpHeaders(), templates)).isEqualTo(0);
+
+        verify(client, times(1)).listTemplates(any(HttpHeaders.class));
+        verify(client, never()).uploadTemplate(any(HttpHeaders.class), eq(PROBLEMS));
+        verify(client, times(1)).uploadTemplate(any(HttpHeaders.class), eq(ORDERS));
+        verify(client, times(1)).uploadTemplate(any(HttpHeaders.class), eq(VITAL_SIGNS));
+    }
+
+    @Test
+    public void listsTemplatesAgainAfterEviction() {
+        when(client.listTemplates(any(HttpHeaders.class))).thenReturn(new HashSet<>());
+
+        registry.ensureTemplates("domain", new HttpHeaders(), Collections.singletonList(PROBLEMS));
+        registry.evict("domain");
+        registry.ensureTemplates("domain", new HttpHeaders(), Collections.singletonList(PROBLEMS));
+
+        verify(client, times(2)).listTemplates(any(HttpHeaders.class));
+        verify(client, times(2)).uploadTemplate(any(HttpHeaders.class), eq(PROBLEMS));
+    }
+
+    @Test
+    public void evictionIsSeenByOtherNodes() {
+        when(client.listTemplates(any(HttpHeaders.class))).thenReturn(new HashSet<>());
+        TemplateRegistry otherNode = new TemplateRegistry(client, new SamplePayloadStore(), domainTemplates);
+
+        registry.ensureTemplates("domain", new HttpHeaders(), Collections.singletonList(PROBLEMS));
+        assertThat(otherNode.ensureTemplates("domain", new HttpHeaders(), Collections.singletonList(PROBLEMS))).isEqualTo(0);
+        otherNode.evict("domain");
+        registry.ensureTemplates("domain", new HttpHeaders(), Collections.singletonList(PROBLEMS));
+        otherNode.destroy();
+
+        verify(client, times(2)).listTemplates(any(HttpHeaders.class));
+    }
+
+    @Test
+    public void concurrentMissesListTemplatesOnce() throws Exception {
+        CountDownLatch listed = new CountDownLatch(1);
+        when(client.listTemplates(any(HttpHeaders.class))).thenAnswer(invocation -> {
+            listed.await(5, TimeUnit.SECONDS);
+            return new HashSet<>(Collections.singletonList("IDCR Problem List.v1"));
+        });
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            results.add(callers.submit(() -> registry.ensureTemplates("domain", new HttpHeaders(), Collections.singletonList(PROBLEMS))));
+        }
+        Thread.sleep(100);
+        listed.countDown();
+
+        for (Future<Integer> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo(0);
+        }
+        callers.shutdown();
+        verify(client, times(1)).listTemplates(any(HttpHeaders.class));
+    }
+
+    @Test
+    public void keepsUploadedTemplatesWhenAnotherUploadFails() {
+        when(client.listTemplates(any(HttpHeaders.class))).thenReturn(new HashSet<>());
+        doThrow(new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR)).when(client).uploadTemplate(any(HttpHeaders.class), eq(ORDERS));
+
+        try {
+            registry.ensureTemplates("domain", new HttpHeaders(), Arrays.asList(PROBLEMS, ORDERS));
+        } catch (HttpServerErrorException e) {
+            // expected
+        }
+
+        assertThat(domainTemplates.get("domain")).containsOnly("IDCR Problem List.v1");
+    }
+
+    @Test(expected = HttpServerErrorException.class)
+    public void propagatesUploadErrors() {
+        when(client.listTemplates(any(HttpHeaders.class))).thenReturn(new HashSet<>());
+        doThrow(new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR)).when(client).uploadTemplate(any(HttpHeaders.class), eq(ORDERS));
+
+        registry.ensureTemplates("domain", new HttpHeaders(), Arrays.asList(PROBLEMS, ORDERS));
+    }
+}
@@ -0,0 +1,207 @@
+package cloud.c4h.platform.service.util.cdr;
+
+import cloud.c4h.platform.domain.Patient;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares how the CDR client used to read and write json - responses read into a {@code Map} and cast, query
+ * responses read into a String and parsed again by {@code org.json}, request bodies built as maps or strings - with
+ * the typed models read and written by the shared {@link CdrJson} mapper.
+ * <p>
+ * The bodies are held in memory, so only the mapper is measured, not the buffering of the HTTP transport. Run {@link #main(String[])} after
+ * {@code mvn test-compile}.
+ */
+public class CdrJsonBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Bodies {
+        final ObjectMapper legacyMapper = new ObjectMapper();
+        byte[] templates;
+        byte[] composition;
+        byte[] parties;
+        Patient patient;
+
+        @Setup
+        public void setUp() throws IOException {
+            List<Map<String, Object>> templateList = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                Map<String, Object> template = new LinkedHashMap<>();
+                template.put("templateId", "Vital Signs Encounter " + i);
+                template.put("version", "1.0." + i);
+                template.put("createdOn", "2017-03-01T10:00:00.000Z");
+                templateList.add(template);
+            }
+            templates = legacyMapper.writeValueAsBytes(Collections.singletonMap("templates", templateList));
+            composition = ("{\"meta\":{\"href\":\"https://cdr/rest/v1/composition/8c5d8f0e-30ae-4a2a-9a61-bd1cc0ae3e2d::c4h::1\"},"
+                + "\"action\":\"CREATE\",\"compositionUid\":\"8c5d8f0e-30ae-4a2a-9a61-bd1cc0ae3e2d::c4h::1\"}")
+                .getBytes(StandardCharsets.UTF_8);
+
+            patient = new Patient();
+            patient.setTitle("Mr");
+            patient.setForename("Ivor");
+            patient.setSurname("Cox");
+            patient.setGender("male");
+            patient.setAddress1("6948 Et St.");
+            patient.setAddress2("Halesowen");
+            patient.setAddress3("Worcestershire");
+            patient.setNhsNumber("9999999000");
+            patient.setDateOfBirth(ZonedDateTime.of(1944, 6, 6, 0, 0, 0, 0, ZoneOffset.UTC));
+
+            PartyList partyList = new PartyList();
+            for (int i = 0; i < 20; i++) {
+                Party party = Party.of(patient);
+                party.setId(String.valueOf(1000 + i));
+                partyList.getParties().add(party);
+            }
+            parties = CdrJson.mapper().writeValueAsBytes(partyList);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public Set<String> readTemplatesAsMap(Bodies bodies) throws IOException {
+        Map response = bodies.legacyMapper.readValue(new ByteArrayInputStream(bodies.templates), Map.class);
+        Set<String> templateIds = new HashSet<>();
+        for (Object template : (List) response.get("templates")) {
+            templateIds.add(String.valueOf(((Map) template).get("templateId")));
+        }
+        return templateIds;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public Set<String> readTemplatesTyped(Bodies bodies) throws IOException {
+        TemplateList response = CdrJson.mapper().readValue(new ByteArrayInputStream(bodies.templates), TemplateList.class);
+        Set<String> templateIds = new HashSet<>();
+        for (TemplateList.Template template : response.getTemplates()) {
+            templateIds.add(template.getTemplateId());
+        }
+        return templateIds;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public String readCompositionAsMap(Bodies bodies) throws IOException {
+        Map response = bodies.legacyMapper.readValue(new ByteArrayInputStream(bodies.composition), Map.class);
+        return response.get("compositionUid").toString();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public String readCompositionTyped(Bodies bodies) throws IOException {
+        return CdrJson.mapper().readValue(new ByteArrayInputStream(bodies.composition), CompositionResponse.class).getCompositionUid();
+    }
+
+    /**
+     * The party query as it was: the response read into a String, then parsed again
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public String readPartiesAsString(Bodies bodies) throws Exception {
+        String body = new String(bodies.parties, StandardCharsets.UTF_8);
+        return new JSONObject(body).getJSONArray("parties").getJSONObject(0).getString("id");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public String readPartiesTyped(Bodies bodies) throws IOException {
+        return CdrJson.mapper().readValue(new ByteArrayInputStream(bodies.parties), PartyList.class).getParties().get(0).getId();
+    }
+
+    /**
+     * The party body as it was: a map written to a String by a mapper without the java time module
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public void writePartyAsMap(Bodies bodies, Blackhole blackhole) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        out.write(bodies.legacyMapper.writeValueAsString(partyMap(bodies.patient)).getBytes(StandardCharsets.UTF_8));
+        blackhole.consume(out);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public void writePartyTyped(Bodies bodies, Blackhole blackhole) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        CdrJson.mapper().writeValue(out, Party.of(bodies.patient));
+        blackhole.consume(out);
+    }
+
+    private static Map<String, Object> partyMap(Patient patient) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("dateOfBirth", patient.getDateOfBirth());
+        map.put("firstNames", patient.getForename());
+        map.put("gender", patient.getGender().toUpperCase());
+        map.put("lastNames", patient.getSurname());
+        map.put("version", 1);
+        Map<String, Object> addressMap = new HashMap<>();
+        addressMap.put("address", patient.getAddress1().concat(" ").concat(patient.getAddress2()).concat(" ").concat(patient.getAddress3()));
+        addressMap.put("version", 1);
+        map.put("address", addressMap);
+        Map<String, Object> titleMap = new HashMap<>();
+        titleMap.put("key", "title");
+        titleMap.put("value", patient.getTitle());
+        titleMap.put("version", 1);
+        Map<String, Object> nhsNumberMap = new HashMap<>();
+        nhsNumberMap.put("key", "uk.nhs.nhs_number");
+        nhsNumberMap.put("value", patient.getNhsNumber());
+        nhsNumberMap.put("version", 1);
+        map.put("partyAdditionalInfo", Arrays.asList(titleMap, nhsNumberMap));
+        return map;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(CdrJsonBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
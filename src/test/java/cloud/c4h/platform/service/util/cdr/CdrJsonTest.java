@@ -0,0 +1,57 @@
+package cloud.c4h.platform.service.util.cdr;
+
+import cloud.c4h.platform.domain.Patient;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Test;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CdrJsonTest {
+
+    @Test
+    public void writesPartyOfPatient() throws Exception {
+        Patient patient = new Patient();
+        patient.setTitle("Mr");
+        patient.setForename("Ivor");
+        patient.setSurname("Cox");
+        patient.setGender("male");
+        patient.setAddress1("6948 Et St.");
+        patient.setAddress2("Halesowen");
+        patient.setAddress3("Worcestershire");
+        patient.setNhsNumber("9999999000");
+        patient.setDateOfBirth(ZonedDateTime.of(1944, 6, 6, 0, 0, 0, 0, ZoneOffset.UTC));
+
+        JsonNode party = CdrJson.mapper().readTree(CdrJson.mapper().writeValueAsBytes(Party.of(patient)));
+
+        assertThat(party.has("id")).isFalse();
+        assertThat(party.path("dateOfBirth").asText()).isEqualTo("1944-06-06T00:00:00Z");
+        assertThat(party.path("gender").asText()).isEqualTo("MALE");
+        assertThat(party.path("address").path("address").asText()).isEqualTo("6948 Et St. Halesowen Worcestershire");
+        assertThat(party.path("partyAdditionalInfo").get(1).path("key").asText()).isEqualTo("uk.nhs.nhs_number");
+        assertThat(party.path("partyAdditionalInfo").get(1).path("value").asText()).isEqualTo("9999999000");
+    }
+
+    @Test
+    public void omitsUnchangedPasswordOfUser() throws Exception {
+        JsonNode created = CdrJson.mapper().valueToTree(new DomainUser("domain", "owner", "secret"));
+        JsonNode updated = CdrJson.mapper().valueToTree(new DomainUser("domain", "owner", null));
+
+        assertThat(created.path("password").asText()).isEqualTo("secret");
+        assertThat(updated.has("password")).isFalse();
+        assertThat(updated.path("roles").path("domain").get(0).asText()).isEqualTo("ROLE_ADMIN");
+        assertThat(updated.path("blocked").isBoolean()).isTrue();
+    }
+
+    @Test
+    public void readsResponsesWithUnknownFields() throws Exception {
+        EhrResponse ehr = CdrJson.mapper().readValue(
+            "{\"meta\":{\"href\":\"https://cdr/rest/v1/ehr/status/1234\",\"rel\":\"self\"},\"action\":\"CREATE\",\"ehrId\":\"1234\"}",
+            EhrResponse.class);
+
+        assertThat(ehr.getEhrId()).isEqualTo("1234");
+        assertThat(ehr.getMeta().lastHrefSegment()).isEqualTo("1234");
+    }
+}
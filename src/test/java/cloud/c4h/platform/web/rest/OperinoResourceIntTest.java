@@ -6,6 +6,8 @@ import cloud.c4h.platform.repository.OperinoRepository;
 import cloud.c4h.platform.repository.search.OperinoSearchRepository;
 import cloud.c4h.platform.service.OperinoComponentService;
 import cloud.c4h.platform.service.OperinoService;
+import cloud.c4h.platform.service.OperinoProvisioner;
+import cloud.c4h.platform.service.ProvisioningEventBus;
 import cloud.c4h.platform.web.rest.errors.ExceptionTranslator;
 import org.junit.Before;
 import org.junit.Test;
@@ -51,6 +53,10 @@ public class OperinoResourceIntTest {
     private OperinoService operinoService;
     @Autowired
     private OperinoComponentService operinoComponentService;
+    @Autowired
+    private ProvisioningEventBus provisioningEventBus;
+    @Autowired
+    private OperinoProvisioner operinoProvisioner;
 
     @Autowired
     private OperinoSearchRepository operinoSearchRepository;
@@ -74,7 +80,7 @@ public class OperinoResourceIntTest {
     @Before
     public void setup() {
         MockitoAnnotations.initMocks(this);
-        OperinoResource operinoResource = new OperinoResource(operinoService, operinoComponentService);
+        OperinoResource operinoResource = new OperinoResource(operinoService, operinoComponentService, provisioningEventBus, operinoProvisioner);
         this.restOperinoMockMvc = MockMvcBuilders.standaloneSetup(operinoResource)
             .setCustomArgumentResolvers(pageableArgumentResolver)
             .setControllerAdvice(exceptionTranslator)
@@ -144,6 +150,23 @@ public class OperinoResourceIntTest {
         assertThat(operinoList).hasSize(databaseSizeBeforeCreate);
     }
 
+    @Test
+    @Transactional
+    public void createOperinoWithTooManySyntheticPatients() throws Exception {
+        int databaseSizeBeforeCreate = operinoRepository.findAll().size();
+
+        // Only admins can ask for more synthetic patients than the configured maximum
+        operino.setSyntheticPatients(operinoProvisioner.getMaxSyntheticPatients() + 1);
+
+        restOperinoMockMvc.perform(post("/api/operinos")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(operino)))
+            .andExpect(status().isBadRequest());
+
+        List<Operino> operinoList = operinoRepository.findAll();
+        assertThat(operinoList).hasSize(databaseSizeBeforeCreate);
+    }
+
     @Test
     @Transactional
     public void checkNameIsRequired() throws Exception {
@@ -266,9 +289,11 @@ public class OperinoResourceIntTest {
         boolean operinoExistsInEs = operinoSearchRepository.exists(operino.getId());
         assertThat(operinoExistsInEs).isFalse();
 
-        // Validate the database is empty
+        // Validate the operino is kept until its domain is torn down, but pending deletion
         List<Operino> operinoList = operinoRepository.findAll();
-        assertThat(operinoList).hasSize(databaseSizeBeforeDelete - 1);
+        assertThat(operinoList).hasSize(databaseSizeBeforeDelete);
+        assertThat(operinoRepository.findOne(operino.getId()).getDeletionRequested()).isNotNull();
+        assertThat(operinoRepository.findOneByIdAndDeletionRequestedIsNull(operino.getId())).isNull();
     }
 
     @Test